@@ -31,6 +31,12 @@ public class RateLimitInterceptor implements HandlerInterceptor {
         // Select bucket based on endpoint
         if (uri.startsWith("/api/auth/login")) {
             bucket = rateLimitingService.resolveLoginBucket(clientIp);
+        } else if (uri.startsWith("/api/files/upload/sessions/") && "PUT".equals(request.getMethod())) {
+            // Chunks of a resumable upload
+            bucket = rateLimitingService.resolveTransferBucket(clientIp);
+        } else if (uri.startsWith("/api/files/stream")) {
+            // Media players fetch many small ranges while seeking
+            bucket = rateLimitingService.resolveTransferBucket(clientIp);
         } else if (uri.startsWith("/api/")) {
             // Rest of API
             bucket = rateLimitingService.resolveGeneralBucket(clientIp);
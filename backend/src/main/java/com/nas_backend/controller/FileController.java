@@ -1,33 +1,70 @@
 package com.nas_backend.controller;
 
 import com.nas_backend.service.AuthService;
+import com.nas_backend.service.MediaTokenService;
+import com.nas_backend.service.file.BulkImportService;
+import com.nas_backend.service.file.CopyService;
+import com.nas_backend.service.file.DeltaSyncService;
+import com.nas_backend.service.file.DirectoryVersionService;
+import com.nas_backend.service.file.FileDeliveryService;
 import com.nas_backend.service.file.FileService;
+import com.nas_backend.service.file.FolderArchiveService;
+import com.nas_backend.service.file.ThumbnailService;
+import com.nas_backend.service.file.UploadAdmissionService;
+import com.nas_backend.service.file.UploadSessionService;
+import com.nas_backend.service.file.media.MediaMetadataService;
 import com.nas_backend.service.system.EmailService;
+import com.nas_backend.exception.ConflictException;
 import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.exception.UploadRejectedException;
+import com.nas_backend.model.dto.BulkImportResponse;
+import com.nas_backend.model.dto.CopyJobStatus;
+import com.nas_backend.model.dto.DeltaSignature;
 import com.nas_backend.model.dto.FileInfo;
 import com.nas_backend.model.dto.FileOperationResponse;
+import com.nas_backend.model.dto.MediaFileInfo;
+import com.nas_backend.model.dto.UploadSessionStatus;
+import com.nas_backend.model.dto.request.CopyRequest;
 import com.nas_backend.model.dto.request.CreateFolderRequest;
+import com.nas_backend.model.dto.request.CreateUploadSessionRequest;
+import com.nas_backend.model.dto.request.DownloadSelectionRequest;
+import com.nas_backend.model.dto.request.InstantUploadRequest;
 import com.nas_backend.model.dto.request.MoveRequest;
 import com.nas_backend.model.dto.request.RestoreRequest;
+import com.nas_backend.model.entity.FileNode;
 import com.nas_backend.model.security.UserConfig;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import io.swagger.v3.oas.annotations.tags.*;
 import io.swagger.v3.oas.annotations.Operation;
 
+import javax.imageio.IIOException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/api/files")
@@ -37,12 +74,38 @@ public class FileController {
     private final FileService fileService;
     private final AuthService authService;
     private final EmailService emailService;
+    private final UploadSessionService uploadSessionService;
+    private final UploadAdmissionService uploadAdmissionService;
+    private final BulkImportService bulkImportService;
+    private final DeltaSyncService deltaSyncService;
+    private final CopyService copyService;
+    private final FolderArchiveService folderArchiveService;
+    private final FileDeliveryService fileDeliveryService;
+    private final DirectoryVersionService directoryVersionService;
+    private final ThumbnailService thumbnailService;
+    private final MediaMetadataService mediaMetadataService;
+    private final MediaTokenService mediaTokenService;
     private final Logger logger = LoggerFactory.getLogger(FileController.class);
 
-    public FileController(FileService fileService, AuthService authService, EmailService emailService) {
+    public FileController(FileService fileService, AuthService authService, EmailService emailService, UploadSessionService uploadSessionService,
+                          UploadAdmissionService uploadAdmissionService, BulkImportService bulkImportService, DeltaSyncService deltaSyncService,
+                          CopyService copyService, FolderArchiveService folderArchiveService, FileDeliveryService fileDeliveryService,
+                          DirectoryVersionService directoryVersionService, ThumbnailService thumbnailService,
+                          MediaMetadataService mediaMetadataService, MediaTokenService mediaTokenService) {
         this.fileService = fileService;
         this.authService = authService;
         this.emailService = emailService;
+        this.uploadSessionService = uploadSessionService;
+        this.uploadAdmissionService = uploadAdmissionService;
+        this.bulkImportService = bulkImportService;
+        this.deltaSyncService = deltaSyncService;
+        this.copyService = copyService;
+        this.folderArchiveService = folderArchiveService;
+        this.fileDeliveryService = fileDeliveryService;
+        this.directoryVersionService = directoryVersionService;
+        this.thumbnailService = thumbnailService;
+        this.mediaMetadataService = mediaMetadataService;
+        this.mediaTokenService = mediaTokenService;
     }
 
     private String requireValidUser(String authHeader) {
@@ -54,6 +117,19 @@ public class FileController {
         return user.getUsername();
     }
 
+    // Media URLs carry either the Authorization header or a media token (see MediaTokenService) covering the path,
+    // never the session token itself
+    private String requireMediaUser(String authHeader, String mediaToken, String path) {
+        if (authHeader != null || mediaToken == null) {
+            return requireValidUser(authHeader);
+        }
+        String username = mediaTokenService.userFor(mediaToken, path);
+        if (username == null) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid or expired media token");
+        }
+        return username;
+    }
+
     private void validatePathSafety(String path) {
         if (path != null && path.contains("..")) {
             logger.warn("Path traversal attempt detected: {}", path);
@@ -61,13 +137,47 @@ public class FileController {
         }
     }
 
+    private ResponseEntity<FileOperationResponse> uploadRejected(UploadRejectedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(new FileOperationResponse("Upload rejected: " + e.getMessage(), null));
+    }
+
+    // Status for IOExceptions of upload sessions, copy jobs and delta sync (ConflictException, not found, else 500)
+    private ResponseEntity<FileOperationResponse> operationError(String prefix, IOException e) {
+        HttpStatus status;
+        if (e instanceof ConflictException) {
+            status = HttpStatus.CONFLICT;
+        } else if (isNotFound(e)) {
+            status = HttpStatus.NOT_FOUND;
+        } else {
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+        }
+        return ResponseEntity.status(status).body(new FileOperationResponse(prefix + e.getMessage(), null));
+    }
+
+    // Not every IOException has a message (e.g. ClosedChannelException)
+    private static boolean isNotFound(IOException e) {
+        return e.getMessage() != null && e.getMessage().contains("not found");
+    }
+
+    private String archiveFormatOf(String contentType) {
+        if (contentType == null) return "tar";
+        String type = contentType.toLowerCase();
+        if (type.contains("zip")) return "zip";
+        if (type.contains("gzip")) return "tgz";
+        return "tar";
+    }
+
     // Endpoints
 
     @GetMapping("/list")
     @Operation(summary = "List files", description = "List files and folders at a given logical path")
     public ResponseEntity<List<FileInfo>> listFiles(
             @RequestHeader(name = "Authorization", required = false) String authHeader,
-            @RequestParam(name = "path", required = false, defaultValue = "") String path) {
+            @RequestParam(name = "path", required = false, defaultValue = "") String path,
+            @RequestParam(name = "thumbnails", required = false) Integer thumbnailSize,
+            WebRequest webRequest) {
 
         String username = requireValidUser(authHeader);
         validatePathSafety(path);
@@ -81,9 +191,22 @@ public class FileController {
             finalUserPath = Paths.get(username, path).toString().replace("\\", "/");
         }
 
+        // A client that still has the current listing gets 304 without the DB being asked (this also sets the ETag header)
+        String etag = directoryVersionService.etag(finalUserPath);
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+
         logger.info("Listing files for logical path: {}", finalUserPath);
         List<FileInfo> files = fileService.listFiles(finalUserPath);
-        return ResponseEntity.ok(files);
+
+        // Previews of the folder's images are made while the client renders the listing (not on 304, they exist by then)
+        if (thumbnailSize != null) {
+            thumbnailService.prefetch(finalUserPath, thumbnailService.sizeClassOf(thumbnailSize));
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache().cachePrivate()) // Always revalidated, never kept by shared caches
+                .body(files);
     }
 
     @GetMapping("/recent")
@@ -103,6 +226,7 @@ public class FileController {
         return ResponseEntity.ok(files);
     }
 
+    @SuppressWarnings("try") // The upload admission permit is only held, the body never touches it
     @PostMapping("/upload")
     @Operation(summary = "Upload file", description = "Upload a file to a specified logical path")
     public ResponseEntity<FileOperationResponse> upload(
@@ -114,9 +238,11 @@ public class FileController {
         validatePathSafety(path);
         String userPath = Paths.get(username, path).toString().replace("\\", "/");
 
-        try {
+        try (UploadAdmissionService.Permit ignored = uploadAdmissionService.acquire()) {
             FileOperationResponse response = fileService.uploadFile(userPath, file);
             return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (UploadRejectedException e) {
+            return uploadRejected(e);
         } catch (FileValidationException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Upload failed: " + e.getMessage(), null));
         } catch (IOException e) {
@@ -132,6 +258,222 @@ public class FileController {
         }
     }
 
+    @SuppressWarnings("try")
+    @PutMapping("/upload/stream")
+    @Operation(summary = "Stream file upload", description = "Upload a file sent as the raw request body, written straight to the storage drive without multipart spooling")
+    public ResponseEntity<FileOperationResponse> uploadStream(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestParam(name = "path") String path,
+            @RequestParam(name = "name") String name,
+            HttpServletRequest request) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(path);
+        validatePathSafety(name);
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        // Content-Length is optional (chunked transfer encoding), -1 means unknown
+        long contentLength = request.getContentLengthLong();
+
+        try (UploadAdmissionService.Permit ignored = uploadAdmissionService.acquire();
+             InputStream body = request.getInputStream()) {
+            FileOperationResponse response = fileService.uploadFileStream(userPath, name, request.getContentType(), contentLength, body);
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (UploadRejectedException e) {
+            return uploadRejected(e);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Upload failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            emailService.sendSystemErrorEmail(
+                "Streaming upload failed for user '" + username + "'.\n" +
+                "Target path: " + userPath + "\n" +
+                "Filename: " + name + "\n\n" +
+                "Error: " + e.getMessage(),
+                username
+            );
+
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new FileOperationResponse("Upload failed: " + e.getMessage(), null));
+        }
+    }
+
+    @SuppressWarnings("try")
+    @PostMapping("/upload/instant")
+    @Operation(summary = "Instant upload", description = "Create a file from content the user already stored (same SHA-256 and size) without sending the data, 404 means the file has to be uploaded")
+    public ResponseEntity<FileOperationResponse> instantUpload(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestBody InstantUploadRequest request) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(request.path());
+        validatePathSafety(request.fileName());
+        String path = request.path() != null ? request.path() : "";
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        // No data is sent, but a plain source file is still copied on the drive
+        try (UploadAdmissionService.Permit ignored = uploadAdmissionService.acquire()) {
+            FileOperationResponse response = fileService.instantUpload(userPath, request.fileName(), request.mimeType(), request.digest(), request.size());
+            if (response == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new FileOperationResponse("Content not available on the server, upload the file.", null));
+            }
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (UploadRejectedException e) {
+            return uploadRejected(e);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Instant upload failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            emailService.sendSystemErrorEmail(
+                "Instant upload failed for user '" + username + "'.\n" +
+                "Target path: " + userPath + "\n" +
+                "Filename: " + request.fileName() + "\n\n" +
+                "Error: " + e.getMessage(),
+                username
+            );
+
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new FileOperationResponse("Instant upload failed: " + e.getMessage(), null));
+        }
+    }
+
+    @SuppressWarnings("try")
+    @PutMapping("/upload/archive")
+    @Operation(summary = "Bulk upload archive", description = "Unpack a streamed tar, tar.gz or zip archive (raw request body) into the given folder")
+    public ResponseEntity<?> uploadArchive(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestParam(name = "path") String path,
+            @RequestParam(name = "format", required = false) String format,
+            HttpServletRequest request) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(path);
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        // Without an explicit format, go by the Content-Type (tar is the default)
+        String archiveFormat = format != null ? format.toLowerCase() : archiveFormatOf(request.getContentType());
+
+        // The whole archive is one writer, it holds a single upload slot
+        try (UploadAdmissionService.Permit ignored = uploadAdmissionService.acquire();
+             InputStream body = request.getInputStream()) {
+            BulkImportResponse response = bulkImportService.importArchive(userPath, archiveFormat, body);
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (UploadRejectedException e) {
+            return uploadRejected(e);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Archive upload failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            emailService.sendSystemErrorEmail(
+                "Archive upload failed for user '" + username + "'.\n" +
+                "Target path: " + userPath + "\n" +
+                "Format: " + archiveFormat + "\n\n" +
+                "Error: " + e.getMessage(),
+                username
+            );
+
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new FileOperationResponse("Archive upload failed: " + e.getMessage(), null));
+        }
+    }
+
+    @PostMapping("/upload/sessions")
+    @Operation(summary = "Create upload session", description = "Start a resumable upload, chunks can then be sent by offset (also in parallel)")
+    public ResponseEntity<?> createUploadSession(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestBody CreateUploadSessionRequest request) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(request.path());
+        validatePathSafety(request.fileName());
+        String path = request.path() != null ? request.path() : "";
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        try {
+            UploadSessionStatus status = uploadSessionService.createSession(username, userPath, request.fileName(), request.totalSize(), request.mimeType());
+            return ResponseEntity.status(HttpStatus.CREATED).body(status);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Upload session failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new FileOperationResponse("Upload session failed: " + e.getMessage(), null));
+        }
+    }
+
+    @SuppressWarnings("try")
+    @PutMapping("/upload/sessions/{sessionId}")
+    @Operation(summary = "Upload chunk", description = "Write the raw request body at the given offset of an upload session")
+    public ResponseEntity<?> uploadChunk(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @PathVariable(name = "sessionId") String sessionId,
+            @RequestParam(name = "offset") long offset,
+            HttpServletRequest request) {
+
+        String username = requireValidUser(authHeader);
+
+        try (UploadAdmissionService.Permit ignored = uploadAdmissionService.acquire();
+             InputStream body = request.getInputStream()) {
+            UploadSessionStatus status = uploadSessionService.writeChunk(username, sessionId, offset, request.getContentLengthLong(), body);
+            return ResponseEntity.ok(status);
+        } catch (UploadRejectedException e) {
+            return uploadRejected(e);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Chunk upload failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            return operationError("Chunk upload failed: ", e);
+        }
+    }
+
+    @GetMapping("/upload/sessions/{sessionId}")
+    @Operation(summary = "Get upload session", description = "Report received bytes and the ranges that are still missing")
+    public ResponseEntity<?> getUploadSession(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @PathVariable(name = "sessionId") String sessionId) {
+
+        String username = requireValidUser(authHeader);
+
+        try {
+            return ResponseEntity.ok(uploadSessionService.getStatus(username, sessionId));
+        } catch (IOException e) {
+            return operationError("Upload session lookup failed: ", e);
+        }
+    }
+
+    @PostMapping("/upload/sessions/{sessionId}/commit")
+    @Operation(summary = "Commit upload session", description = "Turn a fully received upload session into a file")
+    public ResponseEntity<?> commitUploadSession(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @PathVariable(name = "sessionId") String sessionId) {
+
+        String username = requireValidUser(authHeader);
+
+        try {
+            FileOperationResponse response = uploadSessionService.commit(username, sessionId);
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Commit failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            if (!(e instanceof ConflictException) && !isNotFound(e)) {
+                emailService.sendSystemErrorEmail(
+                    "Upload session commit failed for user '" + username + "'.\n" +
+                    "Session: " + sessionId + "\n\n" +
+                    "Error: " + e.getMessage(),
+                    username
+                );
+            }
+            return operationError("Commit failed: ", e);
+        }
+    }
+
+    @DeleteMapping("/upload/sessions/{sessionId}")
+    @Operation(summary = "Abort upload session", description = "Drop an upload session together with the data received so far")
+    public ResponseEntity<?> abortUploadSession(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @PathVariable(name = "sessionId") String sessionId) {
+
+        String username = requireValidUser(authHeader);
+
+        try {
+            uploadSessionService.abort(username, sessionId);
+            return ResponseEntity.noContent().build();
+        } catch (IOException e) {
+            return operationError("Abort failed: ", e);
+        }
+    }
+
     @PostMapping("/folders/create")
     @Operation(summary = "Create folder", description = "Create a new folder at a specified logical path")
     public ResponseEntity<FileOperationResponse> createFolder(
@@ -205,6 +547,56 @@ public class FileController {
         }
     }
 
+    @PostMapping("/copy")
+    @Operation(summary = "Copy resource", description = "Copy a file or folder on the server (runs in the background, poll the returned job for progress)")
+    public ResponseEntity<?> copyResource(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestBody CopyRequest copyRequest) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(copyRequest.fromPath());
+        validatePathSafety(copyRequest.toPath());
+
+        if (copyRequest.fromPath() == null || copyRequest.toPath() == null || copyRequest.fromPath().isEmpty() || copyRequest.toPath().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new FileOperationResponse("Invalid paths specified. Paths cannot be empty or contain '..'.", null));
+        }
+
+        String userFromPath = Paths.get(username, copyRequest.fromPath()).toString().replace("\\", "/");
+        String userToPath = Paths.get(username, copyRequest.toPath()).toString().replace("\\", "/");
+
+        // Same gatekeeper as for moves
+        String trashPrefix = username + "/trash";
+        if (userFromPath.startsWith(trashPrefix) || userToPath.startsWith(trashPrefix)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(new FileOperationResponse("Copy operations are not allowed on items in the trash. Please restore the item first.", null));
+        }
+
+        try {
+            CopyJobStatus status = copyService.startCopy(username, userFromPath, userToPath);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Copy failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            return operationError("Copy failed: ", e);
+        }
+    }
+
+    @GetMapping("/copy/{jobId}")
+    @Operation(summary = "Copy progress", description = "State and progress of a server side copy")
+    public ResponseEntity<?> getCopyStatus(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @PathVariable(name = "jobId") String jobId) {
+
+        String username = requireValidUser(authHeader);
+
+        try {
+            return ResponseEntity.ok(copyService.getStatus(username, jobId));
+        } catch (IOException e) {
+            return operationError("Copy status failed: ", e);
+        }
+    }
+
     @DeleteMapping("/delete")
     @Operation(summary = "Delete resource", description = "Delete a file or folder at a specified logical path, with option for permanent deletion")
     public ResponseEntity<FileOperationResponse> deleteFile(
@@ -279,25 +671,296 @@ public class FileController {
         }
     }
 
+    @GetMapping("/delta/signature")
+    @Operation(summary = "Get block signatures", description = "Rolling and strong checksums of every block of a stored file, the base for a delta update")
+    public ResponseEntity<?> getDeltaSignature(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestParam(name = "path") String path,
+            @RequestParam(name = "blockSize", required = false) Integer blockSize) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(path);
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        try {
+            DeltaSignature signature = deltaSyncService.signature(userPath, blockSize);
+            return ResponseEntity.ok(signature);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Signature failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            return operationError("Signature failed: ", e);
+        }
+    }
+
+    @SuppressWarnings("try")
+    @PutMapping("/delta")
+    @Operation(summary = "Apply delta update", description = "Rebuild a stored file from a delta (raw request body: copy instructions and changed data) and replace its content in place")
+    public ResponseEntity<FileOperationResponse> applyDelta(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestParam(name = "path") String path,
+            @RequestParam(name = "baseVersion") String baseVersion,
+            @RequestParam(name = "blockSize") int blockSize,
+            @RequestParam(name = "digest", required = false) String digest,
+            HttpServletRequest request) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(path);
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        try (UploadAdmissionService.Permit ignored = uploadAdmissionService.acquire();
+             InputStream body = request.getInputStream()) {
+            FileOperationResponse response = deltaSyncService.applyDelta(userPath, baseVersion, blockSize, digest, body);
+            return ResponseEntity.ok(response);
+        } catch (UploadRejectedException e) {
+            return uploadRejected(e);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Delta update failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            return operationError("Delta update failed: ", e);
+        }
+    }
+
     @GetMapping("/download")
-    @Operation(summary = "Download file", description = "Download a file from a specified logical path, also applies to folders (zipped)")
+    @Operation(summary = "Download file", description = "Download a file from a specified logical path (single and multiple byte ranges "
+            + "supported), also applies to folders (format=zip, or format=tar for an uncompressed archive with a known length that supports Range requests)")
     public ResponseEntity<?> download(@RequestHeader(name = "Authorization", required = false) String authHeader,
-            @RequestParam(name = "path") String path) {
+            @RequestParam(name = "path") String path,
+            @RequestParam(name = "format", defaultValue = "zip") String format,
+            @RequestHeader(name = HttpHeaders.RANGE, required = false) String rangeHeader,
+            @RequestHeader(name = HttpHeaders.IF_RANGE, required = false) String ifRangeHeader,
+            HttpServletRequest request, HttpServletResponse response) {
                 
         String username = requireValidUser(authHeader);
         validatePathSafety(path);
         String userPath = Paths.get(username, path).toString().replace("\\", "/");
 
         try {
-            Resource resource = fileService.getResource(userPath);
             String filename = Paths.get(userPath).getFileName().toString();
 
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(resource);
+            if (fileService.isDirectory(userPath)) {
+                if (format.equalsIgnoreCase("tar")) {
+                    return downloadFolderAsTar(userPath, filename, rangeHeader, ifRangeHeader);
+                }
+
+                // Zipped while it is sent, the response has no length up front
+                StreamingResponseBody archive = out -> folderArchiveService.writeZip(userPath, out);
+                return ResponseEntity.ok()
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + ".zip\"")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .body(archive);
+            }
+
+            // Written straight to the response, nothing left for Spring to do
+            fileDeliveryService.send(userPath, false, request, response);
+            return null;
+        } catch (IOException e) {
+            return notFoundUnlessCommitted(e, response);
+        }
+    }
+
+    @PostMapping("/download/selection")
+    @Operation(summary = "Download selection", description = "Download several files and folders (paths from anywhere in the user's space) "
+            + "as one archive, tar (default, with a Content-Length) or zip")
+    public ResponseEntity<?> downloadSelection(@RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestBody DownloadSelectionRequest selectionRequest, HttpServletResponse response) {
+
+        String username = requireValidUser(authHeader);
+        if (selectionRequest.paths() == null || selectionRequest.paths().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("No paths selected.", null));
+        }
+
+        List<String> userPaths = new ArrayList<>();
+        for (String path : selectionRequest.paths()) {
+            validatePathSafety(path);
+            if (path == null || path.isEmpty() || path.equals("/")) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Invalid path in selection: paths cannot be empty.", null));
+            }
+            userPaths.add(Paths.get(username, path).toString().replace("\\", "/"));
+        }
+        boolean zip = "zip".equalsIgnoreCase(selectionRequest.format());
+
+        try {
+            FolderArchiveService.Selection selection = folderArchiveService.planSelection(userPaths);
+            StreamingResponseBody archive = out -> folderArchiveService.writeSelection(username, selection, zip, out);
+
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"selection." + (zip ? "zip" : "tar") + "\"");
+            if (zip) {
+                builder.contentType(MediaType.APPLICATION_OCTET_STREAM); // Compressed while it is sent, no length up front
+            } else {
+                builder.contentType(MediaType.parseMediaType("application/x-tar")).contentLength(selection.tarLength());
+            }
+            return builder.body(archive);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Download failed: " + e.getMessage(), null));
+        } catch (IOException e) {
+            return notFoundUnlessCommitted(e, response);
+        }
+    }
+
+    @PostMapping("/media-token")
+    @Operation(summary = "Get media token", description = "A short-lived token for the stream and thumbnail URLs of a file, or of a folder and "
+            + "everything below it (an empty path covers all of the user's files). Pass it as the token query parameter.")
+    public Map<String, Object> mediaToken(
+            @RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestParam(name = "path", required = false, defaultValue = "") String path) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(path);
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        return Map.of("token", mediaTokenService.issue(userPath), "expiresIn", MediaTokenService.MEDIA_TOKEN_TTL_SECONDS);
+    }
+
+    @GetMapping("/stream")
+    @Operation(summary = "Stream file", description = "Serve a file inline with its own content type for media players and viewers, with Range support. "
+            + "Players that cannot send headers pass a media token (POST /media-token) as a query parameter.")
+    public ResponseEntity<?> stream(@RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestParam(name = "token", required = false) String token,
+            @RequestParam(name = "path") String path,
+            HttpServletRequest request, HttpServletResponse response) {
+
+        validatePathSafety(path);
+        String username = requireMediaUser(authHeader, token, path);
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        try {
+            fileDeliveryService.send(userPath, true, request, response);
+            return null;
+        } catch (IOException e) {
+            return notFoundUnlessCommitted(e, response);
+        }
+    }
+
+    @GetMapping("/thumbnail")
+    @Operation(summary = "Get thumbnail", description = "A downscaled JPEG preview of an image (size: longer edge in pixels, rounded up to "
+            + "128, 256, 512 or 1024). Image tags that cannot send headers pass a media token (POST /media-token) as a query parameter.")
+    public ResponseEntity<?> thumbnail(@RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestParam(name = "token", required = false) String token,
+            @RequestParam(name = "path") String path,
+            @RequestParam(name = "size", required = false) Integer size,
+            WebRequest webRequest) {
+
+        validatePathSafety(path);
+        String username = requireMediaUser(authHeader, token, path);
+        String userPath = Paths.get(username, path).toString().replace("\\", "/");
+
+        FileNode node;
+        try {
+            node = fileService.getFileForDownload(userPath);
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new FileOperationResponse(e.getMessage(), null));
         }
+
+        // The file exists from here on: one that cannot be previewed is 422, a failing drive or disk 500
+        try {
+            int sizeClass = thumbnailService.sizeClassOf(size);
+
+            // A preview the client already has costs one index lookup (this also sets the ETag header)
+            if (webRequest.checkNotModified(thumbnailService.etag(node, sizeClass))) {
+                return null;
+            }
+
+            Path thumbnail = thumbnailService.getThumbnail(node, sizeClass);
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .body(new FileSystemResource(thumbnail));
+        } catch (FileValidationException | IIOException e) {
+            // Not an image, too large, or data the decoder cannot make sense of
+            return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(new FileOperationResponse("Thumbnail failed: " + e.getMessage(), null));
+        } catch (TimeoutException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(new FileOperationResponse("Thumbnail failed: Still being made, try again shortly.", null));
+        } catch (IOException e) {
+            logger.error("Thumbnail of {} failed: {}", userPath, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new FileOperationResponse("Thumbnail failed: " + e.getMessage(), null));
+        }
+    }
+
+    @GetMapping("/media")
+    @Operation(summary = "List media by capture time", description = "Photos, videos and music below a folder, newest first by the time "
+            + "they were taken (upload time for files without one). from and to are days (yyyy-MM-dd), both included.")
+    public ResponseEntity<?> listMedia(@RequestHeader(name = "Authorization", required = false) String authHeader,
+            @RequestParam(name = "path", required = false) String path,
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(name = "page", defaultValue = "0") int page,
+            @RequestParam(name = "limit", defaultValue = "100") int limit) {
+
+        String username = requireValidUser(authHeader);
+        validatePathSafety(path);
+        String userPath = username;
+        if (path != null && !path.isEmpty() && !path.equals("/")) {
+            userPath = Paths.get(username, path.startsWith("/") ? path.substring(1) : path).toString().replace("\\", "/");
+        }
+
+        try {
+            List<MediaFileInfo> files = mediaMetadataService.listTimeline(userPath, from, to, page, limit);
+            return ResponseEntity.ok(files);
+        } catch (FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new FileOperationResponse("Media listing failed: " + e.getMessage(), null));
+        }
+    }
+
+    // Helper methods
+
+    // Once data went out the status cannot change anymore, the broken off response is all the client gets
+    private ResponseEntity<?> notFoundUnlessCommitted(IOException e, HttpServletResponse response) {
+        if (response.isCommitted()) {
+            logger.warn("Transfer broken off: {}", e.getMessage());
+            return null;
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new FileOperationResponse(e.getMessage(), null));
+    }
+
+    // The tar layout is computed first, so the response has a Content-Length and a resumed download gets just its missing part
+    private ResponseEntity<?> downloadFolderAsTar(String userPath, String filename, String rangeHeader, String ifRangeHeader) throws IOException {
+        FolderArchiveService.TarPlan plan = folderArchiveService.planTar(userPath);
+        long length = plan.length();
+        long from = 0;
+        long to = length;
+
+        // A Range is only honoured for the same archive (If-Range carries the ETag of the first response), several ranges are not
+        boolean partial = false;
+        if (rangeHeader != null && (ifRangeHeader == null || ifRangeHeader.equals(plan.etag()))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of(); // Malformed, answered with the whole archive
+            }
+            if (ranges.size() == 1) {
+                try {
+                    from = ranges.get(0).getRangeStart(length);
+                    to = ranges.get(0).getRangeEnd(length) + 1;
+                } catch (IllegalArgumentException e) {
+                    from = length; // Unsatisfiable below
+                }
+                // Starts at or beyond the end (HttpRange clamps the end only), or an empty archive
+                if (from >= length || to <= from) {
+                    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                            .build();
+                }
+                partial = true;
+            }
+        }
+
+        long start = from;
+        long end = to;
+        StreamingResponseBody archive = out -> folderArchiveService.writeTar(userPath, plan, start, end, out);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(partial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + ".tar\"")
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .eTag(plan.etag())
+                .contentType(MediaType.parseMediaType("application/x-tar"))
+                .contentLength(to - from);
+        if (partial) {
+            response.header(HttpHeaders.CONTENT_RANGE, "bytes " + from + "-" + (to - 1) + "/" + length);
+        }
+        return response.body(archive);
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,25 @@
 package com.nas_backend.controller;
 
+import com.nas_backend.exception.ConflictException;
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.DeduplicationStatus;
+import com.nas_backend.model.dto.BlockCacheStats;
+import com.nas_backend.model.dto.DurabilityStats;
+import com.nas_backend.model.dto.ProcessingStageStats;
+import com.nas_backend.model.dto.ReadAheadStats;
 import com.nas_backend.model.dto.SystemStatsResponse;
+import com.nas_backend.model.dto.ThumbnailStats;
+import com.nas_backend.model.dto.UploadQueueStats;
 import com.nas_backend.model.security.UserConfig;
 import com.nas_backend.service.AuthService;
+import com.nas_backend.service.file.ThumbnailService;
+import com.nas_backend.service.file.UploadAdmissionService;
+import com.nas_backend.service.file.processing.ProcessingPipelineService;
+import com.nas_backend.service.file.storage.ContentMigrationService;
+import com.nas_backend.service.file.storage.BlockCacheService;
+import com.nas_backend.service.file.storage.DurabilityService;
+import com.nas_backend.service.file.storage.ReadAheadService;
+import com.nas_backend.service.file.storage.StorageBenchmarkService;
 import com.nas_backend.service.system.BackupService;
 import com.nas_backend.service.system.LogService;
 import com.nas_backend.service.system.SystemAdminService;
@@ -14,12 +31,14 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
 import io.swagger.v3.oas.annotations.tags.*;
 import io.swagger.v3.oas.annotations.Operation;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -33,14 +52,32 @@ public class SystemController {
     private final SystemAdminService systemAdminService;
     private final LogService logService;
     private final BackupService backupService;
+    private final UploadAdmissionService uploadAdmissionService;
+    private final ContentMigrationService contentMigrationService;
+    private final StorageBenchmarkService storageBenchmarkService;
+    private final DurabilityService durabilityService;
+    private final BlockCacheService blockCacheService;
+    private final ReadAheadService readAheadService;
+    private final ThumbnailService thumbnailService;
+    private final ProcessingPipelineService processingPipelineService;
 
     public SystemController(SystemStatsService systemStatsService, AuthService authService, SystemAdminService systemAdminService, LogService logService,
-                            BackupService backupService) {
+                            BackupService backupService, UploadAdmissionService uploadAdmissionService, ContentMigrationService contentMigrationService,
+                            StorageBenchmarkService storageBenchmarkService, DurabilityService durabilityService, BlockCacheService blockCacheService,
+                            ReadAheadService readAheadService, ThumbnailService thumbnailService, ProcessingPipelineService processingPipelineService) {
         this.systemStatsService = systemStatsService;
         this.authService = authService;
         this.systemAdminService = systemAdminService;
         this.logService = logService;
         this.backupService = backupService;
+        this.uploadAdmissionService = uploadAdmissionService;
+        this.contentMigrationService = contentMigrationService;
+        this.storageBenchmarkService = storageBenchmarkService;
+        this.durabilityService = durabilityService;
+        this.blockCacheService = blockCacheService;
+        this.readAheadService = readAheadService;
+        this.thumbnailService = thumbnailService;
+        this.processingPipelineService = processingPipelineService;
     }
 
     private String requireValidUser(String authHeader) {
@@ -64,6 +101,89 @@ public class SystemController {
         return ResponseEntity.ok(stats);
     }
 
+    @GetMapping("/uploads/queue")
+    @Operation(summary = "Get upload queue statistics", description = "Retrieve active and queued uploads, rejections and queue wait times")
+    public ResponseEntity<UploadQueueStats> getUploadQueueStats(@RequestHeader(name = "Authorization", required = false) String authHeader) {
+        requireValidUser(authHeader);
+        return ResponseEntity.ok(uploadAdmissionService.getStats());
+    }
+
+    @PostMapping("/storage/deduplicate")
+    @Operation(summary = "Deduplicate existing files", description = "Start a background job that stores identical files only once")
+    public ResponseEntity<?> startDeduplication(@RequestHeader(name = "Authorization", required = false) String authHeader) {
+        requireValidUser(authHeader);
+
+        if (contentMigrationService.isRunning()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(contentMigrationService.getStatus());
+        }
+
+        contentMigrationService.deduplicateExistingFiles();
+        return ResponseEntity.accepted().body(Map.of("message", "Deduplication started. Check its status for progress."));
+    }
+
+    @GetMapping("/storage/deduplicate")
+    @Operation(summary = "Get deduplication status", description = "Progress and results of the deduplication job")
+    public ResponseEntity<DeduplicationStatus> getDeduplicationStatus(@RequestHeader(name = "Authorization", required = false) String authHeader) {
+        requireValidUser(authHeader);
+        return ResponseEntity.ok(contentMigrationService.getStatus());
+    }
+
+    @PostMapping("/storage/benchmark")
+    @Operation(summary = "Benchmark encryption at rest", description = "Write and read sizeMB of data plain and encrypted, report the MB/s of both")
+    public ResponseEntity<?> runStorageBenchmark(@RequestHeader(name = "Authorization", required = false) String authHeader,
+                                                 @RequestParam(defaultValue = "256") int sizeMB) {
+        requireValidUser(authHeader);
+
+        if (storageBenchmarkService.isRunning()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("message", "A benchmark is already running."));
+        }
+
+        try {
+            return ResponseEntity.ok(storageBenchmarkService.run(sizeMB));
+        } catch (FileValidationException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (IOException e) {
+            HttpStatus status = e instanceof ConflictException ? HttpStatus.CONFLICT : HttpStatus.INTERNAL_SERVER_ERROR;
+            return ResponseEntity.status(status).body(Map.of("message", "Benchmark failed: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/storage/durability")
+    @Operation(summary = "Get durability stats", description = "Durability mode, fsync counts and latencies, group flushes and swept staging files")
+    public ResponseEntity<DurabilityStats> getDurabilityStats(@RequestHeader(name = "Authorization", required = false) String authHeader) {
+        requireValidUser(authHeader);
+        return ResponseEntity.ok(durabilityService.getStats());
+    }
+
+    @GetMapping("/storage/block-cache")
+    @Operation(summary = "Get block cache stats", description = "Capacity and use of the off-heap block cache, hits, misses, evictions and rejected admissions")
+    public ResponseEntity<BlockCacheStats> getBlockCacheStats(@RequestHeader(name = "Authorization", required = false) String authHeader) {
+        requireValidUser(authHeader);
+        return ResponseEntity.ok(blockCacheService.getStats());
+    }
+
+    @GetMapping("/storage/read-ahead")
+    @Operation(summary = "Get read-ahead stats", description = "Sequential and random range requests, bytes read ahead, served from buffers and wasted")
+    public ResponseEntity<ReadAheadStats> getReadAheadStats(@RequestHeader(name = "Authorization", required = false) String authHeader) {
+        requireValidUser(authHeader);
+        return ResponseEntity.ok(readAheadService.getStats());
+    }
+
+    @GetMapping("/storage/thumbnails")
+    @Operation(summary = "Get thumbnail stats", description = "Previews sent from the cache, made, shared between requests, failed and queued ahead of time")
+    public ResponseEntity<ThumbnailStats> getThumbnailStats(@RequestHeader(name = "Authorization", required = false) String authHeader) {
+        requireValidUser(authHeader);
+        return ResponseEntity.ok(thumbnailService.getStats());
+    }
+
+    @GetMapping("/processing")
+    @Operation(summary = "Get processing pipeline stats", description = "Per stage of the post-upload pipeline: backlog, queued and running tasks, "
+            + "processed, skipped, retried and failed files, average time per file")
+    public ResponseEntity<List<ProcessingStageStats>> getProcessingStats(@RequestHeader(name = "Authorization", required = false) String authHeader) {
+        requireValidUser(authHeader);
+        return ResponseEntity.ok(processingPipelineService.getStats());
+    }
+
     @PostMapping("/reboot")
     @Operation(summary = "Reboot system", description = "Reboot the entire system")
     public ResponseEntity<?> rebootSystem(@RequestHeader(name = "Authorization", required = false) String authHeader) {
@@ -0,0 +1,14 @@
+package com.nas_backend.exception;
+
+import java.io.IOException;
+
+// The request clashes with the current state (another operation on the same data is running, the data changed
+// since the client looked at it...), answered with 409 CONFLICT. Trying again later may work.
+public class ConflictException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ConflictException(String message) {
+        super(message);
+    }
+}
@@ -5,6 +5,8 @@ import java.io.IOException;
 // Custom exception for file validation errors
 public class FileValidationException extends IOException {
 
+    private static final long serialVersionUID = 1L;
+
     public FileValidationException(String message) {
         super(message);
     }
@@ -0,0 +1,20 @@
+package com.nas_backend.exception;
+
+import java.io.IOException;
+
+// Thrown when the upload admission queue cannot take another writer right now
+public class UploadRejectedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public UploadRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -5,6 +5,8 @@ public class ServerConfig {
     private long tokenTTL;
     private int maxUploadSizeMB;
     private int maxConcurrentUploads;
+    private int uploadQueueSize;
+    private int uploadQueueTimeoutSeconds;
     private boolean enableEmailNotifications;
     private String adminEmail;
 
@@ -30,6 +32,14 @@ public class ServerConfig {
         return maxConcurrentUploads;
     }
 
+    public int getUploadQueueSize() {
+        return uploadQueueSize;
+    }
+
+    public int getUploadQueueTimeoutSeconds() {
+        return uploadQueueTimeoutSeconds;
+    }
+
     public boolean isEnableEmailNotifications() {
         return enableEmailNotifications;
     }
@@ -56,6 +66,14 @@ public class ServerConfig {
         this.maxConcurrentUploads = maxConcurrentUploads;
     }
 
+    public void setUploadQueueSize(int uploadQueueSize) {
+        this.uploadQueueSize = uploadQueueSize;
+    }
+
+    public void setUploadQueueTimeoutSeconds(int uploadQueueTimeoutSeconds) {
+        this.uploadQueueTimeoutSeconds = uploadQueueTimeoutSeconds;
+    }
+
     public void setEnableEmailNotifications(boolean enableEmailNotifications) {
         this.enableEmailNotifications = enableEmailNotifications;
     }
@@ -5,6 +5,17 @@ import java.util.List;
 public class StorageConfig {
     private List<String> paths;
     private int quotaGB;
+    private boolean deduplication; // Store identical content only once (content-addressed blobs)
+    private boolean packSmallFiles; // Append small files into big per-drive pack files instead of one file each
+    private int packThresholdKB; // Files up to this size are packed (0 = default)
+    private int packFileSizeMB; // A pack file is closed when it reaches this size (0 = default)
+    private boolean compression; // Compress compressible uploads at rest (block-wise, so range reads stay cheap)
+    private boolean encryption; // Encrypt new files at rest (AES-256-GCM, key in the config directory)
+    private String durability; // fast, balanced or strict (see DurabilityService, null = balanced)
+    private int durabilityGroupMs; // Balanced mode: fsync interval (0 = default)
+    private int blockCacheMB; // Off-heap cache of hot file blocks (0 = default, negative = off)
+    private int readAheadMB; // Off-heap buffers for reading ahead of sequential range requests (0 = default, negative = off)
+    private int variantCacheMB; // Gzip/deflate variants of often downloaded text files, kept on the first drive (0 = default, negative = off)
 
     // Empty constructor is required by Jackson
     public StorageConfig() {
@@ -19,6 +30,50 @@ public class StorageConfig {
         return quotaGB;
     }
 
+    public boolean isDeduplication() {
+        return deduplication;
+    }
+
+    public boolean isPackSmallFiles() {
+        return packSmallFiles;
+    }
+
+    public int getPackThresholdKB() {
+        return packThresholdKB;
+    }
+
+    public int getPackFileSizeMB() {
+        return packFileSizeMB;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public boolean isEncryption() {
+        return encryption;
+    }
+
+    public String getDurability() {
+        return durability;
+    }
+
+    public int getDurabilityGroupMs() {
+        return durabilityGroupMs;
+    }
+
+    public int getBlockCacheMB() {
+        return blockCacheMB;
+    }
+
+    public int getReadAheadMB() {
+        return readAheadMB;
+    }
+
+    public int getVariantCacheMB() {
+        return variantCacheMB;
+    }
+
     // Setters
 
     public void setPaths(List<String> paths) {
@@ -28,4 +83,48 @@ public class StorageConfig {
     public void setQuotaGB(int quotaGB) {
         this.quotaGB = quotaGB;
     }
+
+    public void setDeduplication(boolean deduplication) {
+        this.deduplication = deduplication;
+    }
+
+    public void setPackSmallFiles(boolean packSmallFiles) {
+        this.packSmallFiles = packSmallFiles;
+    }
+
+    public void setPackThresholdKB(int packThresholdKB) {
+        this.packThresholdKB = packThresholdKB;
+    }
+
+    public void setPackFileSizeMB(int packFileSizeMB) {
+        this.packFileSizeMB = packFileSizeMB;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public void setEncryption(boolean encryption) {
+        this.encryption = encryption;
+    }
+
+    public void setDurability(String durability) {
+        this.durability = durability;
+    }
+
+    public void setDurabilityGroupMs(int durabilityGroupMs) {
+        this.durabilityGroupMs = durabilityGroupMs;
+    }
+
+    public void setBlockCacheMB(int blockCacheMB) {
+        this.blockCacheMB = blockCacheMB;
+    }
+
+    public void setReadAheadMB(int readAheadMB) {
+        this.readAheadMB = readAheadMB;
+    }
+
+    public void setVariantCacheMB(int variantCacheMB) {
+        this.variantCacheMB = variantCacheMB;
+    }
 }
\ No newline at end of file
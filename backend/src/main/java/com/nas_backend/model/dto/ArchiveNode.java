@@ -0,0 +1,14 @@
+package com.nas_backend.model.dto;
+
+import java.time.Instant;
+
+// The few columns of a file node an archive needs, read as a plain record instead of a managed entity
+public record ArchiveNode(
+        String logicalPath,
+        boolean isDirectory,
+        String physicalPath,
+        String storageFormat,
+        String mimeType,
+        long size,
+        Instant modifiedAt
+) {}
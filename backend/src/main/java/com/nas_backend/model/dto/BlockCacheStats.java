@@ -0,0 +1,16 @@
+package com.nas_backend.model.dto;
+
+// How well the block cache serves repeated downloads
+public record BlockCacheStats(
+    long capacityBytes,
+    long usedBytes,
+    long offHeapBytes, // Direct buffers allocated, cached or free for reuse
+    long blocks,
+    long hits, // Blocks served from memory
+    long misses, // Blocks read from disk
+    double hitRatio,
+    long evictions, // Cached blocks replaced by more frequently asked ones
+    long rejections, // Blocks not admitted, asked for less often than what they would replace
+    long invalidations, // Blocks dropped because their data was deleted or replaced
+    long directTransfers // Transfers of files not (yet) hot, sent without the cache
+) {}
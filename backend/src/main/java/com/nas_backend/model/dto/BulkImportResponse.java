@@ -0,0 +1,13 @@
+package com.nas_backend.model.dto;
+
+import java.util.List;
+
+public record BulkImportResponse(
+        String message,
+        FileInfo folder,
+        int filesImported,
+        int foldersCreated,
+        int entriesSkipped,
+        List<String> skippedEntries,
+        long bytesWritten,
+        long durationMs) {}
@@ -0,0 +1,4 @@
+package com.nas_backend.model.dto;
+
+// Inclusive byte range, the same convention as HTTP Range/Content-Range headers
+public record ByteRange(long start, long end) {}
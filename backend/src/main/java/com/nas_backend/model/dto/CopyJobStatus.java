@@ -0,0 +1,17 @@
+package com.nas_backend.model.dto;
+
+// Progress of a server side copy of a file or folder
+public record CopyJobStatus(
+    String jobId,
+    String sourcePath,
+    String targetPath, // Final path of the copy (renamed when the requested one was taken)
+    String state, // RUNNING, COMPLETED or FAILED
+    long totalFiles,
+    long copiedFiles,
+    long failedFiles,
+    long totalBytes,
+    long copiedBytes,
+    String startedAt,
+    String finishedAt,
+    String lastError
+) {}
@@ -0,0 +1,15 @@
+package com.nas_backend.model.dto;
+
+// Progress of the job that deduplicates files stored before deduplication was switched on
+public record DeduplicationStatus(
+    boolean running,
+    String startedAt,
+    String finishedAt,
+    long filesScanned,
+    long filesAlreadyShared, // Already pointing at a blob, nothing to do
+    long bytesHashed,
+    long duplicatesRemoved,
+    long bytesReclaimed,
+    long errors,
+    String lastError
+) {}
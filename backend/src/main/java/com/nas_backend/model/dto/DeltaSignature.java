@@ -0,0 +1,18 @@
+package com.nas_backend.model.dto;
+
+import java.util.List;
+
+// Block signatures of a file's current content, the client diffs its local copy against them (rsync style)
+public record DeltaSignature(
+        String path,
+        long fileSize,
+        int blockSize, // Every block has this size, except for a shorter last one
+        String baseVersion, // Has to be sent back with the delta, the update is refused when the file changed meanwhile
+        List<Block> blocks // In file order, block i starts at i * blockSize
+) {
+
+    // weak: rolling checksum over the unsigned bytes x_0..x_(n-1) of the block,
+    //       a = sum(x_i) mod 2^16, b = sum((n - i) * x_i) mod 2^16, weak = a + (b << 16)
+    // strong: first 16 bytes of the SHA-256 of the block (hex), checked when the weak checksum matches
+    public record Block(int weak, String strong) {}
+}
@@ -0,0 +1,17 @@
+package com.nas_backend.model.dto;
+
+// What the configured durability mode costs: fsync counts and times, group flushes and the staging sweep at startup
+public record DurabilityStats(
+    String mode, // fast, balanced or strict
+    long groupIntervalMs,
+    long fsyncs, // Files and folders
+    double avgFsyncMillis,
+    double maxFsyncMillis,
+    long groupFlushes, // Balanced mode
+    long groupedFiles,
+    long pendingFiles, // Waiting for the next group flush
+    long strictCommits, // Writes that waited for the disk before their DB commit
+    double avgStrictCommitMillis,
+    long stagingFilesSwept, // Leftovers of interrupted writes removed at startup
+    long stagingBytesSwept
+) {}
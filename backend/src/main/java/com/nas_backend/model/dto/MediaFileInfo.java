@@ -0,0 +1,19 @@
+package com.nas_backend.model.dto;
+
+import java.time.Instant;
+
+// A media file in a gallery listing, with what its headers say
+public record MediaFileInfo(
+    String logicalPath,
+    String name,
+    String mimeType,
+    long size,
+    String kind, // "image", "video" or "audio"
+    Instant takenAt, // Capture time (camera clock), null when unknown
+    Instant timelineAt, // What the listing is sorted by: takenAt, else the upload time
+    String cameraMake,
+    String cameraModel,
+    Integer width,
+    Integer height,
+    Long durationMs
+) {}
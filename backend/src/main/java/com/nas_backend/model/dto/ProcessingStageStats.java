@@ -0,0 +1,16 @@
+package com.nas_backend.model.dto;
+
+// One stage of the post-upload pipeline since startup
+public record ProcessingStageStats(
+    String stage,
+    int concurrency,
+    int queueLimit,
+    long backlog, // Tasks waiting in this stage, in the DB (includes the queued ones)
+    int queued, // Taken into memory, waiting for a worker
+    int active,
+    long processed,
+    long skipped, // Not needed for the file, or the file is gone
+    long retried, // Failed runs that will be tried again later
+    long failed, // Given up after the last attempt, the file moved on to the next stage
+    double averageMillis // Per processed file
+) {}
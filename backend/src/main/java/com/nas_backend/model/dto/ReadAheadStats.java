@@ -0,0 +1,14 @@
+package com.nas_backend.model.dto;
+
+// How much of the range traffic was read ahead, and how much of that was wasted
+public record ReadAheadStats(
+    long budgetBytes,
+    long bufferedBytes, // Buffers in use right now
+    int activeStreams, // Client and file pairs seen in the last 30 seconds
+    long sequentialRequests, // Ranges that continued where the previous one ended
+    long randomRequests, // First ranges and jumps, they reset the window
+    long prefetchedBytes, // Read from disk into buffers
+    long bytesFromPrefetch, // Sent from buffers
+    long bytesReadDirectly, // Sent straight from disk, no buffer was left
+    long droppedBytes // Read ahead but never sent (the client jumped elsewhere)
+) {}
@@ -0,0 +1,13 @@
+package com.nas_backend.model.dto;
+
+// Upload and download throughput of one drive, plain vs. encrypted at rest (MB/s, incompressible data)
+public record StorageBenchmarkResult(
+    String drive,
+    long sizeMB,
+    int codecThreads, // Cores the encryption runs on
+    double plainWriteMBps,
+    double plainReadMBps,
+    double encryptedWriteMBps,
+    double encryptedReadMBps,
+    String finishedAt
+) {}
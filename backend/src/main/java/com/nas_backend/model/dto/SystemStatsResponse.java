@@ -8,6 +8,8 @@ public record SystemStatsResponse(
     List<DiskInfo> disks,
     long totalSpaceMB,
     long totalUsableSpaceMB,
+    long logicalDataMB, // All files at their real size
+    long storedDataMB, // The same files as stored on disk (smaller when compressed)
 
     // System statistics (CPU/RAM)
     double cpuTemperature, // In degrees Celsius
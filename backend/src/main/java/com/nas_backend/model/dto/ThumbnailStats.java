@@ -0,0 +1,12 @@
+package com.nas_backend.model.dto;
+
+// How thumbnail requests were served since startup
+public record ThumbnailStats(
+    long cacheHits, // Sent from the drive as made before
+    long generated, // Decoded and scaled (on request or ahead of time)
+    long joinedRequests, // Waited for the same thumbnail another request or a prefetch was already making
+    long failed, // Unreadable or broken images
+    long prefetchQueued, // Queued ahead of time for a directory listing
+    long prefetchDropped, // Not queued, the queue was full
+    int queuedJobs
+) {}
@@ -0,0 +1,14 @@
+package com.nas_backend.model.dto;
+
+// Snapshot of the upload admission queue, used to size maxConcurrentUploads per drive count
+public record UploadQueueStats(
+    int maxConcurrentUploads, // 0 means unlimited
+    int activeUploads,
+    int queuedUploads,
+    int maxQueuedUploads,
+    long admittedTotal,
+    long rejectedTotal, // Queue was full
+    long timedOutTotal, // Waited longer than the configured timeout
+    double averageWaitMs,
+    long maxWaitMs
+) {}
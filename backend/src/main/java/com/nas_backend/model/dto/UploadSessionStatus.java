@@ -0,0 +1,12 @@
+package com.nas_backend.model.dto;
+
+import java.util.List;
+
+public record UploadSessionStatus(
+        String sessionId,
+        String fileName,
+        long totalSize,
+        long receivedBytes,
+        List<ByteRange> missingRanges, // Ranges the client still has to send
+        String expiresAt // ISO 8601 String - session is dropped when no chunk arrives before this moment
+) {}
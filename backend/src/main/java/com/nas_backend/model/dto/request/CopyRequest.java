@@ -0,0 +1,3 @@
+package com.nas_backend.model.dto.request;
+
+public record CopyRequest(String fromPath, String toPath) {}
@@ -0,0 +1,3 @@
+package com.nas_backend.model.dto.request;
+
+public record CreateUploadSessionRequest(String path, String fileName, long totalSize, String mimeType) {}
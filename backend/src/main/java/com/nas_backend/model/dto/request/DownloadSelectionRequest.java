@@ -0,0 +1,5 @@
+package com.nas_backend.model.dto.request;
+
+import java.util.List;
+
+public record DownloadSelectionRequest(List<String> paths, String format) {} // format: "tar" (default) or "zip"
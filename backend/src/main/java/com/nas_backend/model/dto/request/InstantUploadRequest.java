@@ -0,0 +1,3 @@
+package com.nas_backend.model.dto.request;
+
+public record InstantUploadRequest(String path, String fileName, String digest, long size, String mimeType) {}
@@ -0,0 +1,93 @@
+package com.nas_backend.model.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// One stored copy of some content, shared by every FileNode whose physicalPath points at it
+@Entity
+@Table(name = "content_blobs", indexes = {
+        @Index(name = "idx_blob_physical_path", columnList = "physicalPath", unique = true)
+})
+public class ContentBlob {
+
+    @Id
+    @Column(nullable = false, unique = true)
+    private String digest; // SHA-256 of the content (hex)
+
+    @Column(nullable = false)
+    private String physicalPath; // E.g. "/mnt/dysk1/.blobs/3f/a2/3fa2..." (or the original file when deduplicated in place)
+
+    private long size;
+
+    private String storageFormat; // Null for plain bytes (see BlockContainer)
+
+    private Long storedSize; // Bytes on disk, null when it equals size
+
+    private long refCount; // Number of FileNodes using this blob
+
+    private Instant createdAt;
+
+    // Empty constructor is required by JPA
+    public ContentBlob() {
+    }
+
+    // Getters
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public String getPhysicalPath() {
+        return physicalPath;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getStorageFormat() {
+        return storageFormat;
+    }
+
+    public Long getStoredSize() {
+        return storedSize;
+    }
+
+    public long getRefCount() {
+        return refCount;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    // Setters
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    public void setPhysicalPath(String physicalPath) {
+        this.physicalPath = physicalPath;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public void setStorageFormat(String storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    public void setStoredSize(Long storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    public void setRefCount(long refCount) {
+        this.refCount = refCount;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
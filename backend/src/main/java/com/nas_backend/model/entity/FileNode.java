@@ -7,8 +7,10 @@ import java.time.Instant;
 @Table(name = "file_nodes", indexes = {
         @Index(name = "idx_logical_path", columnList = "logicalPath", unique = true),
         @Index(name = "idx_parent_path", columnList = "parentPath"),
-        @Index(name = "idx_mime_type", columnList = "mimeType")
+        @Index(name = "idx_mime_type", columnList = "mimeType"),
+        @Index(name = "idx_content_hash", columnList = "contentHash")
 })
+@EntityListeners(FileNodeListener.class)
 public class FileNode {
 
     @Id // Key
@@ -39,6 +41,18 @@ public class FileNode {
 
     private String mimeType; // E.g. "image/jpeg"
 
+    private String contentHash; // SHA-256 of the content (hex), null until hashed
+
+    private String storageFormat; // How the data is encoded on disk, null for plain bytes (see BlockContainer)
+
+    private Long storedSize; // Bytes the data takes on disk, null when it equals size
+
+    // Paths as last read from or written to the DB, to know which listings a move touches (see FileNodeListener)
+    @Transient
+    private String loadedLogicalPath;
+    @Transient
+    private String loadedParentPath;
+
     // Empty constructor is required by JPA
     public FileNode() {
     }
@@ -89,6 +103,26 @@ public class FileNode {
         return mimeType;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public String getStorageFormat() {
+        return storageFormat;
+    }
+
+    public Long getStoredSize() {
+        return storedSize;
+    }
+
+    public String getLoadedLogicalPath() {
+        return loadedLogicalPath;
+    }
+
+    public String getLoadedParentPath() {
+        return loadedParentPath;
+    }
+
     // Setters
 
     public void setId(Long id) {
@@ -134,4 +168,21 @@ public class FileNode {
     public void setMimeType(String mimeType) {
         this.mimeType = mimeType;
     }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public void setStorageFormat(String storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    public void setStoredSize(Long storedSize) {
+        this.storedSize = storedSize;
+    }
+
+    public void setLoadedPaths(String loadedLogicalPath, String loadedParentPath) {
+        this.loadedLogicalPath = loadedLogicalPath;
+        this.loadedParentPath = loadedParentPath;
+    }
 }
@@ -0,0 +1,62 @@
+package com.nas_backend.model.entity;
+
+import com.nas_backend.service.file.DirectoryVersionService;
+import com.nas_backend.service.file.PathIndex;
+
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Moves the version of every listing a saved or deleted node appears in, whichever service changed it, and writes
+// the change through to the path index. Listings are served from the index once their transaction committed, so the
+// versions move only after the index applied the change (a new ETag never comes with the old listing). JPQL bulk
+// updates bypass this: none of them touches a listed field (they only repoint physical data), FileIndexService reports
+// them to the path index itself.
+@Component
+public class FileNodeListener {
+
+    private final DirectoryVersionService directoryVersionService;
+    private final PathIndex pathIndex;
+
+    public FileNodeListener(DirectoryVersionService directoryVersionService, PathIndex pathIndex) {
+        this.directoryVersionService = directoryVersionService;
+        this.pathIndex = pathIndex;
+    }
+
+    @PostLoad
+    public void loaded(FileNode node) {
+        node.setLoadedPaths(node.getLogicalPath(), node.getParentPath());
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void saved(FileNode node) {
+        pathIndex.saved(node);
+        touchListings(node);
+        loaded(node);
+    }
+
+    @PostRemove
+    public void removed(FileNode node) {
+        pathIndex.removed(node);
+        touchListings(node);
+        loaded(node);
+    }
+
+    private void touchListings(FileNode node) {
+        List<String> listings = new ArrayList<>(4); // Taken now, the loaded paths are reset right after
+        listings.add(node.getParentPath());
+        listings.add(node.getLoadedParentPath()); // Moved out of there
+        if (node.isDirectory()) {
+            // Its own listing is gone (removed) or somewhere else now (moved)
+            listings.add(node.getLogicalPath());
+            listings.add(node.getLoadedLogicalPath());
+        }
+        pathIndex.afterApplied(() -> listings.forEach(directoryVersionService::touch));
+    }
+}
@@ -0,0 +1,140 @@
+package com.nas_backend.model.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// What a media file's headers say (see MediaMetadataService), one row per FileNode. timelineAt is what galleries sort
+// and filter by: the capture time, or the upload time for files without one (screenshots, downloads...).
+@Entity
+@Table(name = "media_metadata", indexes = {
+        @Index(name = "idx_media_owner_timeline", columnList = "owner, timelineAt")
+})
+public class MediaMetadata {
+
+    @Id
+    private Long nodeId; // FileNode id
+
+    @Column(nullable = false)
+    private String owner; // First segment of the logical path, e.g. "admin"
+
+    @Column(nullable = false)
+    private String kind; // "image", "video" or "audio"
+
+    private Instant takenAt; // Capture time as the camera's clock showed it, null when the headers have none
+
+    @Column(nullable = false)
+    private Instant timelineAt;
+
+    private String cameraMake;
+    private String cameraModel;
+    private Integer width; // As displayed (rotation applied)
+    private Integer height;
+    private Long durationMs;
+
+    private Instant sourceModifiedAt; // The file's modifiedAt when it was read, a newer one means the content changed
+    private Instant extractedAt;
+
+    // Empty constructor is required by JPA
+    public MediaMetadata() {
+    }
+
+    // Getters
+
+    public Long getNodeId() {
+        return nodeId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public Instant getTakenAt() {
+        return takenAt;
+    }
+
+    public Instant getTimelineAt() {
+        return timelineAt;
+    }
+
+    public String getCameraMake() {
+        return cameraMake;
+    }
+
+    public String getCameraModel() {
+        return cameraModel;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public Long getDurationMs() {
+        return durationMs;
+    }
+
+    public Instant getSourceModifiedAt() {
+        return sourceModifiedAt;
+    }
+
+    public Instant getExtractedAt() {
+        return extractedAt;
+    }
+
+    // Setters
+
+    public void setNodeId(Long nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    public void setTakenAt(Instant takenAt) {
+        this.takenAt = takenAt;
+    }
+
+    public void setTimelineAt(Instant timelineAt) {
+        this.timelineAt = timelineAt;
+    }
+
+    public void setCameraMake(String cameraMake) {
+        this.cameraMake = cameraMake;
+    }
+
+    public void setCameraModel(String cameraModel) {
+        this.cameraModel = cameraModel;
+    }
+
+    public void setWidth(Integer width) {
+        this.width = width;
+    }
+
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+
+    public void setDurationMs(Long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public void setSourceModifiedAt(Instant sourceModifiedAt) {
+        this.sourceModifiedAt = sourceModifiedAt;
+    }
+
+    public void setExtractedAt(Instant extractedAt) {
+        this.extractedAt = extractedAt;
+    }
+}
@@ -0,0 +1,95 @@
+package com.nas_backend.model.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// One append-only file that holds many small files back to back, see StoredContent for how nodes point into it
+@Entity
+@Table(name = "pack_files", indexes = {
+        @Index(name = "idx_pack_physical_path", columnList = "physicalPath", unique = true),
+        @Index(name = "idx_pack_storage_path", columnList = "storagePath")
+})
+public class PackFile {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String storagePath; // Drive that holds the pack, e.g. "/mnt/dysk1"
+
+    @Column(nullable = false)
+    private String physicalPath; // E.g. "/mnt/dysk1/.packs/5b1e....pack"
+
+    private long size; // Bytes appended so far, the next entry starts here
+
+    private long liveBytes; // Bytes still referenced, the rest is reclaimed by compaction
+
+    private boolean sealed; // Full, no more appends (only sealed packs are compacted)
+
+    private Instant createdAt;
+
+    // Empty constructor is required by JPA
+    public PackFile() {
+    }
+
+    // Getters
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getStoragePath() {
+        return storagePath;
+    }
+
+    public String getPhysicalPath() {
+        return physicalPath;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    // Setters
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public void setStoragePath(String storagePath) {
+        this.storagePath = storagePath;
+    }
+
+    public void setPhysicalPath(String physicalPath) {
+        this.physicalPath = physicalPath;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public void setLiveBytes(long liveBytes) {
+        this.liveBytes = liveBytes;
+    }
+
+    public void setSealed(boolean sealed) {
+        this.sealed = sealed;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
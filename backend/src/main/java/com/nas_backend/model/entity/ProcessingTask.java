@@ -0,0 +1,106 @@
+package com.nas_backend.model.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+// Post-upload work still to do for one file, see ProcessingPipelineService. The row moves from stage to stage
+// and is deleted after the last one, so whatever is left survives a restart.
+@Entity
+@Table(name = "processing_tasks", indexes = {
+        @Index(name = "idx_processing_stage_due", columnList = "stage, notBefore")
+})
+public class ProcessingTask {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long nodeId;
+
+    @Column(nullable = false)
+    private String stage; // E.g. "hash", see the ProcessingStage implementations
+
+    private String lastStage; // The task ends after this stage, null to run through all of them (backfills use one stage)
+
+    private int attempts; // Failed runs of the current stage
+
+    @Column(nullable = false)
+    private Instant notBefore; // Retries wait until then
+
+    private String lastError;
+
+    private Instant createdAt;
+
+    // Empty constructor is required by JPA
+    public ProcessingTask() {
+    }
+
+    // Getters
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getNodeId() {
+        return nodeId;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public String getLastStage() {
+        return lastStage;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public Instant getNotBefore() {
+        return notBefore;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    // Setters
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public void setNodeId(Long nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public void setStage(String stage) {
+        this.stage = stage;
+    }
+
+    public void setLastStage(String lastStage) {
+        this.lastStage = lastStage;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public void setNotBefore(Instant notBefore) {
+        this.notBefore = notBefore;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
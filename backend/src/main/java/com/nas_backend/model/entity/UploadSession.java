@@ -0,0 +1,136 @@
+package com.nas_backend.model.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Table(name = "upload_sessions", indexes = {
+        @Index(name = "idx_upload_session_expiration", columnList = "expiresAt")
+})
+public class UploadSession {
+
+    @Id
+    @Column(nullable = false, unique = true)
+    private String id; // Session ID (UUID) handed out to the client
+
+    @Column(nullable = false)
+    private String username;
+
+    @Column(nullable = false)
+    private String logicalParentPath; // E.g. "admin/filmy"
+
+    @Column(nullable = false)
+    private String fileName; // E.g. "wakacje.mp4"
+
+    private String mimeType;
+
+    private long totalSize;
+
+    @Column(nullable = false)
+    private String storagePath; // Drive chosen for this upload, e.g. "/mnt/dysk1"
+
+    @Column(nullable = false)
+    private String stagingPath; // E.g. "/mnt/dysk1/.staging/<id>.part"
+
+    @Column(columnDefinition = "TEXT")
+    private String receivedRanges; // Merged ranges already on disk, e.g. "0-8388608,16777216-25165824"
+
+    private Instant createdAt;
+    private Instant expiresAt;
+
+    // Empty constructor is required by JPA
+    public UploadSession() {
+    }
+
+    // Getters
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getLogicalParentPath() {
+        return logicalParentPath;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public String getStoragePath() {
+        return storagePath;
+    }
+
+    public String getStagingPath() {
+        return stagingPath;
+    }
+
+    public String getReceivedRanges() {
+        return receivedRanges;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    // Setters
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public void setLogicalParentPath(String logicalParentPath) {
+        this.logicalParentPath = logicalParentPath;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public void setTotalSize(long totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    public void setStoragePath(String storagePath) {
+        this.storagePath = storagePath;
+    }
+
+    public void setStagingPath(String stagingPath) {
+        this.stagingPath = stagingPath;
+    }
+
+    public void setReceivedRanges(String receivedRanges) {
+        this.receivedRanges = receivedRanges;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
@@ -0,0 +1,35 @@
+package com.nas_backend.repository;
+
+import com.nas_backend.model.entity.ContentBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ContentBlobRepository extends JpaRepository<ContentBlob, String> {
+
+    Optional<ContentBlob> findByPhysicalPath(String physicalPath);
+
+    boolean existsByPhysicalPath(String physicalPath);
+
+    @Query("SELECT b.physicalPath FROM ContentBlob b WHERE b.physicalPath LIKE :prefix%")
+    List<String> findPhysicalPathsStartingWith(@Param("prefix") String prefix);
+
+    // Reference counts change in one statement, without reading the count first (see ContentStoreService)
+    @Modifying
+    @Transactional
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount + 1 WHERE b.digest = :digest")
+    int incrementRefCount(@Param("digest") String digest);
+
+    // Drops a reference unless it is the last one (0 rows then, the caller deletes the blob)
+    @Modifying
+    @Transactional
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount - 1 WHERE b.digest = :digest AND b.refCount > 1")
+    int decrementRefCount(@Param("digest") String digest);
+}
@@ -2,13 +2,17 @@ package com.nas_backend.repository;
 
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.nas_backend.model.dto.ArchiveNode;
 import com.nas_backend.model.entity.FileNode;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,6 +27,8 @@ public interface FileNodeRepository extends JpaRepository<FileNode, Long> {
     
     boolean existsByLogicalPath(String logicalPath);
 
+    boolean existsByIdAndPhysicalPath(Long id, String physicalPath);
+
     List<FileNode> findByLogicalPathStartingWith(String prefix);
     
     List<FileNode> findByParentPathEndingWithAndModifiedAtBefore(String parentSuffix, Instant cutoffDate);
@@ -39,4 +45,81 @@ public interface FileNodeRepository extends JpaRepository<FileNode, Long> {
 
     @Query("SELECT COALESCE(SUM(n.size), 0) FROM FileNode n WHERE n.logicalPath LIKE :prefix%")
     long sumSizeByLogicalPathStartingWith(@Param("prefix") String prefix);
+
+    // Keyset paging over all nodes, for loading the path index
+    @Query("SELECT n FROM FileNode n WHERE n.id > :afterId ORDER BY n.id")
+    List<FileNode> findNodesAfterId(@Param("afterId") long afterId, Pageable pageable);
+
+    // Keyset paging over all files (trash included), for jobs that walk the whole index
+    @Query("SELECT n FROM FileNode n WHERE n.isDirectory = false AND n.id > :afterId ORDER BY n.id")
+    List<FileNode> findFilesAfterId(@Param("afterId") long afterId, Pageable pageable);
+
+    // Keyset paging over everything below a folder in path order (after = "<folder>/", end = "<folder>0", '0' follows '/').
+    // Plain records, so a huge folder does not pile up entities in the persistence context.
+    @Query("SELECT new com.nas_backend.model.dto.ArchiveNode(n.logicalPath, n.isDirectory, n.physicalPath, n.storageFormat, n.mimeType, n.size, n.modifiedAt) " +
+            "FROM FileNode n WHERE n.logicalPath > :after AND n.logicalPath < :end ORDER BY n.logicalPath")
+    List<ArchiveNode> findArchiveNodesAfter(@Param("after") String afterLogicalPath, @Param("end") String end, Pageable pageable);
+
+    // Several nodes in one query (callers keep the list below SQLite's limit of bound parameters)
+    @Query("SELECT new com.nas_backend.model.dto.ArchiveNode(n.logicalPath, n.isDirectory, n.physicalPath, n.storageFormat, n.mimeType, n.size, n.modifiedAt) " +
+            "FROM FileNode n WHERE n.logicalPath IN :paths")
+    List<ArchiveNode> findArchiveNodesByLogicalPathIn(@Param("paths") Collection<String> logicalPaths);
+
+    // Files whose content was never hashed (stored before hashing existed, or committed without deduplication)
+    @Query("SELECT n FROM FileNode n WHERE n.isDirectory = false AND n.contentHash IS NULL AND n.id > :afterId ORDER BY n.id")
+    List<FileNode> findUnhashedFilesAfterId(@Param("afterId") long afterId, Pageable pageable);
+
+    // Media files not yet in media_metadata, for the metadata backfill
+    @Query("SELECT n FROM FileNode n WHERE n.isDirectory = false AND n.id > :afterId " +
+            "AND (n.mimeType LIKE 'image/%' OR n.mimeType LIKE 'video/%' OR n.mimeType LIKE 'audio/%') " +
+            "AND NOT EXISTS (SELECT m.nodeId FROM MediaMetadata m WHERE m.nodeId = n.id) ORDER BY n.id")
+    List<FileNode> findMediaFilesWithoutMetadataAfterId(@Param("afterId") long afterId, Pageable pageable);
+
+    // A file of this user with the given content (instant uploads never look into other users' files)
+    @Query("SELECT n FROM FileNode n WHERE n.isDirectory = false AND n.contentHash = :hash AND n.size = :size AND n.logicalPath LIKE :prefix% ORDER BY n.id")
+    List<FileNode> findByContentHash(@Param("hash") String contentHash, @Param("size") long size, @Param("prefix") String logicalPathPrefix, Pageable pageable);
+
+    // The bulk updates below bypass FileNodeListener, call them through FileIndexService (which updates the path index too)
+
+    // Stores a computed hash, only if the node still points at the data that was hashed
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileNode n SET n.contentHash = :hash WHERE n.id = :id AND n.physicalPath = :physicalPath")
+    int updateContentHash(@Param("id") Long id, @Param("physicalPath") String physicalPath, @Param("hash") String contentHash);
+
+    // Stores the type detected from the content, only if the node still points at the data that was looked at
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileNode n SET n.mimeType = :mimeType WHERE n.id = :id AND n.physicalPath = :physicalPath")
+    int updateMimeType(@Param("id") Long id, @Param("physicalPath") String physicalPath, @Param("mimeType") String mimeType);
+
+    // Repoints a node to other physical data (and its encoding), only if nobody changed its physical path in the meantime
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileNode n SET n.physicalPath = :newPath, n.storageFormat = :format, n.storedSize = :storedSize WHERE n.id = :id AND n.physicalPath = :oldPath")
+    int updateStorage(@Param("id") Long id, @Param("oldPath") String oldPath, @Param("newPath") String newPath, @Param("format") String storageFormat,
+                      @Param("storedSize") Long storedSize);
+
+    // Physical locations inside one pack file, used by pack compaction (LIKE wildcards in the prefix may match more, callers filter)
+    @Query("SELECT DISTINCT n.physicalPath FROM FileNode n WHERE n.physicalPath LIKE :prefix%")
+    List<String> findPhysicalPathsStartingWith(@Param("prefix") String prefix);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileNode n SET n.physicalPath = :newPath WHERE n.physicalPath = :oldPath")
+    int updateAllPhysicalPaths(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    // Same as updateAllPhysicalPaths, for data that was stored anew (possibly in another format)
+    @Modifying
+    @Transactional
+    @Query("UPDATE FileNode n SET n.physicalPath = :newPath, n.storageFormat = :format, n.storedSize = :storedSize WHERE n.physicalPath = :oldPath")
+    int updateAllStorage(@Param("oldPath") String oldPath, @Param("newPath") String newPath, @Param("format") String storageFormat,
+                         @Param("storedSize") Long storedSize);
+
+    @Query("SELECT COALESCE(SUM(n.size), 0) FROM FileNode n WHERE n.isDirectory = false")
+    long sumLogicalSize();
+
+    // What the files take on disk, compressed content counts with its stored size (shared blobs once per file)
+    @Query("SELECT COALESCE(SUM(COALESCE(n.storedSize, n.size)), 0) FROM FileNode n WHERE n.isDirectory = false")
+    long sumStoredSize();
 }
@@ -0,0 +1,35 @@
+package com.nas_backend.repository;
+
+import com.nas_backend.model.dto.MediaFileInfo;
+import com.nas_backend.model.entity.MediaMetadata;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface MediaMetadataRepository extends JpaRepository<MediaMetadata, Long> {
+
+    // A user's media below a folder within a time range, newest first. One range scan of idx_media_owner_timeline, the
+    // path and trash checks only look at the files in that range.
+    @Query("SELECT new com.nas_backend.model.dto.MediaFileInfo(n.logicalPath, n.fileName, n.mimeType, n.size, m.kind, m.takenAt, m.timelineAt, " +
+            "m.cameraMake, m.cameraModel, m.width, m.height, m.durationMs) " +
+            "FROM MediaMetadata m JOIN FileNode n ON n.id = m.nodeId " +
+            "WHERE m.owner = :owner AND m.timelineAt >= :from AND m.timelineAt < :to " +
+            "AND n.logicalPath LIKE :prefix% AND n.parentPath NOT LIKE '%/trash' " +
+            "ORDER BY m.timelineAt DESC, m.nodeId DESC")
+    List<MediaFileInfo> findTimeline(@Param("owner") String owner, @Param("prefix") String logicalPathPrefix,
+                                     @Param("from") Instant from, @Param("to") Instant to, Pageable pageable);
+
+    // Rows of files that were deleted since
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM MediaMetadata m WHERE NOT EXISTS (SELECT n.id FROM FileNode n WHERE n.id = m.nodeId)")
+    int deleteOrphans();
+}
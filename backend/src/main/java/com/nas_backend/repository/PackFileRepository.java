@@ -0,0 +1,41 @@
+package com.nas_backend.repository;
+
+import com.nas_backend.model.entity.PackFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PackFileRepository extends JpaRepository<PackFile, Long> {
+
+    Optional<PackFile> findFirstByStoragePathAndSealedFalseOrderByIdDesc(String storagePath);
+
+    Optional<PackFile> findByPhysicalPath(String physicalPath);
+
+    List<PackFile> findBySealedTrue();
+
+    // Sizes change in one statement each, without reading them first (see PackStore). Appends can be recorded out of
+    // order, the size only ever grows to the end of the furthest entry.
+    @Modifying
+    @Transactional
+    @Query("UPDATE PackFile p SET p.size = CASE WHEN p.size < :end THEN :end ELSE p.size END, " +
+            "p.liveBytes = p.liveBytes + :length WHERE p.id = :id")
+    int recordAppend(@Param("id") Long id, @Param("end") long end, @Param("length") long length);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE PackFile p SET p.liveBytes = CASE WHEN p.liveBytes > :length THEN p.liveBytes - :length ELSE 0 END " +
+            "WHERE p.physicalPath = :physicalPath")
+    int freeBytes(@Param("physicalPath") String physicalPath, @Param("length") long length);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE PackFile p SET p.sealed = true WHERE p.id = :id")
+    int seal(@Param("id") Long id);
+}
@@ -0,0 +1,18 @@
+package com.nas_backend.repository;
+
+import com.nas_backend.model.entity.ProcessingTask;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface ProcessingTaskRepository extends JpaRepository<ProcessingTask, Long> {
+
+    // Oldest due tasks of a stage first
+    List<ProcessingTask> findByStageAndNotBeforeLessThanEqualOrderByIdAsc(String stage, Instant now, Pageable pageable);
+
+    long countByStage(String stage);
+}
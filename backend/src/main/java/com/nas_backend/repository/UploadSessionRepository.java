@@ -0,0 +1,27 @@
+package com.nas_backend.repository;
+
+import com.nas_backend.model.entity.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    // Find all sessions nobody touched before their deadline
+    List<UploadSession> findByExpiresAtBefore(Instant now);
+
+    boolean existsByStagingPath(String stagingPath);
+
+    // Store chunk progress without loading (and racing on) the whole entity
+    @Modifying
+    @Transactional
+    @Query("UPDATE UploadSession s SET s.receivedRanges = :ranges, s.expiresAt = :expiresAt WHERE s.id = :id")
+    int updateProgress(@Param("id") String id, @Param("ranges") String ranges, @Param("expiresAt") Instant expiresAt);
+}
@@ -0,0 +1,81 @@
+package com.nas_backend.service;
+
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+
+// Tokens for media URLs (/stream, /thumbnail), where players and image tags cannot send an Authorization header and
+// the token ends up in the query string, logs and browser history. Unlike a session token it only opens one file or
+// folder (and everything below it) and expires after MEDIA_TOKEN_TTL_SECONDS. Signed with a key that lives in memory
+// only, so a restart invalidates every media token (clients ask for a new one on 403).
+//
+//   token: <base64url logical path of the scope>.<expiry, epoch seconds>.<base64url HMAC-SHA256 of both>
+@Service
+public class MediaTokenService {
+
+    public static final long MEDIA_TOKEN_TTL_SECONDS = 60 * 60; // Long enough to watch a film, short enough for a leaked URL
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+
+    public MediaTokenService() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+    }
+
+    // Token for the given logical path (it starts with the owner's name) and everything below it
+    public String issue(String scopeLogicalPath) {
+        long expires = Instant.now().getEpochSecond() + MEDIA_TOKEN_TTL_SECONDS;
+        String scope = Base64.getUrlEncoder().withoutPadding().encodeToString(scopeLogicalPath.getBytes(StandardCharsets.UTF_8));
+        String payload = scope + "." + expires;
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload));
+    }
+
+    // Owner of the scope when the token is genuine, not expired and covers path (relative to the owner's root), else null
+    public String userFor(String token, String path) {
+        if (token == null || path == null) return null;
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) return null;
+
+        String payload = parts[0] + "." + parts[1];
+        String scope;
+        long expires;
+        try {
+            byte[] signature = Base64.getUrlDecoder().decode(parts[2]);
+            if (!MessageDigest.isEqual(sign(payload), signature)) return null;
+            scope = new String(Base64.getUrlDecoder().decode(parts[0]), StandardCharsets.UTF_8);
+            expires = Long.parseLong(parts[1]);
+        } catch (IllegalArgumentException e) {
+            return null; // Not base64 or not a number, not one of ours
+        }
+        if (Instant.now().getEpochSecond() > expires) return null;
+
+        // Same normalization as the controllers use for the requested path
+        String username = scope.split("/")[0];
+        String requested = Paths.get(username, path).toString().replace("\\", "/");
+        boolean covered = requested.equals(scope) || requested.startsWith(scope + "/");
+        return covered ? username : null;
+    }
+
+    // Helper methods
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available", e);
+        }
+    }
+}
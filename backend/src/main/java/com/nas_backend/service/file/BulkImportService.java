@@ -0,0 +1,333 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.BulkImportResponse;
+import com.nas_backend.model.dto.FileOperationResponse;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.archive.ArchiveEntry;
+import com.nas_backend.service.file.archive.ArchiveReader;
+import com.nas_backend.service.file.archive.TarArchiveReader;
+import com.nas_backend.service.file.archive.ZipArchiveReader;
+import com.nas_backend.service.file.processing.ProcessingPipelineService;
+import com.nas_backend.service.file.storage.ContentStoreService;
+import com.nas_backend.service.file.storage.StoragePlacementService;
+import com.nas_backend.service.system.LogService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+// Unpacks a streamed tar/zip archive straight onto the drives, many small files without one request per file
+@Service
+public class BulkImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkImportService.class);
+
+    private static final int BATCH_SIZE = 500; // FileNodes saved per transaction
+    private static final int MAX_REPORTED_SKIPS = 100;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final FileService fileService;
+    private final FileIndexService fileIndexService;
+    private final StoragePlacementService storagePlacementService;
+    private final ContentStoreService contentStoreService;
+    private final AppConfigService configService;
+    private final LogService logService;
+    private final ProcessingPipelineService processingPipelineService;
+
+    public BulkImportService(FileService fileService, FileIndexService fileIndexService, StoragePlacementService storagePlacementService,
+                             ContentStoreService contentStoreService, AppConfigService configService, LogService logService,
+                             ProcessingPipelineService processingPipelineService) {
+        this.fileService = fileService;
+        this.fileIndexService = fileIndexService;
+        this.storagePlacementService = storagePlacementService;
+        this.contentStoreService = contentStoreService;
+        this.configService = configService;
+        this.logService = logService;
+        this.processingPipelineService = processingPipelineService;
+    }
+
+    // format: "tar", "tgz" or "zip"
+    public BulkImportResponse importArchive(String logicalParentPath, String format, InputStream body) throws IOException, FileValidationException {
+        logger.info("Bulk import request ({}) into logical path '{}'", format, logicalParentPath);
+        long start = System.nanoTime();
+
+        // Validate and create the target folder once, everything below it is created by the import itself
+        FileOperationResponse target = fileService.createVirtualPath(logicalParentPath);
+        String userName = logicalParentPath.split("/")[0];
+
+        ImportRun run = new ImportRun(logicalParentPath, userName);
+        try (ArchiveReader reader = openReader(format, body)) {
+            ArchiveEntry entry;
+            while ((entry = reader.nextEntry()) != null) {
+                run.importEntry(entry, reader);
+            }
+            run.flush();
+        } catch (IOException | RuntimeException e) {
+            // Files that are already on disk still get indexed, the client sees what made it from the report/listing
+            try {
+                run.flush();
+            } catch (RuntimeException flushError) {
+                e.addSuppressed(flushError);
+                run.discardPending();
+            }
+            logger.error("Bulk import into '{}' stopped after {} files: {}", logicalParentPath, run.filesImported, e.getMessage());
+            throw e;
+        } finally {
+            // One backup for the whole archive instead of one per file
+            if (run.nodesSaved > 0) {
+                fileIndexService.backupIndex();
+            }
+        }
+
+        long durationMs = (System.nanoTime() - start) / 1_000_000;
+        logger.info("Bulk import into '{}' finished: {} files, {} folders, {} skipped, {} bytes in {} ms",
+                logicalParentPath, run.filesImported, run.foldersCreated, run.entriesSkipped, run.bytesWritten, durationMs);
+        logService.logTransfer(userName, "BULK_IMPORT", logicalParentPath,
+                "Files: " + run.filesImported + ", folders: " + run.foldersCreated + ", skipped: " + run.entriesSkipped + ", size: " + run.bytesWritten + " bytes");
+
+        String message = run.entriesSkipped == 0
+                ? "Archive imported successfully."
+                : "Archive imported, " + run.entriesSkipped + " entries were skipped.";
+
+        return new BulkImportResponse(message, target.node(), run.filesImported, run.foldersCreated, run.entriesSkipped,
+                run.skippedEntries, run.bytesWritten, durationMs);
+    }
+
+    // Helper methods
+
+    private ArchiveReader openReader(String format, InputStream body) throws IOException, FileValidationException {
+        return switch (format) {
+            case "tar" -> new TarArchiveReader(body);
+            case "tgz" -> new TarArchiveReader(new GZIPInputStream(body, GZIP_BUFFER_SIZE));
+            case "zip" -> new ZipArchiveReader(body);
+            default -> throw new FileValidationException("Unsupported archive format: " + format + ". Use tar, tgz or zip.");
+        };
+    }
+
+    // Turns an archive member name into a relative logical path, "" for the archive root and null for entries that must not be imported
+    static String normalizeEntryName(String name) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : name.replace('\\', '/').split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) continue;
+            if (segment.equals("..")) return null; // Never write outside the target folder
+            if (segment.startsWith(".")) return null; // Hidden files are not allowed (this also drops macOS '._' files)
+            segments.add(segment);
+        }
+        if (!segments.isEmpty() && segments.get(0).equals("__MACOSX")) return null;
+        return String.join("/", segments);
+    }
+
+    private static String parentOf(String logicalPath) {
+        return logicalPath.substring(0, logicalPath.lastIndexOf('/'));
+    }
+
+    private static String nameOf(String logicalPath) {
+        return logicalPath.substring(logicalPath.lastIndexOf('/') + 1);
+    }
+
+    // State of one import. Known names are cached per folder, so no per-file existence queries hit the DB.
+    private class ImportRun {
+        private final String rootPath;
+        private final String userName;
+        private final long maxUploadBytes;
+        private long remainingQuota;
+
+        private final Set<String> knownFolders = new HashSet<>();
+        private final Set<String> blockedFolders = new HashSet<>(); // A file occupies the name
+        private final Map<String, Set<String>> childNames = new HashMap<>();
+
+        private final List<FileNode> pendingNodes = new ArrayList<>();
+        private final List<String> pendingFiles = new ArrayList<>(); // Physical paths of the pending file nodes
+
+        private int filesImported;
+        private int foldersCreated;
+        private int entriesSkipped;
+        private final List<String> skippedEntries = new ArrayList<>();
+        private long bytesWritten;
+        private int nodesSaved;
+
+        private ImportRun(String rootPath, String userName) throws IOException {
+            this.rootPath = rootPath;
+            this.userName = userName;
+            this.maxUploadBytes = (long) configService.getConfig().getServer().getMaxUploadSizeMB() * 1024 * 1024;
+
+            // Walking the drives for the used space is slow, do it once and keep a tally
+            this.remainingQuota = storagePlacementService.remainingQuotaBytes();
+            knownFolders.add(rootPath);
+        }
+
+        private void importEntry(ArchiveEntry entry, ArchiveReader reader) throws IOException, FileValidationException {
+            String relativePath = normalizeEntryName(entry.name());
+            if (relativePath == null) {
+                skip(entry.name(), "hidden or unsafe name");
+                return;
+            }
+            if (relativePath.isEmpty()) return; // "./" itself
+
+            String logicalPath = rootPath + "/" + relativePath;
+
+            if (entry.directory()) {
+                if (!ensureFolder(logicalPath)) {
+                    skip(relativePath, "a file with this name exists");
+                }
+                return;
+            }
+
+            String parentPath = parentOf(logicalPath);
+            String fileName = nameOf(logicalPath);
+            if (!ensureFolder(parentPath)) {
+                skip(relativePath, "parent folder name is taken by a file");
+                return;
+            }
+            if (entry.size() > maxUploadBytes) {
+                skip(relativePath, "exceeds the maximum upload size");
+                return;
+            }
+            if (entry.size() > remainingQuota) {
+                throw quotaExceeded();
+            }
+
+            String storagePath = storagePlacementService.findDriveWithMostSpace(Math.max(entry.size(), 0));
+            Path plainTarget = FileService.newPhysicalPath(storagePath, userName, fileName);
+
+            String mimeType = URLConnection.guessContentTypeFromName(fileName);
+            ContentStoreService.StoredFile stored;
+            try {
+                stored = contentStoreService.write(reader.entryContent(), storagePath, plainTarget, entry.size(), maxUploadBytes, mimeType, userName);
+            } catch (FileValidationException e) {
+                // Only reachable for zip entries without a size in the local header, the writer removed the partial file
+                skip(relativePath, "exceeds the maximum upload size");
+                return;
+            }
+
+            long fileSize = stored.size();
+            remainingQuota -= stored.storedSize(); // The quota is about disk space, compressed files count with what they take
+            if (remainingQuota < 0) {
+                contentStoreService.release(stored.physicalPath());
+                throw quotaExceeded();
+            }
+
+            Set<String> siblings = childNames(parentPath);
+            String finalFileName = FileService.resolveUniqueName(fileName, siblings::contains);
+            siblings.add(finalFileName);
+
+            FileNode node = new FileNode();
+            node.setLogicalPath(parentPath + "/" + finalFileName);
+            node.setParentPath(parentPath);
+            stored.applyTo(node);
+            node.setFileName(finalFileName);
+            node.setDirectory(false);
+            node.setCreatedAt(Instant.now());
+            node.setModifiedAt(entry.modifiedAt()); // Keep the time stored in the archive
+            node.setRestorePath(null);
+            node.setMimeType(mimeType);
+
+            pendingNodes.add(node);
+            pendingFiles.add(stored.physicalPath());
+            filesImported++;
+            bytesWritten += fileSize;
+
+            if (pendingNodes.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        // Makes sure the folder exists (in DB or in the pending batch), false when a file already uses the name
+        private boolean ensureFolder(String logicalPath) {
+            if (knownFolders.contains(logicalPath)) return true;
+            if (blockedFolders.contains(logicalPath)) return false;
+
+            String parentPath = parentOf(logicalPath);
+            if (!ensureFolder(parentPath)) return false;
+
+            String folderName = nameOf(logicalPath);
+            Set<String> siblings = childNames(parentPath);
+
+            if (siblings.contains(folderName)) {
+                // Name is taken. Either by an existing folder (merge into it) or by a file (skip the content).
+                FileNode existing = fileIndexService.getNode(logicalPath);
+                if (existing != null && existing.isDirectory()) {
+                    knownFolders.add(logicalPath);
+                    return true;
+                }
+                blockedFolders.add(logicalPath);
+                return false;
+            }
+
+            FileNode folderNode = new FileNode();
+            folderNode.setLogicalPath(logicalPath);
+            folderNode.setParentPath(parentPath);
+            folderNode.setFileName(folderName);
+            folderNode.setDirectory(true);
+            folderNode.setPhysicalPath("virtual");
+            folderNode.setSize(0);
+            folderNode.setCreatedAt(Instant.now());
+            folderNode.setModifiedAt(Instant.now());
+            folderNode.setRestorePath(null);
+
+            pendingNodes.add(folderNode);
+            siblings.add(folderName);
+            childNames.put(logicalPath, new HashSet<>()); // Brand new folder, nothing to load
+            knownFolders.add(logicalPath);
+            foldersCreated++;
+            return true;
+        }
+
+        private Set<String> childNames(String folderPath) {
+            return childNames.computeIfAbsent(folderPath, path -> {
+                Set<String> names = new HashSet<>();
+                for (FileNode child : fileIndexService.listFiles(path)) {
+                    names.add(child.getFileName());
+                }
+                return names;
+            });
+        }
+
+        private void flush() {
+            if (pendingNodes.isEmpty()) return;
+
+            List<FileNode> saved = fileIndexService.addOrUpdateNodesWithoutBackup(pendingNodes);
+            nodesSaved += pendingNodes.size();
+            processingPipelineService.submitAll(saved); // One insert per batch, folders are left out
+            pendingNodes.clear();
+            pendingFiles.clear();
+        }
+
+        // Last batch could not be saved, its files would be unreachable
+        private void discardPending() {
+            for (String physicalPath : pendingFiles) {
+                contentStoreService.release(physicalPath);
+            }
+            pendingNodes.clear();
+            pendingFiles.clear();
+        }
+
+        private void skip(String entryName, String reason) {
+            entriesSkipped++;
+            if (skippedEntries.size() < MAX_REPORTED_SKIPS) {
+                skippedEntries.add(entryName + " (" + reason + ")");
+            }
+            logger.warn("Bulk import: skipping '{}' ({})", entryName, reason);
+        }
+
+        private FileValidationException quotaExceeded() {
+            long quotaGB = configService.getConfig().getStorage().getQuotaGB();
+            return new FileValidationException("Storage Quota Exceeded! The system limit is " + quotaGB + " GB.");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.model.dto.ByteRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+// Sorted set of merged, half-open byte ranges [start, end) received so far. Not thread safe.
+class ByteRangeSet {
+
+    private final TreeMap<Long, Long> ranges = new TreeMap<>(); // start -> end (exclusive)
+
+    void add(long start, long end) {
+        if (end <= start) return;
+
+        // Merge with a range that starts before and reaches into the new one
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+
+        // Swallow all ranges that start inside (or right after) the new one
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+        while (next != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(start);
+        }
+
+        ranges.put(start, end);
+    }
+
+    long coveredBytes() {
+        long total = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            total += range.getValue() - range.getKey();
+        }
+        return total;
+    }
+
+    boolean covers(long totalSize) {
+        if (totalSize == 0) return true;
+        Map.Entry<Long, Long> first = ranges.firstEntry();
+        return first != null && first.getKey() == 0 && first.getValue() >= totalSize;
+    }
+
+    // Gaps between 0 and totalSize, as inclusive ranges for the API
+    List<ByteRange> missing(long totalSize) {
+        List<ByteRange> gaps = new ArrayList<>();
+        long cursor = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            if (range.getKey() > cursor) {
+                gaps.add(new ByteRange(cursor, Math.min(range.getKey(), totalSize) - 1));
+            }
+            cursor = Math.max(cursor, range.getValue());
+        }
+        if (cursor < totalSize) {
+            gaps.add(new ByteRange(cursor, totalSize - 1));
+        }
+        return gaps;
+    }
+
+    // Compact text form stored in the database, e.g. "0-1024,4096-8192"
+    String serialize() {
+        StringJoiner joiner = new StringJoiner(",");
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            joiner.add(range.getKey() + "-" + range.getValue());
+        }
+        return joiner.toString();
+    }
+
+    static ByteRangeSet parse(String serialized) {
+        ByteRangeSet set = new ByteRangeSet();
+        if (serialized == null || serialized.isBlank()) return set;
+
+        for (String part : serialized.split(",")) {
+            String[] bounds = part.split("-");
+            set.add(Long.parseLong(bounds[0]), Long.parseLong(bounds[1]));
+        }
+        return set;
+    }
+}
@@ -0,0 +1,307 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.storage.ContentTypes;
+import com.nas_backend.service.file.storage.StoredContent;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Content-Encoding for downloads of text-like files (CSV, logs, JSON exports...): gzip or deflate as the client accepts,
+// compressed while it is sent. A file fetched more than once gets its compressed variant kept on the first drive
+// (.variants, named after node id and modification time, so a changed file never gets an old variant), later downloads
+// of it cost no CPU and have a Content-Length. The variants are bounded by storage.variantCacheMB, least recently
+// used first out. Media, archives and unknown binary data are always sent as they are.
+@Service
+public class ContentEncodingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentEncodingService.class);
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final String VARIANTS_DIR_NAME = ".variants";
+    private static final String PARTIAL_SUFFIX = ".tmp";
+    private static final long MIN_ENCODED_SIZE = 1024; // Below that the headers cost more than compression saves
+    private static final int DEFAULT_CACHE_MB = 1024;
+    private static final int FETCHES_BEFORE_CACHING = 2;
+    private static final int MAX_TRACKED_FETCHES = 10_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AppConfigService configService;
+
+    // Downloads per variant since startup, a variant is only stored once it was asked for again
+    private final Map<String, Integer> fetches = new ConcurrentHashMap<>();
+
+    // Stored variants (guarded by itself): path -> last use, loaded from the drive on first use
+    private final Map<Path, Long> variants = new HashMap<>();
+    private long variantBytes;
+    private boolean variantsLoaded;
+
+    public ContentEncodingService(AppConfigService configService) {
+        this.configService = configService;
+    }
+
+    // Whether downloads of the file may be encoded at all (responses then vary by Accept-Encoding)
+    public boolean isEncodable(FileNode node) {
+        return node.getSize() >= MIN_ENCODED_SIZE && ContentTypes.isTextual(node.getMimeType(), node.getFileName());
+    }
+
+    // The encoding to send the file with, null for the file as it is. gzip is preferred, as browsers agree on what it means.
+    public String negotiate(HttpServletRequest request, FileNode node) {
+        if (!isEncodable(node)) return null;
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) return null;
+
+        double gzip = 0;
+        double deflate = 0;
+        double any = 0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i = 1; i < tokens.length; i++) {
+                String parameter = tokens[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case GZIP, "x-gzip" -> gzip = quality;
+                case DEFLATE -> deflate = quality;
+                case "*" -> any = quality;
+                default -> { }
+            }
+        }
+        if (gzip == 0 && !acceptEncoding.toLowerCase().contains(GZIP)) gzip = any;
+        if (gzip > 0 && gzip >= deflate) return GZIP;
+        if (deflate > 0) return DEFLATE;
+        return null;
+    }
+
+    // The stored variant of the file in this encoding, null when there is none (yet)
+    public Path cachedVariant(FileNode node, String encoding) {
+        Path variant = variantPath(node, encoding);
+        if (variant == null) return null;
+        synchronized (variants) {
+            loadVariants(variant.getParent());
+            if (!variants.containsKey(variant)) return null;
+            variants.put(variant, System.currentTimeMillis());
+        }
+        return Files.exists(variant) ? variant : null;
+    }
+
+    // Compresses the content to out. From the second download on, the output is also stored as the file's variant.
+    public void writeEncoded(FileNode node, StoredContent content, String encoding, OutputStream out) throws IOException {
+        Path variant = variantPath(node, encoding);
+        boolean store = variant != null && isWorthStoring(variant, node);
+
+        Path partial = store ? variant.resolveSibling(UUID.randomUUID() + PARTIAL_SUFFIX) : null;
+        OutputStream copy = null;
+        boolean complete = false;
+        try {
+            if (store) {
+                Files.createDirectories(partial.getParent());
+                copy = Files.newOutputStream(partial);
+            }
+            OutputStream target = copy != null ? new TeeOutputStream(out, copy) : new NonClosingOutputStream(out);
+            try (InputStream in = content.openStream()) {
+                compress(in, encoding, target);
+            }
+            complete = true;
+        } finally {
+            if (copy != null) copy.close();
+            if (store) {
+                if (complete) {
+                    addVariant(partial, variant);
+                } else {
+                    Files.deleteIfExists(partial); // Broken off, not a full variant
+                }
+            }
+        }
+    }
+
+    // Helper methods
+
+    // The default level on every run, so a stored variant has the same bytes (and ETag) as one compressed on the fly
+    private static void compress(InputStream in, String encoding, OutputStream target) throws IOException {
+        if (encoding.equals(GZIP)) {
+            try (GZIPOutputStream encoder = new GZIPOutputStream(target, BUFFER_SIZE)) {
+                in.transferTo(encoder);
+            }
+            return;
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION); // zlib format, which is what "deflate" means in HTTP
+        try (DeflaterOutputStream encoder = new DeflaterOutputStream(target, deflater, BUFFER_SIZE)) {
+            in.transferTo(encoder);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private boolean isWorthStoring(Path variant, FileNode node) {
+        long capacity = capacityBytes();
+        if (capacity <= 0 || node.getSize() > capacity / 4) return false;
+
+        if (fetches.size() > MAX_TRACKED_FETCHES) fetches.clear();
+        return fetches.merge(variant.getFileName().toString(), 1, Integer::sum) >= FETCHES_BEFORE_CACHING;
+    }
+
+    // Null without a drive to store variants on
+    private Path variantPath(FileNode node, String encoding) {
+        List<String> drives = configService.getConfig().getStorage().getPaths();
+        if (drives == null || drives.isEmpty() || node.getId() == null) return null;
+
+        long modifiedAt = node.getModifiedAt() != null ? node.getModifiedAt().toEpochMilli() : 0;
+        String extension = encoding.equals(GZIP) ? ".gz" : ".zz";
+        return Paths.get(drives.get(0), VARIANTS_DIR_NAME, node.getId() + "-" + modifiedAt + extension);
+    }
+
+    private void addVariant(Path partial, Path variant) throws IOException {
+        Files.move(partial, variant, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        long size = Files.size(variant);
+
+        List<Path> evicted = new ArrayList<>();
+        synchronized (variants) {
+            loadVariants(variant.getParent());
+            if (variants.put(variant, System.currentTimeMillis()) == null) variantBytes += size;
+
+            // Least recently used out until the rest fits
+            long capacity = capacityBytes();
+            if (variantBytes > capacity) {
+                List<Map.Entry<Path, Long>> byLastUse = new ArrayList<>(variants.entrySet());
+                byLastUse.sort(Map.Entry.comparingByValue(Comparator.naturalOrder()));
+                for (Map.Entry<Path, Long> entry : byLastUse) {
+                    if (variantBytes <= capacity) break;
+                    if (entry.getKey().equals(variant)) continue;
+                    evicted.add(entry.getKey());
+                }
+                for (Path path : evicted) {
+                    variants.remove(path);
+                    variantBytes -= sizeOf(path);
+                }
+            }
+        }
+
+        for (Path path : evicted) {
+            Files.deleteIfExists(path);
+        }
+        if (!evicted.isEmpty()) {
+            logger.info("Variant cache: Removed {} least recently used variants.", evicted.size());
+        }
+    }
+
+    // Called with variants locked. Leftovers of broken off writes are removed.
+    private void loadVariants(Path directory) {
+        if (variantsLoaded) return;
+        variantsLoaded = true;
+        if (!Files.isDirectory(directory)) return;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(PARTIAL_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                FileTime lastUse = Files.getLastModifiedTime(file);
+                variants.put(file, lastUse.toMillis());
+                variantBytes += Files.size(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read the variant cache in {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private long capacityBytes() {
+        int capacityMB = configService.getConfig().getStorage().getVariantCacheMB();
+        if (capacityMB == 0) capacityMB = DEFAULT_CACHE_MB;
+        return Math.max(capacityMB, 0) * 1024L * 1024L;
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0; // Already gone
+        }
+    }
+
+    // Writes to the response and the variant file at once. Closing it leaves the response open.
+    private static final class TeeOutputStream extends FilterOutputStream {
+        private final OutputStream copy;
+
+        TeeOutputStream(OutputStream out, OutputStream copy) {
+            super(out);
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            copy.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            copy.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+            copy.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.exception.ConflictException;
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.CopyJobStatus;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.file.storage.ContentStoreService;
+import com.nas_backend.service.file.storage.StoragePlacementService;
+import com.nas_backend.service.system.LogService;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Server side copies of files and folders, the data never leaves the NAS.
+// Runs in the background, one worker per source drive, so every disk streams sequentially and the drives work in parallel.
+@Service
+public class CopyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CopyService.class);
+
+    private static final int MAX_RUNNING_JOBS = 2;
+    private static final int MAX_NAME_ATTEMPTS = 5; // Another upload or copy took the chosen name each time, practically never
+    private static final int BATCH_SIZE = 100; // Nodes saved per transaction
+    private static final Duration FINISHED_JOB_TTL = Duration.ofHours(1); // How long the result of a job can still be queried
+
+    private final FileIndexService fileIndexService;
+    private final FileService fileService;
+    private final ContentStoreService contentStoreService;
+    private final StoragePlacementService storagePlacementService;
+    private final LogService logService;
+
+    private final Map<String, CopyJob> jobs = new ConcurrentHashMap<>();
+    private final Semaphore jobSlots = new Semaphore(MAX_RUNNING_JOBS);
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "file-copy-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CopyService(FileIndexService fileIndexService, FileService fileService,
+                       ContentStoreService contentStoreService, StoragePlacementService storagePlacementService, LogService logService) {
+        this.fileIndexService = fileIndexService;
+        this.fileService = fileService;
+        this.contentStoreService = contentStoreService;
+        this.storagePlacementService = storagePlacementService;
+        this.logService = logService;
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Service methods
+
+    public CopyJobStatus startCopy(String username, String fromLogicalPath, String toLogicalPath) throws IOException, FileValidationException {
+        logger.info("Copy request: from [{}] to [{}]", fromLogicalPath, toLogicalPath);
+        dropExpiredJobs();
+
+        // Same naming rules as for a move
+        String requestedName = Paths.get(toLogicalPath).getFileName().toString();
+        if (requestedName.startsWith(".")) {
+            logger.warn("Copy REJECTED: Destination name starts with a dot. Path: {}", toLogicalPath);
+            throw new FileValidationException("Invalid destination name. Files and folders cannot start with a dot.");
+        }
+        if (toLogicalPath.equals(fromLogicalPath) || toLogicalPath.startsWith(fromLogicalPath + "/")) {
+            throw new FileValidationException("A folder cannot be copied into itself.");
+        }
+
+        FileNode rootNode = fileIndexService.getNode(fromLogicalPath);
+        if (rootNode == null) {
+            throw new IOException("Source resource not found in index: " + fromLogicalPath);
+        }
+
+        // Source nodes (only the subtree itself, not siblings that merely share the name prefix)
+        List<FileNode> sourceNodes = rootNode.isDirectory() ? fileIndexService.listSubtree(fromLogicalPath) : List.of(rootNode);
+
+        long totalFiles = sourceNodes.stream().filter(node -> !node.isDirectory()).count();
+        long totalBytes = sourceNodes.stream().filter(node -> !node.isDirectory()).mapToLong(FileNode::getSize).sum();
+
+        // Blob content is only referenced again, everything else (plain, packed or not yet deduplicated files) needs the
+        // space a second time (as stored, copies stay compressed)
+        boolean deduplication = contentStoreService.isDeduplicationEnabled();
+        long neededBytes = sourceNodes.stream()
+                .filter(node -> !node.isDirectory())
+                .filter(node -> !deduplication || node.getContentHash() == null || !contentStoreService.isBlob(node.getPhysicalPath()))
+                .mapToLong(node -> node.getStoredSize() != null ? node.getStoredSize() : node.getSize()).sum();
+        if (neededBytes > 0 && neededBytes > storagePlacementService.remainingQuotaBytes()) {
+            throw new FileValidationException("Storage Quota Exceeded! The copy needs " + neededBytes / (1024 * 1024) + " MB.");
+        }
+
+        String targetParentPath = Paths.get(toLogicalPath).getParent().toString().replace("\\", "/");
+        fileService.createVirtualPath(targetParentPath);
+
+        if (!jobSlots.tryAcquire()) {
+            throw new ConflictException("Too many copy jobs are running, try again later.");
+        }
+        // The final name is only chosen when the copy's nodes are created, until then the status shows the requested one
+        CopyJob job = new CopyJob(UUID.randomUUID().toString(), username, fromLogicalPath, toLogicalPath, totalFiles, totalBytes);
+        jobs.put(job.id, job);
+        try {
+            executor.submit(() -> runJob(job, sourceNodes));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            jobSlots.release();
+            throw new IOException("Copy could not be started, the server is shutting down.", e);
+        }
+
+        return job.toStatus();
+    }
+
+    public CopyJobStatus getStatus(String username, String jobId) throws IOException {
+        CopyJob job = jobs.get(jobId);
+        if (job == null || !job.username.equals(username)) {
+            throw new IOException("Copy job not found: " + jobId);
+        }
+        return job.toStatus();
+    }
+
+    // Helper methods
+
+    private void runJob(CopyJob job, List<FileNode> sourceNodes) {
+        try {
+            // Folders first (parents before children), so the new tree can be browsed while the files arrive.
+            // The top folder takes its final name here, everything below follows it.
+            List<FileNode> folders = sourceNodes.stream()
+                    .filter(FileNode::isDirectory)
+                    .sorted(Comparator.comparingInt(node -> node.getLogicalPath().length()))
+                    .toList();
+            if (!folders.isEmpty() && folders.get(0).getLogicalPath().equals(job.sourcePath)) {
+                createTopFolder(job, folders.get(0));
+                // Subfolders someone created in the new folder meanwhile are used as they are
+                List<FileNode> folderCopies = folders.stream().skip(1)
+                        .map(node -> newNode(node, targetPathOf(job, node), null))
+                        .filter(node -> !fileIndexService.nodeExists(node.getLogicalPath()))
+                        .toList();
+                for (int i = 0; i < folderCopies.size(); i += BATCH_SIZE) {
+                    fileIndexService.addOrUpdateNodesWithoutBackup(folderCopies.subList(i, Math.min(i + BATCH_SIZE, folderCopies.size())));
+                }
+            }
+
+            // Files grouped by the drive they are read from
+            Map<String, List<FileNode>> filesByDrive = new LinkedHashMap<>();
+            for (FileNode node : sourceNodes) {
+                if (node.isDirectory()) continue;
+                String drive = storagePlacementService.driveOf(node.getPhysicalPath());
+                filesByDrive.computeIfAbsent(drive != null ? drive : "", key -> new ArrayList<>()).add(node);
+            }
+
+            List<Future<?>> workers = new ArrayList<>();
+            for (Map.Entry<String, List<FileNode>> drive : filesByDrive.entrySet()) {
+                String sourceDrive = drive.getKey().isEmpty() ? null : drive.getKey();
+                workers.add(executor.submit(() -> copyFiles(job, sourceDrive, drive.getValue())));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+
+            fileIndexService.backupIndex();
+            job.state = "COMPLETED";
+
+            String details = "To: " + job.targetPath + ", " + job.copiedFiles.get() + " files, " + job.failedFiles.get() + " failed";
+            logService.logTransfer(job.username, "COPY", job.sourcePath, details);
+            logger.info("Copy of '{}' finished. {}", job.sourcePath, details);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.state = "FAILED";
+            job.lastError = "Copy was interrupted.";
+        } catch (ExecutionException | IOException | RuntimeException e) {
+            job.state = "FAILED";
+            job.lastError = e.getMessage();
+            logger.error("Copy of '{}' failed.", job.sourcePath, e);
+        } finally {
+            job.finishedAt = Instant.now();
+            jobSlots.release();
+        }
+    }
+
+    // Creates the copy's top folder under a free name. The insert claims the name, when another upload or copy got there
+    // between the check and the insert the next free name is tried.
+    private void createTopFolder(CopyJob job, FileNode source) throws IOException {
+        Path requested = Paths.get(job.targetPath);
+        String parentPath = requested.getParent().toString().replace("\\", "/");
+        String requestedName = requested.getFileName().toString();
+
+        for (int attempt = 0; attempt < MAX_NAME_ATTEMPTS; attempt++) {
+            String finalPath = Paths.get(parentPath, freeName(parentPath, requestedName)).toString().replace("\\", "/");
+            try {
+                fileIndexService.addOrUpdateNodesWithoutBackup(List.of(newNode(source, finalPath, null)));
+            } catch (DataIntegrityViolationException e) {
+                continue;
+            }
+            if (!finalPath.equals(job.targetPath)) {
+                logger.warn("CONFLICT RESOLVED: Saving the copy as: {}", finalPath);
+                job.targetPath = finalPath;
+            }
+            return;
+        }
+        throw new ConflictException("The name " + requestedName + " kept being taken, try again.");
+    }
+
+    private String freeName(String parentPath, String requestedName) {
+        return FileService.resolveUniqueName(requestedName,
+                name -> fileIndexService.nodeExists(Paths.get(parentPath, name).toString().replace("\\", "/")));
+    }
+
+    // sourceDrive is null for files that lie outside the configured drives
+    private void copyFiles(CopyJob job, String sourceDrive, List<FileNode> files) {
+        List<FileNode> batch = new ArrayList<>();
+
+        for (FileNode source : files) {
+            if (Thread.currentThread().isInterrupted()) break;
+
+            try {
+                // The source drive while it has room, a clone there costs no data and no second disk
+                String storagePath = storagePlacementService.findDrivePreferring(sourceDrive, source.getSize());
+                Path plainTarget = FileService.newPhysicalPath(storagePath, job.username, source.getFileName());
+
+                ContentStoreService.StoredFile stored = contentStoreService.copy(source, storagePath, plainTarget);
+                if (stored == null) {
+                    throw new IOException("Source file not found on disk: " + source.getLogicalPath());
+                }
+
+                batch.add(newNode(source, targetPathOf(job, source), stored));
+                job.copiedBytes.addAndGet(source.getSize());
+            } catch (IOException | RuntimeException e) {
+                job.fileFailed(source.getLogicalPath(), e);
+                logger.error("Copy: Failed to copy {}", source.getLogicalPath(), e);
+            }
+
+            if (batch.size() >= BATCH_SIZE) {
+                saveBatch(job, batch);
+            }
+        }
+        saveBatch(job, batch);
+    }
+
+    // The names are checked right before the insert, which claims them (logical paths are unique). A file that
+    // arrived under the same name since the copy started keeps it, the copy is saved under the next free name.
+    private void saveBatch(CopyJob job, List<FileNode> batch) {
+        if (batch.isEmpty()) return;
+
+        batch.forEach(node -> claimFreeName(job, node));
+        try {
+            fileIndexService.addOrUpdateNodesWithoutBackup(batch);
+            job.copiedFiles.addAndGet(batch.size());
+        } catch (DataIntegrityViolationException e) {
+            // A name was taken between the check and the insert, the batch is saved one by one
+            for (FileNode node : batch) {
+                saveAlone(job, node);
+            }
+        } catch (RuntimeException e) {
+            releaseUnsaved(job, List.copyOf(batch), e);
+        }
+        batch.clear();
+    }
+
+    private void saveAlone(CopyJob job, FileNode node) {
+        for (int attempt = 0; attempt < MAX_NAME_ATTEMPTS; attempt++) {
+            node.setId(null); // Assigned by the rolled back insert
+            claimFreeName(job, node);
+            try {
+                fileIndexService.addOrUpdateNodesWithoutBackup(List.of(node));
+                job.copiedFiles.incrementAndGet();
+                return;
+            } catch (DataIntegrityViolationException e) {
+                // Taken again, the next free name
+            } catch (RuntimeException e) {
+                releaseUnsaved(job, List.of(node), e);
+                return;
+            }
+        }
+        releaseUnsaved(job, List.of(node), new IOException("The name kept being taken."));
+    }
+
+    private void claimFreeName(CopyJob job, FileNode node) {
+        if (!fileIndexService.nodeExists(node.getLogicalPath())) return;
+
+        String finalName = freeName(node.getParentPath(), node.getFileName());
+        String finalPath = Paths.get(node.getParentPath(), finalName).toString().replace("\\", "/");
+        logger.warn("CONFLICT RESOLVED: Saving the copy of {} as: {}", node.getLogicalPath(), finalPath);
+        if (node.getLogicalPath().equals(job.targetPath)) job.targetPath = finalPath; // The copy of a single file
+        node.setLogicalPath(finalPath);
+        node.setFileName(finalName);
+    }
+
+    // Index entries could not be created, do not leave unreachable physical copies behind
+    private void releaseUnsaved(CopyJob job, List<FileNode> nodes, Exception e) {
+        for (FileNode node : nodes) {
+            contentStoreService.release(node.getPhysicalPath());
+            job.fileFailed(node.getLogicalPath(), e);
+        }
+        logger.error("Copy: Failed to save {} nodes.", nodes.size(), e);
+    }
+
+    private String targetPathOf(CopyJob job, FileNode source) {
+        return job.targetPath + source.getLogicalPath().substring(job.sourcePath.length());
+    }
+
+    // stored is null for folders
+    private FileNode newNode(FileNode source, String logicalPath, ContentStoreService.StoredFile stored) {
+        Path path = Paths.get(logicalPath);
+
+        FileNode node = new FileNode();
+        node.setLogicalPath(logicalPath);
+        node.setParentPath(path.getParent().toString().replace("\\", "/"));
+        node.setFileName(path.getFileName().toString());
+        node.setDirectory(source.isDirectory());
+        if (stored != null) {
+            stored.applyTo(node);
+        } else {
+            node.setPhysicalPath("virtual");
+            node.setSize(source.getSize());
+        }
+        node.setCreatedAt(Instant.now());
+        node.setModifiedAt(Instant.now());
+        node.setMimeType(source.getMimeType());
+        return node;
+    }
+
+    private void dropExpiredJobs() {
+        Instant cutoff = Instant.now().minus(FINISHED_JOB_TTL);
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(cutoff));
+    }
+
+    // Live state of one copy job, updated by its workers
+    private static class CopyJob {
+        private final String id;
+        private final String username;
+        private final String sourcePath;
+        private volatile String targetPath; // Requested path until the copy's top node got its final name
+        private final long totalFiles;
+        private final long totalBytes;
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong copiedFiles = new AtomicLong();
+        private final AtomicLong failedFiles = new AtomicLong();
+        private final AtomicLong copiedBytes = new AtomicLong();
+        private volatile String state = "RUNNING";
+        private volatile Instant finishedAt;
+        private volatile String lastError;
+
+        private CopyJob(String id, String username, String sourcePath, String targetPath, long totalFiles, long totalBytes) {
+            this.id = id;
+            this.username = username;
+            this.sourcePath = sourcePath;
+            this.targetPath = targetPath;
+            this.totalFiles = totalFiles;
+            this.totalBytes = totalBytes;
+        }
+
+        private void fileFailed(String logicalPath, Exception e) {
+            failedFiles.incrementAndGet();
+            lastError = logicalPath + ": " + e.getMessage();
+        }
+
+        private CopyJobStatus toStatus() {
+            return new CopyJobStatus(id, sourcePath, targetPath, state, totalFiles, copiedFiles.get(), failedFiles.get(), totalBytes,
+                    copiedBytes.get(), startedAt.toString(), finishedAt != null ? finishedAt.toString() : "N/A", lastError);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.exception.ConflictException;
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.DeltaSignature;
+import com.nas_backend.model.dto.FileOperationResponse;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.storage.ContentReader;
+import com.nas_backend.service.file.storage.ContentStoreService;
+import com.nas_backend.service.file.storage.StoragePlacementService;
+import com.nas_backend.service.file.storage.StoredContent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// rsync style updates of big files that change a little at a time (VM images, mailbox files...).
+// The client fetches block signatures of the stored version, then sends only the changed data plus instructions
+// which stored blocks to reuse. The new version is built next to the old one and swapped into the same node.
+//
+// Delta format (big endian), a sequence of instructions:
+//   'C' <long firstBlock> <int blockCount>   copy blocks of the stored version
+//   'D' <int length> <length bytes>          literal data
+//   'E'                                      end of the delta
+@Service
+public class DeltaSyncService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeltaSyncService.class);
+
+    private static final String STAGING_DIR_NAME = ".staging";
+    private static final int MIN_BLOCK_SIZE = 1024;
+    private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+    private static final int MIN_DEFAULT_BLOCK_SIZE = 4 * 1024;
+    private static final long MAX_BLOCKS = 128 * 1024; // Keeps the signature response at a few MB even for huge files
+    private static final int MAX_LITERAL_LENGTH = 16 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int STRONG_HASH_BYTES = 16;
+
+    private static final int OP_COPY = 'C';
+    private static final int OP_DATA = 'D';
+    private static final int OP_END = 'E';
+
+    private final FileIndexService fileIndexService;
+    private final FileService fileService;
+    private final ContentStoreService contentStoreService;
+    private final StoragePlacementService storagePlacementService;
+    private final AppConfigService configService;
+
+    // Logical paths with an update being built, a second one for the same file would only lose the race
+    private final Set<String> activeUpdates = ConcurrentHashMap.newKeySet();
+
+    public DeltaSyncService(FileIndexService fileIndexService, FileService fileService, ContentStoreService contentStoreService,
+                            StoragePlacementService storagePlacementService, AppConfigService configService) {
+        this.fileIndexService = fileIndexService;
+        this.fileService = fileService;
+        this.contentStoreService = contentStoreService;
+        this.storagePlacementService = storagePlacementService;
+        this.configService = configService;
+    }
+
+    // Service methods
+
+    // blockSize is null when the client leaves the choice to the server (about sqrt(fileSize), like rsync)
+    public DeltaSignature signature(String logicalPath, Integer blockSize) throws IOException, FileValidationException {
+        FileNode node = requireFile(logicalPath);
+        StoredContent content = StoredContent.of(node);
+        if (!content.exists()) {
+            throw new IOException("File not found on disk: " + logicalPath);
+        }
+
+        long fileSize = content.size();
+        int size = blockSize != null ? validateBlockSize(blockSize) : defaultBlockSize(fileSize);
+        if ((fileSize + size - 1) / size > MAX_BLOCKS) {
+            throw new FileValidationException("Block size is too small for this file, use at least " + minBlockSizeFor(fileSize) + " bytes.");
+        }
+
+        List<DeltaSignature.Block> blocks = new ArrayList<>((int) ((fileSize + size - 1) / size));
+        MessageDigest strongHash = newDigest();
+        byte[] block = new byte[size];
+
+        try (InputStream in = new BufferedInputStream(content.openStream(), BUFFER_SIZE)) {
+            int read;
+            while ((read = in.readNBytes(block, 0, size)) > 0) {
+                strongHash.update(block, 0, read);
+                String strong = HexFormat.of().formatHex(Arrays.copyOf(strongHash.digest(), STRONG_HASH_BYTES));
+                blocks.add(new DeltaSignature.Block(weakChecksum(block, read), strong));
+            }
+        }
+
+        logger.info("Delta signature for '{}': {} blocks of {} bytes", logicalPath, blocks.size(), size);
+        return new DeltaSignature(logicalPath, fileSize, size, versionOf(node), blocks);
+    }
+
+    // expectedDigest (SHA-256 hex of the complete new version) is optional, with it a wrong delta can never be committed
+    public FileOperationResponse applyDelta(String logicalPath, String baseVersion, int blockSize, String expectedDigest, InputStream delta)
+            throws IOException, FileValidationException {
+        validateBlockSize(blockSize);
+
+        if (!activeUpdates.add(logicalPath)) {
+            throw new ConflictException("Another update of this file is in progress.");
+        }
+
+        try {
+            FileNode node = requireFile(logicalPath);
+            if (!versionOf(node).equals(baseVersion)) {
+                throw new ConflictException("File was changed after the signature was taken, fetch a new signature.");
+            }
+
+            String basePhysicalPath = node.getPhysicalPath();
+            StoredContent base = StoredContent.of(node);
+            if (!base.exists()) {
+                throw new IOException("File not found on disk: " + logicalPath);
+            }
+            long baseSize = base.size();
+
+            // Both versions exist until the swap, the new one is built on the drive of the old one. Its length is only
+            // known while the delta is applied, so the rebuild stops where it would pass the quota.
+            long quotaBytes = storagePlacementService.remainingQuotaBytes();
+            String storagePath = storagePlacementService.driveOf(basePhysicalPath);
+            if (storagePath == null) {
+                storagePath = storagePlacementService.findDriveWithMostSpace(baseSize);
+            }
+
+            Path stagedFile = Paths.get(storagePath, STAGING_DIR_NAME, UUID.randomUUID() + ".delta");
+            Files.createDirectories(stagedFile.getParent());
+            long maxUploadBytes = (long) configService.getConfig().getServer().getMaxUploadSizeMB() * 1024 * 1024;
+
+            ContentStoreService.StoredFile stored;
+            try {
+                MessageDigest digest = newDigest();
+                RebuildStats stats = rebuild(base, baseSize, blockSize, delta, stagedFile, maxUploadBytes, quotaBytes, digest);
+                String contentHash = HexFormat.of().formatHex(digest.digest());
+
+                if (expectedDigest != null && !expectedDigest.equalsIgnoreCase(contentHash)) {
+                    throw new FileValidationException("Rebuilt file does not match the expected digest, the delta was not made for the stored version.");
+                }
+
+                logger.info("Delta for '{}' rebuilt: {} bytes, {} reused from the stored version, {} sent", logicalPath, stats.size(),
+                        stats.copiedBytes(), stats.literalBytes());
+
+                String userName = logicalPath.split("/")[0];
+                Path plainTarget = FileService.newPhysicalPath(storagePath, userName, node.getFileName());
+                stored = contentStoreService.adopt(stagedFile, storagePath, plainTarget, contentHash, userName);
+            } finally {
+                Files.deleteIfExists(stagedFile); // Already moved away on success
+            }
+
+            try {
+                return fileService.replaceFileContent(logicalPath, basePhysicalPath, stored);
+            } catch (IOException | RuntimeException e) {
+                contentStoreService.release(stored.physicalPath());
+                throw e;
+            }
+        } finally {
+            activeUpdates.remove(logicalPath);
+        }
+    }
+
+    // Helper methods
+
+    record RebuildStats(long size, long copiedBytes, long literalBytes) {}
+
+    static RebuildStats rebuild(StoredContent base, long baseSize, int blockSize, InputStream delta, Path target, long maxLength, long quotaBytes,
+                                MessageDigest digest) throws IOException {
+        long baseBlocks = (baseSize + blockSize - 1) / blockSize;
+        long copiedBytes = 0;
+        long literalBytes = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(delta, BUFFER_SIZE));
+             ContentReader baseReader = base.openReader();
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+            while (true) {
+                int op = in.read();
+                if (op == OP_END) {
+                    return new RebuildStats(copiedBytes + literalBytes, copiedBytes, literalBytes);
+                }
+
+                if (op == OP_COPY) {
+                    long firstBlock = in.readLong();
+                    int blockCount = in.readInt();
+                    if (firstBlock < 0 || blockCount <= 0 || firstBlock + blockCount > baseBlocks) {
+                        throw new FileValidationException("Delta references blocks outside of the stored version.");
+                    }
+
+                    long position = firstBlock * blockSize;
+                    long length = Math.min((long) blockCount * blockSize, baseSize - position);
+                    checkLength(copiedBytes + literalBytes + length, maxLength, quotaBytes);
+                    copyFromBase(baseReader, position, length, out, buffer, digest);
+                    copiedBytes += length;
+                } else if (op == OP_DATA) {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_LITERAL_LENGTH) {
+                        throw new FileValidationException("Invalid literal length in delta: " + length);
+                    }
+                    checkLength(copiedBytes + literalBytes + length, maxLength, quotaBytes);
+                    copyLiteral(in, length, out, buffer, digest);
+                    literalBytes += length;
+                } else if (op < 0) {
+                    throw new FileValidationException("Delta is incomplete, the end marker is missing.");
+                } else {
+                    throw new FileValidationException("Unknown delta instruction: " + op);
+                }
+            }
+        } catch (EOFException e) {
+            throw new FileValidationException("Delta is incomplete, it ends in the middle of an instruction.");
+        }
+    }
+
+    private static void checkLength(long length, long maxLength, long quotaBytes) throws FileValidationException {
+        if (length > maxLength) {
+            throw new FileValidationException("File size exceeds the maximum upload limit.");
+        }
+        if (length > quotaBytes) {
+            throw new FileValidationException("Storage Quota Exceeded! Not enough space left to build the new version next to the old one.");
+        }
+    }
+
+    private static void copyFromBase(ContentReader base, long position, long length, FileChannel out, ByteBuffer buffer, MessageDigest digest) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = base.read(position, buffer);
+            if (read < 0) throw new IOException("Stored version ended unexpectedly while rebuilding the file.");
+            position += read;
+            writeAll(buffer, out, digest);
+        }
+    }
+
+    private static void copyLiteral(DataInputStream in, int length, FileChannel out, ByteBuffer buffer, MessageDigest digest) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int chunk = Math.min(buffer.capacity(), remaining);
+            buffer.clear();
+            in.readFully(buffer.array(), 0, chunk);
+            buffer.position(chunk);
+            remaining -= chunk;
+            writeAll(buffer, out, digest);
+        }
+    }
+
+    private static void writeAll(ByteBuffer buffer, FileChannel out, MessageDigest digest) throws IOException {
+        buffer.flip();
+        digest.update(buffer.array(), 0, buffer.limit());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private FileNode requireFile(String logicalPath) throws IOException {
+        FileNode node = fileIndexService.getNode(logicalPath);
+        if (node == null || node.isDirectory()) {
+            throw new IOException("File not found in index: " + logicalPath);
+        }
+        return node;
+    }
+
+    private int validateBlockSize(int blockSize) throws FileValidationException {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new FileValidationException("Block size must be between " + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE + " bytes.");
+        }
+        return blockSize;
+    }
+
+    // Power of two close to sqrt(fileSize), grown until the signature stays under MAX_BLOCKS
+    private static int defaultBlockSize(long fileSize) {
+        long size = Long.highestOneBit(Math.max((long) Math.sqrt(fileSize), 1));
+        size = Math.max(size, MIN_DEFAULT_BLOCK_SIZE);
+        while (size < MAX_BLOCK_SIZE && (fileSize + size - 1) / size > MAX_BLOCKS) {
+            size <<= 1;
+        }
+        return (int) Math.min(size, MAX_BLOCK_SIZE);
+    }
+
+    private static long minBlockSizeFor(long fileSize) {
+        return (fileSize + MAX_BLOCKS - 1) / MAX_BLOCKS;
+    }
+
+    // Changes with every new version of the content (modification time and size, the path plays no part)
+    private static String versionOf(FileNode node) {
+        long modified = node.getModifiedAt() != null ? node.getModifiedAt().toEpochMilli() : 0;
+        return Long.toHexString(modified) + "-" + Long.toHexString(node.getSize());
+    }
+
+    // rsync's weak checksum, see DeltaSignature.Block
+    static int weakChecksum(byte[] data, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+        return (a & 0xFFFF) | (b << 16);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
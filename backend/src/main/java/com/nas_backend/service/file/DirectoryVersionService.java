@@ -0,0 +1,37 @@
+package com.nas_backend.service.file;
+
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Version counters of directory listings, the ETag of /api/files/list. A listing keeps its version until a child is added,
+// changed, moved or removed (see FileNodeListener). Counters live in memory only: every start gets a new epoch, so tags
+// handed out before a restart never match again.
+@Service
+public class DirectoryVersionService {
+
+    private final String epoch;
+    private final AtomicLong clock = new AtomicLong();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+
+    public DirectoryVersionService() {
+        byte[] random = new byte[6];
+        new SecureRandom().nextBytes(random);
+        this.epoch = HexFormat.of().formatHex(random);
+    }
+
+    public void touch(String directoryLogicalPath) {
+        if (directoryLogicalPath != null) {
+            versions.put(directoryLogicalPath, clock.incrementAndGet());
+        }
+    }
+
+    // Strong ETag of the listing, taken before the listing is read (a change in between only costs one extra fetch)
+    public String etag(String directoryLogicalPath) {
+        return "\"dir-" + epoch + "-" + versions.getOrDefault(directoryLogicalPath, 0L) + "\"";
+    }
+}
@@ -0,0 +1,313 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.model.dto.ByteRange;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.file.storage.BlockCacheService;
+import com.nas_backend.service.file.storage.ReadAheadService;
+import com.nas_backend.service.file.storage.StoredContent;
+import com.nas_backend.service.system.LogService;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+// Sends a file as an HTTP response: whole (200), one byte range (206) or several (206 multipart/byteranges).
+// Plain bytes go from disk to the socket without passing through the heap, by Tomcat's sendfile where the connector offers
+// it and FileChannel.transferTo otherwise. Files that are asked for again and again are served from the block cache,
+// ranges that a client (a player, say) requests one after another are read ahead (see ReadAheadService). Compressed or encrypted content is decoded from the block holding the first
+// requested byte on, so seeking in a video or resuming a download never reads the file from the start.
+// Every response carries a strong ETag and Last-Modified from the index, a revalidation that still matches is answered
+// with 304 after a single lookup, before the disk is touched.
+@Service
+public class FileDeliveryService {
+
+    // Request attributes of Tomcat's sendfile support (the same ones its DefaultServlet uses)
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final long MIN_SENDFILE_SIZE = 48 * 1024; // Smaller bodies are cheaper to copy (Tomcat's own threshold)
+
+    private final FileService fileService;
+    private final LogService logService;
+    private final BlockCacheService blockCacheService;
+    private final ReadAheadService readAheadService;
+    private final ContentEncodingService contentEncodingService;
+    private final SecureRandom random = new SecureRandom();
+
+    // The data of one response: content (logical size length) stored at physicalPath, cached is null without a block cache
+    private record Source(String physicalPath, StoredContent content, long length, BlockCacheService.CachedContent cached) {}
+
+    public FileDeliveryService(FileService fileService, LogService logService, BlockCacheService blockCacheService,
+                               ReadAheadService readAheadService, ContentEncodingService contentEncodingService) {
+        this.fileService = fileService;
+        this.logService = logService;
+        this.blockCacheService = blockCacheService;
+        this.readAheadService = readAheadService;
+        this.contentEncodingService = contentEncodingService;
+    }
+
+    // inline: for players and viewers (the file's own type, shown in place), otherwise a download (attachment).
+    // Throws (before anything is written) if the file does not exist.
+    public void send(String logicalPath, boolean inline, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FileNode node = fileService.getFileForDownload(logicalPath);
+
+        // Text files go out compressed when the client accepts it (not for ranges, they address the file's own bytes)
+        String encoding = request.getHeader(HttpHeaders.RANGE) == null ? contentEncodingService.negotiate(request, node) : null;
+        if (contentEncodingService.isEncodable(node)) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        String etag = etag(node, encoding);
+        long lastModified = node.getModifiedAt() != null ? node.getModifiedAt().toEpochMilli() : -1;
+        response.setHeader(HttpHeaders.ETAG, etag);
+        if (lastModified >= 0) {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        }
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return; // 304 (or 412 for a failed If-Match), no body
+        }
+
+        fileService.requireContentOnDisk(node);
+        StoredContent content = StoredContent.of(node);
+        long length = content.size();
+        BlockCacheService.CachedContent cached = blockCacheService.isEnabled() ? blockCacheService.open(node.getPhysicalPath(), content, length) : null;
+        Source source = new Source(node.getPhysicalPath(), content, length, cached);
+
+        String contentType = inline && node.getMimeType() != null ? node.getMimeType() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, (inline ? "inline" : "attachment") + "; filename=\"" + node.getFileName() + "\"");
+        if (inline) {
+            // Uploaded HTML or SVG must not run scripts under the NAS's origin
+            response.setHeader("X-Content-Type-Options", "nosniff");
+            response.setHeader("Content-Security-Policy", "sandbox");
+        }
+
+        if (encoding != null) {
+            sendEncoded(node, content, encoding, contentType, request, response);
+            return;
+        }
+
+        List<ByteRange> ranges = requestedRanges(request, node, etag, length);
+        if (ranges == null) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return;
+        }
+
+        // Seeking players send many range requests, only the start of a transfer is logged
+        if (ranges.isEmpty() || ranges.get(0).start() == 0) {
+            String userName = logicalPath.split("/")[0];
+            logService.logTransfer(userName, "DOWNLOAD", logicalPath);
+        }
+
+        boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            if (!head) sendRegion(source, 0, length, false, request, response);
+        } else if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, length));
+            response.setContentLengthLong(range.end() - range.start() + 1);
+            if (!head) sendRegion(source, range.start(), range.end() - range.start() + 1, true, request, response);
+        } else {
+            sendMultipart(source, ranges, contentType, head, response);
+        }
+    }
+
+    // Helper methods
+
+    // Empty for the whole file, null if no requested range can be served
+    private List<ByteRange> requestedRanges(HttpServletRequest request, FileNode node, String etag, long length) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !ifRangeMatches(request, node, etag)) return List.of();
+
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return List.of(); // Malformed or too many ranges, answered with the whole file
+        }
+
+        List<ByteRange> ranges = new ArrayList<>();
+        long total = 0;
+        for (HttpRange httpRange : httpRanges) {
+            long start;
+            long end;
+            try {
+                start = httpRange.getRangeStart(length);
+                end = httpRange.getRangeEnd(length);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (start >= length || end < start) continue; // Starts beyond the end, the other ranges may still be served
+
+            ranges.add(new ByteRange(start, end));
+            total += end - start + 1;
+        }
+        if (ranges.isEmpty()) return httpRanges.isEmpty() ? List.of() : null;
+        if (total > length) return List.of(); // Overlapping ranges asking for more than the file, not worth the extra work
+        return ranges;
+    }
+
+    // If-Range makes a resumed download fall back to the whole file when the file changed in the meantime
+    private boolean ifRangeMatches(HttpServletRequest request, FileNode node, String etag) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag); // Strong comparison, a weak tag never matches
+        }
+        if (node.getModifiedAt() == null) return false;
+
+        long since;
+        try {
+            since = request.getDateHeader(HttpHeaders.IF_RANGE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return node.getModifiedAt().getEpochSecond() <= since / 1000;
+    }
+
+    // Changes with every upload over the file (new modification time and usually size), never shared by two files.
+    // Each encoding is a representation of its own with its own tag.
+    private static String etag(FileNode node, String encoding) {
+        long modifiedAt = node.getModifiedAt() != null ? node.getModifiedAt().toEpochMilli() : 0;
+        String suffix = encoding != null ? "-" + encoding : "";
+        return "\"" + node.getId() + "-" + Long.toHexString(modifiedAt) + "-" + node.getSize() + suffix + "\"";
+    }
+
+    // The whole file, compressed. A stored variant goes out like any file (known length, sendfile), otherwise the file is
+    // compressed while it is sent.
+    private void sendEncoded(FileNode node, StoredContent content, String encoding, String contentType, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        String userName = node.getLogicalPath().split("/")[0];
+        logService.logTransfer(userName, "DOWNLOAD", node.getLogicalPath(), "Sent as " + encoding);
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+        boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+
+        Path variant = contentEncodingService.cachedVariant(node, encoding);
+        if (variant != null) {
+            StoredContent variantContent = StoredContent.of(variant.toString());
+            long variantLength = variantContent.size();
+            response.setContentLengthLong(variantLength);
+            if (!head) sendRegion(new Source(variant.toString(), variantContent, variantLength, null), 0, variantLength, false, request, response);
+            return;
+        }
+
+        if (head) return; // Length unknown until it is compressed
+        ServletOutputStream out = response.getOutputStream();
+        contentEncodingService.writeEncoded(node, content, encoding, out);
+        out.flush();
+    }
+
+    // ranged: one of possibly many range requests for the file, these are read ahead
+    private void sendRegion(Source source, long position, long count, boolean ranged, HttpServletRequest request,
+                            HttpServletResponse response) throws IOException {
+        StoredContent content = source.content();
+        if (source.cached() != null && blockCacheService.isHot(source.cached(), position)) {
+            ServletOutputStream out = response.getOutputStream();
+            blockCacheService.transferTo(source.cached(), position, count, Channels.newChannel(out));
+            out.flush();
+            return;
+        }
+
+        if (ranged && readAheadService.isEnabled()) {
+            ServletOutputStream out = response.getOutputStream();
+            readAheadService.transferTo(clientOf(request), source.physicalPath(), content, source.length(), position, count,
+                    Channels.newChannel(out));
+            out.flush();
+            return;
+        }
+
+        if (content.format() == null && count >= MIN_SENDFILE_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // Tomcat sends it from the file after this request returns, nothing goes through the response stream
+            long start = (content.packed() ? content.offset() : 0) + position;
+            request.setAttribute(SENDFILE_FILENAME, content.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+
+        ServletOutputStream out = response.getOutputStream();
+        content.transferTo(position, count, Channels.newChannel(out));
+        out.flush();
+    }
+
+    private void sendMultipart(Source source, List<ByteRange> ranges, String contentType, boolean head, HttpServletResponse response)
+            throws IOException {
+        long length = source.length();
+        String boundary = "nas-" + newBoundaryId();
+
+        List<byte[]> partHeaders = new ArrayList<>();
+        long bodyLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n" + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            bodyLength += partHeader.length + range.end() - range.start() + 1;
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        bodyLength += end.length;
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(bodyLength);
+        if (head) return;
+
+        ServletOutputStream out = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (int i = 0; i < ranges.size(); i++) {
+            ByteRange range = ranges.get(i);
+            out.write(partHeaders.get(i));
+            long count = range.end() - range.start() + 1;
+            if (source.cached() != null && blockCacheService.isHot(source.cached(), range.start())) {
+                blockCacheService.transferTo(source.cached(), range.start(), count, channel);
+            } else {
+                source.content().transferTo(range.start(), count, channel);
+            }
+        }
+        out.write(end);
+        out.flush();
+    }
+
+    // Who reads, to tell apart two devices playing the same file (the address alone is shared behind NAT or a proxy)
+    private static String clientOf(HttpServletRequest request) {
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        String address = forwardedFor != null ? forwardedFor.split(",")[0].trim() : request.getRemoteAddr();
+        String userAgent = request.getHeader(HttpHeaders.USER_AGENT);
+        return address + "|" + (userAgent != null ? userAgent : "");
+    }
+
+    private String newBoundaryId() {
+        byte[] id = new byte[8];
+        random.nextBytes(id);
+        return HexFormat.of().formatHex(id);
+    }
+
+    private static String contentRange(ByteRange range, long length) {
+        return "bytes " + range.start() + "-" + range.end() + "/" + length;
+    }
+}
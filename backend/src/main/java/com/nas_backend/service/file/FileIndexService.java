@@ -1,45 +1,89 @@
 package com.nas_backend.service.file;
 
+import com.nas_backend.model.dto.ArchiveNode;
 import com.nas_backend.model.entity.FileNode;
 import com.nas_backend.repository.FileNodeRepository;
 import com.nas_backend.service.AppConfigService;
 import com.nas_backend.service.system.BackupService;
 import com.nas_backend.service.system.LogService;
 
+import com.zaxxer.hikari.HikariDataSource;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Objects;
 import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+// The file node index. SQLite is the durable store, reads are served by the in-memory PathIndex in front of it
+// (loaded at startup from a snapshot file, or from the table when the snapshot is missing or outdated).
 @Service
 public class FileIndexService {
     private static final Logger logger = LoggerFactory.getLogger(FileIndexService.class);
     private static final String DATA_DIR_NAME = "data";
+    private static final String SNAPSHOT_FILE_NAME = "path-index.snapshot";
+    private static final int LOAD_PAGE_SIZE = 5000;
+    private static final int IDS_PER_QUERY = 500; // Stays below SQLite's limit of bound parameters
+    private static final int SNAPSHOT_BUFFER_SIZE = 64 * 1024;
+
+    // Every change to file_nodes moves this counter (triggers, so changes made around the application count too).
+    // A snapshot is only used if it was written at the generation the DB is still at.
+    private static final String[] GENERATION_DDL = {
+            "CREATE TABLE IF NOT EXISTS file_nodes_generation (id INTEGER PRIMARY KEY, generation INTEGER NOT NULL)",
+            "INSERT OR IGNORE INTO file_nodes_generation (id, generation) VALUES (1, 0)",
+            "CREATE TRIGGER IF NOT EXISTS file_nodes_generation_insert AFTER INSERT ON file_nodes " +
+                    "BEGIN UPDATE file_nodes_generation SET generation = generation + 1 WHERE id = 1; END",
+            "CREATE TRIGGER IF NOT EXISTS file_nodes_generation_update AFTER UPDATE ON file_nodes " +
+                    "BEGIN UPDATE file_nodes_generation SET generation = generation + 1 WHERE id = 1; END",
+            "CREATE TRIGGER IF NOT EXISTS file_nodes_generation_delete AFTER DELETE ON file_nodes " +
+                    "BEGIN UPDATE file_nodes_generation SET generation = generation + 1 WHERE id = 1; END"
+    };
+    private static final String GENERATION_QUERY = "SELECT generation FROM file_nodes_generation WHERE id = 1";
 
     private final FileNodeRepository fileNodeRepository;
     private final AppConfigService configService;
     private final BackupService backupService;
     private final LogService logService;
+    private final PathIndex pathIndex;
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile long snapshotChangeCount = -1; // Change count of the index when the last snapshot was written or read
 
-    public FileIndexService(AppConfigService appConfigService, FileNodeRepository fileNodeRepository, BackupService backupService, LogService logService) {
+    public FileIndexService(AppConfigService appConfigService, FileNodeRepository fileNodeRepository, BackupService backupService, LogService logService,
+                            PathIndex pathIndex, JdbcTemplate jdbcTemplate) {
         this.configService = appConfigService;
         this.fileNodeRepository = fileNodeRepository;
         this.backupService = backupService;
         this.logService = logService;
+        this.pathIndex = pathIndex;
+        this.jdbcTemplate = jdbcTemplate;
     }
 
-    // If file node DB does not exist, run a backup search
+    // If file node DB does not exist, run a backup search. Then load the path index.
     @PostConstruct
     private void loadIndexOnStartup() {
+        checkConnectionPool();
         String rootPath = System.getProperty("APP_ROOT_PATH");
         String dbPath = Paths.get(rootPath, DATA_DIR_NAME, "nas.db").toString();
         File dbFile = new File(dbPath);
@@ -48,6 +92,7 @@ public class FileIndexService {
             // Scenario A: File node DB exists
             logger.info("Database found at {}. Starting application.", dbPath);
             logger.info("Found {} existing nodes in database.", fileNodeRepository.count());
+            loadPathIndex();
             return;
         }
 
@@ -65,6 +110,119 @@ public class FileIndexService {
             logger.error(msg);
             logService.logSystemEvent(msg);
         }
+        loadPathIndex();
+    }
+
+    private void loadPathIndex() {
+        long start = System.currentTimeMillis();
+        try {
+            for (String statement : GENERATION_DDL) {
+                jdbcTemplate.execute(statement);
+            }
+            Long generation = jdbcTemplate.queryForObject(GENERATION_QUERY, Long.class);
+
+            PathIndex.State loaded = readSnapshot(generation);
+            String source = "snapshot";
+            if (loaded == null) {
+                // Keyset paging over the whole table, changes committed in the meantime are replayed by install()
+                loaded = new PathIndex.State();
+                long lastId = 0;
+                while (true) {
+                    List<FileNode> page = fileNodeRepository.findNodesAfterId(lastId, PageRequest.of(0, LOAD_PAGE_SIZE));
+                    for (FileNode node : page) {
+                        loaded.add(node);
+                    }
+                    if (page.size() < LOAD_PAGE_SIZE) break;
+                    lastId = page.get(page.size() - 1).getId();
+                }
+                source = "database";
+            }
+            pathIndex.install(loaded);
+            snapshotChangeCount = source.equals("snapshot") ? pathIndex.changeCount() : -1;
+            logger.info("Path index: Loaded {} nodes from the {} in {} ms.", loaded.size(), source, System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            // Everything keeps working, only slower: reads go to the DB
+            logger.error("Path index: Could not be loaded, serving lookups from the database.", e);
+            pathIndex.disable();
+        }
+    }
+
+    // The snapshot's index if it matches the DB, null if there is none or it is outdated or unreadable
+    private PathIndex.State readSnapshot(Long generation) {
+        Path snapshot = snapshotPath();
+        if (generation == null || !Files.isRegularFile(snapshot)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshot), SNAPSHOT_BUFFER_SIZE)))) {
+            PathIndex.State state = new PathIndex.State();
+            long snapshotGeneration = PathIndex.readSnapshot(in, state);
+            if (snapshotGeneration != generation) {
+                logger.info("Path index: Snapshot is outdated (generation {}, database at {}), loading from the database.", snapshotGeneration, generation);
+                return null;
+            }
+            return state;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Path index: Snapshot {} is unreadable ({}), loading from the database.", snapshot, e.getMessage());
+            return null;
+        }
+    }
+
+    @Scheduled(fixedDelay = 10 * 60 * 1000, initialDelay = 10 * 60 * 1000) // Every 10 minutes, if anything changed
+    public void writeSnapshotIfChanged() {
+        if (pathIndex.isReady() && pathIndex.changeCount() != snapshotChangeCount) {
+            writeSnapshot();
+        }
+    }
+
+    @PreDestroy
+    public void writeSnapshotOnShutdown() {
+        writeSnapshotIfChanged();
+    }
+
+    // Three short steps, none waits for another: the change count, the generation (one query, the connection is free
+    // again before the index is touched) and a copy of the index in memory (under its read lock, which also checks that
+    // nothing was applied or is on its way since the count was taken). Compressing to disk holds neither.
+    private synchronized void writeSnapshot() {
+        Path snapshot = snapshotPath();
+        Path temp = snapshot.resolveSibling(SNAPSHOT_FILE_NAME + ".tmp");
+        long start = System.currentTimeMillis();
+        try {
+            long changeCount = pathIndex.changeCount();
+            ByteArrayOutputStream captured = new ByteArrayOutputStream(SNAPSHOT_BUFFER_SIZE);
+            Long generation = pathIndex.hasUncommittedChanges() ? null : jdbcTemplate.queryForObject(GENERATION_QUERY, Long.class);
+            if (generation == null || !pathIndex.writeSnapshotIfUnchanged(new DataOutputStream(captured), generation, changeCount)) {
+                logger.info("Path index: Changes are being committed, snapshot postponed.");
+                return;
+            }
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), SNAPSHOT_BUFFER_SIZE) {
+                { def.setLevel(Deflater.BEST_SPEED); }
+            }) {
+                captured.writeTo(out);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotChangeCount = changeCount;
+            logger.info("Path index: Snapshot written in {} ms.", System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Path index: Could not write the snapshot {}", snapshot, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Overwritten next time
+            }
+        }
+    }
+
+    // SQLite takes one writer at a time and the services are written for the single pooled connection set in
+    // application.properties (a second one only waits on SQLite's file lock, and lock ordering assumes one)
+    private void checkConnectionPool() {
+        if (jdbcTemplate.getDataSource() instanceof HikariDataSource hikari && hikari.getMaximumPoolSize() != 1) {
+            String msg = "WARNING: Database pool allows " + hikari.getMaximumPoolSize()
+                    + " connections, set spring.datasource.hikari.maximum-pool-size=1.";
+            logger.warn(msg);
+            logService.logSystemEvent(msg);
+        }
+    }
+
+    private static Path snapshotPath() {
+        return Paths.get(System.getProperty("APP_ROOT_PATH"), DATA_DIR_NAME, SNAPSHOT_FILE_NAME);
     }
 
     private boolean restoreFromBackup() {
@@ -113,6 +271,19 @@ public class FileIndexService {
         return savedNodes;
     }
 
+    // Saves a list of nodes in one transaction WITHOUT a backup, for bulk jobs that save many batches.
+    // The caller has to call backupIndex() once it is done.
+    @Transactional
+    public List<FileNode> addOrUpdateNodesWithoutBackup(List<FileNode> nodes) {
+        Objects.requireNonNull(nodes, "List of FileNodes to be saved cannot be null");
+        return fileNodeRepository.saveAll(nodes);
+    }
+
+    // Triggers the (async) backup of file node DB
+    public void backupIndex() {
+        backupService.backupDatabase();
+    }
+
     // Removes a node from file node DB grounding on its logical path
     public void removeNode(String logicalPath) {
         // Find a node, if it exists - delete it
@@ -123,13 +294,15 @@ public class FileIndexService {
         });
     }
 
-    // Get one node's metadata from file node DB
+    // Get one node's metadata (a detached copy when served from the path index)
     public FileNode getNode(String logicalPath) {
+        if (pathIndex.canServe()) return pathIndex.get(logicalPath);
         return fileNodeRepository.findByLogicalPath(logicalPath).orElse(null);
     }
 
     // Check whether a node using a given logical path exists
     public boolean nodeExists(String logicalPath) {
+        if (pathIndex.canServe()) return pathIndex.contains(logicalPath);
         return fileNodeRepository.existsByLogicalPath(logicalPath);
     }
 
@@ -138,6 +311,94 @@ public class FileIndexService {
         if (directoryLogicalPath == null || directoryLogicalPath.isEmpty() || directoryLogicalPath.equals("/")) {
             directoryLogicalPath = "/";
         }
+        if (pathIndex.canServe()) return pathIndex.children(directoryLogicalPath);
         return fileNodeRepository.findByParentPath(directoryLogicalPath);
     }
-}
\ No newline at end of file
+
+    // A node and everything below it, read only (detached copies when served from the path index)
+    public List<FileNode> listSubtree(String logicalPath) {
+        if (pathIndex.canServe()) return pathIndex.subtree(logicalPath);
+        return findSubtreeInDatabase(logicalPath);
+    }
+
+    // A node and everything below it as managed entities, for changing or deleting them.
+    // The path index only tells which ids, they are then fetched by key.
+    public List<FileNode> loadSubtree(String logicalPath) {
+        if (!pathIndex.canServe()) return findSubtreeInDatabase(logicalPath);
+
+        List<Long> ids = pathIndex.subtreeIds(logicalPath);
+        List<FileNode> nodes = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += IDS_PER_QUERY) {
+            nodes.addAll(fileNodeRepository.findAllById(ids.subList(from, Math.min(from + IDS_PER_QUERY, ids.size()))));
+        }
+        return nodes;
+    }
+
+    // Size of all files below a folder
+    public long sizeBelow(String logicalPath) {
+        if (pathIndex.canServe()) return pathIndex.sizeBelow(logicalPath);
+        return fileNodeRepository.sumSizeByLogicalPathStartingWith(logicalPath + "/");
+    }
+
+    // The archive columns of one node, null if it does not exist
+    public ArchiveNode getArchiveNode(String logicalPath) {
+        if (pathIndex.canServe()) return pathIndex.archiveNode(logicalPath);
+        List<ArchiveNode> found = fileNodeRepository.findArchiveNodesByLogicalPathIn(List.of(logicalPath));
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    // Up to limit nodes below a folder, each folder before its contents, starting after the given path (null for the first page)
+    public List<ArchiveNode> listArchiveNodes(String folderPath, String afterLogicalPath, int limit) {
+        if (pathIndex.canServe()) return pathIndex.walk(folderPath, afterLogicalPath, limit);
+        // Path order ('0' follows '/', so "<folder>0" ends the range)
+        String after = afterLogicalPath != null ? afterLogicalPath : folderPath + "/";
+        return fileNodeRepository.findArchiveNodesAfter(after, folderPath + "0", PageRequest.of(0, limit));
+    }
+
+    // The bulk updates of FileNodeRepository bypass the entity listener, these also report them to the path index
+
+    @Transactional
+    public int updateContentHash(Long id, String physicalPath, String contentHash) {
+        int updated = fileNodeRepository.updateContentHash(id, physicalPath, contentHash);
+        if (updated > 0) pathIndex.contentHashUpdated(id, physicalPath, contentHash);
+        return updated;
+    }
+
+    @Transactional
+    public int updateMimeType(Long id, String physicalPath, String mimeType) {
+        int updated = fileNodeRepository.updateMimeType(id, physicalPath, mimeType);
+        if (updated > 0) pathIndex.mimeTypeUpdated(id, physicalPath, mimeType);
+        return updated;
+    }
+
+    @Transactional
+    public int updateStorage(Long id, String oldPath, String newPath, String storageFormat, Long storedSize) {
+        int updated = fileNodeRepository.updateStorage(id, oldPath, newPath, storageFormat, storedSize);
+        if (updated > 0) pathIndex.storageUpdated(id, oldPath, newPath, storageFormat, storedSize);
+        return updated;
+    }
+
+    @Transactional
+    public int updateAllPhysicalPaths(String oldPath, String newPath) {
+        int updated = fileNodeRepository.updateAllPhysicalPaths(oldPath, newPath);
+        if (updated > 0) pathIndex.physicalPathsUpdated(oldPath, newPath);
+        return updated;
+    }
+
+    @Transactional
+    public int updateAllStorage(String oldPath, String newPath, String storageFormat, Long storedSize) {
+        int updated = fileNodeRepository.updateAllStorage(oldPath, newPath, storageFormat, storedSize);
+        if (updated > 0) pathIndex.allStorageUpdated(oldPath, newPath, storageFormat, storedSize);
+        return updated;
+    }
+
+    // The prefix query also matches siblings that merely share the name prefix ("docs" for "doc"), those are dropped
+    private List<FileNode> findSubtreeInDatabase(String logicalPath) {
+        List<FileNode> nodes = new ArrayList<>();
+        for (FileNode node : fileNodeRepository.findByLogicalPathStartingWith(logicalPath)) {
+            String path = node.getLogicalPath();
+            if (path.equals(logicalPath) || path.startsWith(logicalPath + "/")) nodes.add(node);
+        }
+        return nodes;
+    }
+}
@@ -1,5 +1,6 @@
 package com.nas_backend.service.file;
 
+import com.nas_backend.exception.ConflictException;
 import com.nas_backend.exception.FileValidationException;
 import com.nas_backend.model.config.AppConfig;
 import com.nas_backend.model.dto.FileInfo;
@@ -7,35 +8,31 @@ import com.nas_backend.model.dto.FileOperationResponse;
 import com.nas_backend.model.entity.FileNode;
 import com.nas_backend.repository.FileNodeRepository;
 import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.processing.ProcessingPipelineService;
+import com.nas_backend.service.file.storage.ContentStoreService;
+import com.nas_backend.service.file.storage.StoragePlacementService;
+import com.nas_backend.service.file.storage.StoredContent;
 import com.nas_backend.service.system.LogService;
 import com.nas_backend.service.system.StorageMetricsService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.data.domain.Pageable;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.FileStore;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @Service
 public class FileService {
@@ -47,113 +44,176 @@ public class FileService {
     private final LogService logService;
     private final StorageMetricsService storageMetricsService;
     private final FileNodeRepository fileNodeRepository;
+    private final ContentStoreService contentStoreService;
+    private final StoragePlacementService storagePlacementService;
+    private final ProcessingPipelineService processingPipelineService;
 
     public FileService(AppConfigService appConfigService, FileIndexService fileIndexService, LogService logService, StorageMetricsService storageMetricsService,
-                       FileNodeRepository fileNodeRepository) {
+                       FileNodeRepository fileNodeRepository, ContentStoreService contentStoreService, StoragePlacementService storagePlacementService,
+                       ProcessingPipelineService processingPipelineService) {
         this.configService = appConfigService;
         this.fileIndexService = fileIndexService;
         this.logService = logService;
         this.storageMetricsService = storageMetricsService;
         this.fileNodeRepository = fileNodeRepository;
+        this.contentStoreService = contentStoreService;
+        this.storagePlacementService = storagePlacementService;
+        this.processingPipelineService = processingPipelineService;
     }
 
     // Main methods (engines)
 
-    @Transactional
+    // Not @Transactional on purpose: a transaction would hold the (only) DB connection for the whole transfer
     public FileOperationResponse uploadFile(String logicalParentPath, MultipartFile file) throws IOException, FileValidationException{
-        logger.info("Upload request for '{}' in logical path '{}'", file.getOriginalFilename(), logicalParentPath);
-
-        // Do not allow user to create files with empty names or names starting with a dot
-        String originalFileName = file.getOriginalFilename();
-        if (originalFileName == null || originalFileName.isEmpty() || originalFileName.startsWith(".")) {
-            logger.warn("Upload REJECTED: Filename is null, empty, or starts with a dot: {}", originalFileName);
-            throw new FileValidationException("Invalid filename. Files cannot be hidden or have no name.");
+        try (InputStream content = file.getInputStream()) {
+            return uploadFileStream(logicalParentPath, file.getOriginalFilename(), file.getContentType(), file.getSize(), content);
         }
+    }
+
+    // Streams the content straight to the storage drive, declaredSize is -1 when the client did not send it
+    public FileOperationResponse uploadFileStream(String logicalParentPath, String originalFileName, String contentType, long declaredSize,
+                                                  InputStream content) throws IOException, FileValidationException {
+        logger.info("Upload request for '{}' in logical path '{}'", originalFileName, logicalParentPath);
+
+        validateNewFileName(originalFileName);
 
         // Make sure that parent path exists in file node database
         createVirtualPath(logicalParentPath);
 
         AppConfig config = configService.getConfig();
-        long fileSize = file.getSize();
+        long maxUploadBytes = (long) config.getServer().getMaxUploadSizeMB() * 1024 * 1024;
 
-        // Size validation
-        if (fileSize > (long) config.getServer().getMaxUploadSizeMB() * 1024 * 1024) {
+        // Size validation (announced size is checked up front, real size is checked while streaming)
+        if (declaredSize > maxUploadBytes) {
             throw new FileValidationException("File size exceeds the maximum upload limit.");
         }
 
-        // Find a unique filename in the target folder
-        String finalFileName = getUniqueFileName(logicalParentPath, originalFileName);
-        String finalLogicalPath = Paths.get(logicalParentPath, finalFileName).toString().replace("\\", "/");
+        // Find best storage path and save the file
+        String bestStoragePath = storagePlacementService.findBestStoragePath(Math.max(declaredSize, 0));
+        String userName = logicalParentPath.split("/")[0];
+        Path plainTarget = newPhysicalPath(bestStoragePath, userName, originalFileName);
+
+        ContentStoreService.StoredFile stored = contentStoreService.write(content, bestStoragePath, plainTarget, declaredSize, maxUploadBytes, contentType,
+                userName);
+        logger.info("File saved successfully to physical path: {} ({} bytes, {} on disk)", stored.physicalPath(), stored.size(), stored.storedSize());
 
-        // Build report message
-        String message;
-        if (!finalFileName.equals(originalFileName)) {
-            logger.warn("CONFLICT: Original name was taken. Saving as: {}", finalFileName);
-            message = "File uploaded successfully and renamed to '" + finalFileName + "' to avoid conflict.";
-        } else {
-            message = "File uploaded successfully.";
+        return registerNewFile(logicalParentPath, originalFileName, contentType, stored);
+    }
+
+    // Creates the file from content the user already has on the server (same digest and size), no data is transferred.
+    // Returns null when there is no such content, the client then uploads the file normally.
+    public FileOperationResponse instantUpload(String logicalParentPath, String originalFileName, String contentType, String digest, long size)
+            throws IOException, FileValidationException {
+        logger.info("Instant upload request for '{}' ({} bytes, digest {}) in logical path '{}'", originalFileName, size, digest, logicalParentPath);
+
+        validateNewFileName(originalFileName);
+        if (digest == null || !digest.matches("[0-9a-fA-F]{64}")) {
+            throw new FileValidationException("Invalid digest. Expected a hex encoded SHA-256.");
         }
+        String contentHash = digest.toLowerCase();
 
-        // Find best storage path and save the file
-        String bestStoragePath = findBestStoragePath(fileSize);
+        createVirtualPath(logicalParentPath);
+
+        // Only the user's own files qualify, otherwise anybody could probe which content other users store
         String userName = logicalParentPath.split("/")[0];
+        List<FileNode> candidates = fileNodeRepository.findByContentHash(contentHash, size, userName + "/", PageRequest.of(0, 5));
 
-        // Use a unique physical name (utilize UUID)
-        String uniquePhysicalName = UUID.randomUUID().toString() + "-" + originalFileName;
-        Path physicalPath = Paths.get(bestStoragePath, userName, uniquePhysicalName);
+        for (FileNode source : candidates) {
+            String drive = storagePlacementService.driveOf(source.getPhysicalPath());
+            if (drive == null) continue;
 
-        Files.createDirectories(physicalPath.getParent());
-        file.transferTo(physicalPath);
-        logger.info("File saved successfully to new physical path: {}", physicalPath);
+            // Same drive as the source: blobs just get another reference, plain files are cloned (reflink where the
+            // filesystem can, a kernel side copy otherwise)
+            Path plainTarget = newPhysicalPath(drive, userName, originalFileName);
+            ContentStoreService.StoredFile stored = contentStoreService.copy(source, drive, plainTarget);
+            if (stored == null) continue; // Source data disappeared in the meantime
 
-        // Always create a new node
-        FileNode nodeToSave = new FileNode();
-        nodeToSave.setCreatedAt(Instant.now());
+            logger.info("Instant upload: content of '{}' reused from '{}'", originalFileName, source.getLogicalPath());
+            String mimeType = contentType != null ? contentType : source.getMimeType();
+            return registerNewFile(logicalParentPath, originalFileName, mimeType, stored);
+        }
+
+        logger.info("Instant upload: no content with digest {} found, client has to upload the data.", contentHash);
+        return null;
+    }
 
-        // Set all fields
-        nodeToSave.setLogicalPath(finalLogicalPath);
-        nodeToSave.setParentPath(logicalParentPath);
-        nodeToSave.setPhysicalPath(physicalPath.toString());
-        nodeToSave.setFileName(finalFileName);
-        nodeToSave.setDirectory(false);
-        nodeToSave.setSize(fileSize);
-        nodeToSave.setModifiedAt(Instant.now());
-        nodeToSave.setRestorePath(null); // Always null on a new upload
-        nodeToSave.setMimeType(file.getContentType());
+    // Adopts a file that was already written on a storage drive (e.g. by a chunked upload session)
+    public FileOperationResponse commitStagedFile(String logicalParentPath, String originalFileName, String contentType, Path stagedFile,
+                                                  String storagePath) throws IOException, FileValidationException {
+        logger.info("Commit request for staged file '{}' in logical path '{}'", originalFileName, logicalParentPath);
 
-        // Save, translate and return complete report
-        FileNode savedNode = fileIndexService.addOrUpdateNode(nodeToSave);
+        validateNewFileName(originalFileName);
+        createVirtualPath(logicalParentPath);
+
+        String userName = logicalParentPath.split("/")[0];
+        Path plainTarget = newPhysicalPath(storagePath, userName, originalFileName);
 
-        logService.logTransfer(userName, "UPLOAD", finalLogicalPath, "Size: " + fileSize + " bytes");
+        ContentStoreService.StoredFile stored = contentStoreService.adopt(stagedFile, storagePath, plainTarget, userName);
+        logger.info("Staged file stored at physical path: {} ({} bytes)", stored.physicalPath(), stored.size());
 
-        return new FileOperationResponse(message, toFileInfo(savedNode));
+        return registerNewFile(logicalParentPath, originalFileName, contentType, stored);
     }
 
-    public Resource getResource(String logicalPath) throws IOException {
-        logger.info("Resource request for logical path: {}", logicalPath);
+    // Points an existing file at a new version of its content (same node, same logical path) and releases the old data.
+    // The swap only happens when the node still uses expectedPhysicalPath, i.e. nobody replaced the content in the meantime.
+    @Transactional
+    public FileOperationResponse replaceFileContent(String logicalPath, String expectedPhysicalPath, ContentStoreService.StoredFile stored)
+            throws IOException {
+        FileNode node = fileIndexService.getNode(logicalPath);
+        if (node == null || node.isDirectory()) {
+            throw new IOException("File not found in index: " + logicalPath);
+        }
+        if (!node.getPhysicalPath().equals(expectedPhysicalPath)) {
+            throw new ConflictException("File was changed while the new version was being built, fetch a new signature.");
+        }
 
-        // Ask file node DB about the node
+        stored.applyTo(node);
+        node.setModifiedAt(Instant.now());
+        FileNode savedNode = fileIndexService.addOrUpdateNode(node);
+
+        // Old data goes after the commit, a rollback leaves the node on its old version
+        contentStoreService.release(expectedPhysicalPath);
+
+        String userName = logicalPath.split("/")[0];
+        logService.logTransfer(userName, "UPDATE", logicalPath, "Size: " + stored.size() + " bytes");
+        processingPipelineService.submit(savedNode);
+
+        return new FileOperationResponse("File updated successfully.", toFileInfo(savedNode));
+    }
+
+    // Folders are not resources, they are zipped on the fly into the response (see FolderArchiveService)
+    public boolean isDirectory(String logicalPath) throws IOException {
         FileNode node = fileIndexService.getNode(logicalPath);
         if (node == null) {
             throw new IOException("File not found in index: " + logicalPath);
         }
+        return node.isDirectory();
+    }
 
-        String userName = logicalPath.split("/")[0];
-        logService.logTransfer(userName, "DOWNLOAD", logicalPath);
+    // The node of a file that is about to be sent (see FileDeliveryService), index only
+    public FileNode getFileForDownload(String logicalPath) throws IOException {
+        logger.info("Resource request for logical path: {}", logicalPath);
 
-        // Verify whether it is a file or a directory
+        // Ask file node DB about the node
+        FileNode node = fileIndexService.getNode(logicalPath);
+        if (node == null) {
+            throw new IOException("File not found in index: " + logicalPath);
+        }
         if (node.isDirectory()) {
-            // It is a directory, zip it and return as a file
-            return getFolderAsZip(logicalPath);
-        } else {
-            // It is a file, return it from its physical path
-            File file = new File(node.getPhysicalPath());
-            if (!file.exists()) {
-                logger.error("File inconsistency! Found in DB but not on disk: {}", node.getPhysicalPath());
-                fileIndexService.removeNode(logicalPath);
-                throw new IOException("File not found on disk, index corrected.");
-            }
-            return new FileSystemResource(file);
+            throw new IOException("Not a file: " + logicalPath + " is a folder, folders are downloaded as zip archives.");
+        }
+        return node;
+    }
+
+    // Called before a node's data is read, a node whose data is gone is removed from the index
+    public void requireContentOnDisk(FileNode node) throws IOException {
+        // Its physical path (or its slice of a pack file, decoded if stored compressed)
+        StoredContent content = StoredContent.of(node);
+        if (!content.exists()) {
+            logger.error("File inconsistency! Found in DB but not on disk: {}", node.getPhysicalPath());
+            contentStoreService.release(node.getPhysicalPath());
+            fileIndexService.removeNode(node.getLogicalPath());
+            throw new IOException("File not found on disk, index corrected.");
         }
     }
 
@@ -187,7 +247,7 @@ public class FileService {
                 // Calculate size of the resource to delete
                 long resourceSizeToDelete;
                 if (rootNodeToDelete.isDirectory()) {
-                    resourceSizeToDelete = fileNodeRepository.sumSizeByLogicalPathStartingWith(rootNodeToDelete.getLogicalPath() + "/");
+                    resourceSizeToDelete = fileIndexService.sizeBelow(rootNodeToDelete.getLogicalPath());
                 } else {
                     resourceSizeToDelete = rootNodeToDelete.getSize();
                 }
@@ -231,7 +291,7 @@ public class FileService {
         logger.info("Restore request for resource: {}", logicalPathInTrash);
 
         // Find the node and its restore path
-        FileNode rootNodeToRestore = fileNodeRepository.findByLogicalPath(logicalPathInTrash).orElse(null);
+        FileNode rootNodeToRestore = fileIndexService.getNode(logicalPathInTrash);
         if (rootNodeToRestore == null) {
             throw new IOException("Resource to restore not found in trash: " + logicalPathInTrash);
         }
@@ -274,7 +334,7 @@ public class FileService {
         }
 
         // Validate source
-        FileNode rootNodeToMove = fileNodeRepository.findByLogicalPath(oldLogicalPath).orElse(null);
+        FileNode rootNodeToMove = fileIndexService.getNode(oldLogicalPath);
         if (rootNodeToMove == null) {
             throw new IOException("Source resource not found in index: " + oldLogicalPath);
         }
@@ -289,7 +349,7 @@ public class FileService {
 
         // Build a report message
         String message;
-        if (fileNodeRepository.existsByLogicalPath(newLogicalPath)) {
+        if (fileIndexService.nodeExists(newLogicalPath)) {
             logger.warn("CONFLICT: Destination {} exists. Finding unique name...", newLogicalPath);
             finalFileName = getUniqueFileName(targetParentPath, finalFileName);
             finalLogicalPath = Paths.get(targetParentPath, finalFileName).toString().replace("\\", "/");
@@ -299,8 +359,8 @@ public class FileService {
             message = "Resource moved successfully.";
         }
 
-        // Get all nodes to move
-        List<FileNode> nodesToMove = fileNodeRepository.findByLogicalPathStartingWith(oldLogicalPath);
+        // Get all nodes to move (the resource and everything below it, not siblings that merely share the name prefix)
+        List<FileNode> nodesToMove = fileIndexService.loadSubtree(oldLogicalPath);
         logger.info("Moving {} nodes...", nodesToMove.size());
 
         // Collect updated nodes in a list
@@ -394,7 +454,7 @@ public class FileService {
         }
 
         // Check if this path already exists
-        FileNode existingNode = fileNodeRepository.findByLogicalPath(logicalPath).orElse(null);
+        FileNode existingNode = fileIndexService.getNode(logicalPath);
         if (existingNode != null) {
             // Return a report
             return new FileOperationResponse("Folder already exists.", toFileInfo(existingNode));
@@ -452,10 +512,78 @@ public class FileService {
 
     // Helper methods
 
+    void validateNewFileName(String originalFileName) throws FileValidationException {
+        // Do not allow user to create files with empty names, names starting with a dot or names containing a path
+        if (originalFileName == null || originalFileName.isEmpty() || originalFileName.startsWith(".")
+                || originalFileName.contains("/") || originalFileName.contains("\\")) {
+            logger.warn("Upload REJECTED: Filename is null, empty, starts with a dot or contains a path: {}", originalFileName);
+            throw new FileValidationException("Invalid filename. Files cannot be hidden, have no name or contain a path.");
+        }
+    }
+
+    static Path newPhysicalPath(String storagePath, String userName, String originalFileName) {
+        // Use a unique physical name (utilize UUID)
+        String uniquePhysicalName = UUID.randomUUID().toString() + "-" + originalFileName;
+        return Paths.get(storagePath, userName, uniquePhysicalName);
+    }
+
+    // Creates the index entry for a freshly written physical file
+    private FileOperationResponse registerNewFile(String logicalParentPath, String originalFileName, String contentType,
+                                                  ContentStoreService.StoredFile stored) throws IOException {
+        try {
+            // Find a unique filename in the target folder
+            String finalFileName = getUniqueFileName(logicalParentPath, originalFileName);
+            String finalLogicalPath = Paths.get(logicalParentPath, finalFileName).toString().replace("\\", "/");
+
+            // Build report message
+            String message;
+            if (!finalFileName.equals(originalFileName)) {
+                logger.warn("CONFLICT: Original name was taken. Saving as: {}", finalFileName);
+                message = "File uploaded successfully and renamed to '" + finalFileName + "' to avoid conflict.";
+            } else {
+                message = "File uploaded successfully.";
+            }
+
+            // Always create a new node
+            FileNode nodeToSave = new FileNode();
+            nodeToSave.setCreatedAt(Instant.now());
+
+            // Set all fields
+            nodeToSave.setLogicalPath(finalLogicalPath);
+            nodeToSave.setParentPath(logicalParentPath);
+            stored.applyTo(nodeToSave); // Content hash is null if not known yet, the backfill hasher fills it in
+            nodeToSave.setFileName(finalFileName);
+            nodeToSave.setDirectory(false);
+            nodeToSave.setModifiedAt(Instant.now());
+            nodeToSave.setRestorePath(null); // Always null on a new upload
+            nodeToSave.setMimeType(contentType);
+
+            // Save, translate and return complete report
+            FileNode savedNode = fileIndexService.addOrUpdateNode(nodeToSave);
+
+            String userName = logicalParentPath.split("/")[0];
+            logService.logTransfer(userName, "UPLOAD", finalLogicalPath, "Size: " + stored.size() + " bytes");
+
+            // Hashing, type detection and previews happen after the response (see ProcessingPipelineService)
+            processingPipelineService.submit(savedNode);
+
+            return new FileOperationResponse(message, toFileInfo(savedNode));
+        } catch (RuntimeException e) {
+            // Index entry could not be created, do not leave an unreachable physical file (or blob reference) behind
+            contentStoreService.release(stored.physicalPath());
+            throw e;
+        }
+    }
+
     private String getUniqueFileName(String targetParentPath, String originalFileName) {
-        // Check if the original path is available
-        String finalLogicalPath = Paths.get(targetParentPath, originalFileName).toString().replace("\\", "/");
-        if (!fileIndexService.nodeExists(finalLogicalPath)) {
+        return resolveUniqueName(originalFileName,
+                name -> fileIndexService.nodeExists(Paths.get(targetParentPath, name).toString().replace("\\", "/")));
+    }
+
+    // Same naming rules for callers that already know which names are taken (e.g. bulk import)
+    static String resolveUniqueName(String originalFileName, Predicate<String> nameTaken) {
+        // Check if the original name is available
+        if (!nameTaken.test(originalFileName)) {
             return originalFileName; // It's available, do nothing
         }
 
@@ -476,107 +604,25 @@ public class FileService {
         String newFileName;
         do {
             newFileName = baseName + "(" + count + ")" + extension;
-            finalLogicalPath = Paths.get(targetParentPath, newFileName).toString().replace("\\", "/");
             count++;
-        } while (fileIndexService.nodeExists(finalLogicalPath));
+        } while (nameTaken.test(newFileName));
 
         return newFileName;
     }
 
     @Transactional
     protected void deleteRecursively(String logicalPath) throws IOException, FileValidationException {
-        List<FileNode> nodesToDelete = fileNodeRepository.findByLogicalPathStartingWith(logicalPath);
+        List<FileNode> nodesToDelete = fileIndexService.loadSubtree(logicalPath);
 
         for (FileNode node : nodesToDelete) {
-            // Delete physical file (only if it is a file, directories do not exist physically)
+            // Release physical data (only if it is a file, directories do not exist physically).
+            // Shared content is only deleted together with its last reference.
             if (!node.isDirectory()) {
-                File file = new File(node.getPhysicalPath());
-                if (file.exists()) {
-                    Files.delete(file.toPath());
-                } else {
-                    logger.warn("Tried to delete physical file, but it was already gone: {}", node.getPhysicalPath());
-                }
+                contentStoreService.release(node.getPhysicalPath());
             }
             // Delete file node DB entry
             fileNodeRepository.delete(node);
         }
         logger.info("Permanently deleted {} nodes starting with logical path: {}", nodesToDelete.size(), logicalPath);
     }
-
-    private Resource getFolderAsZip(String logicalPath) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-
-            // Find all children nodes (files and directories)
-            List<FileNode> children = fileNodeRepository.findByLogicalPathStartingWith(logicalPath + "/");
-
-            for (FileNode node : children) {
-                // Create a relative path inside ZIP file
-                String zipEntryName = node.getLogicalPath().substring(logicalPath.length() + 1);
-
-                if (node.isDirectory()) {
-                    // Scenario A: It is a directory
-                    ZipEntry zipEntry = new ZipEntry(zipEntryName + "/");
-                    zos.putNextEntry(zipEntry);
-                    zos.closeEntry();
-                } else {
-                    // Scenario B: It is a file
-                    File file = new File(node.getPhysicalPath());
-                    if (!file.exists()) continue; // Skip, if file is not physically there
-
-                    try (FileInputStream fis = new FileInputStream(file)) {
-                        ZipEntry zipEntry = new ZipEntry(zipEntryName);
-                        zos.putNextEntry(zipEntry);
-                        byte[] bytes = new byte[1024];
-                        int length;
-                        while ((length = fis.read(bytes)) >= 0) {
-                            zos.write(bytes, 0, length);
-                        }
-                        zos.closeEntry();
-                    }
-                }
-            }
-        }
-        return new ByteArrayResource(baos.toByteArray());
-    }
-
-    private String findBestStoragePath(long requiredSpace) throws IOException, FileValidationException {
-        AppConfig config = configService.getConfig();
-        List<String> paths = config.getStorage().getPaths();
-        if (paths == null || paths.isEmpty()) throw new IOException("No storage paths configured!");
-
-        long quotaGB = config.getStorage().getQuotaGB();
-
-        if (quotaGB > 0) {
-            long quotaBytes = quotaGB * 1024L * 1024L * 1024L;
-
-            // Use method from StorageMetricsService to calculate current used space
-            long currentTotalUsedBytes = storageMetricsService.calculateTotalSize(paths);
-
-            if (currentTotalUsedBytes + requiredSpace > quotaBytes) {
-                throw new FileValidationException("Storage Quota Exceeded! The system limit is " + quotaGB + " GB.");
-            }
-        }
-
-        String bestPath = null;
-        long maxFreeSpace = -1;
-
-        for (String pathStr : paths) {
-            Path path = Paths.get(pathStr);
-
-            if (Files.notExists(path)) Files.createDirectories(path);
-
-            FileStore store = Files.getFileStore(path);
-            long usableSpace = store.getUsableSpace();
-
-            if (usableSpace > maxFreeSpace) {
-                maxFreeSpace = usableSpace;
-                bestPath = pathStr;
-            }
-        }
-
-        if (bestPath == null || maxFreeSpace < requiredSpace) throw new FileValidationException("Not enough space on any storage device.");
-
-        return bestPath;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,318 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.ArchiveNode;
+import com.nas_backend.service.file.archive.TarArchiveWriter;
+import com.nas_backend.service.file.archive.ZipArchiveWriter;
+import com.nas_backend.service.file.storage.ContentTypes;
+import com.nas_backend.service.file.storage.StoredContent;
+import com.nas_backend.service.system.LogService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Folder downloads. The archive is written straight into the response while the folder is walked page by page,
+// so memory use stays the same for 10 files or 100 000 (and no archive is ever kept in the heap).
+// Photos, videos and archives are stored as they are, everything else is deflated on all cores (see ZipArchiveWriter).
+// The tar variant is not compressed, so its length is known up front and any byte range of it can be served (resume).
+// A multi-selection (files and folders from anywhere) becomes one archive too: resolved from the index before the
+// response starts, with the files read in the order they lie on disk instead of the order they were picked in.
+@Service
+public class FolderArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FolderArchiveService.class);
+
+    private static final int PAGE_SIZE = 500;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_SELECTED_PATHS = 10_000;
+    private static final int MAX_SELECTION_ENTRIES = 200_000; // Every entry of a selection is held in memory until it is sent
+
+    private final FileIndexService fileIndexService;
+    private final LogService logService;
+
+    // Length of a folder's tar archive and a tag that changes whenever its layout does (used as the ETag)
+    public record TarPlan(long length, String etag) {}
+
+    // A resolved multi-selection: entries in archive order (folders first, then files by disk location) and the tar length
+    public record Selection(List<SelectionEntry> entries, long tarLength) {}
+
+    public record SelectionEntry(String name, ArchiveNode node) {}
+
+    public FolderArchiveService(FileIndexService fileIndexService, LogService logService) {
+        this.fileIndexService = fileIndexService;
+        this.logService = logService;
+    }
+
+    // Writes the folder (everything below it, paths relative to it) as a zip archive to out. out is left open.
+    public void writeZip(String folderPath, OutputStream out) throws IOException {
+        String userName = folderPath.split("/")[0];
+        logService.logTransfer(userName, "DOWNLOAD", folderPath, "Zipped folder");
+
+        int[] skipped = {0};
+
+        try (ZipArchiveWriter zip = new ZipArchiveWriter(new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE))) {
+            forEachNode(folderPath, node -> {
+                // Create a relative path inside ZIP file
+                String zipEntryName = node.logicalPath().substring(folderPath.length() + 1);
+
+                if (node.isDirectory()) {
+                    zip.putDirectory(zipEntryName, node.modifiedAt());
+                    return true;
+                }
+
+                StoredContent content = StoredContent.of(node.physicalPath(), node.storageFormat());
+                if (!content.exists()) {
+                    skipped[0]++; // Skip, if file is not physically there
+                    return true;
+                }
+
+                boolean compress = !ContentTypes.isCompressed(node.mimeType(), zipEntryName);
+                zip.putFile(zipEntryName, node.modifiedAt(), node.size(), compress, content::openStream);
+                return true;
+            });
+            zip.finish();
+        }
+
+        if (skipped[0] > 0) {
+            logger.warn("Zip of '{}': Skipped {} files missing on disk.", folderPath, skipped[0]);
+        }
+    }
+
+    // Lays the tar archive out without reading any file
+    public TarPlan planTar(String folderPath) throws IOException {
+        TarArchiveWriter tar = TarArchiveWriter.measuring();
+        MessageDigest layout = newDigest();
+        putTarEntries(folderPath, tar, layout);
+        tar.finish();
+
+        String etag = "\"tar-" + HexFormat.of().formatHex(layout.digest(), 0, 16) + "-" + tar.position() + "\"";
+        return new TarPlan(tar.position(), etag);
+    }
+
+    // Writes the bytes [from, to) of the folder's tar archive to out. out is left open.
+    // Fails (and so breaks off the response) if the folder changed since plan was made.
+    public void writeTar(String folderPath, TarPlan plan, long from, long to, OutputStream out) throws IOException {
+        String userName = folderPath.split("/")[0];
+        logService.logTransfer(userName, "DOWNLOAD", folderPath, "Tar folder, bytes " + from + "-" + (to - 1) + " of " + plan.length());
+
+        BufferedOutputStream buffered = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+        TarArchiveWriter tar = new TarArchiveWriter(buffered, from, to);
+        putTarEntries(folderPath, tar, null);
+        if (!tar.isDone()) {
+            tar.finish();
+        }
+        buffered.flush();
+
+        if (tar.position() < to || (to == plan.length() && tar.position() != plan.length())) {
+            throw new IOException("Folder '" + folderPath + "' changed during the download, its archive no longer matches.");
+        }
+    }
+
+    // Resolves the selected paths (and everything below selected folders) without reading any file.
+    // Throws if a path does not exist, so a bad selection fails before the response starts.
+    public Selection planSelection(List<String> logicalPaths) throws IOException {
+        if (logicalPaths.size() > MAX_SELECTED_PATHS) {
+            throw new FileValidationException("Too many items selected (at most " + MAX_SELECTED_PATHS + ").");
+        }
+        List<String> roots = selectionRoots(logicalPaths);
+
+        List<SelectionEntry> directories = new ArrayList<>();
+        List<SelectionEntry> files = new ArrayList<>();
+        Set<String> topLevelNames = new HashSet<>();
+        for (String root : roots) {
+            ArchiveNode node = fileIndexService.getArchiveNode(root);
+            if (node == null) {
+                throw new IOException("File not found: " + root);
+            }
+            String name = uniqueName(root.substring(root.lastIndexOf('/') + 1), node.isDirectory(), topLevelNames);
+
+            if (!node.isDirectory()) {
+                files.add(new SelectionEntry(name, node));
+                continue;
+            }
+            directories.add(new SelectionEntry(name, node));
+            forEachNode(root, child -> {
+                String childName = name + "/" + child.logicalPath().substring(root.length() + 1);
+                (child.isDirectory() ? directories : files).add(new SelectionEntry(childName, child));
+                if (directories.size() + files.size() > MAX_SELECTION_ENTRIES) {
+                    throw new FileValidationException("Selection is too large (over " + MAX_SELECTION_ENTRIES + " items), download its folders one by one.");
+                }
+                return true;
+            });
+        }
+
+        List<SelectionEntry> entries = new ArrayList<>(directories);
+        entries.addAll(inDiskOrder(files));
+
+        TarArchiveWriter tar = TarArchiveWriter.measuring();
+        putSelectionEntries(entries, tar);
+        tar.finish();
+        return new Selection(entries, tar.position());
+    }
+
+    // Writes a planned selection as a tar or zip archive to out. out is left open.
+    public void writeSelection(String userName, Selection selection, boolean zip, OutputStream out) throws IOException {
+        logService.logTransfer(userName, "DOWNLOAD", selection.entries().size() + " selected items",
+                (zip ? "Zipped" : "Tar") + " selection");
+
+        BufferedOutputStream buffered = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+        if (!zip) {
+            TarArchiveWriter tar = new TarArchiveWriter(buffered, 0, selection.tarLength());
+            putSelectionEntries(selection.entries(), tar);
+            tar.finish();
+            return;
+        }
+
+        try (ZipArchiveWriter writer = new ZipArchiveWriter(buffered)) {
+            for (SelectionEntry entry : selection.entries()) {
+                ArchiveNode node = entry.node();
+                if (node.isDirectory()) {
+                    writer.putDirectory(entry.name(), node.modifiedAt());
+                } else {
+                    StoredContent content = StoredContent.of(node.physicalPath(), node.storageFormat());
+                    boolean compress = !ContentTypes.isCompressed(node.mimeType(), entry.name());
+                    writer.putFile(entry.name(), node.modifiedAt(), node.size(), compress, content::openStream);
+                }
+            }
+            writer.finish();
+        }
+    }
+
+    // Helper methods
+
+    // Selected paths without duplicates and without those inside another selected folder (they come with it)
+    private static List<String> selectionRoots(List<String> logicalPaths) {
+        TreeSet<String> unique = new TreeSet<>(logicalPaths);
+        List<String> roots = new ArrayList<>();
+        for (String path : unique) {
+            boolean covered = false;
+            for (int slash = path.lastIndexOf('/'); slash > 0 && !covered; slash = path.lastIndexOf('/', slash - 1)) {
+                covered = unique.contains(path.substring(0, slash));
+            }
+            if (!covered) roots.add(path);
+        }
+        return roots;
+    }
+
+    // Two selected items with the same name get "name (2).ext", "name (3).ext"...
+    private static String uniqueName(String name, boolean isDirectory, Set<String> used) {
+        int dot = isDirectory ? -1 : name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+
+        String candidate = name;
+        for (int i = 2; !used.add(candidate); i++) {
+            candidate = base + " (" + i + ")" + extension;
+        }
+        return candidate;
+    }
+
+    // Sorted by inode, then by offset inside a pack: files written one after another got neighbouring inodes and blocks,
+    // so the disk reads forward instead of seeking back and forth. Files missing on disk are left out.
+    private static List<SelectionEntry> inDiskOrder(List<SelectionEntry> files) {
+        record Located(SelectionEntry entry, long inode, String file, long offset) {}
+
+        Map<Path, Long> inodes = new HashMap<>(); // Packed files share their pack's inode
+        List<Located> located = new ArrayList<>();
+        for (SelectionEntry entry : files) {
+            StoredContent content = StoredContent.of(entry.node().physicalPath(), entry.node().storageFormat());
+            if (!content.exists()) continue;
+
+            long inode = inodes.computeIfAbsent(content.file(), FolderArchiveService::inodeOf);
+            located.add(new Located(entry, inode, content.file().toString(), content.offset()));
+        }
+
+        located.sort(Comparator.comparingLong(Located::inode).thenComparing(Located::file).thenComparingLong(Located::offset));
+        return located.stream().map(Located::entry).toList();
+    }
+
+    private static long inodeOf(Path file) {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:ino")).longValue();
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return 0; // Not a Unix file system, the path order has to do
+        }
+    }
+
+    private static void putSelectionEntries(List<SelectionEntry> entries, TarArchiveWriter tar) throws IOException {
+        for (SelectionEntry entry : entries) {
+            ArchiveNode node = entry.node();
+            if (node.isDirectory()) {
+                tar.putDirectory(entry.name(), node.modifiedAt());
+            } else {
+                StoredContent content = StoredContent.of(node.physicalPath(), node.storageFormat());
+                tar.putFile(entry.name(), node.modifiedAt(), node.size(), content::openStream);
+            }
+        }
+    }
+
+    // Returns false to stop the walk
+    private interface NodeVisitor {
+        boolean visit(ArchiveNode node) throws IOException;
+    }
+
+    // Same entries in the same order on every call, so plans and ranges line up. layout (optional) digests them.
+    private void putTarEntries(String folderPath, TarArchiveWriter tar, MessageDigest layout) throws IOException {
+        forEachNode(folderPath, node -> {
+            String entryName = node.logicalPath().substring(folderPath.length() + 1);
+
+            StoredContent content = node.isDirectory() ? null : StoredContent.of(node.physicalPath(), node.storageFormat());
+            if (content == null) {
+                tar.putDirectory(entryName, node.modifiedAt());
+            } else if (content.exists()) { // Files missing on disk are left out
+                tar.putFile(entryName, node.modifiedAt(), node.size(), content::openStream);
+            } else {
+                return true;
+            }
+
+            if (layout != null) {
+                layout.update((entryName + "\n" + node.isDirectory() + "\n" + node.size() + "\n" + node.modifiedAt() + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                return true; // Planning walks everything
+            }
+            return !tar.isDone();
+        });
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Walks all nodes below the folder (a folder always comes before its contents), one page at a time.
+    // Nothing stays locked in between, the index and the single DB connection are free while the data is sent.
+    private void forEachNode(String folderPath, NodeVisitor visitor) throws IOException {
+        String after = null;
+
+        while (true) {
+            List<ArchiveNode> page = fileIndexService.listArchiveNodes(folderPath, after, PAGE_SIZE);
+            for (ArchiveNode node : page) {
+                if (!visitor.visit(node)) return;
+            }
+            if (page.size() < PAGE_SIZE) return;
+            after = page.get(page.size() - 1).logicalPath();
+        }
+    }
+}
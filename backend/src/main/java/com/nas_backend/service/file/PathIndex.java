@@ -0,0 +1,752 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.model.dto.ArchiveNode;
+import com.nas_backend.model.entity.FileNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+// All file nodes in memory as a path trie: one entry per path segment (names interned, children in a sorted array),
+// the columns in a compact record. Lookups, listings and subtree walks cost O(depth) instead of a query on the single
+// DB connection. SQLite stays the durable store, this is written through: FileNodeListener reports saved and removed
+// entities, FileIndexService the bulk updates, and each change is applied once its transaction committed.
+// FileIndexService loads it at startup (snapshot or table scan), until then reads go to the DB.
+@Service
+public class PathIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(PathIndex.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x4E504958; // "NPIX"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // Only what differs from the path is kept: fileName and parentPath are null when they follow from it
+    private record Node(long id, boolean directory, long size, Instant createdAt, Instant modifiedAt, String physicalPath,
+                        String restorePath, String mimeType, String contentHash, String storageFormat, Long storedSize,
+                        String fileName, String parentPath) {}
+
+    private static final class Entry {
+        final String name;
+        final Entry parent;
+        Entry[] children; // Sorted by name, null while there are none
+        int childCount;
+        Node node; // Null for a segment that only leads to other nodes
+
+        Entry(String name, Entry parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+    }
+
+    // One complete index. Built aside while loading and swapped in when done.
+    public static final class State {
+        private final Entry root = new Entry("", null);
+        private final Map<Long, Entry> byId = new HashMap<>();
+        private final Map<String, Object> byPhysicalPath = new HashMap<>(); // Entry, or Entry[] for deduplicated content
+
+        public void add(FileNode node) {
+            put(this, node.getLogicalPath(), toNode(node));
+        }
+
+        public int size() {
+            return byId.size();
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger uncommitted = new AtomicInteger(); // Changes registered whose transaction did not end yet
+    private State state;
+    private List<Consumer<State>> pending = new ArrayList<>(); // Changes committed while loading, null once loaded
+    private volatile boolean ready;
+    private long changes;
+
+    // --- Loading (FileIndexService) ---
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // False before loading and inside a transaction that already changed file nodes: the index only holds committed
+    // data, such a transaction has to read its own changes from the DB
+    public boolean canServe() {
+        return ready && !TransactionSynchronizationManager.hasResource(this);
+    }
+
+    // Swaps in a loaded index and replays everything that was committed while it was read
+    public void install(State loaded) {
+        lock.writeLock().lock();
+        try {
+            if (pending == null) return; // Disabled
+            for (Consumer<State> change : pending) {
+                change.accept(loaded);
+            }
+            pending = null;
+            state = loaded;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Loading failed, reads keep going to the DB and changes are no longer collected
+    public void disable() {
+        lock.writeLock().lock();
+        try {
+            pending = null;
+            state = null;
+            ready = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Changes applied so far, to tell whether a new snapshot is worth writing
+    public long changeCount() {
+        lock.readLock().lock();
+        try {
+            return changes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // True while a change was made in the DB but not applied here yet (a snapshot taken now could miss it)
+    public boolean hasUncommittedChanges() {
+        return uncommitted.get() > 0;
+    }
+
+    // Preorder: name, node (if any), child count, children
+    public void writeSnapshot(DataOutputStream out, long generation) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (state == null) throw new IOException("Path index is not loaded");
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(generation);
+            out.writeInt(state.byId.size());
+            writeChildren(out, state.root);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Writes the snapshot only if no change was applied since expectedChangeCount and none is on its way. The caller read
+    // the DB generation in between, so the snapshot is exactly the index at that generation. False otherwise.
+    public boolean writeSnapshotIfUnchanged(DataOutputStream out, long generation, long expectedChangeCount) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (changes != expectedChangeCount || hasUncommittedChanges()) return false;
+            writeSnapshot(out, generation);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Reads a snapshot into the given state and returns the DB generation it was written at
+    public static long readSnapshot(DataInputStream in, State into) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+            throw new IOException("Not a path index snapshot of this version");
+        }
+        long generation = in.readLong();
+        int expected = in.readInt();
+        readChildren(in, into, into.root);
+        if (into.byId.size() != expected) {
+            throw new IOException("Snapshot is incomplete (" + into.byId.size() + " of " + expected + " nodes)");
+        }
+        return generation;
+    }
+
+    // --- Write-through (called inside the writing transaction, applied after it committed) ---
+
+    public void saved(FileNode node) {
+        if (node.getId() == null || node.getLogicalPath() == null) return;
+        Node snapshot = toNode(node); // As flushed, the entity may change again before the commit
+        String logicalPath = node.getLogicalPath();
+        afterCommit(s -> put(s, logicalPath, snapshot));
+    }
+
+    public void removed(FileNode node) {
+        if (node.getId() == null) return;
+        long id = node.getId();
+        afterCommit(s -> remove(s, s.byId.get(id)));
+    }
+
+    // Runs action after the changes registered so far are in the index (right away outside a transaction), for
+    // anything that must not announce a change before the index serves it
+    public void afterApplied(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        // Synchronizations run in registration order, so this follows the changes registered before
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // The bulk updates of FileNodeRepository, with the same conditions
+
+    public void contentHashUpdated(Long id, String physicalPath, String contentHash) {
+        afterCommit(s -> update(s, id, physicalPath, n -> new Node(n.id(), n.directory(), n.size(), n.createdAt(), n.modifiedAt(),
+                n.physicalPath(), n.restorePath(), n.mimeType(), contentHash, n.storageFormat(), n.storedSize(), n.fileName(), n.parentPath())));
+    }
+
+    public void mimeTypeUpdated(Long id, String physicalPath, String mimeType) {
+        String interned = intern(mimeType);
+        afterCommit(s -> update(s, id, physicalPath, n -> new Node(n.id(), n.directory(), n.size(), n.createdAt(), n.modifiedAt(),
+                n.physicalPath(), n.restorePath(), interned, n.contentHash(), n.storageFormat(), n.storedSize(), n.fileName(), n.parentPath())));
+    }
+
+    public void storageUpdated(Long id, String oldPath, String newPath, String storageFormat, Long storedSize) {
+        String format = intern(storageFormat);
+        afterCommit(s -> update(s, id, oldPath, n -> new Node(n.id(), n.directory(), n.size(), n.createdAt(), n.modifiedAt(),
+                newPath, n.restorePath(), n.mimeType(), n.contentHash(), format, storedSize, n.fileName(), n.parentPath())));
+    }
+
+    public void physicalPathsUpdated(String oldPath, String newPath) {
+        afterCommit(s -> updateAll(s, oldPath, n -> new Node(n.id(), n.directory(), n.size(), n.createdAt(), n.modifiedAt(),
+                newPath, n.restorePath(), n.mimeType(), n.contentHash(), n.storageFormat(), n.storedSize(), n.fileName(), n.parentPath())));
+    }
+
+    public void allStorageUpdated(String oldPath, String newPath, String storageFormat, Long storedSize) {
+        String format = intern(storageFormat);
+        afterCommit(s -> updateAll(s, oldPath, n -> new Node(n.id(), n.directory(), n.size(), n.createdAt(), n.modifiedAt(),
+                newPath, n.restorePath(), n.mimeType(), n.contentHash(), format, storedSize, n.fileName(), n.parentPath())));
+    }
+
+    // --- Reads (only meaningful while canServe()) ---
+    // Nodes come out as detached copies: changing one does nothing until it is saved through the repository.
+
+    public FileNode get(String logicalPath) {
+        lock.readLock().lock();
+        try {
+            Entry entry = find(logicalPath);
+            return entry == null || entry.node == null ? null : toFileNode(entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String logicalPath) {
+        lock.readLock().lock();
+        try {
+            Entry entry = find(logicalPath);
+            return entry != null && entry.node != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Nodes directly inside a folder ("/" for the top level), by name
+    public List<FileNode> children(String parentPath) {
+        lock.readLock().lock();
+        try {
+            Entry parent = "/".equals(parentPath) ? (state == null ? null : state.root) : find(parentPath);
+            List<FileNode> result = new ArrayList<>();
+            if (parent == null) return result;
+            for (int i = 0; i < parent.childCount; i++) {
+                Entry child = parent.children[i];
+                if (child.node != null) result.add(toFileNode(child));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The node and everything below it, a folder before its contents
+    public List<FileNode> subtree(String logicalPath) {
+        List<FileNode> result = new ArrayList<>();
+        visitSubtree(logicalPath, true, entry -> result.add(toFileNode(entry)));
+        return result;
+    }
+
+    public List<Long> subtreeIds(String logicalPath) {
+        List<Long> result = new ArrayList<>();
+        visitSubtree(logicalPath, true, entry -> result.add(entry.node.id()));
+        return result;
+    }
+
+    // Size of the files below a folder (the folder itself not counted)
+    public long sizeBelow(String logicalPath) {
+        long[] total = new long[1];
+        visitSubtree(logicalPath, false, entry -> {
+            if (!entry.node.directory()) total[0] += entry.node.size();
+        });
+        return total[0];
+    }
+
+    public ArchiveNode archiveNode(String logicalPath) {
+        lock.readLock().lock();
+        try {
+            Entry entry = find(logicalPath);
+            return entry == null || entry.node == null ? null : toArchiveNode(entry);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Up to limit nodes below a folder, depth first with siblings by name (a folder always comes before its contents),
+    // starting after the given path (null for the beginning). Pages can be fetched one by one without holding anything.
+    public List<ArchiveNode> walk(String folderPath, String afterLogicalPath, int limit) {
+        lock.readLock().lock();
+        try {
+            List<ArchiveNode> result = new ArrayList<>();
+            Entry top = find(folderPath);
+            if (top == null) return result;
+
+            // Stack of folders being walked and the index of the next child to visit in each
+            List<Entry> folders = new ArrayList<>();
+            List<Integer> next = new ArrayList<>();
+            folders.add(top);
+            next.add(0);
+
+            String prefix = folderPath + "/";
+            if (afterLogicalPath != null && afterLogicalPath.startsWith(prefix) && afterLogicalPath.length() > prefix.length()) {
+                // Rebuild the stack as it was right after visiting afterLogicalPath (which may be gone by now)
+                Entry folder = top;
+                int start = prefix.length();
+                while (true) {
+                    int slash = afterLogicalPath.indexOf('/', start);
+                    int end = slash < 0 ? afterLogicalPath.length() : slash;
+                    int index = search(folder, afterLogicalPath, start, end);
+                    if (index < 0) {
+                        next.set(next.size() - 1, -index - 1);
+                        break;
+                    }
+                    next.set(next.size() - 1, index + 1);
+                    folder = folder.children[index];
+                    folders.add(folder);
+                    next.add(0);
+                    if (slash < 0) break;
+                    start = slash + 1;
+                }
+            }
+
+            while (!folders.isEmpty() && result.size() < limit) {
+                int last = folders.size() - 1;
+                Entry folder = folders.get(last);
+                int index = next.get(last);
+                if (index >= folder.childCount) {
+                    folders.remove(last);
+                    next.remove(last);
+                    continue;
+                }
+                next.set(last, index + 1);
+                Entry child = folder.children[index];
+                if (child.node != null) result.add(toArchiveNode(child));
+                if (child.childCount > 0) {
+                    folders.add(child);
+                    next.add(0);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Internals ---
+
+    private void afterCommit(Consumer<State> change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(change);
+            return;
+        }
+        if (!TransactionSynchronizationManager.hasResource(this)) {
+            TransactionSynchronizationManager.bindResource(this, Boolean.TRUE); // See canServe()
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PathIndex.this);
+                }
+            });
+        }
+        uncommitted.incrementAndGet();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                apply(change);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                uncommitted.decrementAndGet();
+            }
+        });
+    }
+
+    private void apply(Consumer<State> change) {
+        lock.writeLock().lock();
+        try {
+            if (pending != null) {
+                pending.add(change);
+            } else if (state != null) {
+                change.accept(state);
+            }
+            changes++;
+        } catch (RuntimeException e) {
+            // The DB is right either way, a restart rebuilds the index from it
+            logger.error("Could not apply a change to the path index", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void visitSubtree(String logicalPath, boolean withTop, Consumer<Entry> visitor) {
+        lock.readLock().lock();
+        try {
+            Entry top = find(logicalPath);
+            if (top == null) return;
+            List<Entry> stack = new ArrayList<>();
+            stack.add(top);
+            while (!stack.isEmpty()) {
+                Entry entry = stack.remove(stack.size() - 1);
+                if (entry.node != null && (withTop || entry != top)) visitor.accept(entry);
+                for (int i = entry.childCount - 1; i >= 0; i--) {
+                    stack.add(entry.children[i]); // Reversed, so they come off the stack by name
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Entry find(String logicalPath) {
+        if (state == null || logicalPath == null) return null;
+        Entry entry = state.root;
+        int start = 0;
+        while (true) {
+            int slash = logicalPath.indexOf('/', start);
+            int end = slash < 0 ? logicalPath.length() : slash;
+            int index = search(entry, logicalPath, start, end);
+            if (index < 0) return null;
+            entry = entry.children[index];
+            if (slash < 0) return entry;
+            start = slash + 1;
+        }
+    }
+
+    // Binary search of the segment path[from, to) among the children, without cutting it out of the path
+    private static int search(Entry parent, String path, int from, int to) {
+        int low = 0;
+        int high = parent.childCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(parent.children[mid].name, path, from, to);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Same order as String.compareTo
+    private static int compare(String name, String path, int from, int to) {
+        int length = Math.min(name.length(), to - from);
+        for (int i = 0; i < length; i++) {
+            char a = name.charAt(i);
+            char b = path.charAt(from + i);
+            if (a != b) return a - b;
+        }
+        return name.length() - (to - from);
+    }
+
+    private static Entry ensure(State s, String logicalPath) {
+        Entry entry = s.root;
+        int start = 0;
+        while (true) {
+            int slash = logicalPath.indexOf('/', start);
+            int end = slash < 0 ? logicalPath.length() : slash;
+            int index = search(entry, logicalPath, start, end);
+            if (index < 0) {
+                Entry child = new Entry(logicalPath.substring(start, end).intern(), entry);
+                insertChild(entry, child, -index - 1);
+                entry = child;
+            } else {
+                entry = entry.children[index];
+            }
+            if (slash < 0) return entry;
+            start = slash + 1;
+        }
+    }
+
+    private static void insertChild(Entry parent, Entry child, int index) {
+        if (parent.children == null) {
+            parent.children = new Entry[2];
+        } else if (parent.childCount == parent.children.length) {
+            parent.children = Arrays.copyOf(parent.children, parent.childCount + (parent.childCount >> 1) + 1);
+        }
+        System.arraycopy(parent.children, index, parent.children, index + 1, parent.childCount - index);
+        parent.children[index] = child;
+        parent.childCount++;
+    }
+
+    private static void put(State s, String logicalPath, Node node) {
+        Entry previous = s.byId.get(node.id());
+        if (previous != null) {
+            unindexPhysicalPath(s, previous);
+            previous.node = null; // Renamed or moved, pruned below once the new place is taken
+        }
+        Entry entry = ensure(s, logicalPath);
+        if (entry.node != null && entry.node.id() != node.id()) {
+            // The path belonged to another node that must be gone by now (its removal is applied in order as well)
+            s.byId.remove(entry.node.id());
+        }
+        unindexPhysicalPath(s, entry);
+        entry.node = node;
+        s.byId.put(node.id(), entry);
+        indexPhysicalPath(s, entry);
+        if (previous != null && previous != entry) prune(s, previous);
+    }
+
+    private static void remove(State s, Entry entry) {
+        if (entry == null || entry.node == null) return;
+        s.byId.remove(entry.node.id());
+        unindexPhysicalPath(s, entry);
+        entry.node = null;
+        prune(s, entry);
+    }
+
+    // Drops segments that neither hold a node nor lead to one
+    private static void prune(State s, Entry entry) {
+        while (entry != s.root && entry.node == null && entry.childCount == 0) {
+            Entry parent = entry.parent;
+            int index = search(parent, entry.name, 0, entry.name.length());
+            if (index < 0) return;
+            System.arraycopy(parent.children, index + 1, parent.children, index, parent.childCount - index - 1);
+            parent.children[--parent.childCount] = null;
+            if (parent.childCount == 0) parent.children = null;
+            entry = parent;
+        }
+    }
+
+    private static void update(State s, Long id, String physicalPath, UnaryOperator<Node> change) {
+        Entry entry = id == null ? null : s.byId.get(id);
+        if (entry == null || !Objects.equals(entry.node.physicalPath(), physicalPath)) return;
+        unindexPhysicalPath(s, entry);
+        entry.node = change.apply(entry.node);
+        indexPhysicalPath(s, entry);
+    }
+
+    private static void updateAll(State s, String physicalPath, UnaryOperator<Node> change) {
+        Object found = s.byPhysicalPath.get(physicalPath);
+        Entry[] entries = found instanceof Entry single ? new Entry[] { single } : (Entry[]) found;
+        if (entries == null) return;
+        for (Entry entry : entries.clone()) {
+            unindexPhysicalPath(s, entry);
+            entry.node = change.apply(entry.node);
+            indexPhysicalPath(s, entry);
+        }
+    }
+
+    // Files by physical path, for the updates that repoint all nodes sharing some content (folders all say "virtual")
+
+    private static void indexPhysicalPath(State s, Entry entry) {
+        Node node = entry.node;
+        if (node == null || node.directory() || node.physicalPath() == null) return;
+        s.byPhysicalPath.merge(node.physicalPath(), entry, (current, added) -> {
+            if (current instanceof Entry single) {
+                return single == added ? single : new Entry[] { single, (Entry) added };
+            }
+            Entry[] shared = (Entry[]) current;
+            for (Entry e : shared) {
+                if (e == added) return shared;
+            }
+            Entry[] grown = Arrays.copyOf(shared, shared.length + 1);
+            grown[shared.length] = (Entry) added;
+            return grown;
+        });
+    }
+
+    private static void unindexPhysicalPath(State s, Entry entry) {
+        Node node = entry.node;
+        if (node == null || node.directory() || node.physicalPath() == null) return;
+        s.byPhysicalPath.computeIfPresent(node.physicalPath(), (path, current) -> {
+            if (current instanceof Entry single) {
+                return single == entry ? null : single;
+            }
+            Entry[] shared = (Entry[]) current;
+            List<Entry> left = new ArrayList<>(shared.length);
+            for (Entry e : shared) {
+                if (e != entry) left.add(e);
+            }
+            return left.size() == 1 ? left.get(0) : left.toArray(new Entry[0]);
+        });
+    }
+
+    private static String pathOf(Entry entry) {
+        if (entry.parent == null) return "";
+        if (entry.parent.parent == null) return entry.name;
+        int length = 0;
+        for (Entry e = entry; e.parent != null; e = e.parent) {
+            length += e.name.length() + 1;
+        }
+        char[] path = new char[length - 1];
+        int end = path.length;
+        for (Entry e = entry; e.parent != null; e = e.parent) {
+            int start = end - e.name.length();
+            e.name.getChars(0, e.name.length(), path, start);
+            if (start > 0) path[start - 1] = '/';
+            end = start - 1;
+        }
+        return new String(path);
+    }
+
+    private static String parentOf(String logicalPath) {
+        int slash = logicalPath.lastIndexOf('/');
+        return slash < 0 ? "/" : logicalPath.substring(0, slash);
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+
+    private static Node toNode(FileNode node) {
+        String logicalPath = node.getLogicalPath();
+        String name = logicalPath.substring(logicalPath.lastIndexOf('/') + 1);
+        return new Node(node.getId(), node.isDirectory(), node.getSize(), node.getCreatedAt(), node.getModifiedAt(),
+                node.isDirectory() ? intern(node.getPhysicalPath()) : node.getPhysicalPath(),
+                intern(node.getRestorePath()), intern(node.getMimeType()), node.getContentHash(), intern(node.getStorageFormat()),
+                node.getStoredSize(),
+                Objects.equals(node.getFileName(), name) ? null : node.getFileName(),
+                Objects.equals(node.getParentPath(), parentOf(logicalPath)) ? null : node.getParentPath());
+    }
+
+    private static FileNode toFileNode(Entry entry) {
+        Node n = entry.node;
+        String logicalPath = pathOf(entry);
+        FileNode node = new FileNode();
+        node.setId(n.id());
+        node.setLogicalPath(logicalPath);
+        node.setParentPath(n.parentPath() != null ? n.parentPath() : parentOf(logicalPath));
+        node.setFileName(n.fileName() != null ? n.fileName() : entry.name);
+        node.setDirectory(n.directory());
+        node.setSize(n.size());
+        node.setCreatedAt(n.createdAt());
+        node.setModifiedAt(n.modifiedAt());
+        node.setPhysicalPath(n.physicalPath());
+        node.setRestorePath(n.restorePath());
+        node.setMimeType(n.mimeType());
+        node.setContentHash(n.contentHash());
+        node.setStorageFormat(n.storageFormat());
+        node.setStoredSize(n.storedSize());
+        node.setLoadedPaths(logicalPath, node.getParentPath());
+        return node;
+    }
+
+    private static ArchiveNode toArchiveNode(Entry entry) {
+        Node n = entry.node;
+        return new ArchiveNode(pathOf(entry), n.directory(), n.physicalPath(), n.storageFormat(), n.mimeType(), n.size(), n.modifiedAt());
+    }
+
+    // --- Snapshot encoding ---
+
+    private static void writeChildren(DataOutputStream out, Entry parent) throws IOException {
+        out.writeInt(parent.childCount);
+        for (int i = 0; i < parent.childCount; i++) {
+            Entry entry = parent.children[i];
+            out.writeUTF(entry.name);
+            Node n = entry.node;
+            out.writeBoolean(n != null);
+            if (n != null) {
+                out.writeLong(n.id());
+                out.writeBoolean(n.directory());
+                out.writeLong(n.size());
+                writeInstant(out, n.createdAt());
+                writeInstant(out, n.modifiedAt());
+                writeString(out, n.physicalPath());
+                writeString(out, n.restorePath());
+                writeString(out, n.mimeType());
+                writeString(out, n.contentHash());
+                writeString(out, n.storageFormat());
+                out.writeBoolean(n.storedSize() != null);
+                if (n.storedSize() != null) out.writeLong(n.storedSize());
+                writeString(out, n.fileName());
+                writeString(out, n.parentPath());
+            }
+            writeChildren(out, entry);
+        }
+    }
+
+    private static void readChildren(DataInputStream in, State s, Entry parent) throws IOException {
+        int count = in.readInt();
+        if (count < 0) throw new IOException("Corrupt snapshot");
+        if (count == 0) return;
+        parent.children = new Entry[count];
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(in.readUTF().intern(), parent);
+            if (in.readBoolean()) {
+                long id = in.readLong();
+                boolean directory = in.readBoolean();
+                long size = in.readLong();
+                Instant createdAt = readInstant(in);
+                Instant modifiedAt = readInstant(in);
+                String physicalPath = readString(in);
+                String restorePath = readString(in);
+                String mimeType = readString(in);
+                String contentHash = readString(in);
+                String storageFormat = readString(in);
+                Long storedSize = in.readBoolean() ? in.readLong() : null;
+                String fileName = readString(in);
+                String parentPath = readString(in);
+                entry.node = new Node(id, directory, size, createdAt, modifiedAt, directory ? intern(physicalPath) : physicalPath,
+                        intern(restorePath), intern(mimeType), contentHash, intern(storageFormat), storedSize, fileName, parentPath);
+                s.byId.put(id, entry);
+                indexPhysicalPath(s, entry);
+            }
+            if (i > 0 && parent.children[i - 1].name.compareTo(entry.name) >= 0) {
+                throw new IOException("Corrupt snapshot (children out of order)");
+            }
+            parent.children[i] = entry;
+            parent.childCount = i + 1;
+            readChildren(in, s, entry);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getEpochSecond());
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+}
@@ -0,0 +1,490 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.ThumbnailStats;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.repository.FileNodeRepository;
+import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.media.MalformedHeaderException;
+import com.nas_backend.service.file.media.MediaHeaders;
+import com.nas_backend.service.file.media.MediaProbe;
+import com.nas_backend.service.file.storage.StoredContent;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Downscaled JPEG previews of images, so grids and the recent media view do not pull full size photos off the drives.
+// Previews are kept in .thumbnails on the first drive, named after node id, modification time and size class, so a
+// changed file gets new ones (the old ones go in the nightly sweep). Made by a few worker threads: requests for the
+// same preview share one job, and a request jumps ahead of previews queued for a directory listing. New uploads get
+// theirs from the processing pipeline (PreviewStage).
+@Service
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private static final int[] SIZE_CLASSES = {128, 256, 512, 1024}; // Longer edge in pixels
+    private static final int DEFAULT_SIZE_CLASS = 256;
+    private static final String THUMBNAILS_DIR_NAME = ".thumbnails";
+    private static final String PARTIAL_SUFFIX = ".tmp";
+    private static final float JPEG_QUALITY = 0.8f;
+    private static final long MAX_SOURCE_PIXELS = 200_000_000L; // Larger images are not decoded at all
+    private static final int WORKER_THREADS = 2; // Decoding is CPU bound, the rest of the cores stay for transfers
+    private static final int MAX_QUEUED_PREFETCHES = 1000;
+    private static final long WAIT_SECONDS = 30;
+    private static final long PARTIAL_MAX_AGE_MS = 60 * 60 * 1000;
+    private static final int IDS_PER_QUERY = 500; // SQLite limits the parameters of one statement
+
+    private final AppConfigService configService;
+    private final FileNodeRepository fileNodeRepository;
+    private final FileIndexService fileIndexService;
+
+    // One job per preview being made, whoever asks for it meanwhile waits for the same result
+    private final Map<Path, Job> jobs = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<QueuedJob> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Thread> workers = new ArrayList<>();
+
+    // Metrics
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong joinedRequests = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong prefetchQueued = new AtomicLong();
+    private final AtomicLong prefetchDropped = new AtomicLong();
+
+    private static final class Job {
+        final FileNode node;
+        final int sizeClass;
+        final Path target;
+        final CompletableFuture<Path> result = new CompletableFuture<>();
+        final AtomicBoolean claimed = new AtomicBoolean(); // A job may be queued twice (prefetch, then requested), it runs once
+
+        Job(FileNode node, int sizeClass, Path target) {
+            this.node = node;
+            this.sizeClass = sizeClass;
+            this.target = target;
+        }
+    }
+
+    // Requested previews first, then prefetches, each in the order they came
+    private record QueuedJob(Job job, boolean requested, long sequence) implements Comparable<QueuedJob> {
+        @Override
+        public int compareTo(QueuedJob other) {
+            if (requested != other.requested) return requested ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public ThumbnailService(AppConfigService configService, FileNodeRepository fileNodeRepository, FileIndexService fileIndexService) {
+        this.configService = configService;
+        this.fileNodeRepository = fileNodeRepository;
+        this.fileIndexService = fileIndexService;
+
+        // ImageIO would otherwise buffer every image it reads from a stream in a temp file on the SD card
+        ImageIO.setUseCache(false);
+
+        for (int i = 1; i <= WORKER_THREADS; i++) {
+            Thread worker = new Thread(this::work, "thumbnail-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.forEach(Thread::interrupt);
+    }
+
+    // The size class serving a requested edge length: the smallest one at least that large
+    public int sizeClassOf(Integer requestedSize) {
+        if (requestedSize == null || requestedSize <= 0) return DEFAULT_SIZE_CLASS;
+        for (int sizeClass : SIZE_CLASSES) {
+            if (sizeClass >= requestedSize) return sizeClass;
+        }
+        return SIZE_CLASSES[SIZE_CLASSES.length - 1];
+    }
+
+    // Images ImageIO can read (JPEG, PNG, GIF, BMP...), by MIME type or else by extension
+    public boolean isSupported(FileNode node) {
+        if (node.isDirectory()) return false;
+        String mimeType = node.getMimeType();
+        if (mimeType != null && mimeType.startsWith("image/")) {
+            return ImageIO.getImageReadersByMIMEType(mimeType).hasNext();
+        }
+        String name = node.getFileName();
+        int dot = name != null ? name.lastIndexOf('.') : -1;
+        return dot >= 0 && ImageIO.getImageReadersBySuffix(name.substring(dot + 1).toLowerCase()).hasNext();
+    }
+
+    // Changes with the file, so a client revalidating a preview gets 304 until the image is replaced
+    public String etag(FileNode node, int sizeClass) {
+        return "\"thumb-" + node.getId() + "-" + Long.toHexString(modifiedMillis(node)) + "-" + sizeClass + "\"";
+    }
+
+    // The preview file, made now (ahead of anything prefetched) unless it already exists
+    public Path getThumbnail(FileNode node, int sizeClass) throws IOException, TimeoutException {
+        if (!isSupported(node)) {
+            throw new FileValidationException("No preview for this file type: " + node.getFileName());
+        }
+        if (!hasDrive()) throw new IOException("No storage drive for previews configured.");
+        Path target = thumbnailPath(node, sizeClass);
+        if (Files.exists(target)) {
+            cacheHits.incrementAndGet();
+            return target;
+        }
+
+        Job job = schedule(node, sizeClass, target, true);
+        return await(job, WAIT_SECONDS);
+    }
+
+    // Makes the preview on the calling thread (a processing pipeline worker) unless it exists or a job is making it already
+    public void generateNow(FileNode node, int sizeClass) throws IOException {
+        if (!isSupported(node) || !hasDrive()) return;
+        Path target = thumbnailPath(node, sizeClass);
+        if (Files.exists(target)) return;
+
+        Job job = jobs.computeIfAbsent(target, key -> new Job(node, sizeClass, key));
+        if (job.claimed.compareAndSet(false, true)) {
+            run(job);
+        }
+        try {
+            await(job, WAIT_SECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Preview still being made by another job.");
+        }
+    }
+
+    public int defaultSizeClass() {
+        return DEFAULT_SIZE_CLASS;
+    }
+
+    // Queues previews for the images of a directory that do not have one yet, behind any requested ones
+    public void prefetch(String directoryPath, int sizeClass) {
+        if (!hasDrive()) return;
+        int queued = 0;
+        for (FileNode node : fileIndexService.listFiles(directoryPath)) {
+            if (!isSupported(node)) continue;
+            Path target = thumbnailPath(node, sizeClass);
+            if (Files.exists(target)) continue;
+            if (queue.size() >= MAX_QUEUED_PREFETCHES) {
+                prefetchDropped.incrementAndGet();
+                continue;
+            }
+            schedule(node, sizeClass, target, false);
+            queued++;
+        }
+        if (queued > 0) {
+            prefetchQueued.addAndGet(queued);
+            logger.debug("Queued {} previews for {}", queued, directoryPath);
+        }
+    }
+
+    @Scheduled(cron = "0 25 3 * * ?") // 3:25 AM daily, after the garbage collector emptied the trash
+    public void removeStalePreviews() {
+        if (!hasDrive()) return;
+        Path directory = thumbnailsDir();
+        if (!Files.isDirectory(directory)) return;
+
+        // Previews of deleted files, and of older versions of changed ones
+        Map<Long, List<Path>> byNodeId = new HashMap<>();
+        Map<Path, Long> modifiedAtOf = new HashMap<>();
+        List<Path> stale = new ArrayList<>();
+        long partialCutoff = System.currentTimeMillis() - PARTIAL_MAX_AGE_MS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String[] parts = file.getFileName().toString().split("[-.]");
+                if (parts.length != 4 || !parts[3].equals("jpg")) {
+                    // Leftover of a broken off write (one being written right now is left alone)
+                    if (Files.getLastModifiedTime(file).toMillis() < partialCutoff) stale.add(file);
+                    continue;
+                }
+                try {
+                    byNodeId.computeIfAbsent(Long.parseLong(parts[0]), id -> new ArrayList<>()).add(file);
+                    modifiedAtOf.put(file, Long.parseLong(parts[1]));
+                } catch (NumberFormatException e) {
+                    stale.add(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Preview cleanup failed: {}", e.getMessage());
+            return;
+        }
+
+        Map<Long, Long> currentModifiedAt = new HashMap<>();
+        List<Long> ids = new ArrayList<>(byNodeId.keySet());
+        for (int from = 0; from < ids.size(); from += IDS_PER_QUERY) {
+            for (FileNode node : fileNodeRepository.findAllById(ids.subList(from, Math.min(from + IDS_PER_QUERY, ids.size())))) {
+                currentModifiedAt.put(node.getId(), modifiedMillis(node));
+            }
+        }
+        byNodeId.forEach((id, previews) -> {
+            Long current = currentModifiedAt.get(id);
+            for (Path preview : previews) {
+                if (current == null || !current.equals(modifiedAtOf.get(preview))) stale.add(preview);
+            }
+        });
+
+        int removed = 0;
+        for (Path file : stale) {
+            try {
+                if (Files.deleteIfExists(file)) removed++;
+            } catch (IOException e) {
+                logger.warn("Could not remove stale preview {}: {}", file, e.getMessage());
+            }
+        }
+        logger.info("Preview cleanup: Removed {} stale previews. Job done.", removed);
+    }
+
+    public ThumbnailStats getStats() {
+        return new ThumbnailStats(
+                cacheHits.get(),
+                generated.get(),
+                joinedRequests.get(),
+                failed.get(),
+                prefetchQueued.get(),
+                prefetchDropped.get(),
+                queue.size());
+    }
+
+    // Helper methods
+
+    private Job schedule(FileNode node, int sizeClass, Path target, boolean requested) {
+        boolean[] created = new boolean[1];
+        Job job = jobs.computeIfAbsent(target, key -> {
+            created[0] = true;
+            return new Job(node, sizeClass, key);
+        });
+        if (!created[0] && requested) joinedRequests.incrementAndGet();
+
+        // A request queues the job again at its own priority, in case it was only waiting behind prefetches
+        if (created[0] || requested) {
+            queue.add(new QueuedJob(job, requested, sequence.incrementAndGet()));
+        }
+        return job;
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Job job;
+            try {
+                job = queue.take().job();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job.claimed.compareAndSet(false, true)) { // Otherwise already made for its other queue entry
+                run(job);
+            }
+        }
+    }
+
+    private void run(Job job) {
+        try {
+            if (!Files.exists(job.target)) {
+                generate(job.node, job.sizeClass, job.target);
+                generated.incrementAndGet();
+            }
+            job.result.complete(job.target);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.warn("Could not make a preview of {}: {}", job.node.getLogicalPath(), e.getMessage());
+            job.result.completeExceptionally(e);
+        } catch (OutOfMemoryError e) {
+            failed.incrementAndGet();
+            logger.error("Out of memory making a preview of {}", job.node.getLogicalPath());
+            job.result.completeExceptionally(new FileValidationException("Image too large to preview."));
+        } finally {
+            jobs.remove(job.target, job);
+        }
+    }
+
+    private static Path await(Job job, long seconds) throws IOException, TimeoutException {
+        try {
+            return job.result.get(seconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the preview.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw new IOException("Preview failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void generate(FileNode node, int sizeClass, Path target) throws IOException {
+        int orientation = orientationOf(node);
+        BufferedImage source;
+        try (InputStream in = StoredContent.of(node).openStream();
+             ImageInputStream images = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = images != null ? ImageIO.getImageReaders(images) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new FileValidationException("Not a readable image: " + node.getFileName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(images, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    throw new FileValidationException("Image too large to preview: " + width + "x" + height);
+                }
+
+                // Only every n-th pixel is decoded, still at least twice the preview size for a smooth downscale.
+                // A 24 MP photo then takes a few MB of heap instead of ~100.
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / (sizeClass * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                source = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        BufferedImage preview = scale(orient(source, orientation), sizeClass);
+        Files.createDirectories(target.getParent());
+        Path partial = target.resolveSibling(UUID.randomUUID() + PARTIAL_SUFFIX);
+        try {
+            writeJpeg(preview, partial);
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    // EXIF orientation from the headers (a few KB), ImageIO hands out the pixels as stored
+    private static int orientationOf(FileNode node) throws IOException {
+        try {
+            MediaProbe probe = MediaHeaders.probe(StoredContent.of(node));
+            return probe != null ? probe.getOrientation() : 1;
+        } catch (MalformedHeaderException e) {
+            return 1; // The decoder may still manage, the preview is then just not turned
+        }
+    }
+
+    // Turns the decoded pixels upright as the EXIF orientation says (mirrored, upside down, on its side...). The
+    // preview has no EXIF of its own, so browsers show it as it is.
+    static BufferedImage orient(BufferedImage source, int orientation) {
+        if (orientation < 2 || orientation > 8) return source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        AffineTransform transform = switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, width, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, width, height);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, height);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, height, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, height, width);
+            default -> new AffineTransform(0, -1, 1, 0, 0, width);
+        };
+
+        boolean sideways = orientation >= 5;
+        BufferedImage target = new BufferedImage(sideways ? height : width, sideways ? width : height,
+                source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.drawImage(source, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    // Halves the image while it is still twice the preview size, then one last step (a single bilinear step from far
+    // larger would skip pixels). Transparency becomes white.
+    private static BufferedImage scale(BufferedImage source, int sizeClass) {
+        double factor = Math.min(1.0, (double) sizeClass / Math.max(source.getWidth(), source.getHeight())); // Small images are not enlarged
+        int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+
+        BufferedImage current = source;
+        while (current.getWidth() / 2 >= width && current.getHeight() / 2 >= height) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        return draw(current, width, height);
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path file) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private boolean hasDrive() {
+        List<String> drives = configService.getConfig().getStorage().getPaths();
+        return drives != null && !drives.isEmpty();
+    }
+
+    private Path thumbnailsDir() {
+        return Paths.get(configService.getConfig().getStorage().getPaths().get(0), THUMBNAILS_DIR_NAME);
+    }
+
+    private Path thumbnailPath(FileNode node, int sizeClass) {
+        return thumbnailsDir().resolve(node.getId() + "-" + modifiedMillis(node) + "-" + sizeClass + ".jpg");
+    }
+
+    private static long modifiedMillis(FileNode node) {
+        Instant modifiedAt = node.getModifiedAt();
+        return modifiedAt != null ? modifiedAt.toEpochMilli() : 0;
+    }
+}
@@ -0,0 +1,161 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.exception.UploadRejectedException;
+import com.nas_backend.model.config.ServerConfig;
+import com.nas_backend.model.dto.UploadQueueStats;
+import com.nas_backend.service.AppConfigService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Admission control for everything that writes upload data to the drives (maxConcurrentUploads from config.json)
+@Service
+public class UploadAdmissionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadAdmissionService.class);
+
+    private static final int DEFAULT_QUEUE_SIZE = 16;
+    private static final int DEFAULT_QUEUE_TIMEOUT_SECONDS = 30;
+    private static final long MAX_RETRY_AFTER_SECONDS = 300;
+
+    private final int maxConcurrentUploads;
+    private final int maxQueuedUploads;
+    private final int queueTimeoutSeconds;
+    private final Semaphore writers; // null when uploads are unlimited
+
+    private final AtomicInteger activeUploads = new AtomicInteger();
+    private final AtomicInteger queuedUploads = new AtomicInteger();
+
+    // Metrics
+    private final LongAdder admittedTotal = new LongAdder();
+    private final LongAdder rejectedTotal = new LongAdder();
+    private final LongAdder timedOutTotal = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder completedTotal = new LongAdder();
+    private final LongAdder totalHoldNanos = new LongAdder();
+
+    public UploadAdmissionService(AppConfigService configService) {
+        ServerConfig server = configService.getConfig().getServer();
+
+        this.maxConcurrentUploads = Math.max(server.getMaxConcurrentUploads(), 0);
+        this.maxQueuedUploads = server.getUploadQueueSize() > 0 ? server.getUploadQueueSize() : DEFAULT_QUEUE_SIZE;
+        this.queueTimeoutSeconds = server.getUploadQueueTimeoutSeconds() > 0 ? server.getUploadQueueTimeoutSeconds() : DEFAULT_QUEUE_TIMEOUT_SECONDS;
+
+        // Fair semaphore, so uploads are admitted in the order they arrived
+        this.writers = maxConcurrentUploads > 0 ? new Semaphore(maxConcurrentUploads, true) : null;
+
+        logger.info("Upload admission: max {} concurrent writers, queue of {} with {}s timeout.",
+                maxConcurrentUploads > 0 ? maxConcurrentUploads : "unlimited", maxQueuedUploads, queueTimeoutSeconds);
+    }
+
+    // Blocks until a writer slot is free, the returned permit must be closed when the data is on disk
+    public Permit acquire() throws UploadRejectedException {
+        long start = System.nanoTime();
+
+        if (writers != null && !tryAcquireNow()) {
+            // No free slot, join the queue if there is room in it
+            if (queuedUploads.incrementAndGet() > maxQueuedUploads) {
+                queuedUploads.decrementAndGet();
+                rejectedTotal.increment();
+                logger.warn("Upload admission: queue is full ({} waiting), rejecting upload.", maxQueuedUploads);
+                throw new UploadRejectedException("Too many uploads in progress, upload queue is full.", estimateRetryAfterSeconds());
+            }
+
+            boolean acquired;
+            try {
+                acquired = writers.tryAcquire(queueTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            } finally {
+                queuedUploads.decrementAndGet();
+            }
+
+            if (!acquired) {
+                timedOutTotal.increment();
+                logger.warn("Upload admission: upload waited {}s in the queue without getting a slot.", queueTimeoutSeconds);
+                throw new UploadRejectedException("Too many uploads in progress, timed out waiting in the upload queue.", estimateRetryAfterSeconds());
+            }
+        }
+
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        admittedTotal.increment();
+        activeUploads.incrementAndGet();
+
+        return new Permit();
+    }
+
+    // Uploads writing right now, background work backs off while there are any
+    public int getActiveUploads() {
+        return activeUploads.get();
+    }
+
+    public UploadQueueStats getStats() {
+        long admitted = admittedTotal.sum();
+        double averageWaitMs = admitted > 0 ? totalWaitNanos.sum() / 1_000_000.0 / admitted : 0;
+
+        return new UploadQueueStats(
+                maxConcurrentUploads,
+                activeUploads.get(),
+                queuedUploads.get(),
+                maxQueuedUploads,
+                admitted,
+                rejectedTotal.sum(),
+                timedOutTotal.sum(),
+                averageWaitMs,
+                maxWaitNanos.get() / 1_000_000);
+    }
+
+    // Helper methods
+
+    // Takes a free slot only when nobody queues for one: the untimed tryAcquire() would jump the fair semaphore's queue
+    private boolean tryAcquireNow() {
+        try {
+            return writers.tryAcquire(0, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Rough guess: everybody in front of the client needs an average upload time, spread over the writer slots
+    private long estimateRetryAfterSeconds() {
+        long completed = completedTotal.sum();
+        double averageHoldSeconds = completed > 0 ? totalHoldNanos.sum() / 1_000_000_000.0 / completed : 1;
+        int slots = Math.max(maxConcurrentUploads, 1);
+        long estimate = (long) Math.ceil(averageHoldSeconds * (queuedUploads.get() + 1) / slots);
+        return Math.min(Math.max(estimate, 1), MAX_RETRY_AFTER_SECONDS);
+    }
+
+    // One admitted writer, releases its slot exactly once
+    public class Permit implements AutoCloseable {
+        private final long admittedAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (!released.compareAndSet(false, true)) return;
+
+            activeUploads.decrementAndGet();
+            completedTotal.increment();
+            totalHoldNanos.add(System.nanoTime() - admittedAt);
+            if (writers != null) {
+                writers.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.exception.ConflictException;
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.FileOperationResponse;
+import com.nas_backend.model.dto.UploadSessionStatus;
+import com.nas_backend.model.entity.UploadSession;
+import com.nas_backend.repository.UploadSessionRepository;
+import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.storage.StoragePlacementService;
+import com.nas_backend.service.file.storage.StreamingFileWriter;
+import com.nas_backend.service.system.LogService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Resumable uploads: the client sends chunks by offset (in parallel if it wants) and commits when everything arrived
+@Service
+public class UploadSessionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+    private static final Duration SESSION_TTL = Duration.ofHours(24); // Counted from the last received chunk
+    private static final String STAGING_DIR_NAME = ".staging";
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final FileService fileService;
+    private final StoragePlacementService storagePlacementService;
+    private final StreamingFileWriter streamingFileWriter;
+    private final AppConfigService configService;
+    private final LogService logService;
+
+    // Live bookkeeping of sessions touched since startup (session ID -> state), the DB holds the durable copy
+    private final Map<String, SessionState> sessionStates = new ConcurrentHashMap<>();
+
+    public UploadSessionService(UploadSessionRepository uploadSessionRepository, FileService fileService, StoragePlacementService storagePlacementService,
+                                StreamingFileWriter streamingFileWriter, AppConfigService configService, LogService logService) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.fileService = fileService;
+        this.storagePlacementService = storagePlacementService;
+        this.streamingFileWriter = streamingFileWriter;
+        this.configService = configService;
+        this.logService = logService;
+    }
+
+    // Service methods
+
+    public UploadSessionStatus createSession(String username, String logicalParentPath, String fileName, long totalSize, String mimeType)
+            throws IOException, FileValidationException {
+        logger.info("Upload session request for '{}' ({} bytes) in logical path '{}'", fileName, totalSize, logicalParentPath);
+
+        fileService.validateNewFileName(fileName);
+
+        long maxUploadBytes = (long) configService.getConfig().getServer().getMaxUploadSizeMB() * 1024 * 1024;
+        if (totalSize < 0 || totalSize > maxUploadBytes) {
+            throw new FileValidationException("File size exceeds the maximum upload limit.");
+        }
+
+        // Validate (and create) the target folder now, not after gigabytes were transferred
+        fileService.createVirtualPath(logicalParentPath);
+
+        // The staging file lives on the final drive, so the commit is only a rename
+        String storagePath = storagePlacementService.findBestStoragePath(totalSize);
+        String sessionId = UUID.randomUUID().toString();
+        Path stagingPath = Paths.get(storagePath, STAGING_DIR_NAME, sessionId + ".part");
+
+        Files.createDirectories(stagingPath.getParent());
+        streamingFileWriter.allocate(stagingPath, totalSize);
+
+        UploadSession session = new UploadSession();
+        session.setId(sessionId);
+        session.setUsername(username);
+        session.setLogicalParentPath(logicalParentPath);
+        session.setFileName(fileName);
+        session.setMimeType(mimeType);
+        session.setTotalSize(totalSize);
+        session.setStoragePath(storagePath);
+        session.setStagingPath(stagingPath.toString());
+        session.setReceivedRanges("");
+        session.setCreatedAt(Instant.now());
+        session.setExpiresAt(Instant.now().plus(SESSION_TTL));
+
+        uploadSessionRepository.save(session);
+        logger.info("Upload session {} created, staging file: {}", sessionId, stagingPath);
+
+        return toStatus(session, new ByteRangeSet());
+    }
+
+    public UploadSessionStatus writeChunk(String username, String sessionId, long offset, long length, InputStream content)
+            throws IOException, FileValidationException {
+        UploadSession session = requireSession(username, sessionId);
+
+        if (length < 0) {
+            throw new FileValidationException("Chunk uploads require a Content-Length header.");
+        }
+        if (offset < 0 || offset > session.getTotalSize() - length) { // offset + length could overflow
+            throw new FileValidationException("Chunk [" + offset + ", " + (offset + length) + ") lies outside of the file (" + session.getTotalSize() + " bytes).");
+        }
+
+        SessionState state = stateFor(session);
+        synchronized (state) {
+            if (state.committing) {
+                throw new ConflictException("Upload session is being committed.");
+            }
+            if (state.discarded) {
+                throw new IOException("Upload session not found: " + sessionId);
+            }
+            state.activeWrites++;
+        }
+
+        try {
+            // Aborted between the lookup and the registration above (its state is a new one then), the write would
+            // bring back the deleted staging file
+            if (!uploadSessionRepository.existsById(sessionId)) {
+                throw new IOException("Upload session not found: " + sessionId);
+            }
+            streamingFileWriter.writeAt(content, Paths.get(session.getStagingPath()), offset, length);
+        } finally {
+            synchronized (state) {
+                state.activeWrites--;
+            }
+        }
+
+        // Only mark the range as received after all of its bytes hit the disk
+        synchronized (state) {
+            state.ranges.add(offset, offset + length);
+            Instant expiresAt = Instant.now().plus(SESSION_TTL);
+            uploadSessionRepository.updateProgress(sessionId, state.ranges.serialize(), expiresAt);
+            session.setExpiresAt(expiresAt);
+            return toStatus(session, state.ranges);
+        }
+    }
+
+    public UploadSessionStatus getStatus(String username, String sessionId) throws IOException {
+        UploadSession session = requireSession(username, sessionId);
+        SessionState state = stateFor(session);
+        synchronized (state) {
+            return toStatus(session, state.ranges);
+        }
+    }
+
+    public FileOperationResponse commit(String username, String sessionId) throws IOException, FileValidationException {
+        UploadSession session = requireSession(username, sessionId);
+        SessionState state = stateFor(session);
+
+        synchronized (state) {
+            if (state.activeWrites > 0) {
+                throw new ConflictException("Chunks are still being written to this upload session.");
+            }
+            if (!state.ranges.covers(session.getTotalSize())) {
+                long missing = session.getTotalSize() - state.ranges.coveredBytes();
+                throw new ConflictException("Upload session is still missing " + missing + " bytes.");
+            }
+            state.committing = true;
+        }
+
+        FileOperationResponse response;
+        try {
+            // Same path as a regular upload, the FileNode appears in one transaction
+            response = fileService.commitStagedFile(session.getLogicalParentPath(), session.getFileName(), session.getMimeType(),
+                    Paths.get(session.getStagingPath()), session.getStoragePath());
+        } catch (IOException | RuntimeException e) {
+            synchronized (state) {
+                state.committing = false;
+            }
+            throw e;
+        }
+
+        uploadSessionRepository.delete(session);
+        sessionStates.remove(sessionId);
+        logService.logTransfer(username, "UPLOAD_SESSION_COMMIT", response.node().logicalPath(), "Session: " + sessionId);
+
+        return response;
+    }
+
+    public void abort(String username, String sessionId) throws IOException {
+        UploadSession session = requireSession(username, sessionId);
+        discard(session);
+        logger.info("Upload session {} aborted by user {}", sessionId, username);
+    }
+
+    // Drops sessions nobody continued within the TTL, returns how many were removed
+    public int removeExpiredSessions() {
+        List<UploadSession> expired = uploadSessionRepository.findByExpiresAtBefore(Instant.now());
+        int removed = 0;
+
+        for (UploadSession session : expired) {
+            try {
+                discard(session);
+                removed++;
+            } catch (ConflictException e) {
+                // Someone is still working on it
+            } catch (IOException e) {
+                logger.error("Failed to remove staging file of expired upload session {}", session.getId(), e);
+            }
+        }
+        return removed;
+    }
+
+    // Helper methods
+
+    private UploadSession requireSession(String username, String sessionId) throws IOException {
+        UploadSession session = uploadSessionRepository.findById(sessionId).orElse(null);
+
+        // Sessions of other users are reported as missing as well
+        if (session == null || !session.getUsername().equals(username)) {
+            throw new IOException("Upload session not found: " + sessionId);
+        }
+        return session;
+    }
+
+    private SessionState stateFor(UploadSession session) {
+        return sessionStates.computeIfAbsent(session.getId(), id -> new SessionState(ByteRangeSet.parse(session.getReceivedRanges())));
+    }
+
+    // Refused while chunks are being written or the session is being committed, later writes find it discarded
+    private void discard(UploadSession session) throws IOException {
+        SessionState state = sessionStates.get(session.getId());
+        if (state != null) {
+            synchronized (state) {
+                if (state.committing) {
+                    throw new ConflictException("Upload session is being committed.");
+                }
+                if (state.activeWrites > 0) {
+                    throw new ConflictException("Chunks are still being written to this upload session.");
+                }
+                state.discarded = true;
+            }
+        }
+        Files.deleteIfExists(Paths.get(session.getStagingPath()));
+        uploadSessionRepository.delete(session);
+        sessionStates.remove(session.getId());
+    }
+
+    private UploadSessionStatus toStatus(UploadSession session, ByteRangeSet ranges) {
+        return new UploadSessionStatus(
+                session.getId(),
+                session.getFileName(),
+                session.getTotalSize(),
+                ranges.coveredBytes(),
+                ranges.missing(session.getTotalSize()),
+                session.getExpiresAt() != null ? session.getExpiresAt().toString() : "N/A");
+    }
+
+    // Mutable per-session state, always accessed while holding its monitor
+    private static class SessionState {
+        private final ByteRangeSet ranges;
+        private int activeWrites;
+        private boolean committing;
+        private boolean discarded;
+
+        private SessionState(ByteRangeSet ranges) {
+            this.ranges = ranges;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.nas_backend.service.file.archive;
+
+import java.time.Instant;
+
+// One member of an archive, size is -1 when the format does not know it up front (streamed zip entries)
+public record ArchiveEntry(String name, boolean directory, long size, Instant modifiedAt) {}
@@ -0,0 +1,15 @@
+package com.nas_backend.service.file.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Forward-only reader over an archive that arrives as a stream, nothing is buffered beyond the current entry
+public interface ArchiveReader extends Closeable {
+
+    // Moves to the next regular file or directory (links, devices etc. are skipped), null at the end of the archive
+    ArchiveEntry nextEntry() throws IOException;
+
+    // Content of the current entry, valid until the next call of nextEntry(). Closing it does not close the archive.
+    InputStream entryContent();
+}
@@ -0,0 +1,278 @@
+package com.nas_backend.service.file.archive;
+
+import com.nas_backend.exception.FileValidationException;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+// Streaming tar reader: ustar, GNU long names ('L') and PAX extended headers ('x' and 'g')
+public class TarArchiveReader implements ArchiveReader {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_META_SIZE = 1024 * 1024; // Long names and PAX records never legitimately get this big
+    private static final String MALFORMED_PAX = "Malformed pax header, the upload is not a tar archive or it is corrupted.";
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private final Map<String, String> globalPax = new HashMap<>();
+    private final InputStream entryStream = new EntryStream();
+
+    private long entryRemaining; // Unread data bytes of the current entry
+    private long entryPadding; // Zero bytes that fill its last block
+    private boolean finished;
+
+    public TarArchiveReader(InputStream source) {
+        this.in = new BufferedInputStream(source, READ_BUFFER_SIZE);
+    }
+
+    @Override
+    public ArchiveEntry nextEntry() throws IOException {
+        if (finished) return null;
+        skipCurrentEntry();
+
+        String longName = null;
+        Map<String, String> pax = new HashMap<>(globalPax);
+
+        while (true) {
+            if (!readHeader()) {
+                finished = true;
+                return null;
+            }
+
+            char type = (char) header[156];
+            startEntry(parseNumber(124, 12));
+
+            // Meta entries describe the entry that follows them
+            if (type == 'L') {
+                longName = readString(readMetaData(), 0, Integer.MAX_VALUE);
+                continue;
+            }
+            if (type == 'x') {
+                pax.putAll(parsePax(readMetaData()));
+                continue;
+            }
+            if (type == 'g') {
+                Map<String, String> global = parsePax(readMetaData());
+                globalPax.putAll(global);
+                pax.putAll(global);
+                continue;
+            }
+
+            String name = pax.containsKey("path") ? pax.get("path") : longName != null ? longName : headerName();
+            if (pax.containsKey("size")) {
+                startEntry(paxSize(pax.get("size")));
+            }
+
+            Instant modifiedAt = pax.containsKey("mtime") ? paxTime(pax.get("mtime")) : Instant.ofEpochSecond(parseNumber(136, 12));
+
+            // '0' and NUL are regular files, '7' is a contiguous file (a regular file for everyone but some old Unixes)
+            if (type == '5' || ((type == '0' || type == 0) && name.endsWith("/"))) {
+                return new ArchiveEntry(name, true, 0, modifiedAt);
+            }
+            if (type == '0' || type == 0 || type == '7') {
+                return new ArchiveEntry(name, false, entryRemaining, modifiedAt);
+            }
+
+            // Hard links, symlinks, devices, FIFOs... have nothing to import
+            skipCurrentEntry();
+            longName = null;
+            pax = new HashMap<>(globalPax);
+        }
+    }
+
+    @Override
+    public InputStream entryContent() {
+        return entryStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // Helper methods
+
+    private boolean readHeader() throws IOException {
+        int read = in.readNBytes(header, 0, BLOCK_SIZE);
+        if (read == 0) return false; // Archive without the end-of-archive blocks, tolerate it
+        if (read < BLOCK_SIZE) throw new EOFException("Truncated tar archive.");
+
+        boolean allZero = true;
+        for (byte b : header) {
+            if (b != 0) {
+                allZero = false;
+                break;
+            }
+        }
+        if (allZero) return false; // End-of-archive marker
+
+        // Checksum is the sum of all header bytes with the checksum field itself read as spaces
+        long unsignedSum = 0;
+        long signedSum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            byte b = (i >= 148 && i < 156) ? (byte) ' ' : header[i];
+            unsignedSum += b & 0xFF;
+            signedSum += b;
+        }
+        long stored = parseNumber(148, 8);
+        if (stored != unsignedSum && stored != signedSum) {
+            throw new FileValidationException("Invalid tar header (checksum mismatch), the upload is not a tar archive or it is corrupted.");
+        }
+        return true;
+    }
+
+    private void startEntry(long size) throws IOException {
+        if (size < 0) throw new IOException("Invalid tar header (negative entry size).");
+        entryRemaining = size;
+        entryPadding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+    }
+
+    private void skipCurrentEntry() throws IOException {
+        in.skipNBytes(entryRemaining + entryPadding);
+        entryRemaining = 0;
+        entryPadding = 0;
+    }
+
+    private byte[] readMetaData() throws IOException {
+        if (entryRemaining > MAX_META_SIZE) {
+            throw new IOException("Tar extended header is too large (" + entryRemaining + " bytes).");
+        }
+        byte[] data = in.readNBytes((int) entryRemaining);
+        if (data.length < entryRemaining) throw new EOFException("Truncated tar archive.");
+        entryRemaining = 0;
+        skipCurrentEntry();
+        return data;
+    }
+
+    private String headerName() {
+        String name = readString(header, 0, 100);
+
+        // ustar splits long paths into 'prefix' and 'name'
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+        if (ustar) {
+            String prefix = readString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    // Octal (optionally space/NUL terminated), or GNU base-256 when the high bit of the first byte is set
+    private long parseNumber(int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = 0;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+
+        long value = 0;
+        int i = offset;
+        int end = offset + length;
+        while (i < end && (header[i] == ' ' || header[i] == 0)) i++;
+        for (; i < end && header[i] != ' ' && header[i] != 0; i++) {
+            if (header[i] < '0' || header[i] > '7') {
+                throw new FileValidationException("Invalid tar header (bad octal number), the upload is not a tar archive or it is corrupted.");
+            }
+            value = (value << 3) + (header[i] - '0');
+        }
+        return value;
+    }
+
+    private static String readString(byte[] bytes, int offset, int maxLength) {
+        int end = offset;
+        int limit = (int) Math.min((long) offset + maxLength, bytes.length);
+        while (end < limit && bytes[end] != 0) end++;
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    // Records look like "<length> <key>=<value>\n", where length counts the whole record
+    private static Map<String, String> parsePax(byte[] data) throws IOException {
+        Map<String, String> records = new HashMap<>();
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (space < data.length && data[space] != ' ') space++;
+            if (space == data.length) break;
+
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new FileValidationException(MALFORMED_PAX);
+            }
+            // The record has to reach past the space and end on its newline
+            if (length < space - pos + 2 || length > data.length - pos) throw new FileValidationException(MALFORMED_PAX);
+
+            String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8); // Without the newline
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                records.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            pos += length;
+        }
+        return records;
+    }
+
+    private static long paxSize(String value) throws FileValidationException {
+        try {
+            long size = Long.parseLong(value);
+            if (size < 0) throw new FileValidationException(MALFORMED_PAX);
+            return size;
+        } catch (NumberFormatException e) {
+            throw new FileValidationException(MALFORMED_PAX);
+        }
+    }
+
+    // Seconds with an optional fraction, e.g. "1700000000.123456789"
+    private static Instant paxTime(String value) throws FileValidationException {
+        try {
+            double seconds = Double.parseDouble(value);
+            if (!Double.isFinite(seconds)) throw new FileValidationException(MALFORMED_PAX);
+            return Instant.ofEpochSecond((long) seconds);
+        } catch (NumberFormatException | DateTimeException e) {
+            throw new FileValidationException(MALFORMED_PAX);
+        }
+    }
+
+    // Exposes exactly the data bytes of the current entry
+    private class EntryStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (entryRemaining <= 0) return -1;
+
+            int read = in.read(b, off, (int) Math.min(len, entryRemaining));
+            if (read < 0) throw new EOFException("Truncated tar archive.");
+            entryRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), entryRemaining);
+        }
+
+        @Override
+        public void close() {
+            // The archive stays open, the next entry is read from the same stream
+        }
+    }
+}
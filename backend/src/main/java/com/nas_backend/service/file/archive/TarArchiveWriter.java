@@ -0,0 +1,166 @@
+package com.nas_backend.service.file.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+// Uncompressed tar (ustar, PAX headers for long or non-ASCII names and files over 8 GB). The layout depends on nothing
+// but names, sizes and times, so the length of the archive and the position of every byte are known before any data
+// is read. Only the bytes inside the window [from, to) are written, files outside of it are never opened: with an empty
+// window the writer just measures, with a window it serves an HTTP Range.
+public class TarArchiveWriter {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int NAME_LENGTH = 100;
+    private static final long MAX_USTAR_SIZE = 077777777777L; // 11 octal digits
+    private static final String PAX_HEADER_NAME = "././@PaxHeader";
+    private static final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+
+    // Opens the content of a file entry
+    public interface ContentSource {
+        InputStream open() throws IOException;
+    }
+
+    private final OutputStream out;
+    private final long from;
+    private final long to;
+    private long position;
+
+    public TarArchiveWriter(OutputStream out, long from, long to) {
+        this.out = out;
+        this.from = from;
+        this.to = to;
+    }
+
+    // A writer that only counts
+    public static TarArchiveWriter measuring() {
+        return new TarArchiveWriter(OutputStream.nullOutputStream(), 0, 0);
+    }
+
+    // Archive bytes laid out so far
+    public long position() {
+        return position;
+    }
+
+    // True once everything in the window is written, the rest of the archive can be skipped
+    public boolean isDone() {
+        return position >= to;
+    }
+
+    public void putDirectory(String name, Instant modifiedAt) throws IOException {
+        putHeaders(name.endsWith("/") ? name : name + "/", '5', 0, modifiedAt);
+    }
+
+    // size must be the exact length of the content
+    public void putFile(String name, Instant modifiedAt, long size, ContentSource source) throws IOException {
+        putHeaders(name, '0', size, modifiedAt);
+
+        long dataStart = position;
+        long dataEnd = dataStart + size;
+        if (dataEnd > from && dataStart < to) {
+            long skip = Math.max(from - dataStart, 0);
+            long length = Math.min(dataEnd, to) - dataStart - skip;
+            try (InputStream in = source.open()) {
+                in.skipNBytes(skip);
+                copy(in, length, name);
+            }
+        }
+        position = dataEnd;
+        emit(ZERO_BLOCK, padding(size));
+    }
+
+    // The two zero blocks that end an archive
+    public void finish() throws IOException {
+        emit(ZERO_BLOCK, BLOCK_SIZE);
+        emit(ZERO_BLOCK, BLOCK_SIZE);
+        out.flush();
+    }
+
+    // Helper methods
+
+    private void putHeaders(String name, char type, long size, Instant modifiedAt) throws IOException {
+        long mtime = modifiedAt != null ? Math.max(modifiedAt.getEpochSecond(), 0) : 0;
+        byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+        boolean longName = encodedName.length > NAME_LENGTH || encodedName.length != name.length(); // Too long or not ASCII
+        boolean bigFile = size > MAX_USTAR_SIZE;
+
+        if (longName || bigFile) {
+            StringBuilder records = new StringBuilder();
+            if (longName) records.append(paxRecord("path", name));
+            if (bigFile) records.append(paxRecord("size", Long.toString(size)));
+            byte[] pax = records.toString().getBytes(StandardCharsets.UTF_8);
+
+            emit(header(PAX_HEADER_NAME.getBytes(StandardCharsets.US_ASCII), 'x', pax.length, mtime), BLOCK_SIZE);
+            emit(pax, pax.length);
+            emit(ZERO_BLOCK, padding(pax.length));
+        }
+
+        byte[] ustarName = longName ? Arrays.copyOf(encodedName, Math.min(encodedName.length, NAME_LENGTH)) : encodedName;
+        emit(header(ustarName, type, bigFile ? 0 : size, mtime), BLOCK_SIZE);
+    }
+
+    private static byte[] header(byte[] name, char type, long size, long mtime) {
+        byte[] header = new byte[BLOCK_SIZE];
+        System.arraycopy(name, 0, header, 0, name.length);
+        putOctal(header, 100, 8, type == '5' ? 0755 : 0644); // Mode
+        putOctal(header, 108, 8, 0); // uid
+        putOctal(header, 116, 8, 0); // gid
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, mtime);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+        // Checksum over the header with the checksum field read as spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) checksum += b & 0xFF;
+        putOctal(header, 148, 7, checksum);
+        return header;
+    }
+
+    // Zero-padded octal digits followed by a NUL
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int start = offset + length - 1 - digits.length();
+        Arrays.fill(header, offset, start, (byte) '0');
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, start, digits.length());
+        header[offset + length - 1] = 0;
+    }
+
+    // "<length> <key>=<value>\n", the length counts itself
+    private static String paxRecord(String key, String value) {
+        int body = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = body + Integer.toString(body).length();
+        if (Integer.toString(length).length() != Integer.toString(body).length()) length++;
+        return length + " " + key + "=" + value + "\n";
+    }
+
+    private static int padding(long size) {
+        return (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+    }
+
+    // Writes the part of the next length bytes of the archive that falls into the window
+    private void emit(byte[] data, int length) throws IOException {
+        long start = Math.max(from - position, 0);
+        long end = Math.min(to - position, length);
+        if (start < end) {
+            out.write(data, (int) start, (int) (end - start));
+        }
+        position += length;
+    }
+
+    private void copy(InputStream in, long length, String name) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) throw new IOException("Content of '" + name + "' is shorter than its recorded size.");
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.nas_backend.service.file.archive;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Streaming zip reader, entries are read from the local headers (the central directory at the end is never needed)
+public class ZipArchiveReader implements ArchiveReader {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ZipInputStream zip;
+    private final InputStream entryStream;
+
+    public ZipArchiveReader(InputStream source) {
+        this.zip = new ZipInputStream(new BufferedInputStream(source, READ_BUFFER_SIZE));
+        this.entryStream = new FilterInputStream(zip) {
+            @Override
+            public void close() {
+                // The archive stays open, the next entry is read from the same stream
+            }
+        };
+    }
+
+    @Override
+    public ArchiveEntry nextEntry() throws IOException {
+        ZipEntry entry = zip.getNextEntry();
+        if (entry == null) return null;
+
+        Instant modifiedAt = entry.getLastModifiedTime() != null ? entry.getLastModifiedTime().toInstant() : Instant.now();
+        return new ArchiveEntry(entry.getName(), entry.isDirectory(), entry.isDirectory() ? 0 : entry.getSize(), modifiedAt);
+    }
+
+    @Override
+    public InputStream entryContent() {
+        return entryStream;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+}
@@ -0,0 +1,381 @@
+package com.nas_backend.service.file.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Streaming zip writer. Entries come out in the order they are put, but deflating runs on a shared pool: every entry is
+// cut into chunks that are compressed independently (each one ends on a sync flush, so the pieces simply concatenate
+// into one deflate stream) while the caller already reads the next ones. Data that is compressed already is STORED.
+// Every file is read once: CRC and sizes follow the data in a data descriptor (readers that go by the central
+// directory, i.e. every unzip tool, are fine with that for STORED entries too, java.util.zip.ZipInputStream is not).
+// ZIP64 records are added where 4 GB limits are crossed, for files from the size the caller announces.
+public class ZipArchiveWriter implements Closeable {
+
+    private static final int CHUNK_SIZE = 128 * 1024;
+    private static final int DEFLATE_THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+    private static final int SEGMENTS_IN_FLIGHT = DEFLATE_THREADS * 2; // Per archive, bounds the memory one download holds
+    private static final ExecutorService DEFLATE_POOL = Executors.newFixedThreadPool(DEFLATE_THREADS, new DeflateThreadFactory());
+
+    // Pool threads live as long as the application, so do their deflaters
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final byte[] FINAL_EMPTY_BLOCK = {0x03, 0x00}; // Ends a deflate stream of sync flushed chunks
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int DESCRIPTOR_FLAG = 1 << 3;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    // From here on a file gets ZIP64 sizes, with room for deflate output that grows a little and files that grow
+    private static final long ZIP64_FILE_THRESHOLD = ZIP64_LIMIT - (ZIP64_LIMIT >> 4);
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int DOS_DIRECTORY = 0x10;
+
+    // Opens the content of an entry
+    public interface ContentSource {
+        InputStream open() throws IOException;
+    }
+
+    private final OutputStream out;
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private long written;
+    private boolean finished;
+
+    // out is not closed by this writer
+    public ZipArchiveWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public void putDirectory(String name, Instant modifiedAt) throws IOException {
+        Entry entry = new Entry(encodeName(name.endsWith("/") ? name : name + "/"), STORED, UTF8_FLAG, dosTime(modifiedAt), true);
+        entries.add(entry);
+        enqueue(() -> writeLocalHeader(entry));
+    }
+
+    // size is the expected length of the content, it decides whether the entry gets ZIP64 sizes
+    public void putFile(String name, Instant modifiedAt, long size, boolean compress, ContentSource source) throws IOException {
+        Entry entry = new Entry(encodeName(name), compress ? DEFLATED : STORED, UTF8_FLAG | DESCRIPTOR_FLAG, dosTime(modifiedAt), false);
+        entry.zip64 = size >= ZIP64_FILE_THRESHOLD;
+        entries.add(entry);
+        enqueue(() -> writeLocalHeader(entry));
+
+        CRC32 crc = new CRC32();
+        long read = 0;
+        try (InputStream in = source.open()) {
+            byte[] chunk;
+            while ((chunk = in.readNBytes(CHUNK_SIZE)).length > 0) {
+                crc.update(chunk);
+                read += chunk.length;
+                byte[] data = chunk;
+                if (compress) {
+                    enqueue(new DeflatedChunk(entry, DEFLATE_POOL.submit(() -> deflate(data))));
+                } else {
+                    enqueue(() -> {
+                        write(data, data.length);
+                        entry.compressedSize += data.length;
+                    });
+                }
+            }
+        }
+        entry.crc = crc.getValue();
+        entry.size = read;
+
+        enqueue(() -> {
+            if (compress) {
+                write(FINAL_EMPTY_BLOCK, FINAL_EMPTY_BLOCK.length);
+                entry.compressedSize += FINAL_EMPTY_BLOCK.length;
+            }
+            writeDataDescriptor(entry);
+        });
+    }
+
+    // Writes what is still pending and the central directory
+    public void finish() throws IOException {
+        drain(0);
+
+        long directoryOffset = written;
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        writeEnd(directoryOffset, written - directoryOffset);
+        out.flush();
+        finished = true;
+    }
+
+    // Drops chunks still being compressed when the archive was not finished (aborted download)
+    @Override
+    public void close() {
+        if (finished) return;
+        for (Segment segment : pending) {
+            segment.discard();
+        }
+        pending.clear();
+    }
+
+    // Helper methods
+
+    private void enqueue(Segment segment) throws IOException {
+        pending.add(segment);
+        drain(SEGMENTS_IN_FLIGHT);
+    }
+
+    private void drain(int keep) throws IOException {
+        while (pending.size() > keep) {
+            pending.poll().write();
+        }
+    }
+
+    private static byte[] deflate(byte[] chunk) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(chunk);
+
+        byte[] output = new byte[chunk.length + chunk.length / 16 + 64];
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+            if (length < output.length) break; // Room left, so everything is flushed
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+        return Arrays.copyOf(output, length);
+    }
+
+    // Folders have no data, files announce ZIP64 here so readers expect the 64 bit data descriptor
+    private void writeLocalHeader(Entry entry) throws IOException {
+        entry.offset = written;
+        boolean zip64 = entry.zip64;
+
+        ByteBuffer header = record(30 + entry.name.length + (zip64 ? 20 : 0));
+        header.putInt(LOCAL_HEADER);
+        header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+        header.putShort((short) entry.flags);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt(0); // CRC and sizes are in the data descriptor (zero for folders)
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : 0));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : 0));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(entry.name);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA).putShort((short) 16).putLong(0).putLong(0);
+        }
+        write(header);
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        boolean zip64 = entry.zip64;
+        if (!zip64 && (entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT)) {
+            // The local header already went out with 32 bit sizes
+            throw new IOException("'" + entry.displayName() + "' grew past 4 GB while it was being zipped.");
+        }
+
+        ByteBuffer descriptor = record(zip64 ? 24 : 16);
+        descriptor.putInt(DATA_DESCRIPTOR);
+        descriptor.putInt((int) entry.crc);
+        if (zip64) {
+            descriptor.putLong(entry.compressedSize).putLong(entry.size);
+        } else {
+            descriptor.putInt((int) entry.compressedSize).putInt((int) entry.size);
+        }
+        write(descriptor);
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        // Values that do not fit into 32 bits move to the ZIP64 extra field, in this order
+        List<Long> zip64Values = new ArrayList<>();
+        if (entry.size >= ZIP64_LIMIT) zip64Values.add(entry.size);
+        if (entry.compressedSize >= ZIP64_LIMIT) zip64Values.add(entry.compressedSize);
+        if (entry.offset >= ZIP64_LIMIT) zip64Values.add(entry.offset);
+        int extraLength = zip64Values.isEmpty() ? 0 : 4 + 8 * zip64Values.size();
+        int version = zip64Values.isEmpty() ? VERSION : VERSION_ZIP64;
+
+        ByteBuffer header = record(46 + entry.name.length + extraLength);
+        header.putInt(CENTRAL_HEADER);
+        header.putShort((short) version); // Made by
+        header.putShort((short) version); // Needed to extract
+        header.putShort((short) entry.flags);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) Math.min(entry.compressedSize, ZIP64_LIMIT));
+        header.putInt((int) Math.min(entry.size, ZIP64_LIMIT));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) extraLength);
+        header.putShort((short) 0); // Comment
+        header.putShort((short) 0); // Disk
+        header.putShort((short) 0); // Internal attributes
+        header.putInt(entry.directory ? DOS_DIRECTORY : 0);
+        header.putInt((int) Math.min(entry.offset, ZIP64_LIMIT));
+        header.put(entry.name);
+        if (!zip64Values.isEmpty()) {
+            header.putShort((short) ZIP64_EXTRA).putShort((short) (8 * zip64Values.size()));
+            zip64Values.forEach(header::putLong);
+        }
+        write(header);
+    }
+
+    private void writeEnd(long directoryOffset, long directorySize) throws IOException {
+        int count = entries.size();
+        if (count >= 0xFFFF || directoryOffset >= ZIP64_LIMIT || directorySize >= ZIP64_LIMIT) {
+            long zip64EndOffset = written;
+
+            ByteBuffer zip64End = record(56);
+            zip64End.putInt(ZIP64_END);
+            zip64End.putLong(44); // Size of the rest of this record
+            zip64End.putShort((short) VERSION_ZIP64).putShort((short) VERSION_ZIP64);
+            zip64End.putInt(0).putInt(0); // Disks
+            zip64End.putLong(count).putLong(count);
+            zip64End.putLong(directorySize).putLong(directoryOffset);
+            write(zip64End);
+
+            ByteBuffer locator = record(20);
+            locator.putInt(ZIP64_LOCATOR).putInt(0).putLong(zip64EndOffset).putInt(1);
+            write(locator);
+        }
+
+        ByteBuffer end = record(22);
+        end.putInt(END);
+        end.putShort((short) 0).putShort((short) 0); // Disks
+        end.putShort((short) Math.min(count, 0xFFFF)).putShort((short) Math.min(count, 0xFFFF));
+        end.putInt((int) Math.min(directorySize, ZIP64_LIMIT));
+        end.putInt((int) Math.min(directoryOffset, ZIP64_LIMIT));
+        end.putShort((short) 0); // Comment
+        write(end);
+    }
+
+    private static ByteBuffer record(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        write(record.array(), record.position());
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        out.write(data, 0, length);
+        written += length;
+    }
+
+    private static byte[] encodeName(String name) throws IOException {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > 0xFFFF) throw new IOException("Path too long for a zip entry: " + name);
+        return encoded;
+    }
+
+    // MS-DOS date (high half) and time (low half) in local time, the only timestamp every unzipper reads
+    private static long dosTime(Instant instant) {
+        LocalDateTime time = LocalDateTime.ofInstant(instant != null ? instant : Instant.now(), ZoneId.systemDefault());
+        if (time.getYear() < 1980) return (1 << 21) | (1 << 16); // 1980-01-01, the earliest DOS date
+        if (time.getYear() > 2107) time = LocalDateTime.of(2107, 12, 31, 23, 59, 58);
+
+        return ((long) (time.getYear() - 1980) << 25) | ((long) time.getMonthValue() << 21) | ((long) time.getDayOfMonth() << 16)
+                | ((long) time.getHour() << 11) | ((long) time.getMinute() << 5) | (time.getSecond() >> 1);
+    }
+
+    // A piece of output, written in order once everything before it is out
+    private interface Segment {
+        void write() throws IOException;
+
+        default void discard() {}
+    }
+
+    private final class DeflatedChunk implements Segment {
+
+        private final Entry entry;
+        private final Future<byte[]> data;
+
+        private DeflatedChunk(Entry entry, Future<byte[]> data) {
+            this.entry = entry;
+            this.data = data;
+        }
+
+        @Override
+        public void write() throws IOException {
+            byte[] compressed;
+            try {
+                compressed = data.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Compressing '" + entry.displayName() + "' failed.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while zipping.", e);
+            }
+            ZipArchiveWriter.this.write(compressed, compressed.length);
+            entry.compressedSize += compressed.length;
+        }
+
+        @Override
+        public void discard() {
+            data.cancel(false);
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] name;
+        private final int method;
+        private final int flags;
+        private final long dosTime;
+        private final boolean directory;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+        private boolean zip64; // 64 bit sizes in the local header extra field and the data descriptor
+
+        private Entry(byte[] name, int method, int flags, long dosTime, boolean directory) {
+            this.name = name;
+            this.method = method;
+            this.flags = flags;
+            this.dosTime = dosTime;
+            this.directory = directory;
+        }
+
+        private String displayName() {
+            return new String(name, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class DeflateThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "zip-deflate-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
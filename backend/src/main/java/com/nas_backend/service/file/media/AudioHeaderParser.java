@@ -0,0 +1,146 @@
+package com.nas_backend.service.file.media;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Audio durations: MP3 (ID3v2 TLEN, then the Xing/Info or VBRI header of the first frame, then the bit rate of a constant
+// bit rate stream), FLAC (STREAMINFO) and WAV (format and data chunks)
+final class AudioHeaderParser {
+
+    private static final int MAX_SYNC_SEARCH = 64 * 1024; // Junk between the ID3 tag and the first frame
+    private static final int MAX_TAG_FRAMES = 500;
+    private static final int MAX_CHUNKS = 1000;
+
+    // kbit/s by bit rate index: MPEG-1 layers I, II, III, then MPEG-2/2.5 layer I and layers II/III
+    private static final int[][] BIT_RATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    private AudioHeaderParser() {}
+
+    static boolean isMp3(byte[] head) {
+        if (head.length < 3) return false;
+        if (head[0] == 'I' && head[1] == 'D' && head[2] == '3') return true;
+        return (head[0] & 0xFF) == 0xFF && (head[1] & 0xE0) == 0xE0 && (head[1] & 0x06) != 0; // Frame sync with a layer
+    }
+
+    static void parseMp3(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.AUDIO);
+        long audioStart = 0;
+        if (new String(r.read(0, 3), StandardCharsets.ISO_8859_1).equals("ID3")) {
+            int majorVersion = r.u8(3);
+            long tagSize = synchsafe(r.u32(6, false));
+            boolean footer = (r.u8(5) & 0x10) != 0;
+            audioStart = 10 + tagSize + (footer ? 10 : 0);
+            if (majorVersion >= 3) readLengthFrame(r, majorVersion, 10, 10 + tagSize, probe);
+        }
+
+        long frame = findFrame(r, audioStart);
+        if (frame < 0) return;
+        int b1 = r.u8(frame + 1);
+        int b2 = r.u8(frame + 2);
+        int b3 = r.u8(frame + 3);
+        int versionBits = (b1 >> 3) & 3; // 3 = MPEG-1, 2 = MPEG-2, 0 = MPEG-2.5
+        int layer = 4 - ((b1 >> 1) & 3); // 1, 2 or 3
+        int bitRateIndex = b2 >> 4;
+        int sampleRateIndex = (b2 >> 2) & 3;
+        if (versionBits == 1 || layer == 4 || bitRateIndex == 15 || sampleRateIndex == 3) return; // Reserved values
+
+        boolean mpeg1 = versionBits == 3;
+        boolean mono = (b3 >> 6) == 3;
+        int sampleRate = SAMPLE_RATES[sampleRateIndex] >> (mpeg1 ? 0 : versionBits == 2 ? 1 : 2);
+        int samplesPerFrame = layer == 1 ? 384 : layer == 2 || mpeg1 ? 1152 : 576;
+
+        // Variable bit rate files count their frames in the first one
+        if (layer == 3) {
+            long sideInfoEnd = frame + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+            String xing = r.fourCC(sideInfoEnd);
+            if ((xing.equals("Xing") || xing.equals("Info")) && (r.u32(sideInfoEnd + 4, false) & 1) != 0) {
+                probe.setDurationMs(r.u32(sideInfoEnd + 8, false) * samplesPerFrame * 1000 / sampleRate);
+                return;
+            }
+            if (r.fourCC(frame + 36).equals("VBRI")) {
+                probe.setDurationMs(r.u32(frame + 36 + 14, false) * samplesPerFrame * 1000 / sampleRate);
+                return;
+            }
+        }
+
+        // Constant bit rate: the audio's size tells its length (without the ID3v1 tag at the end)
+        int table = mpeg1 ? layer - 1 : layer == 1 ? 3 : 4;
+        long bitRate = BIT_RATES[table][bitRateIndex] * 1000L;
+        if (bitRate == 0) return; // Free format
+        long audioEnd = r.size();
+        if (audioEnd >= 128 && new String(r.read(audioEnd - 128, 3), StandardCharsets.ISO_8859_1).equals("TAG")) audioEnd -= 128;
+        probe.setDurationMs((audioEnd - frame) * 8 * 1000 / bitRate);
+    }
+
+    // STREAMINFO is always the first metadata block: 20 bits sample rate, 3 channels, 5 bits per sample, 36 total samples
+    static void parseFlac(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.AUDIO);
+        long info = 8 + 10; // After "fLaC", the block header and the block and frame sizes
+        long packed = r.u64(info);
+        long sampleRate = packed >>> 44;
+        long totalSamples = packed & 0xFFFFFFFFFL;
+        if (sampleRate > 0) probe.setDurationMs(totalSamples * 1000 / sampleRate);
+    }
+
+    static void parseWav(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.AUDIO);
+        long byteRate = 0;
+        long position = 12; // After "RIFF", the size and "WAVE"
+        for (int chunk = 0; chunk < MAX_CHUNKS && position + 8 <= r.size(); chunk++) {
+            String id = r.fourCC(position);
+            long length = r.u32(position + 4, true);
+            if (id.equals("fmt ")) {
+                byteRate = r.u32(position + 8 + 8, true);
+            } else if (id.equals("data")) {
+                // Streams written while recording may leave the size at its maximum
+                long dataLength = Math.min(length, r.size() - position - 8);
+                if (byteRate > 0) probe.setDurationMs(dataLength * 1000 / byteRate);
+                return;
+            }
+            position += 8 + length + (length & 1);
+        }
+    }
+
+    // Helper methods
+
+    // TLEN: the length in milliseconds as text, frame sizes are synchsafe from ID3v2.4 on
+    private static void readLengthFrame(HeaderReader r, int majorVersion, long start, long end, MediaProbe probe) throws IOException {
+        long position = start;
+        for (int i = 0; i < MAX_TAG_FRAMES && position + 10 <= end; i++) {
+            String id = r.fourCC(position);
+            if (id.charAt(0) == 0) return; // Padding
+            long size = r.u32(position + 4, false);
+            if (majorVersion >= 4) size = synchsafe(size);
+            if (id.equals("TLEN") && size > 1 && size < 32) {
+                String text = new String(r.read(position + 11, (int) size - 1), StandardCharsets.ISO_8859_1).trim(); // After the encoding byte
+                try {
+                    probe.setDurationMs(Long.parseLong(text.replace("\0", "")));
+                } catch (NumberFormatException e) {
+                    // Broken frame, the audio frames are looked at instead
+                }
+                return;
+            }
+            position += 10 + size;
+        }
+    }
+
+    private static long findFrame(HeaderReader r, long start) throws IOException {
+        byte[] bytes = r.read(start, MAX_SYNC_SEARCH);
+        for (int i = 0; i + 3 < bytes.length; i++) {
+            if ((bytes[i] & 0xFF) == 0xFF && (bytes[i + 1] & 0xE0) == 0xE0) return start + i;
+        }
+        return -1;
+    }
+
+    // 7 bits per byte, so the value never looks like a frame sync
+    private static long synchsafe(long value) {
+        return (value & 0x7F) | (value >> 1 & 0x3F80) | (value >> 2 & 0x1FC000) | (value >> 3 & 0xFE00000);
+    }
+}
@@ -0,0 +1,141 @@
+package com.nas_backend.service.file.media;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// TIFF structured EXIF data: IFD0 (camera, fallback date) and the Exif IFD (capture date, pixel size). Found in JPEG
+// APP1 segments, PNG eXIf and WebP EXIF chunks, HEIF Exif items and as the whole file in TIFF based raw formats.
+final class ExifParser {
+
+    private static final int TAG_IMAGE_WIDTH = 0x0100;
+    private static final int TAG_IMAGE_LENGTH = 0x0101;
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_MODEL = 0x0110;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_DATE_TIME_DIGITIZED = 0x9004;
+    private static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    private static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int MAX_ENTRIES = 1000;
+    private static final int MAX_STRING_LENGTH = 256;
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    private ExifParser() {}
+
+    // Values of one pass over IFD0 and the Exif IFD
+    private static final class Tags {
+        String make;
+        String model;
+        String dateTime;
+        String dateTimeOriginal;
+        String dateTimeDigitized;
+        long imageWidth;
+        long imageLength;
+        long pixelX;
+        long pixelY;
+        int orientation = 1;
+        long exifIfd;
+    }
+
+    // base is where the TIFF header ("II*\0" or "MM\0*") starts. Dimensions are only taken when the container has no
+    // better source (JPEG frames and HEIF properties do). Returns the EXIF orientation, 1 when there is none.
+    static int parse(HeaderReader r, long base, MediaProbe probe, boolean takeDimensions) throws IOException {
+        String byteOrder = new String(r.read(base, 2), StandardCharsets.ISO_8859_1);
+        boolean littleEndian;
+        if (byteOrder.equals("II")) {
+            littleEndian = true;
+        } else if (byteOrder.equals("MM")) {
+            littleEndian = false;
+        } else {
+            return 1; // Not TIFF
+        }
+        if (r.u16(base + 2, littleEndian) != 42) return 1;
+
+        Tags tags = new Tags();
+        readIfd(r, base, base + r.u32(base + 4, littleEndian), littleEndian, tags);
+        if (tags.exifIfd > 0) {
+            readIfd(r, base, base + tags.exifIfd, littleEndian, tags);
+        }
+
+        // Capture time first, then when it was scanned, then when the file was last written by the camera or an editor
+        probe.setTakenAt(parseDate(tags.dateTimeOriginal));
+        probe.setTakenAt(parseDate(tags.dateTimeDigitized));
+        probe.setTakenAt(parseDate(tags.dateTime));
+        probe.setCameraMake(tags.make);
+        probe.setCameraModel(tags.model);
+        if (takeDimensions) {
+            probe.setDimensions(tags.pixelX, tags.pixelY);
+            probe.setDimensions(tags.imageWidth, tags.imageLength);
+        }
+        return tags.orientation;
+    }
+
+    // Helper methods
+
+    private static void readIfd(HeaderReader r, long base, long ifd, boolean littleEndian, Tags tags) throws IOException {
+        int count = r.u16(ifd, littleEndian);
+        if (count > MAX_ENTRIES) throw new MalformedHeaderException("Broken EXIF: " + count + " entries in one IFD.");
+
+        for (int i = 0; i < count; i++) {
+            long entry = ifd + 2 + 12L * i;
+            int tag = r.u16(entry, littleEndian);
+            int type = r.u16(entry + 2, littleEndian);
+            long valueCount = r.u32(entry + 4, littleEndian);
+
+            switch (tag) {
+                case TAG_MAKE -> tags.make = string(r, base, entry, type, valueCount, littleEndian);
+                case TAG_MODEL -> tags.model = string(r, base, entry, type, valueCount, littleEndian);
+                case TAG_DATE_TIME -> tags.dateTime = string(r, base, entry, type, valueCount, littleEndian);
+                case TAG_DATE_TIME_ORIGINAL -> tags.dateTimeOriginal = string(r, base, entry, type, valueCount, littleEndian);
+                case TAG_DATE_TIME_DIGITIZED -> tags.dateTimeDigitized = string(r, base, entry, type, valueCount, littleEndian);
+                case TAG_IMAGE_WIDTH -> tags.imageWidth = number(r, entry, type, littleEndian);
+                case TAG_IMAGE_LENGTH -> tags.imageLength = number(r, entry, type, littleEndian);
+                case TAG_PIXEL_X_DIMENSION -> tags.pixelX = number(r, entry, type, littleEndian);
+                case TAG_PIXEL_Y_DIMENSION -> tags.pixelY = number(r, entry, type, littleEndian);
+                case TAG_ORIENTATION -> tags.orientation = (int) number(r, entry, type, littleEndian);
+                case TAG_EXIF_IFD -> tags.exifIfd = number(r, entry, type, littleEndian);
+                default -> { }
+            }
+        }
+    }
+
+    private static String string(HeaderReader r, long base, long entry, int type, long count, boolean littleEndian) throws IOException {
+        if (type != TYPE_ASCII || count == 0) return null;
+        int length = (int) Math.min(count, MAX_STRING_LENGTH);
+        long position = count <= 4 ? entry + 8 : base + r.u32(entry + 8, littleEndian); // Short values sit in the entry itself
+        byte[] bytes = r.read(position, length);
+
+        int end = 0;
+        while (end < bytes.length && bytes[end] != 0) end++;
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static long number(HeaderReader r, long entry, int type, boolean littleEndian) throws IOException {
+        return switch (type) {
+            case TYPE_SHORT -> r.u16(entry + 8, littleEndian);
+            case TYPE_LONG -> r.u32(entry + 8, littleEndian);
+            default -> 0;
+        };
+    }
+
+    // "2024:07:14 18:22:01", cameras write their local time without a zone. Unset dates are all zeros or blanks.
+    private static Instant parseDate(String value) {
+        if (value == null || value.length() < 19) return null;
+        try {
+            return LocalDateTime.parse(value.substring(0, 19), EXIF_DATE).toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
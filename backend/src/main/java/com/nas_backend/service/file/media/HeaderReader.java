@@ -0,0 +1,106 @@
+package com.nas_backend.service.file.media;
+
+import com.nas_backend.service.file.storage.ContentReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Positional reads of a file's header structures through a small window, so parsers can jump from box to box or from
+// IFD to IFD without reading what lies between. Stops parsers that wander too far (broken or hostile files).
+// Structural problems throw MalformedHeaderException, errors of the underlying storage a plain IOException.
+public final class HeaderReader {
+
+    private static final int WINDOW_SIZE = 16 * 1024;
+
+    private final ContentReader reader;
+    private final long size;
+    private final long maxBytesRead;
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private long windowStart = -1;
+    private int windowLength;
+    private long bytesRead;
+
+    public HeaderReader(ContentReader reader, long maxBytesRead) {
+        this.reader = reader;
+        this.size = reader.size();
+        this.maxBytesRead = maxBytesRead;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // Bytes taken from the file so far
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    // Up to length bytes from position on, fewer at the end of the file
+    public byte[] read(long position, int length) throws IOException {
+        if (position < 0 || length < 0) throw new MalformedHeaderException("Broken header: negative offset or length.");
+        int available = (int) Math.max(0, Math.min(length, size - position));
+        byte[] bytes = new byte[available];
+        if (available == 0) return bytes;
+
+        if (available > WINDOW_SIZE) {
+            fill(position, bytes, available);
+            return bytes;
+        }
+        if (windowStart < 0 || position < windowStart || position + available > windowStart + windowLength) {
+            windowLength = (int) Math.min(WINDOW_SIZE, size - position);
+            fill(position, window, windowLength);
+            windowStart = position;
+        }
+        System.arraycopy(window, (int) (position - windowStart), bytes, 0, available);
+        return bytes;
+    }
+
+    public int u8(long position) throws IOException {
+        byte[] b = require(position, 1);
+        return b[0] & 0xFF;
+    }
+
+    public int u16(long position, boolean littleEndian) throws IOException {
+        byte[] b = require(position, 2);
+        return littleEndian
+                ? (b[0] & 0xFF) | (b[1] & 0xFF) << 8
+                : (b[0] & 0xFF) << 8 | (b[1] & 0xFF);
+    }
+
+    public long u32(long position, boolean littleEndian) throws IOException {
+        byte[] b = require(position, 4);
+        return littleEndian
+                ? (b[0] & 0xFFL) | (b[1] & 0xFFL) << 8 | (b[2] & 0xFFL) << 16 | (b[3] & 0xFFL) << 24
+                : (b[0] & 0xFFL) << 24 | (b[1] & 0xFFL) << 16 | (b[2] & 0xFFL) << 8 | (b[3] & 0xFFL);
+    }
+
+    public long u64(long position) throws IOException {
+        return u32(position, false) << 32 | u32(position + 4, false);
+    }
+
+    // Four ASCII characters (a box type, a chunk id...)
+    public String fourCC(long position) throws IOException {
+        byte[] b = require(position, 4);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+    // Helper methods
+
+    private byte[] require(long position, int length) throws IOException {
+        byte[] b = read(position, length);
+        if (b.length < length) throw new MalformedHeaderException("Broken header: structure runs past the end of the file.");
+        return b;
+    }
+
+    private void fill(long position, byte[] target, int length) throws IOException {
+        bytesRead += length;
+        if (bytesRead > maxBytesRead) throw new MalformedHeaderException("Header larger than " + maxBytesRead + " bytes, not parsed.");
+
+        ByteBuffer buffer = ByteBuffer.wrap(target, 0, length);
+        while (buffer.hasRemaining()) {
+            int read = reader.read(position + buffer.position(), buffer);
+            if (read < 0) throw new MalformedHeaderException("File ended inside its header.");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.nas_backend.service.file.media;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Still images: JPEG (segments up to the first frame header), PNG (IHDR and eXIf before the image data), GIF, WebP,
+// BMP and TIFF based files (TIFF itself and most camera raw formats)
+final class ImageHeaderParser {
+
+    private static final byte[] EXIF_PREFIX = {'E', 'x', 'i', 'f', 0, 0};
+    private static final int MAX_SEGMENTS = 1000;
+    private static final int MAX_CHUNKS = 1000;
+
+    private ImageHeaderParser() {}
+
+    static void parseJpeg(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.IMAGE);
+        int orientation = 1;
+        long position = 2; // After SOI
+
+        for (int segment = 0; segment < MAX_SEGMENTS && position + 4 <= r.size(); segment++) {
+            if (r.u8(position) != 0xFF) return; // Lost sync, what was found so far is kept
+            int marker = r.u8(position + 1);
+            if (marker == 0xFF) { // Fill byte
+                position++;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) break; // End of image or start of the compressed data
+            int length = r.u16(position + 2, false);
+
+            if (marker == 0xE1 && Arrays.equals(r.read(position + 4, EXIF_PREFIX.length), EXIF_PREFIX)) {
+                orientation = ExifParser.parse(r, position + 4 + EXIF_PREFIX.length, probe, false);
+            } else if (isStartOfFrame(marker)) {
+                // The frame header has the size of the image as coded, EXIF values may be stale after editing
+                probe.setDimensions(r.u16(position + 7, false), r.u16(position + 5, false));
+                break;
+            }
+            position += 2 + length;
+        }
+        probe.setOrientation(orientation);
+        if (orientation >= 5) probe.swapDimensions();
+    }
+
+    static void parsePng(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.IMAGE);
+        long width = r.u32(16, false);
+        long height = r.u32(20, false);
+
+        long position = 8; // After the signature
+        for (int chunk = 0; chunk < MAX_CHUNKS && position + 8 <= r.size(); chunk++) {
+            long length = r.u32(position, false);
+            String type = r.fourCC(position + 4);
+            if (type.equals("IDAT") || type.equals("IEND")) break;
+            if (type.equals("eXIf")) {
+                ExifParser.parse(r, position + 8, probe, false); // PNG pixels are stored upright
+                break;
+            }
+            position += 12 + length; // Length, type, data, CRC
+        }
+        probe.setDimensions(width, height);
+    }
+
+    static void parseGif(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.IMAGE);
+        probe.setDimensions(r.u16(6, true), r.u16(8, true));
+    }
+
+    static void parseBmp(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.IMAGE);
+        int width = (int) r.u32(18, true);
+        int height = (int) r.u32(22, true); // Negative for top-down bitmaps
+        probe.setDimensions(Math.abs((long) width), Math.abs((long) height));
+    }
+
+    static void parseTiff(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.IMAGE);
+        int orientation = ExifParser.parse(r, 0, probe, true);
+        probe.setOrientation(orientation);
+        if (orientation >= 5) probe.swapDimensions();
+    }
+
+    // RIFF container: the first chunk is the bitstream (lossy, lossless or extended), metadata chunks follow
+    static void parseWebp(HeaderReader r, MediaProbe probe) throws IOException {
+        probe.setKind(MediaProbe.IMAGE);
+        String format = r.fourCC(12);
+        switch (format) {
+            case "VP8X" -> probe.setDimensions(u24(r, 24) + 1, u24(r, 27) + 1);
+            case "VP8 " -> probe.setDimensions(r.u16(26, true) & 0x3FFF, r.u16(28, true) & 0x3FFF);
+            case "VP8L" -> {
+                long bits = r.u32(21, true);
+                probe.setDimensions((bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1);
+            }
+            default -> { }
+        }
+        if (!format.equals("VP8X")) return; // Only the extended format carries EXIF
+
+        long position = 12;
+        for (int chunk = 0; chunk < MAX_CHUNKS && position + 8 <= r.size(); chunk++) {
+            long length = r.u32(position + 4, true);
+            if (r.fourCC(position).equals("EXIF")) {
+                long data = position + 8;
+                // Some writers keep the JPEG style prefix
+                if (Arrays.equals(r.read(data, EXIF_PREFIX.length), EXIF_PREFIX)) data += EXIF_PREFIX.length;
+                ExifParser.parse(r, data, probe, false);
+                break;
+            }
+            position += 8 + length + (length & 1); // Chunks are padded to even sizes
+        }
+    }
+
+    static boolean isTiff(byte[] head) {
+        if (head.length < 4) return false;
+        String start = new String(head, 0, 4, StandardCharsets.ISO_8859_1);
+        return start.equals("II*\0") || start.equals("MM\0*");
+    }
+
+    // Helper methods
+
+    // SOF0-SOF15 without DHT (C4), JPG (C8) and DAC (CC)
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static long u24(HeaderReader r, long position) throws IOException {
+        byte[] b = r.read(position, 3);
+        if (b.length < 3) throw new MalformedHeaderException("Broken header: structure runs past the end of the file.");
+        return (b[0] & 0xFF) | (b[1] & 0xFF) << 8 | (b[2] & 0xFF) << 16;
+    }
+}
@@ -0,0 +1,348 @@
+package com.nas_backend.service.file.media;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// ISO base media files, found by their ftyp box: MP4, MOV, M4A, 3GP (the moov box) and HEIF/AVIF stills (the meta box).
+// Only box headers are walked, the media data and sample tables in between are jumped over, wherever moov is.
+final class IsoMediaParser {
+
+    private static final long SECONDS_1904_TO_1970 = 2_082_844_800L;
+    private static final int MAX_BOXES = 10_000;
+    private static final int MAX_STRING_LENGTH = 256;
+
+    // Keys of the metadata phones (iPhones in particular) write to moov/meta
+    private static final String KEY_MAKE = "com.apple.quicktime.make";
+    private static final String KEY_MODEL = "com.apple.quicktime.model";
+    private static final String KEY_CREATION_DATE = "com.apple.quicktime.creationdate";
+
+    private record Box(String type, long start, long body, long end) {}
+
+    // A movie's tracks: what the video track is like, whether there is sound
+    private static final class Tracks {
+        boolean video;
+        boolean audio;
+        long width;
+        long height;
+        boolean rotated;
+    }
+
+    private IsoMediaParser() {}
+
+    static boolean isIsoMedia(byte[] head) {
+        return head.length >= 8 && new String(head, 4, 4, StandardCharsets.ISO_8859_1).equals("ftyp");
+    }
+
+    static void parse(HeaderReader r, MediaProbe probe) throws IOException {
+        Box movie = null;
+        Box meta = null;
+        for (Box box : children(r, 0, r.size())) {
+            if (box.type().equals("moov")) movie = box;
+            if (box.type().equals("meta")) meta = box;
+        }
+
+        // HEIF image sequences have both, the still image is what matters then
+        if (meta != null && parseImage(r, meta, probe)) return;
+        if (movie != null) parseMovie(r, movie, probe);
+    }
+
+    // Helper methods
+
+    private static void parseMovie(HeaderReader r, Box movie, MediaProbe probe) throws IOException {
+        Tracks tracks = new Tracks();
+        Instant created = null;
+
+        for (Box box : children(r, movie.body(), movie.end())) {
+            switch (box.type()) {
+                case "mvhd" -> {
+                    int version = r.u8(box.body());
+                    long creation = version == 1 ? r.u64(box.body() + 4) : r.u32(box.body() + 4, false);
+                    long timescale = r.u32(box.body() + (version == 1 ? 20 : 12), false);
+                    long duration = version == 1 ? r.u64(box.body() + 24) : r.u32(box.body() + 16, false);
+                    if (timescale > 0 && duration > 0 && duration != 0xFFFFFFFFL) probe.setDurationMs(duration * 1000 / timescale);
+                    if (creation > SECONDS_1904_TO_1970) created = Instant.ofEpochSecond(creation - SECONDS_1904_TO_1970);
+                }
+                case "trak" -> parseTrack(r, box, tracks);
+                case "udta" -> parseUserData(r, box, probe);
+                case "meta" -> parseMetadataKeys(r, box, probe);
+                default -> { }
+            }
+        }
+
+        // Camera written dates (local time) before the header's creation time, which some devices leave at 0 or set in UTC
+        probe.setTakenAt(created);
+        if (tracks.video) {
+            probe.setKind(MediaProbe.VIDEO);
+            probe.setDimensions(tracks.width, tracks.height);
+            if (tracks.rotated) probe.swapDimensions();
+        } else if (tracks.audio) {
+            probe.setKind(MediaProbe.AUDIO);
+        }
+    }
+
+    private static void parseTrack(HeaderReader r, Box track, Tracks tracks) throws IOException {
+        long width = 0;
+        long height = 0;
+        boolean rotated = false;
+        String handler = null;
+
+        for (Box box : children(r, track.body(), track.end())) {
+            if (box.type().equals("tkhd")) {
+                int version = r.u8(box.body());
+                long matrix = box.body() + (version == 1 ? 52 : 40);
+                width = r.u32(matrix + 36, false) >> 16; // 16.16 fixed point
+                height = r.u32(matrix + 40, false) >> 16;
+                // 90 or 270 degrees: the matrix's a is 0 and b is +-1
+                rotated = r.u32(matrix, false) == 0 && r.u32(matrix + 4, false) != 0;
+            } else if (box.type().equals("mdia")) {
+                for (Box media : children(r, box.body(), box.end())) {
+                    if (media.type().equals("hdlr")) handler = r.fourCC(media.body() + 8);
+                }
+            }
+        }
+
+        if ("vide".equals(handler) && !tracks.video) {
+            tracks.video = true;
+            tracks.width = width;
+            tracks.height = height;
+            tracks.rotated = rotated;
+        } else if ("soun".equals(handler)) {
+            tracks.audio = true;
+        }
+    }
+
+    // QuickTime user data: ©mak, ©mod and ©day each hold a 16-bit length, a language code and the text
+    private static void parseUserData(HeaderReader r, Box userData, MediaProbe probe) throws IOException {
+        for (Box box : children(r, userData.body(), userData.end())) {
+            String type = box.type();
+            if (type.length() != 4 || type.charAt(0) != '©') continue;
+            int length = Math.min(r.u16(box.body(), false), MAX_STRING_LENGTH);
+            String value = new String(r.read(box.body() + 4, length), StandardCharsets.UTF_8);
+            switch (type.substring(1)) {
+                case "mak" -> probe.setCameraMake(value);
+                case "mod" -> probe.setCameraModel(value);
+                case "day" -> probe.setTakenAt(parseDate(value));
+                default -> { }
+            }
+        }
+    }
+
+    // moov/meta with a keys box naming the entries of ilst (by 1-based index), each entry holding a data box
+    private static void parseMetadataKeys(HeaderReader r, Box meta, MediaProbe probe) throws IOException {
+        List<String> keys = new ArrayList<>();
+        Map<Integer, String> values = new HashMap<>();
+
+        for (Box box : children(r, metaChildrenStart(r, meta), meta.end())) {
+            if (box.type().equals("keys")) {
+                long count = r.u32(box.body() + 4, false);
+                long position = box.body() + 8;
+                for (long i = 0; i < count && i < MAX_BOXES && position + 8 <= box.end(); i++) {
+                    long size = r.u32(position, false);
+                    if (size < 8) break;
+                    keys.add(new String(r.read(position + 8, (int) Math.min(size - 8, MAX_STRING_LENGTH)), StandardCharsets.UTF_8));
+                    position += size;
+                }
+            } else if (box.type().equals("ilst")) {
+                for (Box entry : children(r, box.body(), box.end())) {
+                    int index = (int) r.u32(entry.start() + 4, false); // The type field is the key's index
+                    for (Box data : children(r, entry.body(), entry.end())) {
+                        if (!data.type().equals("data")) continue;
+                        long valueStart = data.body() + 8; // After the type indicator and the locale
+                        int length = (int) Math.min(Math.max(data.end() - valueStart, 0), MAX_STRING_LENGTH);
+                        values.put(index, new String(r.read(valueStart, length), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            String value = values.get(i + 1);
+            if (value == null) continue;
+            switch (keys.get(i)) {
+                case KEY_MAKE -> probe.setCameraMake(value);
+                case KEY_MODEL -> probe.setCameraModel(value);
+                case KEY_CREATION_DATE -> probe.setTakenAt(parseDate(value));
+                default -> { }
+            }
+        }
+    }
+
+    // HEIF: the primary item's size (ispe) and rotation (irot) properties, EXIF from the Exif item. False when the meta box
+    // describes no image.
+    private static boolean parseImage(HeaderReader r, Box meta, MediaProbe probe) throws IOException {
+        long primaryItem = -1;
+        long exifItem = -1;
+        Map<Long, Long> itemOffsets = new HashMap<>();
+        List<Box> properties = new ArrayList<>();
+        Map<Long, List<Integer>> associations = new HashMap<>();
+
+        for (Box box : children(r, metaChildrenStart(r, meta), meta.end())) {
+            switch (box.type()) {
+                case "pitm" -> primaryItem = r.u8(box.body()) == 0 ? r.u16(box.body() + 4, false) : r.u32(box.body() + 4, false);
+                case "iinf" -> exifItem = findExifItem(r, box);
+                case "iloc" -> readItemLocations(r, box, itemOffsets);
+                case "iprp" -> {
+                    for (Box child : children(r, box.body(), box.end())) {
+                        if (child.type().equals("ipco")) properties = children(r, child.body(), child.end());
+                        if (child.type().equals("ipma")) readAssociations(r, child, associations);
+                    }
+                }
+                default -> { }
+            }
+        }
+        if (primaryItem < 0) return false;
+        probe.setKind(MediaProbe.IMAGE);
+
+        Long exifOffset = itemOffsets.get(exifItem);
+        if (exifOffset != null) {
+            // The item starts with the offset of the TIFF header behind this field
+            ExifParser.parse(r, exifOffset + 4 + r.u32(exifOffset, false), probe, false);
+        }
+
+        boolean rotated = false;
+        for (int index : associations.getOrDefault(primaryItem, List.of())) {
+            if (index < 1 || index > properties.size()) continue;
+            Box property = properties.get(index - 1);
+            if (property.type().equals("ispe")) {
+                probe.setDimensions(r.u32(property.body() + 4, false), r.u32(property.body() + 8, false));
+            } else if (property.type().equals("irot")) {
+                rotated = (r.u8(property.body()) & 1) == 1; // Angle in steps of 90 degrees
+            }
+        }
+        if (rotated) probe.swapDimensions();
+        return true;
+    }
+
+    private static long findExifItem(HeaderReader r, Box itemInfo) throws IOException {
+        long start = itemInfo.body() + (r.u8(itemInfo.body()) == 0 ? 6 : 8); // After version, flags and entry count
+        for (Box entry : children(r, start, itemInfo.end())) {
+            if (!entry.type().equals("infe")) continue;
+            int version = r.u8(entry.body());
+            if (version < 2) continue;
+            long itemId = version == 2 ? r.u16(entry.body() + 4, false) : r.u32(entry.body() + 4, false);
+            long typePosition = entry.body() + (version == 2 ? 8 : 10); // After the protection index
+            if (r.fourCC(typePosition).equals("Exif")) return itemId;
+        }
+        return -1;
+    }
+
+    // Where each item's first extent starts in the file (items built from other items or kept inside meta are skipped)
+    private static void readItemLocations(HeaderReader r, Box locations, Map<Long, Long> offsets) throws IOException {
+        long position = locations.body();
+        int version = r.u8(position);
+        int sizes = r.u8(position + 4);
+        int offsetSize = sizes >> 4;
+        int lengthSize = sizes & 0xF;
+        int moreSizes = r.u8(position + 5);
+        int baseOffsetSize = moreSizes >> 4;
+        int indexSize = version >= 1 ? moreSizes & 0xF : 0;
+        long count = version < 2 ? r.u16(position + 6, false) : r.u32(position + 6, false);
+        position += version < 2 ? 8 : 10;
+
+        for (long i = 0; i < count && i < MAX_BOXES && position < locations.end(); i++) {
+            long itemId = version < 2 ? r.u16(position, false) : r.u32(position, false);
+            position += version < 2 ? 2 : 4;
+            int constructionMethod = 0;
+            if (version >= 1) {
+                constructionMethod = r.u16(position, false) & 0xF;
+                position += 2;
+            }
+            position += 2; // Data reference index
+            long baseOffset = sized(r, position, baseOffsetSize);
+            position += baseOffsetSize;
+            int extents = r.u16(position, false);
+            position += 2;
+
+            for (int extent = 0; extent < extents; extent++) {
+                position += indexSize;
+                long extentOffset = sized(r, position, offsetSize);
+                position += offsetSize + lengthSize;
+                if (extent == 0 && constructionMethod == 0) offsets.put(itemId, baseOffset + extentOffset);
+            }
+        }
+    }
+
+    private static void readAssociations(HeaderReader r, Box box, Map<Long, List<Integer>> associations) throws IOException {
+        int version = r.u8(box.body());
+        boolean wideIndexes = (r.u32(box.body(), false) & 1) == 1; // Flags
+        long count = r.u32(box.body() + 4, false);
+        long position = box.body() + 8;
+
+        for (long i = 0; i < count && i < MAX_BOXES && position < box.end(); i++) {
+            long itemId = version < 1 ? r.u16(position, false) : r.u32(position, false);
+            position += version < 1 ? 2 : 4;
+            int associationCount = r.u8(position++);
+            List<Integer> indexes = new ArrayList<>(associationCount);
+            for (int a = 0; a < associationCount; a++) {
+                if (wideIndexes) {
+                    indexes.add(r.u16(position, false) & 0x7FFF); // The top bit marks essential properties
+                    position += 2;
+                } else {
+                    indexes.add(r.u8(position) & 0x7F);
+                    position++;
+                }
+            }
+            associations.put(itemId, indexes);
+        }
+    }
+
+    // The boxes from start to end. A box running past end (a cut off file) ends the list.
+    private static List<Box> children(HeaderReader r, long start, long end) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        long position = start;
+        while (position + 8 <= end && boxes.size() < MAX_BOXES) {
+            long size = r.u32(position, false);
+            String type = r.fourCC(position + 4);
+            long header = 8;
+            if (size == 1) {
+                size = r.u64(position + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = end - position; // Up to the end of the parent
+            }
+            if (size < header || size > end - position) break; // Also catches 64-bit sizes that would overflow
+            boxes.add(new Box(type, position, position + header, position + size));
+            position += size;
+        }
+        return boxes;
+    }
+
+    // meta is a full box in ISO files (version and flags first) but a plain box in QuickTime files
+    private static long metaChildrenStart(HeaderReader r, Box meta) throws IOException {
+        return r.fourCC(meta.body() + 4).equals("hdlr") ? meta.body() : meta.body() + 4;
+    }
+
+    private static long sized(HeaderReader r, long position, int size) throws IOException {
+        return switch (size) {
+            case 4 -> r.u32(position, false);
+            case 8 -> r.u64(position);
+            default -> 0;
+        };
+    }
+
+    // "2024-07-14T18:22:01+0200", "2024-07-14T18:22:01Z" or "2024-07-14". The local time is kept, as with EXIF dates.
+    private static Instant parseDate(String value) {
+        if (value == null) return null;
+        String trimmed = value.trim();
+        try {
+            if (trimmed.length() >= 19) {
+                return LocalDateTime.parse(trimmed.substring(0, 19), DateTimeFormatter.ISO_LOCAL_DATE_TIME).toInstant(ZoneOffset.UTC);
+            }
+            if (trimmed.length() == 10) {
+                return LocalDateTime.parse(trimmed + "T00:00:00").toInstant(ZoneOffset.UTC);
+            }
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+        return null;
+    }
+}
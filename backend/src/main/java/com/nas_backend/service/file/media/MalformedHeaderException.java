@@ -0,0 +1,13 @@
+package com.nas_backend.service.file.media;
+
+import java.io.IOException;
+
+// The file could be read but its headers make no sense (cut off, broken or hostile). Not worth retrying.
+public class MalformedHeaderException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MalformedHeaderException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,61 @@
+package com.nas_backend.service.file.media;
+
+import com.nas_backend.service.file.storage.ContentReader;
+import com.nas_backend.service.file.storage.StoredContent;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Capture time, camera, dimensions and duration from a media file's headers, found by the file's leading bytes (the
+// stored MIME type may be wrong). Reads only the structures it needs, a few KB for most files wherever they are stored.
+public final class MediaHeaders {
+
+    private static final long MAX_HEADER_BYTES = 4L * 1024 * 1024;
+    private static final int HEAD_SIZE = 16;
+
+    private MediaHeaders() {}
+
+    // Null for formats that are not parsed. Throws MalformedHeaderException when the headers are broken before the format
+    // was even told, a plain IOException when the file cannot be read.
+    public static MediaProbe probe(StoredContent content) throws IOException {
+        try (ContentReader reader = content.openReader()) {
+            HeaderReader r = new HeaderReader(reader, MAX_HEADER_BYTES);
+            byte[] head = r.read(0, HEAD_SIZE);
+            MediaProbe probe = new MediaProbe();
+            try {
+                parse(r, head, probe);
+            } catch (MalformedHeaderException e) {
+                // What was found before the broken structure is kept (a cut off video still has its mvhd)
+                if (probe.getKind() == null) throw e;
+            }
+            return probe.getKind() != null ? probe : null;
+        }
+    }
+
+    // Helper methods
+
+    private static void parse(HeaderReader r, byte[] head, MediaProbe probe) throws IOException {
+        String start = new String(head, StandardCharsets.ISO_8859_1);
+        if (head.length >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) {
+            ImageHeaderParser.parseJpeg(r, probe);
+        } else if (start.startsWith("\u0089PNG\r\n\u001A\n")) {
+            ImageHeaderParser.parsePng(r, probe);
+        } else if (start.startsWith("GIF87a") || start.startsWith("GIF89a")) {
+            ImageHeaderParser.parseGif(r, probe);
+        } else if (start.startsWith("RIFF") && start.startsWith("WEBP", 8)) {
+            ImageHeaderParser.parseWebp(r, probe);
+        } else if (start.startsWith("RIFF") && start.startsWith("WAVE", 8)) {
+            AudioHeaderParser.parseWav(r, probe);
+        } else if (start.startsWith("BM") && head.length >= 14) {
+            ImageHeaderParser.parseBmp(r, probe);
+        } else if (ImageHeaderParser.isTiff(head)) {
+            ImageHeaderParser.parseTiff(r, probe);
+        } else if (IsoMediaParser.isIsoMedia(head)) {
+            IsoMediaParser.parse(r, probe);
+        } else if (start.startsWith("fLaC")) {
+            AudioHeaderParser.parseFlac(r, probe);
+        } else if (AudioHeaderParser.isMp3(head)) {
+            AudioHeaderParser.parseMp3(r, probe);
+        }
+    }
+}
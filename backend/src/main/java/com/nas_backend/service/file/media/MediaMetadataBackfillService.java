@@ -0,0 +1,64 @@
+package com.nas_backend.service.file.media;
+
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.repository.FileNodeRepository;
+import com.nas_backend.service.file.processing.MetadataStage;
+import com.nas_backend.service.file.processing.ProcessingPipelineService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+// Media stored before the metadata index existed: queued to the pipeline's metadata stage page by page, only while
+// that stage's backlog is short. The stage's workers do the reading (in parallel, behind uploads), so a library of
+// hundreds of thousands of photos is worked off over hours without ever flooding the backlog.
+@Service
+public class MediaMetadataBackfillService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaMetadataBackfillService.class);
+
+    private static final int PAGE_SIZE = 500;
+    private static final long MAX_BACKLOG = 1000; // Tasks of the stage waiting, no more pages are queued above that
+
+    private final FileNodeRepository fileNodeRepository;
+    private final ProcessingPipelineService pipelineService;
+
+    private long lastId; // Where the previous page ended
+    private boolean finished; // Walked through all files, starts over with the nightly run
+
+    public MediaMetadataBackfillService(FileNodeRepository fileNodeRepository, ProcessingPipelineService pipelineService) {
+        this.fileNodeRepository = fileNodeRepository;
+        this.pipelineService = pipelineService;
+    }
+
+    @Scheduled(fixedDelay = 30 * 1000, initialDelay = 2 * 60 * 1000) // Every 30 seconds, first run 2 minutes after startup
+    public synchronized void queueMissingFiles() {
+        if (finished) return;
+        try {
+            if (pipelineService.getBacklog(MetadataStage.NAME) >= MAX_BACKLOG) return;
+
+            List<FileNode> page = fileNodeRepository.findMediaFilesWithoutMetadataAfterId(lastId, PageRequest.of(0, PAGE_SIZE));
+            if (page.isEmpty()) {
+                finished = true;
+                lastId = 0;
+                return;
+            }
+            lastId = page.get(page.size() - 1).getId();
+            pipelineService.submitToStage(page, MetadataStage.NAME);
+            logger.info("Media metadata backfill: Queued {} files (up to id {}).", page.size(), lastId);
+        } catch (Exception e) {
+            logger.error("Media metadata backfill: Run failed after id {}.", lastId, e);
+        }
+    }
+
+    // Files whose extraction failed for good have no row, they get another chance once a day
+    @Scheduled(cron = "0 35 3 * * ?") // 3:35 AM daily
+    public synchronized void restart() {
+        finished = false;
+        lastId = 0;
+    }
+}
@@ -0,0 +1,143 @@
+package com.nas_backend.service.file.media;
+
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.MediaFileInfo;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.model.entity.MediaMetadata;
+import com.nas_backend.repository.MediaMetadataRepository;
+import com.nas_backend.service.file.storage.StoredContent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+// The media_metadata index: capture time, camera, dimensions and duration of photos, videos and music, read from the
+// files' headers (see MediaHeaders) by the pipeline's metadata stage. Galleries list a folder tree by capture time
+// with one range query instead of sorting by upload time.
+@Service
+public class MediaMetadataService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaMetadataService.class);
+
+    public static final int MAX_TIMELINE_LIMIT = 500;
+
+    // Bounds for open ranges, far enough out for scanned film and broken camera clocks
+    private static final Instant EARLIEST = Instant.parse("1800-01-01T00:00:00Z");
+    private static final Instant LATEST = Instant.parse("9000-01-01T00:00:00Z");
+
+    // For files stored without a (useful) MIME type
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "bmp", "tif", "tiff", "heic", "heif", "avif", "dng", "cr2", "nef", "arw", "orf", "rw2");
+    private static final Set<String> VIDEO_EXTENSIONS = Set.of("mp4", "m4v", "mov", "3gp");
+    private static final Set<String> AUDIO_EXTENSIONS = Set.of("mp3", "m4a", "flac", "wav");
+
+    private final MediaMetadataRepository metadataRepository;
+
+    public MediaMetadataService(MediaMetadataRepository metadataRepository) {
+        this.metadataRepository = metadataRepository;
+    }
+
+    // MediaProbe.IMAGE, VIDEO or AUDIO by MIME type or else extension, null for everything else
+    public static String kindOf(FileNode node) {
+        String type = node.getMimeType() != null ? node.getMimeType().toLowerCase() : "";
+        if (type.startsWith("image/") && !type.startsWith("image/svg")) return MediaProbe.IMAGE;
+        if (type.startsWith("video/")) return MediaProbe.VIDEO;
+        if (type.startsWith("audio/")) return MediaProbe.AUDIO;
+
+        String name = node.getFileName();
+        int dot = name != null ? name.lastIndexOf('.') : -1;
+        if (dot < 0) return null;
+        String extension = name.substring(dot + 1).toLowerCase();
+        if (IMAGE_EXTENSIONS.contains(extension)) return MediaProbe.IMAGE;
+        if (VIDEO_EXTENSIONS.contains(extension)) return MediaProbe.VIDEO;
+        if (AUDIO_EXTENSIONS.contains(extension)) return MediaProbe.AUDIO;
+        return null;
+    }
+
+    // True when the row matches the file's current content (the file was not replaced since it was read)
+    public boolean isUpToDate(FileNode node) {
+        return metadataRepository.findById(node.getId())
+                .map(metadata -> Objects.equals(metadata.getSourceModifiedAt(), node.getModifiedAt()))
+                .orElse(false);
+    }
+
+    // Reads the file's headers and stores what they say. Files with broken or unknown headers get a row too (kind and
+    // upload time only), so the backfill does not come back to them. IOException when the file cannot be read.
+    public void extract(FileNode node) throws IOException {
+        StoredContent content = StoredContent.of(node);
+        if (!content.exists()) throw new IOException("Stored data of " + node.getLogicalPath() + " not found.");
+
+        MediaProbe probe;
+        try {
+            probe = MediaHeaders.probe(content);
+        } catch (MalformedHeaderException e) {
+            logger.debug("Media metadata: Headers of {} not readable: {}", node.getLogicalPath(), e.getMessage());
+            probe = null;
+        }
+
+        MediaMetadata metadata = metadataRepository.findById(node.getId()).orElseGet(MediaMetadata::new);
+        metadata.setNodeId(node.getId());
+        metadata.setOwner(ownerOf(node.getLogicalPath()));
+        String kind = probe != null ? probe.getKind() : kindOf(node);
+        metadata.setKind(kind != null ? kind : MediaProbe.IMAGE);
+
+        Instant takenAt = probe != null ? probe.getTakenAt() : null;
+        metadata.setTakenAt(takenAt);
+        metadata.setTimelineAt(takenAt != null ? takenAt : node.getCreatedAt() != null ? node.getCreatedAt() : Instant.now());
+        metadata.setCameraMake(probe != null ? probe.getCameraMake() : null);
+        metadata.setCameraModel(probe != null ? probe.getCameraModel() : null);
+        metadata.setWidth(probe != null ? probe.getWidth() : null);
+        metadata.setHeight(probe != null ? probe.getHeight() : null);
+        metadata.setDurationMs(probe != null ? probe.getDurationMs() : null);
+        metadata.setSourceModifiedAt(node.getModifiedAt());
+        metadata.setExtractedAt(Instant.now());
+        metadataRepository.save(metadata);
+    }
+
+    // Media below logicalPath (a user's folder, or the user's root) taken between from and to (both days included, null
+    // for no bound), newest first
+    public List<MediaFileInfo> listTimeline(String logicalPath, LocalDate from, LocalDate to, int page, int limit)
+            throws FileValidationException {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new FileValidationException("Invalid range: 'from' is after 'to'.");
+        }
+        if (page < 0 || limit < 1 || limit > MAX_TIMELINE_LIMIT) {
+            throw new FileValidationException("Invalid page or limit (1 to " + MAX_TIMELINE_LIMIT + ").");
+        }
+
+        String owner = ownerOf(logicalPath);
+        String prefix = logicalPath.equals(owner) ? owner + "/" : logicalPath + "/";
+        Instant start = from != null ? from.atStartOfDay(ZoneOffset.UTC).toInstant() : EARLIEST;
+        Instant end = to != null ? to.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant() : LATEST;
+        return metadataRepository.findTimeline(owner, prefix, start, end, PageRequest.of(page, limit));
+    }
+
+    @Scheduled(cron = "0 30 3 * * ?") // 3:30 AM daily, after the garbage collector emptied the trash
+    public void removeOrphans() {
+        try {
+            int removed = metadataRepository.deleteOrphans();
+            if (removed > 0) {
+                logger.info("Media metadata: Removed {} rows of deleted files.", removed);
+            }
+        } catch (Exception e) {
+            logger.error("Media metadata: Cleanup failed.", e);
+        }
+    }
+
+    // Helper methods
+
+    private static String ownerOf(String logicalPath) {
+        int slash = logicalPath.indexOf('/');
+        return slash >= 0 ? logicalPath.substring(0, slash) : logicalPath;
+    }
+}
@@ -0,0 +1,95 @@
+package com.nas_backend.service.file.media;
+
+import java.time.Instant;
+
+// What the parsers found in a file's headers, every field may stay null
+public final class MediaProbe {
+
+    public static final String IMAGE = "image";
+    public static final String VIDEO = "video";
+    public static final String AUDIO = "audio";
+
+    private String kind; // IMAGE, VIDEO or AUDIO
+    private Instant takenAt; // Capture time as the camera's clock showed it (stored as if it were UTC)
+    private String cameraMake;
+    private String cameraModel;
+    private Integer width;
+    private Integer height;
+    private Long durationMs;
+    private int orientation = 1; // EXIF orientation (1-8) of the stored pixels, 1 is upright
+
+    // Getters
+
+    public String getKind() {
+        return kind;
+    }
+
+    public Instant getTakenAt() {
+        return takenAt;
+    }
+
+    public String getCameraMake() {
+        return cameraMake;
+    }
+
+    public String getCameraModel() {
+        return cameraModel;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public Long getDurationMs() {
+        return durationMs;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    // Setters (the first value found wins, later structures only fill gaps)
+
+    void setKind(String kind) {
+        if (this.kind == null) this.kind = kind;
+    }
+
+    void setTakenAt(Instant takenAt) {
+        if (this.takenAt == null) this.takenAt = takenAt;
+    }
+
+    void setCameraMake(String cameraMake) {
+        if (this.cameraMake == null && cameraMake != null && !cameraMake.isBlank()) this.cameraMake = cameraMake.trim();
+    }
+
+    void setCameraModel(String cameraModel) {
+        if (this.cameraModel == null && cameraModel != null && !cameraModel.isBlank()) this.cameraModel = cameraModel.trim();
+    }
+
+    void setDimensions(long width, long height) {
+        if (this.width == null && width > 0 && height > 0 && width <= Integer.MAX_VALUE && height <= Integer.MAX_VALUE) {
+            this.width = (int) width;
+            this.height = (int) height;
+        }
+    }
+
+    // For pictures stored on their side (EXIF orientation, HEIF irot, track matrix), so width and height are as displayed
+    void swapDimensions() {
+        if (width == null) return;
+        int stored = width;
+        width = height;
+        height = stored;
+    }
+
+    void setDurationMs(long durationMs) {
+        if (this.durationMs == null && durationMs > 0) this.durationMs = durationMs;
+    }
+
+    void setOrientation(int orientation) {
+        if (this.orientation == 1 && orientation >= 1 && orientation <= 8) this.orientation = orientation;
+    }
+}
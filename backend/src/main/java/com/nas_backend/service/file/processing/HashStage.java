@@ -0,0 +1,71 @@
+package com.nas_backend.service.file.processing;
+
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.file.FileIndexService;
+import com.nas_backend.service.file.storage.ContentStoreService;
+import com.nas_backend.service.file.storage.StoredContent;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+// SHA-256 of files stored without one (content the store did not hash while writing it), for instant uploads and
+// deduplication
+@Component
+public class HashStage implements ProcessingStage {
+
+    public static final String NAME = "hash";
+
+    private final FileIndexService fileIndexService;
+    private final ContentStoreService contentStoreService;
+
+    public HashStage(FileIndexService fileIndexService, ContentStoreService contentStoreService) {
+        this.fileIndexService = fileIndexService;
+        this.contentStoreService = contentStoreService;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int order() {
+        return 10;
+    }
+
+    @Override
+    public int concurrency() {
+        return 1; // Reads whole files, a second reader would only make the disk seek
+    }
+
+    @Override
+    public int queueLimit() {
+        return 100;
+    }
+
+    @Override
+    public int maxAttempts() {
+        return 5;
+    }
+
+    @Override
+    public boolean isHeavy() {
+        return true;
+    }
+
+    @Override
+    public boolean appliesTo(FileNode node) {
+        return node.getContentHash() == null;
+    }
+
+    @Override
+    public void process(FileNode node) throws IOException {
+        StoredContent content = StoredContent.of(node);
+        if (!content.exists()) throw new IOException("Data not found on disk: " + node.getPhysicalPath());
+
+        String contentHash = contentStoreService.hashContent(content);
+        // Skipped if the node got other data while it was being hashed (that data gets a task of its own)
+        fileIndexService.updateContentHash(node.getId(), node.getPhysicalPath(), contentHash);
+    }
+}
@@ -0,0 +1,62 @@
+package com.nas_backend.service.file.processing;
+
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.file.media.MediaMetadataService;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+// Capture time, camera, dimensions and duration of photos, videos and music into media_metadata (header bytes only)
+@Component
+public class MetadataStage implements ProcessingStage {
+
+    public static final String NAME = "metadata";
+
+    private final MediaMetadataService metadataService;
+
+    public MetadataStage(MediaMetadataService metadataService) {
+        this.metadataService = metadataService;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int order() {
+        return 30; // After the type is known
+    }
+
+    @Override
+    public int concurrency() {
+        return 2; // Mostly waiting for seeks, two keep a drive busy without starving downloads
+    }
+
+    @Override
+    public int queueLimit() {
+        return 100;
+    }
+
+    @Override
+    public int maxAttempts() {
+        return 3;
+    }
+
+    @Override
+    public boolean isHeavy() {
+        return true; // Not much per file, but the backfill brings whole libraries
+    }
+
+    @Override
+    public boolean appliesTo(FileNode node) {
+        return node.getSize() > 0 && MediaMetadataService.kindOf(node) != null;
+    }
+
+    @Override
+    public void process(FileNode node) throws IOException {
+        if (metadataService.isUpToDate(node)) return; // Queued twice, or by the backfill and an upload
+        metadataService.extract(node);
+    }
+}
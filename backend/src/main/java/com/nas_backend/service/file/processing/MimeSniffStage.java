@@ -0,0 +1,224 @@
+package com.nas_backend.service.file.processing;
+
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.file.FileIndexService;
+import com.nas_backend.service.file.storage.ContentTypes;
+import com.nas_backend.service.file.storage.StoredContent;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+// Replaces the MIME type the client claimed with the one the first bytes show (magic numbers). The claim is kept when
+// it is a more specific name for the same container, e.g. a .docx is a zip and an .m4a an MP4.
+@Component
+public class MimeSniffStage implements ProcessingStage {
+
+    public static final String NAME = "mime";
+
+    private static final int HEAD_SIZE = 512;
+    private static final String GENERIC_TYPE = "application/octet-stream";
+
+    private static final Set<String> MP4_AUDIO_TYPES = Set.of("audio/mp4", "audio/x-m4a", "audio/m4a", "audio/aac");
+    private static final Set<String> MATROSKA_TYPES = Set.of("video/webm", "audio/webm", "audio/x-matroska");
+    private static final Set<String> OGG_TYPES = Set.of("audio/ogg", "video/ogg", "audio/opus", "audio/vorbis");
+    private static final Set<String> WAV_TYPES = Set.of("audio/x-wav", "audio/wave", "audio/vnd.wave");
+
+    private final FileIndexService fileIndexService;
+
+    public MimeSniffStage(FileIndexService fileIndexService) {
+        this.fileIndexService = fileIndexService;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int order() {
+        return 20;
+    }
+
+    @Override
+    public int concurrency() {
+        return 2;
+    }
+
+    @Override
+    public int queueLimit() {
+        return 200;
+    }
+
+    @Override
+    public int maxAttempts() {
+        return 3;
+    }
+
+    @Override
+    public boolean isHeavy() {
+        return false; // One small read per file
+    }
+
+    @Override
+    public boolean appliesTo(FileNode node) {
+        return node.getSize() > 0;
+    }
+
+    @Override
+    public void process(FileNode node) throws IOException {
+        byte[] head;
+        try (InputStream in = StoredContent.of(node).openStream()) {
+            head = in.readNBytes(HEAD_SIZE);
+        }
+
+        String detected = detect(node.getMimeType(), node.getFileName(), head);
+        if (detected != null && !detected.equals(node.getMimeType())) {
+            fileIndexService.updateMimeType(node.getId(), node.getPhysicalPath(), detected);
+        }
+    }
+
+    // The type to store, null to keep the claimed one
+    static String detect(String claimedType, String fileName, byte[] head) {
+        String claimed = claimedType != null ? claimedType.toLowerCase().split(";")[0].trim() : "";
+        boolean unknown = claimed.isEmpty() || claimed.equals(GENERIC_TYPE);
+
+        String sniffed = sniff(head);
+        if (sniffed != null) {
+            return !unknown && isSameContainer(claimed, sniffed) ? null : sniffed;
+        }
+
+        // No magic number: text is told apart from unknown binary data, anything else is left as claimed.
+        // UTF-16 text comes first, its byte order mark FF FE would also pass for an MPEG frame.
+        if (looksLikeText(head) || looksLikeUtf16Text(head)) {
+            if (!unknown && ContentTypes.isTextual(claimed, null)) return null;
+            String byName = fileName != null ? URLConnection.guessContentTypeFromName(fileName) : null;
+            return byName != null && ContentTypes.isTextual(byName, null) ? byName : "text/plain";
+        }
+        if (unknown) {
+            // A bare frame sync is only a dozen bits of pattern, good enough for a file without a type but not to overrule one
+            String frame = sniffFrameSync(head);
+            if (frame != null) return frame;
+            if (fileName != null) return URLConnection.guessContentTypeFromName(fileName); // Null keeps it unknown
+        }
+        return null;
+    }
+
+    private static boolean isSameContainer(String claimed, String sniffed) {
+        if (claimed.equals(sniffed)) return true;
+        return switch (sniffed) {
+            case "application/zip" -> claimed.contains("zip") || claimed.startsWith("application/vnd.openxmlformats")
+                    || claimed.startsWith("application/vnd.oasis.opendocument") || claimed.equals("application/java-archive")
+                    || claimed.equals("application/vnd.android.package-archive");
+            case "video/mp4" -> claimed.startsWith("video/") || MP4_AUDIO_TYPES.contains(claimed);
+            case "video/x-matroska" -> MATROSKA_TYPES.contains(claimed);
+            case "application/ogg" -> OGG_TYPES.contains(claimed);
+            case "audio/wav" -> WAV_TYPES.contains(claimed);
+            case "audio/mpeg" -> claimed.equals("audio/mp3");
+            case "image/tiff" -> claimed.startsWith("image/x-") || claimed.equals("image/dng"); // Camera raw files are TIFF inside
+            case "image/bmp" -> claimed.equals("image/x-ms-bmp");
+            default -> false;
+        };
+    }
+
+    // Magic numbers of the formats a NAS mostly holds, null when none matches
+    private static String sniff(byte[] b) {
+        if (startsWith(b, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (startsWith(b, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) return "image/png";
+        if (startsWith(b, 0, "GIF87a") || startsWith(b, 0, "GIF89a")) return "image/gif";
+        if (startsWith(b, 0, "II*\0") || startsWith(b, 0, "MM\0*")) return "image/tiff";
+        if (startsWith(b, 0, "BM") && b.length >= 10 && b[6] == 0 && b[7] == 0 && b[8] == 0 && b[9] == 0) return "image/bmp";
+        if (startsWith(b, 0, "RIFF") && b.length >= 12) {
+            if (startsWith(b, 8, "WEBP")) return "image/webp";
+            if (startsWith(b, 8, "WAVE")) return "audio/wav";
+            if (startsWith(b, 8, "AVI ")) return "video/x-msvideo";
+        }
+        if (startsWith(b, 4, "ftyp")) return isoMediaType(b);
+        if (startsWith(b, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+            return new String(b, StandardCharsets.ISO_8859_1).contains("webm") ? "video/webm" : "video/x-matroska";
+        }
+        if (startsWith(b, 0, "ID3") && b.length > 3 && b[3] < 0x10) return "audio/mpeg"; // Followed by the tag version
+        if (startsWith(b, 0, "fLaC")) return "audio/flac";
+        if (startsWith(b, 0, "OggS")) return "application/ogg";
+        if (startsWith(b, 0, "FORM") && startsWith(b, 8, "AIFF")) return "audio/aiff";
+        if (startsWith(b, 0, 0x00, 0x00, 0x01, 0xBA) || startsWith(b, 0, 0x00, 0x00, 0x01, 0xB3)) return "video/mpeg";
+        if (b.length > 188 && b[0] == 0x47 && b[188] == 0x47) return "video/mp2t";
+        if (startsWith(b, 0, "%PDF-")) return "application/pdf";
+        if (startsWith(b, 0, "PK\3\4") || startsWith(b, 0, "PK\5\6")) return "application/zip";
+        if (startsWith(b, 0, 0x1F, 0x8B)) return "application/gzip";
+        if (startsWith(b, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)) return "application/x-7z-compressed";
+        if (startsWith(b, 0, "Rar!\u001A\u0007")) return "application/vnd.rar";
+        if (startsWith(b, 0, "BZh") && b.length > 3 && b[3] >= '1' && b[3] <= '9') return "application/x-bzip2";
+        if (startsWith(b, 0, 0xFD, '7', 'z', 'X', 'Z', 0x00)) return "application/x-xz";
+        if (startsWith(b, 0, 0x28, 0xB5, 0x2F, 0xFD)) return "application/zstd";
+        if (startsWith(b, 257, "ustar")) return "application/x-tar";
+        if (startsWith(b, 0, "SQLite format 3\0")) return "application/vnd.sqlite3";
+        if (startsWith(b, 0, 0x7F, 'E', 'L', 'F')) return "application/x-executable";
+        if (startsWith(b, 0, "MZ") && !looksLikeText(b)) return "application/x-msdownload";
+        return null;
+    }
+
+    // Audio that starts right with a frame (no ID3 tag), null when the first bytes are no frame sync
+    private static String sniffFrameSync(byte[] b) {
+        if (b.length < 2 || (b[0] & 0xFF) != 0xFF) return null;
+        int second = b[1] & 0xFF;
+        if ((second & 0xF6) == 0xF0) return "audio/aac"; // ADTS frame
+        if ((second & 0xE0) == 0xE0 && (second & 0x06) != 0) return "audio/mpeg"; // MPEG audio frame
+        return null;
+    }
+
+    // MP4 family, told apart by the major brand
+    private static String isoMediaType(byte[] b) {
+        String brand = b.length >= 12 ? new String(b, 8, 4, StandardCharsets.ISO_8859_1) : "";
+        return switch (brand) {
+            case "qt  " -> "video/quicktime";
+            case "M4A ", "M4B " -> "audio/mp4";
+            case "heic", "heix", "heim", "heis", "mif1", "msf1" -> "image/heic";
+            case "avif", "avis" -> "image/avif";
+            case "3gp4", "3gp5", "3gp6", "3g2a" -> "video/3gpp";
+            case "crx " -> "image/x-canon-cr3";
+            default -> "video/mp4";
+        };
+    }
+
+    // No control characters other than whitespace (UTF-8 and Latin text pass, binary data almost never does)
+    private static boolean looksLikeText(byte[] b) {
+        if (b.length == 0) return false;
+        for (byte value : b) {
+            int c = value & 0xFF;
+            if (c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != 0x1B) return false;
+            if (c == 0x7F) return false;
+        }
+        return true;
+    }
+
+    // Byte order mark of UTF-16 (either order), then the same check per code unit
+    private static boolean looksLikeUtf16Text(byte[] b) {
+        boolean littleEndian = startsWith(b, 0, 0xFF, 0xFE);
+        if (!littleEndian && !startsWith(b, 0, 0xFE, 0xFF)) return false;
+        if (startsWith(b, 0, 0xFF, 0xFE, 0x00, 0x00)) return false; // UTF-32 LE
+
+        for (int i = 2; i + 1 < b.length; i += 2) {
+            int c = littleEndian ? (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 : (b[i] & 0xFF) << 8 | (b[i + 1] & 0xFF);
+            if (c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != 0x1B) return false;
+            if (c == 0x7F) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] b, int offset, String magic) {
+        return startsWith(b, offset, magic.chars().toArray());
+    }
+
+    private static boolean startsWith(byte[] b, int offset, int... magic) {
+        if (b.length < offset + magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((b[offset + i] & 0xFF) != magic[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.nas_backend.service.file.processing;
+
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.service.file.ThumbnailService;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+// The default size thumbnail of a new image, so the first gallery view of it does not wait for the decoder
+@Component
+public class PreviewStage implements ProcessingStage {
+
+    public static final String NAME = "preview";
+
+    private final ThumbnailService thumbnailService;
+
+    public PreviewStage(ThumbnailService thumbnailService) {
+        this.thumbnailService = thumbnailService;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int order() {
+        return 40; // After the type is known
+    }
+
+    @Override
+    public int concurrency() {
+        return 1; // Decoding is CPU bound, one core at most next to the thumbnail workers
+    }
+
+    @Override
+    public int queueLimit() {
+        return 50;
+    }
+
+    @Override
+    public int maxAttempts() {
+        return 2; // A broken image stays broken
+    }
+
+    @Override
+    public boolean isHeavy() {
+        return true;
+    }
+
+    @Override
+    public boolean appliesTo(FileNode node) {
+        return thumbnailService.isSupported(node);
+    }
+
+    @Override
+    public void process(FileNode node) throws IOException {
+        thumbnailService.generateNow(node, thumbnailService.defaultSizeClass());
+    }
+}
@@ -0,0 +1,367 @@
+package com.nas_backend.service.file.processing;
+
+import com.nas_backend.model.dto.ProcessingStageStats;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.model.entity.ProcessingTask;
+import com.nas_backend.repository.FileNodeRepository;
+import com.nas_backend.repository.ProcessingTaskRepository;
+import com.nas_backend.service.file.UploadAdmissionService;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Everything that happens to a file after its bytes are committed (hashing, type detection, previews...), off the
+// request threads. An upload only adds a row to processing_tasks, which is the pipeline's backlog: the row moves
+// through the stages in order and is deleted after the last one, so unfinished work survives restarts. Each stage takes
+// at most queueLimit tasks from the backlog into memory and runs them on its own workers, failures are retried with a
+// growing delay. Heavy stages wait while uploads are running.
+@Service
+public class ProcessingPipelineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessingPipelineService.class);
+
+    private static final long FEED_INTERVAL_MS = 1000;
+    private static final long FIRST_FEED_DELAY_MS = 10_000; // Leftovers of the last run start once the application is up
+    private static final long UPLOAD_POLL_MS = 500;
+    private static final long MAX_UPLOAD_WAIT_MS = 60_000; // Runs anyway after that, or a busy day would stop the pipeline
+    private static final Duration FIRST_RETRY_DELAY = Duration.ofSeconds(30);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofHours(1);
+    private static final int MAX_ERROR_LENGTH = 250;
+
+    private final ProcessingTaskRepository taskRepository;
+    private final FileNodeRepository fileNodeRepository;
+    private final UploadAdmissionService uploadAdmissionService;
+
+    private final List<ProcessingStage> stages; // In order
+    private final Map<String, StageRunner> runners = new LinkedHashMap<>();
+    private final ScheduledExecutorService feeder = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "processing-feed");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean feedRequested = new AtomicBoolean();
+
+    // Queue, workers and metrics of one stage
+    private final class StageRunner {
+        final ProcessingStage stage;
+        final BlockingQueue<ProcessingTask> queue = new LinkedBlockingQueue<>();
+        final Set<Long> inFlight = ConcurrentHashMap.newKeySet(); // Task ids queued or running, at most queueLimit
+        final List<Thread> workers = new ArrayList<>();
+
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final AtomicLong retried = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong processingNanos = new AtomicLong();
+
+        StageRunner(ProcessingStage stage) {
+            this.stage = stage;
+        }
+
+        // Takes the task unless the stage has no room, the backlog keeps it otherwise
+        boolean offer(ProcessingTask task) {
+            if (inFlight.size() >= stage.queueLimit() || !inFlight.add(task.getId())) return false;
+            queue.add(task);
+            return true;
+        }
+    }
+
+    public ProcessingPipelineService(ProcessingTaskRepository taskRepository, FileNodeRepository fileNodeRepository,
+                                     UploadAdmissionService uploadAdmissionService, List<ProcessingStage> stages) {
+        this.taskRepository = taskRepository;
+        this.fileNodeRepository = fileNodeRepository;
+        this.uploadAdmissionService = uploadAdmissionService;
+        this.stages = stages.stream().sorted(Comparator.comparingInt(ProcessingStage::order)).toList();
+
+        for (ProcessingStage stage : this.stages) {
+            StageRunner runner = new StageRunner(stage);
+            if (runners.putIfAbsent(stage.name(), runner) != null) {
+                throw new IllegalStateException("Two processing stages named " + stage.name());
+            }
+            for (int i = 1; i <= stage.concurrency(); i++) {
+                Thread worker = new Thread(() -> work(runner), "processing-" + stage.name() + "-" + i);
+                worker.setDaemon(true);
+                if (stage.isHeavy()) worker.setPriority(Thread.MIN_PRIORITY);
+                worker.start();
+                runner.workers.add(worker);
+            }
+        }
+        feeder.scheduleWithFixedDelay(this::feed, FIRST_FEED_DELAY_MS, FEED_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        feeder.shutdownNow();
+        runners.values().forEach(runner -> runner.workers.forEach(Thread::interrupt));
+    }
+
+    // Queues newly committed files (or files with new content). Only writes the backlog (in the caller's transaction,
+    // if there is one), never waits for the stages.
+    public void submit(FileNode node) {
+        submitAll(List.of(node));
+    }
+
+    public void submitAll(Collection<FileNode> nodes) {
+        Instant now = Instant.now();
+        List<ProcessingTask> tasks = new ArrayList<>();
+        for (FileNode node : nodes) {
+            if (node.isDirectory() || node.getId() == null) continue;
+            ProcessingStage first = nextStage(null, node);
+            if (first != null) tasks.add(newTask(node, first, null, now));
+        }
+        save(tasks);
+    }
+
+    // Queues files for one stage only (backfills of files stored before the stage existed), the tasks end after it
+    public void submitToStage(Collection<FileNode> nodes, String stageName) {
+        StageRunner runner = runners.get(stageName);
+        if (runner == null) throw new IllegalArgumentException("No processing stage named " + stageName);
+
+        Instant now = Instant.now();
+        List<ProcessingTask> tasks = new ArrayList<>();
+        for (FileNode node : nodes) {
+            if (node.isDirectory() || node.getId() == null || !runner.stage.appliesTo(node)) continue;
+            tasks.add(newTask(node, runner.stage, stageName, now));
+        }
+        save(tasks);
+    }
+
+    // Tasks of the stage waiting in the backlog (due or not), for callers that throttle what they submit
+    public long getBacklog(String stageName) {
+        return taskRepository.countByStage(stageName);
+    }
+
+
+    public List<ProcessingStageStats> getStats() {
+        List<ProcessingStageStats> stats = new ArrayList<>();
+        for (StageRunner runner : runners.values()) {
+            long processed = runner.processed.get();
+            stats.add(new ProcessingStageStats(
+                    runner.stage.name(),
+                    runner.stage.concurrency(),
+                    runner.stage.queueLimit(),
+                    taskRepository.countByStage(runner.stage.name()),
+                    runner.queue.size(),
+                    runner.active.get(),
+                    processed,
+                    runner.skipped.get(),
+                    runner.retried.get(),
+                    runner.failed.get(),
+                    processed > 0 ? runner.processingNanos.get() / 1_000_000.0 / processed : 0));
+        }
+        return stats;
+    }
+
+    // Helper methods
+
+    private static ProcessingTask newTask(FileNode node, ProcessingStage stage, String lastStage, Instant now) {
+        ProcessingTask task = new ProcessingTask();
+        task.setNodeId(node.getId());
+        task.setStage(stage.name());
+        task.setLastStage(lastStage);
+        task.setNotBefore(now);
+        task.setCreatedAt(now);
+        return task;
+    }
+
+    // Inside a transaction the tasks are part of it (an outbox in the same database): they commit with the file or not
+    // at all, so a crash right after the commit cannot lose them. An insert that fails there fails the caller's
+    // operation instead of being swallowed (it would mark the transaction rollback-only anyway). The workers are
+    // only woken after the commit, before it the rows are not visible to them.
+    private void save(List<ProcessingTask> tasks) {
+        if (tasks.isEmpty()) return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            insert(tasks);
+            return;
+        }
+        taskRepository.saveAll(tasks);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                requestFeed();
+            }
+        });
+    }
+
+    private void insert(List<ProcessingTask> tasks) {
+        try {
+            taskRepository.saveAll(tasks);
+            requestFeed();
+        } catch (RuntimeException e) {
+            // The files are committed already, an upload does not fail over this (the backfill hasher still finds them)
+            logger.error("Processing pipeline: Could not queue {} files: {}", tasks.size(), e.getMessage());
+        }
+    }
+
+    // A feed now instead of at the next tick, for new work and stages that ran dry (at most one waits at a time)
+    private void requestFeed() {
+        if (feedRequested.compareAndSet(false, true)) {
+            try {
+                feeder.execute(() -> {
+                    feedRequested.set(false);
+                    feed();
+                });
+            } catch (RejectedExecutionException e) {
+                feedRequested.set(false); // Shutting down
+            }
+        }
+    }
+
+    // Tops up every stage's queue from the backlog, oldest due tasks first
+    private void feed() {
+        try {
+            Instant now = Instant.now();
+            for (StageRunner runner : runners.values()) {
+                int inFlight = runner.inFlight.size();
+                if (inFlight >= runner.stage.queueLimit()) continue;
+
+                // In-flight tasks are still in the backlog, the page skips past them
+                List<ProcessingTask> due = taskRepository.findByStageAndNotBeforeLessThanEqualOrderByIdAsc(
+                        runner.stage.name(), now, PageRequest.of(0, runner.stage.queueLimit() + inFlight));
+                for (ProcessingTask task : due) {
+                    if (runner.inFlight.size() >= runner.stage.queueLimit()) break;
+                    runner.offer(task);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Processing pipeline: Feeding the stages failed: {}", e.getMessage());
+        }
+    }
+
+    private void work(StageRunner runner) {
+        while (!Thread.currentThread().isInterrupted()) {
+            ProcessingTask task;
+            try {
+                task = runner.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (runner.stage.isHeavy()) waitForUploads();
+                run(runner, task);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // The task stays in the backlog as it was and comes back with the next feed
+                logger.error("Processing pipeline: Stage {} failed on task {}: {}", runner.stage.name(), task.getId(), e.getMessage());
+            } finally {
+                runner.inFlight.remove(task.getId());
+                if (runner.queue.isEmpty()) requestFeed();
+            }
+        }
+    }
+
+    private void run(StageRunner runner, ProcessingTask queued) {
+        ProcessingStage stage = runner.stage;
+
+        // The row as it is now, a feed that raced with the previous stage may have queued it twice
+        ProcessingTask task = taskRepository.findById(queued.getId()).orElse(null);
+        if (task == null || !task.getStage().equals(stage.name())) return;
+
+        FileNode node = fileNodeRepository.findById(task.getNodeId()).orElse(null);
+        if (node == null || node.isDirectory()) {
+            runner.skipped.incrementAndGet();
+            taskRepository.delete(task); // Deleted in the meantime
+            return;
+        }
+        if (!stage.appliesTo(node)) {
+            runner.skipped.incrementAndGet();
+            advance(task, stage, node);
+            return;
+        }
+
+        long start = System.nanoTime();
+        runner.active.incrementAndGet();
+        try {
+            stage.process(node);
+            runner.processed.incrementAndGet();
+            runner.processingNanos.addAndGet(System.nanoTime() - start);
+            advance(task, stage, null); // The stage may have changed the file (e.g. its type), the next one decides on a fresh copy
+        } catch (Exception e) {
+            String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            task.setAttempts(task.getAttempts() + 1);
+            task.setLastError(error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+
+            if (task.getAttempts() >= stage.maxAttempts()) {
+                runner.failed.incrementAndGet();
+                logger.warn("Processing pipeline: Stage {} gave up on {} after {} attempts: {}", stage.name(), node.getLogicalPath(),
+                        task.getAttempts(), error);
+                advance(task, stage, null); // The later stages may still work
+            } else {
+                runner.retried.incrementAndGet();
+                task.setNotBefore(Instant.now().plus(retryDelay(task.getAttempts())));
+                taskRepository.save(task);
+            }
+        } finally {
+            runner.active.decrementAndGet();
+        }
+    }
+
+    // Moves the task on to the next stage (the next that applies to node, if given), straight into its queue when it has
+    // room, or finishes it (after the last stage or the task's lastStage)
+    private void advance(ProcessingTask task, ProcessingStage current, FileNode node) {
+        ProcessingStage next = current.name().equals(task.getLastStage()) ? null : nextStage(current, node);
+        if (next == null) {
+            taskRepository.delete(task);
+            return;
+        }
+        task.setStage(next.name());
+        task.setAttempts(0);
+        task.setLastError(null);
+        task.setNotBefore(Instant.now());
+        ProcessingTask saved = taskRepository.save(task);
+        runners.get(next.name()).offer(saved);
+    }
+
+    // The first stage after current (null for the first of all) that has something to do for the file, or simply the
+    // next one without a file
+    private ProcessingStage nextStage(ProcessingStage current, FileNode node) {
+        boolean passed = current == null;
+        for (ProcessingStage stage : stages) {
+            if (!passed) {
+                passed = stage == current;
+                continue;
+            }
+            if (node == null || stage.appliesTo(node)) return stage;
+        }
+        return null;
+    }
+
+    private void waitForUploads() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + MAX_UPLOAD_WAIT_MS;
+        while (uploadAdmissionService.getActiveUploads() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(UPLOAD_POLL_MS);
+        }
+    }
+
+    private static Duration retryDelay(int attempts) {
+        Duration delay = FIRST_RETRY_DELAY.multipliedBy(1L << Math.min(attempts - 1, 16));
+        return delay.compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : delay;
+    }
+}
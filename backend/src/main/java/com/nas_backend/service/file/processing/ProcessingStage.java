@@ -0,0 +1,30 @@
+package com.nas_backend.service.file.processing;
+
+import com.nas_backend.model.entity.FileNode;
+
+import java.io.IOException;
+
+// One step of the post-upload pipeline. Stages run in order(), each on its own worker threads with its own queue.
+public interface ProcessingStage {
+
+    // Stored with the task, must stay the same across releases
+    String name();
+
+    int order();
+
+    int concurrency();
+
+    // Tasks taken from the backlog into memory at most, the rest waits in the DB
+    int queueLimit();
+
+    int maxAttempts();
+
+    // Heavy stages (reading whole files, decoding images) wait while uploads are running
+    boolean isHeavy();
+
+    // False skips the stage for this file
+    boolean appliesTo(FileNode node);
+
+    // May run again for the same file after a failure or a restart, so it must be safe to repeat
+    void process(FileNode node) throws IOException;
+}
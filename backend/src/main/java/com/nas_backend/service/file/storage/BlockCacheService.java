@@ -0,0 +1,457 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.dto.BlockCacheStats;
+import com.nas_backend.service.AppConfigService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+// Decoded blocks of frequently downloaded files, kept off-heap (direct buffers) so the hot set is served without
+// touching the disk, decompressing or decrypting. Keyed by physical path, the identity of the file behind it (inode,
+// modification time, size: a path that gets new data never serves the old blocks) and block number.
+// Eviction is W-TinyLFU: new blocks go to a small LRU window, and a block leaving the window only replaces a block of
+// the main area when a frequency sketch says it was asked for more often. A file read once (a big download, a scan)
+// never pushes out blocks that are asked for again and again. On top of that a single transfer may only admit
+// a slice of the capacity, and folder archives do not go through the cache at all.
+// Capacity is storage.blockCacheMB (read at startup).
+@Service
+public class BlockCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockCacheService.class);
+
+    public static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DEFAULT_CAPACITY_MB = 64;
+    private static final int HOT_FREQUENCY = 2; // A file's first block asked for this often, its transfers go through the cache
+    private static final int ADMISSION_SHARE = 8; // One transfer admits at most capacity / this
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80; // Of the main area
+
+    private final int capacityBlocks;
+    private final int windowMax;
+    private final int protectedMax;
+    private final long maxAdmittedPerTransfer;
+
+    private final Object lock = new Object();
+    private final Map<BlockKey, Entry> entries = new HashMap<>();
+    private final Map<String, Integer> blocksPerPath = new HashMap<>(); // For invalidation without a full scan
+    private final LruQueue window = new LruQueue();
+    private final LruQueue probation = new LruQueue();
+    private final LruQueue protectedQueue = new LruQueue();
+    private final FrequencySketch sketch;
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private int allocatedBuffers;
+
+    // Metrics (guarded by lock)
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long invalidations;
+    private long directTransfers;
+
+    // A stored file as the cache sees it, opened once per transfer
+    public record CachedContent(String physicalPath, String version, StoredContent content, long length) {}
+
+    private record BlockKey(String physicalPath, String version, long block) {}
+
+    private static final class Entry {
+        final BlockKey key;
+        final ByteBuffer buffer;
+        final int length;
+        LruQueue queue; // Null once it left the cache (or was never admitted)
+        Entry prev;
+        Entry next;
+        int pins; // Transfers copying from the buffer right now, it is reused only after the last one
+
+        Entry(BlockKey key, ByteBuffer buffer, int length) {
+            this.key = key;
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+
+    public BlockCacheService(AppConfigService configService) {
+        int capacityMB = configService.getConfig().getStorage().getBlockCacheMB();
+        if (capacityMB == 0) capacityMB = DEFAULT_CAPACITY_MB;
+
+        this.capacityBlocks = (int) Math.max(capacityMB * 1024L * 1024L / BLOCK_SIZE, 0);
+        this.windowMax = Math.max(capacityBlocks * WINDOW_PERCENT / 100, 1);
+        this.protectedMax = (capacityBlocks - windowMax) * PROTECTED_PERCENT / 100;
+        this.maxAdmittedPerTransfer = (long) capacityBlocks * BLOCK_SIZE / ADMISSION_SHARE;
+        this.sketch = new FrequencySketch(Math.max(capacityBlocks, 64));
+
+        if (capacityBlocks > 0) {
+            logger.info("Block cache: {} MB off-heap ({} blocks of {} KB).", capacityMB, capacityBlocks, BLOCK_SIZE / 1024);
+        } else {
+            logger.info("Block cache is disabled.");
+        }
+    }
+
+    public boolean isEnabled() {
+        return capacityBlocks > 0;
+    }
+
+    // content (logical size length) is stored at physicalPath
+    public CachedContent open(String physicalPath, StoredContent content, long length) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(content.file(), BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey() != null ? attributes.fileKey() : content.file();
+        String version = fileKey + "/" + attributes.lastModifiedTime().toMillis() + "/" + attributes.size();
+        return new CachedContent(physicalPath, version, content, length);
+    }
+
+    // True when a transfer starting at position should go through the cache: its block is cached or was asked for before.
+    // Every call counts as one request for that block.
+    public boolean isHot(CachedContent cached, long position) {
+        if (!isEnabled()) return false;
+        BlockKey key = keyOf(cached, position / BLOCK_SIZE);
+        synchronized (lock) {
+            sketch.increment(key);
+            if (entries.containsKey(key) || sketch.frequency(key) >= HOT_FREQUENCY) return true;
+            directTransfers++;
+            return false;
+        }
+    }
+
+    // Copies count logical bytes from position on to target, cached blocks from memory and the others from disk,
+    // offering them to the cache. Once the transfer used up its admission share the rest is sent straight from the disk.
+    public void transferTo(CachedContent cached, long position, long count, WritableByteChannel target) throws IOException {
+        StoredContent content = cached.content();
+        long end = position + count;
+        long admissionLeft = maxAdmittedPerTransfer;
+        long pos = position;
+
+        ContentReader reader = null;
+        try {
+            while (pos < end) {
+                long block = pos / BLOCK_SIZE;
+                long blockStart = block * BLOCK_SIZE;
+                BlockKey key = keyOf(cached, block);
+
+                Entry entry = acquire(key);
+                if (entry == null) {
+                    if (admissionLeft <= 0) {
+                        content.transferTo(pos, end - pos, target);
+                        return;
+                    }
+                    if (reader == null) reader = content.openReader();
+                    int blockLength = (int) Math.min(BLOCK_SIZE, cached.length() - blockStart);
+                    entry = load(key, reader, blockStart, blockLength);
+                    admissionLeft -= blockLength;
+                }
+
+                try {
+                    ByteBuffer slice = entry.buffer.duplicate();
+                    slice.limit((int) Math.min(entry.length, end - blockStart));
+                    slice.position((int) (pos - blockStart));
+                    while (slice.hasRemaining()) {
+                        target.write(slice);
+                    }
+                } finally {
+                    release(entry);
+                }
+                pos = blockStart + BLOCK_SIZE;
+            }
+        } finally {
+            if (reader != null) reader.close();
+        }
+    }
+
+    // Drops the cached blocks of one physical location (its data was deleted, replaced or re-encoded)
+    public void invalidate(String physicalPath) {
+        if (!isEnabled() || physicalPath == null) return;
+        synchronized (lock) {
+            if (blocksPerPath.containsKey(physicalPath)) {
+                removeWhere(key -> key.physicalPath().equals(physicalPath));
+            }
+        }
+    }
+
+    // Drops the cached blocks of everything stored in a file (e.g. a deleted pack file)
+    public void invalidateFile(Path file) {
+        if (!isEnabled()) return;
+        String plain = file.toString();
+        String packed = plain + "#";
+        synchronized (lock) {
+            List<String> paths = blocksPerPath.keySet().stream().filter(p -> p.equals(plain) || p.startsWith(packed)).toList();
+            for (String path : paths) {
+                removeWhere(key -> key.physicalPath().equals(path));
+            }
+        }
+    }
+
+    public BlockCacheStats getStats() {
+        synchronized (lock) {
+            long requests = hits + misses;
+            return new BlockCacheStats(
+                    (long) capacityBlocks * BLOCK_SIZE,
+                    entries.values().stream().mapToLong(e -> e.length).sum(),
+                    (long) allocatedBuffers * BLOCK_SIZE,
+                    entries.size(),
+                    hits,
+                    misses,
+                    requests > 0 ? (double) hits / requests : 0,
+                    evictions,
+                    rejections,
+                    invalidations,
+                    directTransfers);
+        }
+    }
+
+    // Helper methods
+
+    private static BlockKey keyOf(CachedContent cached, long block) {
+        return new BlockKey(cached.physicalPath(), cached.version(), block);
+    }
+
+    private Entry acquire(BlockKey key) {
+        synchronized (lock) {
+            sketch.increment(key);
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            entry.pins++;
+            onHit(entry);
+            return entry;
+        }
+    }
+
+    private void release(Entry entry) {
+        synchronized (lock) {
+            entry.pins--;
+            if (entry.pins == 0 && entry.queue == null) {
+                recycle(entry.buffer);
+            }
+        }
+    }
+
+    // Reads the block from disk and offers it to the cache, the returned entry is pinned (cached or not)
+    private Entry load(BlockKey key, ContentReader reader, long blockStart, int blockLength) throws IOException {
+        ByteBuffer buffer = takeBuffer();
+        try {
+            buffer.clear().limit(blockLength);
+            while (buffer.hasRemaining()) {
+                int read = reader.read(blockStart + buffer.position(), buffer);
+                if (read < 0) throw new IOException("Stored data of " + key.physicalPath() + " ended before its recorded length.");
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (lock) {
+                recycle(buffer);
+            }
+            throw e;
+        }
+
+        Entry entry = new Entry(key, buffer, blockLength);
+        synchronized (lock) {
+            entry.pins = 1;
+            if (!entries.containsKey(key)) { // Another transfer may have loaded it meanwhile, this copy is then used once
+                admit(entry);
+            }
+        }
+        return entry;
+    }
+
+    // W-TinyLFU: into the window, whatever falls out of it competes with the main area's next victim
+    private void admit(Entry entry) {
+        entries.put(entry.key, entry);
+        blocksPerPath.merge(entry.key.physicalPath(), 1, Integer::sum);
+        window.addLast(entry);
+        if (window.size <= windowMax) return;
+
+        Entry candidate = window.removeFirst();
+        if (probation.size + protectedQueue.size < capacityBlocks - windowMax) {
+            probation.addLast(candidate);
+            return;
+        }
+
+        Entry victim = probation.size > 0 ? probation.first() : protectedQueue.first();
+        if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            victim.queue.remove(victim);
+            drop(victim);
+            evictions++;
+            probation.addLast(candidate);
+        } else {
+            drop(candidate);
+            rejections++;
+        }
+    }
+
+    private void onHit(Entry entry) {
+        if (entry.queue == window || entry.queue == protectedQueue) {
+            entry.queue.moveToLast(entry);
+            return;
+        }
+        // Asked for again while on probation, it earned a place in the protected area
+        probation.remove(entry);
+        protectedQueue.addLast(entry);
+        if (protectedQueue.size > protectedMax) {
+            probation.addLast(protectedQueue.removeFirst());
+        }
+    }
+
+    // Takes an entry that already left its queue out of the cache
+    private void drop(Entry entry) {
+        entries.remove(entry.key);
+        blocksPerPath.computeIfPresent(entry.key.physicalPath(), (path, count) -> count > 1 ? count - 1 : null);
+        if (entry.pins == 0) {
+            recycle(entry.buffer);
+        }
+    }
+
+    private void removeWhere(Predicate<BlockKey> matches) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!matches.test(entry.key)) continue;
+            iterator.remove();
+            entry.queue.remove(entry);
+            blocksPerPath.computeIfPresent(entry.key.physicalPath(), (path, count) -> count > 1 ? count - 1 : null);
+            if (entry.pins == 0) recycle(entry.buffer);
+            invalidations++;
+        }
+    }
+
+    private ByteBuffer takeBuffer() {
+        synchronized (lock) {
+            ByteBuffer buffer = freeBuffers.poll();
+            if (buffer != null) return buffer;
+            allocatedBuffers++;
+        }
+        return ByteBuffer.allocateDirect(BLOCK_SIZE);
+    }
+
+    // Buffers beyond the capacity (needed while evicted blocks were still pinned) are left to the GC
+    private void recycle(ByteBuffer buffer) {
+        if (entries.size() + freeBuffers.size() < capacityBlocks) {
+            freeBuffers.push(buffer);
+        } else {
+            allocatedBuffers--;
+        }
+    }
+
+    // Doubly linked LRU list, least recently used first
+    private static final class LruQueue {
+        private Entry head;
+        private Entry tail;
+        private int size;
+
+        Entry first() {
+            return head;
+        }
+
+        void addLast(Entry entry) {
+            entry.queue = this;
+            entry.prev = tail;
+            entry.next = null;
+            if (tail != null) tail.next = entry;
+            else head = entry;
+            tail = entry;
+            size++;
+        }
+
+        Entry removeFirst() {
+            Entry entry = head;
+            remove(entry);
+            return entry;
+        }
+
+        void remove(Entry entry) {
+            if (entry.prev != null) entry.prev.next = entry.next;
+            else head = entry.next;
+            if (entry.next != null) entry.next.prev = entry.prev;
+            else tail = entry.prev;
+            entry.prev = null;
+            entry.next = null;
+            entry.queue = null;
+            size--;
+        }
+
+        void moveToLast(Entry entry) {
+            remove(entry);
+            addLast(entry);
+        }
+    }
+
+    // Count-min sketch of 4-bit counters (4 rows). All counters are halved after 10 accesses per cached block,
+    // so the frequencies describe the recent past and a file popular last month does not stay hot forever.
+    private static final class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int MAX_COUNT = 15;
+        private static final long[] ROW_SEEDS = {0x97CB3127L, 0xB492B66FL, 0x9AE16A3BL, 0xCBF29CE4L};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int seed = ThreadLocalRandom.current().nextInt() | 1;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(expectedEntries * 2 - 1) << 1;
+            this.counters = new byte[ROWS][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * expectedEntries;
+        }
+
+        void increment(BlockKey key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < ROWS; row++) {
+                int index = indexOf(hash, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                age();
+            }
+        }
+
+        int frequency(BlockKey key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROWS; row++) {
+                frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private void age() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int spread(int hash) {
+            hash *= seed;
+            return hash ^ (hash >>> 16);
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + ROW_SEEDS[row]) * ROW_SEEDS[row];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+    }
+}
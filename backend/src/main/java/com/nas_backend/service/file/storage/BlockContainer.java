@@ -0,0 +1,546 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.exception.FileValidationException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// On-disk format for content that is not stored as plain bytes (FileNode.storageFormat = FORMAT).
+// The logical content is cut into fixed-size blocks that are encoded independently, so any byte range can be
+// served by decoding only the blocks it touches. Blocks are deflated when that makes them smaller, and encrypted
+// with AES-256-GCM when the container is encrypted (nonce = per-file prefix + block index, the tag follows the block).
+//
+//   header:  "NASB" <byte version> <byte flags> <short reserved> <int blockSize>
+//            [encrypted only: <byte keyIdLength> <keyId> <8 bytes nonce prefix>]
+//   blocks:  encoded block data, back to back
+//   index:   per block <long offset> <int storedLength> <byte encoding>
+//   trailer: <long logicalSize> <int blockCount> <long indexOffset> "NASE"
+//
+// Blocks are encoded and decoded on a shared pool, several at a time, so one transfer can use every core.
+public final class BlockContainer {
+
+    public static final String FORMAT = "blocks";
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final byte[] HEADER_MAGIC = "NASB".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRAILER_MAGIC = "NASE".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int INDEX_ENTRY_SIZE = 13;
+    private static final int TRAILER_SIZE = 24;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private static final byte FLAG_ENCRYPTED = 1;
+    private static final int NONCE_PREFIX_SIZE = 8;
+    private static final int GCM_TAG_BITS = 128;
+    private static final int GCM_TAG_SIZE = GCM_TAG_BITS / 8;
+
+    private static final byte ENCODING_RAW = 0;
+    private static final byte ENCODING_DEFLATE = 1;
+
+    private static final int CODEC_THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+    private static final int BLOCKS_IN_FLIGHT = CODEC_THREADS * 2; // Per transfer, bounds the memory one stream can hold
+    private static final ExecutorService CODEC_POOL = Executors.newFixedThreadPool(CODEC_THREADS, new CodecThreadFactory());
+
+    // Pool threads live as long as the application, so do their codecs
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(BlockContainer::newCipher);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static volatile KeyProvider keyProvider;
+
+    private BlockContainer() {
+    }
+
+    // Resolves the key id stored in an encrypted container to its key (see EncryptionKeyService)
+    public interface KeyProvider {
+        SecretKey keyFor(String keyId) throws IOException;
+    }
+
+    public static void setKeyProvider(KeyProvider provider) {
+        keyProvider = provider;
+    }
+
+    public static int codecThreads() {
+        return CODEC_THREADS;
+    }
+
+    public record WriteResult(long logicalSize, long storedSize) {}
+
+    // Encodes the stream into a brand new container file. Same contract as StreamingFileWriter.write: expectedLength is -1
+    // when unknown, maxLength guards the upload limit and the digest (if any) sees the logical bytes.
+    // keyId is null for an unencrypted container.
+    public static WriteResult write(InputStream source, Path target, long expectedLength, long maxLength, MessageDigest digest, boolean compress,
+                                    String keyId) throws IOException {
+        int blockSize = DEFAULT_BLOCK_SIZE;
+        SecretKey key = keyId != null ? resolveKey(keyId) : null;
+        byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        RANDOM.nextBytes(noncePrefix);
+
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        Deque<Future<EncodedBlock>> pending = new ArrayDeque<>();
+        boolean success = false;
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), WRITE_BUFFER_SIZE)) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.write(HEADER_MAGIC);
+            data.writeByte(VERSION);
+            data.writeByte(key != null ? FLAG_ENCRYPTED : 0);
+            data.writeShort(0);
+            data.writeInt(blockSize);
+            long position = HEADER_SIZE;
+            if (key != null) {
+                byte[] keyIdBytes = keyId.getBytes(StandardCharsets.UTF_8);
+                if (keyIdBytes.length > 255) throw new IOException("Encryption key id is too long.");
+                data.writeByte(keyIdBytes.length);
+                data.write(keyIdBytes);
+                data.write(noncePrefix);
+                position += 1 + keyIdBytes.length + NONCE_PREFIX_SIZE;
+            }
+
+            // A block is handed to the pool once the next read shows whether it is the last one (encrypted
+            // containers authenticate that, so cutting blocks off the end is detected)
+            byte[] held = null;
+            int heldLength = 0;
+            long logicalSize = 0;
+            int blockCount = 0;
+            while (true) {
+                byte[] block = new byte[blockSize];
+                int read = source.readNBytes(block, 0, blockSize);
+
+                if (held != null) {
+                    pending.add(submitEncode(held, heldLength, blockCount++, read == 0, compress, key, noncePrefix));
+                    held = null;
+                }
+                while (pending.size() >= BLOCKS_IN_FLIGHT || (read == 0 && !pending.isEmpty())) {
+                    position = writeBlock(await(pending.poll()), data, index, position);
+                }
+                if (read == 0) break;
+
+                logicalSize += read;
+                if (logicalSize > maxLength) {
+                    throw new FileValidationException("File size exceeds the maximum upload limit.");
+                }
+                if (digest != null) {
+                    digest.update(block, 0, read);
+                }
+                held = block;
+                heldLength = read;
+            }
+
+            if (expectedLength >= 0 && logicalSize != expectedLength) {
+                throw new IOException("Upload incomplete: expected " + expectedLength + " bytes but received " + logicalSize + ".");
+            }
+
+            indexBytes.writeTo(data);
+            data.writeLong(logicalSize);
+            data.writeInt(blockCount);
+            data.writeLong(position);
+            data.write(TRAILER_MAGIC);
+            data.flush();
+
+            success = true;
+            return new WriteResult(logicalSize, position + indexBytes.size() + TRAILER_SIZE);
+        } finally {
+            for (Future<EncodedBlock> future : pending) {
+                future.cancel(true);
+            }
+            if (!success) {
+                Files.deleteIfExists(target);
+            }
+        }
+    }
+
+    // Reader over a container that starts at 'offset' of the channel and is 'length' bytes long (a whole file, or a
+    // slice of a pack file). The reader owns the channel from now on and closes it.
+    public static ContentReader open(FileChannel channel, long offset, long length) throws IOException {
+        try {
+            return new Reader(channel, offset, length);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Sequential stream over a container, decoding the next blocks in parallel while the current one is consumed
+    public static InputStream openStream(FileChannel channel, long offset, long length) throws IOException {
+        Reader reader = (Reader) open(channel, offset, length);
+        return new ParallelBlockStream(reader);
+    }
+
+    // Helper methods
+
+    private record EncodedBlock(byte encoding, byte[] data, int length) {}
+
+    private static Future<EncodedBlock> submitEncode(byte[] block, int length, int blockIndex, boolean last, boolean compress, SecretKey key,
+                                                     byte[] noncePrefix) {
+        return CODEC_POOL.submit(() -> encodeBlock(block, length, blockIndex, last, compress, key, noncePrefix));
+    }
+
+    private static EncodedBlock encodeBlock(byte[] block, int length, int blockIndex, boolean last, boolean compress, SecretKey key,
+                                            byte[] noncePrefix) throws GeneralSecurityException {
+        byte encoding = ENCODING_RAW;
+        byte[] data = block;
+        int dataLength = length;
+
+        if (compress) {
+            // Only a strictly smaller result counts, the output buffer is one byte short of the input for that
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            deflater.setInput(block, 0, length);
+            deflater.finish();
+            byte[] compressed = new byte[Math.max(length - 1, 0)];
+            int compressedLength = deflater.deflate(compressed, 0, compressed.length);
+            if (deflater.finished()) {
+                encoding = ENCODING_DEFLATE;
+                data = compressed;
+                dataLength = compressedLength;
+            }
+        }
+
+        if (key != null) {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, nonce(noncePrefix, blockIndex)));
+            cipher.updateAAD(associatedData(encoding, last));
+            data = cipher.doFinal(data, 0, dataLength);
+            dataLength = data.length;
+        }
+        return new EncodedBlock(encoding, data, dataLength);
+    }
+
+    private static long writeBlock(EncodedBlock block, DataOutputStream data, DataOutputStream index, long position) throws IOException {
+        index.writeLong(position);
+        index.writeInt(block.length());
+        index.writeByte(block.encoding());
+        data.write(block.data(), 0, block.length());
+        return position + block.length();
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a block to be encoded.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            throw new IOException("Block could not be processed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private static byte[] nonce(byte[] prefix, int blockIndex) {
+        return ByteBuffer.allocate(NONCE_PREFIX_SIZE + 4).put(prefix).putInt(blockIndex).array();
+    }
+
+    // The encoding byte and the end of the content are authenticated along with the block data
+    private static byte[] associatedData(byte encoding, boolean last) {
+        return new byte[] { encoding, (byte) (last ? 1 : 0) };
+    }
+
+    private static SecretKey resolveKey(String keyId) throws IOException {
+        KeyProvider provider = keyProvider;
+        if (provider == null) throw new IOException("Encryption keys are not available.");
+        return provider.keyFor(keyId);
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("Block container is truncated.");
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer, byte[] magic) {
+        for (byte b : magic) {
+            if (buffer.get() != b) return false;
+        }
+        return true;
+    }
+
+    private static final class Reader implements ContentReader {
+
+        private final FileChannel channel;
+        private final long base;
+        private final int blockSize;
+        private final long logicalSize;
+        private final long[] offsets;
+        private final int[] lengths;
+        private final byte[] encodings;
+        private final SecretKey key; // Null when not encrypted
+        private final byte[] noncePrefix;
+
+        private int cachedBlock = -1; // Sequential reads hit the same block many times in a row
+        private byte[] cachedData;
+
+        private Reader(FileChannel channel, long base, long length) throws IOException {
+            this.channel = channel;
+            this.base = base;
+
+            if (length < HEADER_SIZE + TRAILER_SIZE) throw new IOException("Block container is truncated.");
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, base);
+            if (!hasMagic(header, HEADER_MAGIC) || header.get() != VERSION) {
+                throw new IOException("Not a block container (or an unsupported version).");
+            }
+            byte flags = header.get();
+            header.getShort();
+            this.blockSize = header.getInt();
+
+            if ((flags & FLAG_ENCRYPTED) != 0) {
+                ByteBuffer keyIdLength = ByteBuffer.allocate(1);
+                readFully(channel, keyIdLength, base + HEADER_SIZE);
+                ByteBuffer keyInfo = ByteBuffer.allocate((keyIdLength.get() & 0xFF) + NONCE_PREFIX_SIZE);
+                readFully(channel, keyInfo, base + HEADER_SIZE + 1);
+                byte[] keyId = new byte[keyInfo.remaining() - NONCE_PREFIX_SIZE];
+                keyInfo.get(keyId);
+                this.noncePrefix = new byte[NONCE_PREFIX_SIZE];
+                keyInfo.get(noncePrefix);
+                this.key = resolveKey(new String(keyId, StandardCharsets.UTF_8));
+            } else {
+                this.key = null;
+                this.noncePrefix = null;
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(channel, trailer, base + length - TRAILER_SIZE);
+            this.logicalSize = trailer.getLong();
+            int blockCount = trailer.getInt();
+            long indexOffset = trailer.getLong();
+            if (!hasMagic(trailer, TRAILER_MAGIC) || blockSize <= 0 || blockCount < 0 || logicalSize > (long) blockCount * blockSize
+                    || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE + TRAILER_SIZE != length) {
+                throw new IOException("Block container trailer is corrupted.");
+            }
+
+            ByteBuffer index = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE);
+            readFully(channel, index, base + indexOffset);
+            this.offsets = new long[blockCount];
+            this.lengths = new int[blockCount];
+            this.encodings = new byte[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+                encodings[i] = index.get();
+            }
+        }
+
+        @Override
+        public long size() {
+            return logicalSize;
+        }
+
+        @Override
+        public int read(long position, ByteBuffer dst) throws IOException {
+            if (position >= logicalSize) return -1;
+            if (!dst.hasRemaining()) return 0;
+
+            int blockIndex = (int) (position / blockSize);
+            if (blockIndex != cachedBlock) {
+                cachedBlock = -1;
+                cachedData = decode(blockIndex);
+                cachedBlock = blockIndex;
+            }
+
+            int inBlock = (int) (position - (long) blockIndex * blockSize);
+            int count = Math.min(dst.remaining(), cachedData.length - inBlock);
+            dst.put(cachedData, inBlock, count);
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private int blockCount() {
+            return offsets.length;
+        }
+
+        // Thread safe: positional reads only, codecs are per thread
+        private byte[] decode(int blockIndex) throws IOException {
+            if (blockIndex >= offsets.length) throw new IOException("Block container index is corrupted.");
+
+            int expected = (int) Math.min(blockSize, logicalSize - (long) blockIndex * blockSize);
+            int stored = lengths[blockIndex];
+            byte encoding = encodings[blockIndex];
+            if (stored < 0 || stored > blockSize + GCM_TAG_SIZE) throw new IOException("Block container index is corrupted.");
+
+            byte[] data = new byte[stored];
+            readFully(channel, ByteBuffer.wrap(data), base + offsets[blockIndex]);
+
+            if (key != null) {
+                try {
+                    Cipher cipher = CIPHERS.get();
+                    cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, nonce(noncePrefix, blockIndex)));
+                    cipher.updateAAD(associatedData(encoding, blockIndex == offsets.length - 1));
+                    data = cipher.doFinal(data);
+                } catch (AEADBadTagException e) {
+                    throw new IOException("Block " + blockIndex + " failed authentication (wrong key, or the data was modified).", e);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Block " + blockIndex + " could not be decrypted: " + e.getMessage(), e);
+                }
+            }
+
+            byte[] plain;
+            if (encoding == ENCODING_RAW) {
+                plain = data;
+            } else if (encoding == ENCODING_DEFLATE) {
+                plain = new byte[expected];
+                Inflater inflater = INFLATERS.get();
+                inflater.reset();
+                inflater.setInput(data);
+                try {
+                    if (inflater.inflate(plain) != expected || !inflater.finished()) {
+                        throw new IOException("Block " + blockIndex + " of the container is corrupted.");
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Block " + blockIndex + " of the container is corrupted.", e);
+                }
+            } else {
+                throw new IOException("Unknown block encoding " + encoding + ".");
+            }
+
+            if (plain.length != expected) throw new IOException("Block " + blockIndex + " of the container is corrupted.");
+            return plain;
+        }
+    }
+
+    // Keeps up to BLOCKS_IN_FLIGHT blocks decoding ahead of the reader
+    private static final class ParallelBlockStream extends InputStream {
+
+        private final Reader reader;
+        private final Deque<Future<byte[]>> ahead = new ArrayDeque<>();
+        private int nextToSubmit; // First block not handed to the pool yet
+        private byte[] current;
+        private int currentOffset;
+        private long position;
+
+        private ParallelBlockStream(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position >= reader.size()) return -1;
+
+            if (current == null || currentOffset >= current.length) {
+                fill();
+            }
+            int count = Math.min(len, current.length - currentOffset);
+            System.arraycopy(current, currentOffset, b, off, count);
+            currentOffset += count;
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(Math.min(n, reader.size() - position), 0);
+            if (skipped == 0) return 0;
+
+            if (current != null && currentOffset + skipped <= current.length) {
+                currentOffset += (int) skipped;
+            } else {
+                // Somewhere further ahead, start decoding from there
+                cancelAhead();
+                current = null;
+                nextToSubmit = (int) ((position + skipped) / reader.blockSize);
+            }
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.length - currentOffset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            cancelAhead();
+            reader.close();
+        }
+
+        private void fill() throws IOException {
+            int blockIndex = (int) (position / reader.blockSize);
+            while (nextToSubmit < reader.blockCount() && ahead.size() < BLOCKS_IN_FLIGHT) {
+                int index = nextToSubmit++;
+                ahead.add(CODEC_POOL.submit(() -> reader.decode(index)));
+            }
+            if (ahead.isEmpty()) throw new IOException("Block container ended before its recorded size.");
+
+            current = await(ahead.poll());
+            currentOffset = (int) (position - (long) blockIndex * reader.blockSize);
+        }
+
+        private void cancelAhead() {
+            for (Future<byte[]> future : ahead) {
+                future.cancel(true);
+            }
+            ahead.clear();
+        }
+    }
+
+    private static final class CodecThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "block-codec-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
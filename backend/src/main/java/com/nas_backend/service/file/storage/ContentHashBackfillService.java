@@ -0,0 +1,79 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.repository.FileNodeRepository;
+import com.nas_backend.service.file.FileIndexService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+// Background hasher: fills in FileNode.contentHash for files that were stored without one
+@Service
+public class ContentHashBackfillService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentHashBackfillService.class);
+
+    private static final int PAGE_SIZE = 100;
+    private static final Duration MAX_RUN_TIME = Duration.ofMinutes(5); // Short slices, so uploads and downloads keep the drives
+
+    private final FileNodeRepository fileNodeRepository;
+    private final FileIndexService fileIndexService;
+    private final ContentStoreService contentStoreService;
+
+    private long lastId; // Where the previous run stopped, starts over when the end is reached
+
+    public ContentHashBackfillService(FileNodeRepository fileNodeRepository, FileIndexService fileIndexService, ContentStoreService contentStoreService) {
+        this.fileNodeRepository = fileNodeRepository;
+        this.fileIndexService = fileIndexService;
+        this.contentStoreService = contentStoreService;
+    }
+
+    @Scheduled(fixedDelay = 10 * 60 * 1000, initialDelay = 2 * 60 * 1000) // Every 10 minutes, first run 2 minutes after startup
+    public void hashMissingFiles() {
+        long deadline = System.nanoTime() + MAX_RUN_TIME.toNanos();
+        int hashedFiles = 0;
+        long hashedBytes = 0;
+
+        try {
+            while (System.nanoTime() < deadline) {
+                List<FileNode> page = fileNodeRepository.findUnhashedFilesAfterId(lastId, PageRequest.of(0, PAGE_SIZE));
+                if (page.isEmpty()) {
+                    lastId = 0;
+                    break;
+                }
+
+                for (FileNode node : page) {
+                    if (System.nanoTime() >= deadline) break;
+                    lastId = node.getId();
+
+                    StoredContent content = StoredContent.of(node);
+                    if (!content.exists()) continue; // Orphans are handled by the garbage collector
+
+                    try {
+                        String contentHash = contentStoreService.hashContent(content);
+                        // Skipped if the node got other data while it was being hashed
+                        if (fileIndexService.updateContentHash(node.getId(), node.getPhysicalPath(), contentHash) > 0) {
+                            hashedFiles++;
+                            hashedBytes += node.getSize();
+                        }
+                    } catch (IOException e) {
+                        logger.warn("Content hash backfill: Failed to hash {}: {}", node.getPhysicalPath(), e.getMessage());
+                    }
+                }
+            }
+
+            if (hashedFiles > 0) {
+                logger.info("Content hash backfill: Hashed {} files ({} MB).", hashedFiles, hashedBytes / (1024 * 1024));
+            }
+        } catch (Exception e) {
+            logger.error("Content hash backfill: Run failed after {} files.", hashedFiles, e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.dto.DeduplicationStatus;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.repository.FileNodeRepository;
+import com.nas_backend.service.system.EmailService;
+import com.nas_backend.service.system.LogService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One-off job that moves files stored before deduplication was enabled into the content store.
+// Files are registered as blobs where they lie, duplicates are repointed to the first copy and deleted.
+@Service
+public class ContentMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentMigrationService.class);
+    private static final int PAGE_SIZE = 200;
+
+    private final FileNodeRepository fileNodeRepository;
+    private final ContentStoreService contentStoreService;
+    private final LogService logService;
+    private final EmailService emailService;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // Written by the job thread only
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile long filesScanned;
+    private volatile long filesAlreadyShared;
+    private volatile long bytesHashed;
+    private volatile long duplicatesRemoved;
+    private volatile long bytesReclaimed;
+    private volatile long errors;
+    private volatile String lastError;
+
+    public ContentMigrationService(FileNodeRepository fileNodeRepository, ContentStoreService contentStoreService, LogService logService,
+                                   EmailService emailService) {
+        this.fileNodeRepository = fileNodeRepository;
+        this.contentStoreService = contentStoreService;
+        this.logService = logService;
+        this.emailService = emailService;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Async // Hashes every file on the drives, can take hours
+    public void deduplicateExistingFiles() {
+        if (!running.compareAndSet(false, true)) {
+            logger.warn("Deduplication: Job is already running, ignoring the request.");
+            return;
+        }
+
+        startedAt = Instant.now();
+        finishedAt = null;
+        filesScanned = 0;
+        filesAlreadyShared = 0;
+        bytesHashed = 0;
+        duplicatesRemoved = 0;
+        bytesReclaimed = 0;
+        errors = 0;
+        lastError = null;
+
+        logger.info("Deduplication: Starting to deduplicate existing files...");
+        logService.logSystemEvent("Deduplication of existing files started.");
+
+        try {
+            // Keyset paging, nodes created or deleted while the job runs do not shift the pages
+            long lastId = 0;
+            List<FileNode> page;
+            while (!(page = fileNodeRepository.findFilesAfterId(lastId, PageRequest.of(0, PAGE_SIZE))).isEmpty()) {
+                for (FileNode node : page) {
+                    lastId = node.getId();
+                    filesScanned++;
+                    try {
+                        deduplicate(node);
+                    } catch (IOException | RuntimeException e) {
+                        errors++;
+                        lastError = node.getPhysicalPath() + ": " + e.getMessage();
+                        logger.error("Deduplication: Failed to process {}", node.getPhysicalPath(), e);
+                    }
+                }
+            }
+
+            String msg = String.format("Deduplication finished: %d files scanned, %d duplicates removed, %d MB reclaimed, %d errors.",
+                    filesScanned, duplicatesRemoved, bytesReclaimed / (1024 * 1024), errors);
+            logger.info(msg);
+            logService.logSystemEvent(msg);
+            emailService.sendSystemSuccessEmail(msg);
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            String errorMsg = "CRITICAL: Deduplication job failed! Error: " + e.getMessage();
+            logger.error(errorMsg, e);
+            logService.logSystemEvent(errorMsg);
+            emailService.sendSystemErrorEmail("The deduplication job failed unexpectedly. \n\n" + "Error: " + e.getMessage(), "System");
+        } finally {
+            finishedAt = Instant.now();
+            running.set(false);
+        }
+    }
+
+    public DeduplicationStatus getStatus() {
+        return new DeduplicationStatus(
+                running.get(),
+                startedAt != null ? startedAt.toString() : "N/A",
+                finishedAt != null ? finishedAt.toString() : "N/A",
+                filesScanned,
+                filesAlreadyShared,
+                bytesHashed,
+                duplicatesRemoved,
+                bytesReclaimed,
+                errors,
+                lastError);
+    }
+
+    // Helper methods
+
+    private void deduplicate(FileNode node) throws IOException {
+        if (contentStoreService.isBlob(node.getPhysicalPath())) {
+            filesAlreadyShared++;
+            return;
+        }
+
+        StoredContent content = StoredContent.of(node);
+        if (!content.exists()) return; // Orphans are handled by the garbage collector
+
+        long size = content.size();
+        long storedSize = content.storedSize();
+        String digest = contentStoreService.hashContent(content);
+        bytesHashed += size;
+
+        // The node switch is committed when this returns, only then the old copy may go
+        String redundantCopy = contentStoreService.deduplicateInPlace(node, digest, size);
+        if (redundantCopy != null) {
+            contentStoreService.discardData(redundantCopy);
+            duplicatesRemoved++;
+            bytesReclaimed += storedSize;
+            logger.info("Deduplication: {} was a duplicate of blob {}, removed it.", redundantCopy, digest);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.nas_backend.service.file.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Random access to the logical content of a stored file, whatever its on-disk encoding
+public interface ContentReader extends Closeable {
+
+    // Logical size in bytes
+    long size();
+
+    // Reads from the given logical position into dst, returns the number of bytes read or -1 at the end.
+    // Like FileChannel.read(dst, position) it may read fewer bytes than dst has room for.
+    int read(long position, ByteBuffer dst) throws IOException;
+}
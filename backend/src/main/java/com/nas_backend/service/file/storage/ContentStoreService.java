@@ -0,0 +1,579 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.exception.ConflictException;
+import com.nas_backend.model.entity.ContentBlob;
+import com.nas_backend.model.entity.FileNode;
+import com.nas_backend.repository.ContentBlobRepository;
+import com.nas_backend.repository.FileNodeRepository;
+import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.FileIndexService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+// Physical side of file content. With deduplication enabled the content is stored once per SHA-256 digest
+// (content-addressed blobs, reference counted), otherwise every file keeps its own physical copy.
+// Small files (blobs or plain) may be appended into pack files instead, their physicalPath then points into the pack.
+// With compression or encryption enabled, new content is stored as block containers (see BlockContainer).
+// New data is always written under a staging name and renamed into place, see DurabilityService.
+// Reference counts are changed by single statements or short transactions, never under a lock in the JVM: callers in
+// a transaction already hold the only DB connection, waiting for a lock there would deadlock with a thread holding the
+// lock while it waits for the connection.
+@Service
+public class ContentStoreService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentStoreService.class);
+
+    private static final String BLOBS_DIR_NAME = ".blobs";
+    private static final String STAGING_DIR_NAME = ".staging";
+    private static final int MAX_STORE_ATTEMPTS = 5; // Another upload of the same content won each time, practically never
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int COMPRESSION_SAMPLE_SIZE = 64 * 1024;
+    private static final long MIN_COMPRESSED_FILE_SIZE = 4 * 1024; // Below that the container overhead eats the gain
+    private static final double MIN_COMPRESSION_GAIN = 0.10; // The sample has to shrink by at least 10%
+
+    private final ContentBlobRepository contentBlobRepository;
+    private final FileNodeRepository fileNodeRepository;
+    private final FileIndexService fileIndexService;
+    private final StreamingFileWriter streamingFileWriter;
+    private final AppConfigService configService;
+    private final FileCloner fileCloner;
+    private final PackStore packStore;
+    private final EncryptionKeyService encryptionKeyService;
+    private final DurabilityService durabilityService;
+    private final BlockCacheService blockCacheService;
+    private final TransactionTemplate transactions; // Joins the caller's transaction if there is one
+
+    public ContentStoreService(ContentBlobRepository contentBlobRepository, FileNodeRepository fileNodeRepository, FileIndexService fileIndexService,
+                               StreamingFileWriter streamingFileWriter, AppConfigService configService, FileCloner fileCloner, PackStore packStore,
+                               EncryptionKeyService encryptionKeyService, DurabilityService durabilityService, BlockCacheService blockCacheService,
+                               PlatformTransactionManager transactionManager) {
+        this.contentBlobRepository = contentBlobRepository;
+        this.fileNodeRepository = fileNodeRepository;
+        this.fileIndexService = fileIndexService;
+        this.streamingFileWriter = streamingFileWriter;
+        this.configService = configService;
+        this.fileCloner = fileCloner;
+        this.packStore = packStore;
+        this.encryptionKeyService = encryptionKeyService;
+        this.durabilityService = durabilityService;
+        this.blockCacheService = blockCacheService;
+        this.transactions = new TransactionTemplate(transactionManager);
+    }
+
+    // Where a file ended up on disk, digest is null when it was not computed on the way (see adopt).
+    // size is the logical size, storedSize what the data takes on disk (they differ for compressed content).
+    public record StoredFile(String physicalPath, long size, String digest, String storageFormat, long storedSize) {
+
+        public StoredFile(String physicalPath, long size, String digest) {
+            this(physicalPath, size, digest, null, size);
+        }
+
+        // Points the node at this data
+        public void applyTo(FileNode node) {
+            node.setPhysicalPath(physicalPath);
+            node.setSize(size);
+            node.setContentHash(digest);
+            node.setStorageFormat(storageFormat);
+            node.setStoredSize(storedSize != size ? storedSize : null);
+        }
+    }
+
+    public boolean isDeduplicationEnabled() {
+        return configService.getConfig().getStorage().isDeduplication();
+    }
+
+    // Writes an incoming stream onto the given drive, hashing it on the way in. Without deduplication the data
+    // lands at plainTarget, with it the data is stored in the blob store (once per digest).
+    // mimeType (may be null) helps to decide whether the content is worth compressing, owner is the user whose key
+    // encrypts it (when encryption is enabled).
+    public StoredFile write(InputStream content, String storagePath, Path plainTarget, long expectedLength, long maxLength, String mimeType,
+                            String owner) throws IOException {
+        MessageDigest digest = newDigest();
+
+        boolean compress = false;
+        if (isCompressionCandidate(mimeType, expectedLength)) {
+            // Look at the beginning of the stream without consuming it
+            BufferedInputStream buffered = new BufferedInputStream(content, COMPRESSION_SAMPLE_SIZE);
+            buffered.mark(COMPRESSION_SAMPLE_SIZE);
+            byte[] sample = buffered.readNBytes(COMPRESSION_SAMPLE_SIZE);
+            buffered.reset();
+            content = buffered;
+            compress = sample.length >= MIN_COMPRESSED_FILE_SIZE && sampleCompresses(sample);
+        }
+
+        Path target = newStagingFile(storagePath);
+
+        String keyId = encryptionKeyId(owner);
+        long size;
+        long storedSize;
+        String format = null;
+        if (compress || keyId != null) {
+            BlockContainer.WriteResult result = BlockContainer.write(content, target, expectedLength, maxLength, digest, compress, keyId);
+            size = result.logicalSize();
+            storedSize = result.storedSize();
+            format = BlockContainer.FORMAT;
+        } else {
+            size = streamingFileWriter.write(content, target, expectedLength, maxLength, digest);
+            storedSize = size;
+        }
+        String contentHash = HexFormat.of().formatHex(digest.digest());
+
+        try {
+            if (!isDeduplicationEnabled()) {
+                return new StoredFile(placeStaged(target, plainTarget, storagePath, storedSize), size, contentHash, format, storedSize);
+            }
+            return storeStaged(target, storagePath, contentHash, size, format, storedSize);
+        } finally {
+            Files.deleteIfExists(target); // Only still there when it could not be placed
+        }
+    }
+
+    // Takes over a complete file that already sits on the drive (e.g. a committed upload session).
+    // Adopted files stay uncompressed, compressing them would mean a second full pass over data that is already written.
+    public StoredFile adopt(Path stagedFile, String storagePath, Path plainTarget, String owner) throws IOException {
+        return adopt(stagedFile, storagePath, plainTarget, null, owner);
+    }
+
+    // Same, for callers that already hashed the staged file while writing it (digest is null when they did not)
+    public StoredFile adopt(Path stagedFile, String storagePath, Path plainTarget, String digest, String owner) throws IOException {
+        long size = Files.size(stagedFile);
+        long storedSize = size;
+        String format = null;
+
+        String keyId = encryptionKeyId(owner);
+        if (keyId != null) {
+            // Plain data must not stay on the drive, here encryption really costs a second pass (hashing comes with it)
+            MessageDigest hash = digest == null ? newDigest() : null;
+            Path encrypted = newStagingFile(storagePath);
+            try (InputStream in = Files.newInputStream(stagedFile)) {
+                storedSize = BlockContainer.write(in, encrypted, size, Long.MAX_VALUE, hash, false, keyId).storedSize();
+            }
+            Files.delete(stagedFile);
+            stagedFile = encrypted;
+            format = BlockContainer.FORMAT;
+            if (hash != null) digest = HexFormat.of().formatHex(hash.digest());
+        }
+
+        if (!isDeduplicationEnabled()) {
+            // Same drive, so this is a cheap rename and not a copy.
+            // An unknown digest is not computed here (the client would wait for a full re-read), the backfill hasher picks it up later.
+            return new StoredFile(placeStaged(stagedFile, plainTarget, storagePath, storedSize), size, digest, format, storedSize);
+        }
+
+        // E.g. chunks arrived out of order, so the digest can only be computed now
+        if (digest == null) digest = hashFile(stagedFile);
+        return storeStaged(stagedFile, storagePath, digest, size, format, storedSize);
+    }
+
+    // Drops one reference to the physical data. Blob data is deleted with its last reference, plain files right away.
+    // Inside a transaction the deletion waits for the commit, so a rollback never leaves a node without its data.
+    public void release(String physicalPath) {
+        if (physicalPath == null || physicalPath.equals("virtual")) return;
+
+        ContentBlob blob = contentBlobRepository.findByPhysicalPath(physicalPath).orElse(null);
+        if (blob == null) {
+            discardData(physicalPath);
+            return;
+        }
+
+        String digest = blob.getDigest();
+        transactions.executeWithoutResult(status -> {
+            if (contentBlobRepository.decrementRefCount(digest) > 0) return;
+            // That was the last reference (nothing else can change the blob inside this transaction)
+            ContentBlob last = contentBlobRepository.findById(digest).orElse(null);
+            if (last == null) return;
+            contentBlobRepository.delete(last);
+            logger.info("Blob {} lost its last reference, removing its data.", digest);
+            discardBlobData(last.getPhysicalPath());
+        });
+    }
+
+    // Content for a copied node. Blobs just get another reference, plain files get a real second copy at plainTarget
+    // (a reflink clone where the filesystem supports it). The data is copied as stored, compressed content stays compressed.
+    // Returns null when the source data is gone.
+    public StoredFile copy(FileNode sourceNode, String storagePath, Path plainTarget) throws IOException {
+        ContentBlob blob = contentBlobRepository.findByPhysicalPath(sourceNode.getPhysicalPath()).orElse(null);
+        if (blob != null) {
+            return addReference(blob);
+        }
+
+        StoredContent source = StoredContent.of(sourceNode.getPhysicalPath());
+        if (!source.exists()) return null;
+        if (source.packed()) {
+            return copyPacked(source, sourceNode, storagePath, plainTarget);
+        }
+
+        Files.createDirectories(plainTarget.getParent());
+        fileCloner.copy(source.file(), plainTarget);
+        long storedSize = storedSizeOf(sourceNode);
+        return new StoredFile(packIfSmall(plainTarget, storagePath, storedSize), sourceNode.getSize(), sourceNode.getContentHash(),
+                sourceNode.getStorageFormat(), storedSize);
+    }
+
+    // Migration step for one existing plain file. It is either registered as a blob where it lies, or, when the
+    // same content is already stored, the node is pointed at that blob. Returns the physicalPath of the now redundant
+    // data (hand it to discardData after this method returned, i.e. after the commit) or null.
+    // One transaction, so the checks and the changes below cannot interleave with another change of the blob.
+    @Transactional
+    public String deduplicateInPlace(FileNode node, String digest, long size) {
+        String physicalPath = node.getPhysicalPath();
+
+        if (contentBlobRepository.existsByPhysicalPath(physicalPath)) return null; // Already handled
+
+        ContentBlob blob = contentBlobRepository.findById(digest).orElse(null);
+
+        if (blob == null) {
+            // First copy of this content. Only register it if the node was not deleted or changed meanwhile.
+            if (!fileNodeRepository.existsByIdAndPhysicalPath(node.getId(), physicalPath)) return null;
+
+            blob = new ContentBlob();
+            blob.setDigest(digest);
+            blob.setPhysicalPath(physicalPath);
+            blob.setSize(size);
+            blob.setStorageFormat(node.getStorageFormat());
+            blob.setStoredSize(node.getStoredSize());
+            blob.setRefCount(1);
+            blob.setCreatedAt(Instant.now());
+            contentBlobRepository.save(blob);
+            fileIndexService.updateContentHash(node.getId(), physicalPath, digest);
+            return null;
+        }
+
+        if (!StoredContent.of(blob.getPhysicalPath()).exists()) {
+            // Other nodes still point at the lost data, leave this file alone instead of mixing them up
+            logger.warn("Blob {} is missing on disk, not deduplicating {} against it.", digest, physicalPath);
+            return null;
+        }
+
+        // Duplicate. Point the node at the existing blob (which may be stored in another format), the old copy becomes redundant.
+        if (fileIndexService.updateStorage(node.getId(), physicalPath, blob.getPhysicalPath(), blob.getStorageFormat(), blob.getStoredSize()) == 0) {
+            return null;
+        }
+        fileIndexService.updateContentHash(node.getId(), blob.getPhysicalPath(), digest);
+
+        contentBlobRepository.incrementRefCount(digest);
+        return physicalPath;
+    }
+
+    // Moves every reference from one physical location to another (pack compaction).
+    // Returns false when nothing referenced the old location anymore, the new one is then unused.
+    @Transactional
+    public boolean relocate(String oldPhysicalPath, String newPhysicalPath) {
+        ContentBlob blob = contentBlobRepository.findByPhysicalPath(oldPhysicalPath).orElse(null);
+        if (blob == null) {
+            return fileIndexService.updateAllPhysicalPaths(oldPhysicalPath, newPhysicalPath) > 0;
+        }
+
+        blob.setPhysicalPath(newPhysicalPath);
+        contentBlobRepository.save(blob);
+        fileIndexService.updateAllPhysicalPaths(oldPhysicalPath, newPhysicalPath);
+        return true;
+    }
+
+    // Removes data nobody references anymore. Pack entries are only marked dead (inside the current transaction),
+    // files are deleted after the commit.
+    public void discardData(String physicalPath) {
+        blockCacheService.invalidate(physicalPath);
+        if (StoredContent.isPacked(physicalPath)) {
+            packStore.free(physicalPath);
+        } else {
+            deleteAfterCommit(Paths.get(physicalPath));
+        }
+    }
+
+    public boolean isBlob(String physicalPath) {
+        return contentBlobRepository.existsByPhysicalPath(physicalPath);
+    }
+
+    // SHA-256 of the logical content, whatever way it is stored
+    public String hashContent(StoredContent content) throws IOException {
+        if (content.isPlainFile()) return hashFile(content.file());
+
+        MessageDigest digest = newDigest();
+        try (InputStream in = content.openStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Reads the whole file once and returns its SHA-256 (hex)
+    public String hashFile(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Helper methods
+
+    private StoredFile addReference(ContentBlob blob) {
+        if (!StoredContent.of(blob.getPhysicalPath()).exists()) return null;
+
+        String digest = blob.getDigest();
+        ContentBlob referenced = transactions.execute(status ->
+                contentBlobRepository.incrementRefCount(digest) > 0 ? contentBlobRepository.findById(digest).orElse(null) : null);
+        return referenced != null ? storedFileOf(referenced) : null;
+    }
+
+    // New content is placed first and registered afterwards. When another upload of the same content registered it in
+    // between, the own copy is dropped again and the existing blob gets the reference.
+    private StoredFile storeStaged(Path stagedFile, String storagePath, String digest, long size, String format, long storedSize) throws IOException {
+        Long blobStoredSize = storedSize != size ? storedSize : null;
+
+        for (int attempt = 0; attempt < MAX_STORE_ATTEMPTS; attempt++) {
+            ContentBlob blob = contentBlobRepository.findById(digest).orElse(null);
+
+            if (blob != null && StoredContent.of(blob.getPhysicalPath()).exists()) {
+                // Content is already stored, keep only the reference
+                ContentBlob referenced = transactions.execute(status ->
+                        contentBlobRepository.incrementRefCount(digest) > 0 ? contentBlobRepository.findById(digest).orElse(null) : null);
+                if (referenced == null) continue; // Lost its last reference just now
+                Files.deleteIfExists(stagedFile);
+                logger.info("Deduplicated upload: content {} ({} bytes) is already stored, {} references now.", digest, size, referenced.getRefCount());
+                return storedFileOf(referenced);
+            }
+
+            // New content, or known content whose data got lost (it is stored anew, the references move there)
+            String lostPath = blob != null ? blob.getPhysicalPath() : null;
+            if (lostPath != null) {
+                logger.warn("Blob {} was missing at {}, storing it again from the new upload.", digest, lostPath);
+            }
+            String blobPath = placeNewBlob(stagedFile, storagePath, digest, storedSize);
+
+            ContentBlob registered;
+            try {
+                registered = transactions.execute(status -> {
+                    ContentBlob current = contentBlobRepository.findById(digest).orElse(null);
+                    if (lostPath == null) {
+                        if (current != null) return null; // Registered by another upload meanwhile
+                        current = new ContentBlob();
+                        current.setDigest(digest);
+                        current.setSize(size);
+                        current.setCreatedAt(Instant.now());
+                        current.setRefCount(1);
+                    } else if (current == null || !current.getPhysicalPath().equals(lostPath)) {
+                        return null; // Restored or gone meanwhile
+                    }
+                    current.setPhysicalPath(blobPath);
+                    current.setStorageFormat(format);
+                    current.setStoredSize(blobStoredSize);
+                    current = contentBlobRepository.save(current);
+                    if (lostPath != null) {
+                        fileIndexService.updateAllStorage(lostPath, blobPath, format, blobStoredSize);
+                        contentBlobRepository.incrementRefCount(digest);
+                    }
+                    return current;
+                });
+            } catch (RuntimeException e) {
+                discardData(blobPath); // Nobody knows about this data
+                throw e;
+            }
+            if (registered != null) {
+                if (lostPath != null) blockCacheService.invalidate(lostPath);
+                return storedFileOf(registered);
+            }
+
+            // Another upload of the same content was faster, drop this copy and reference theirs. Both may have been
+            // renamed to the same ab/cd/<digest> path, that file is theirs now.
+            String winnerPath = contentBlobRepository.findById(digest).map(ContentBlob::getPhysicalPath).orElse(null);
+            if (!blobPath.equals(winnerPath)) discardData(blobPath);
+        }
+        throw new ConflictException("Content " + digest + " kept changing while it was stored, try again.");
+    }
+
+    private String placeNewBlob(Path stagedFile, String storagePath, String digest, long storedSize) throws IOException {
+        // ab/cd/<digest>, so no directory ever holds more than a few thousand blobs
+        Path blobPath = Paths.get(storagePath, BLOBS_DIR_NAME, digest.substring(0, 2), digest.substring(2, 4), digest);
+        return placeStaged(stagedFile, blobPath, storagePath, storedSize);
+    }
+
+    // Moves a finished staging file to its final place: into the drive's pack file when it is small, renamed to target otherwise
+    private String placeStaged(Path stagedFile, Path target, String storagePath, long storedSize) throws IOException {
+        if (packStore.shouldPack(storedSize)) {
+            return packIfSmall(stagedFile, storagePath, storedSize);
+        }
+        durabilityService.moveIntoPlace(stagedFile, target, false);
+        return target.toString();
+    }
+
+    // Moves a freshly written small file into the drive's pack file and returns the resulting physicalPath
+    // (the file's own path when it stays a file of its own)
+    private String packIfSmall(Path file, String storagePath, long size) throws IOException {
+        if (!packStore.shouldPack(size)) return file.toString();
+
+        String packedPath = packStore.append(storagePath, file, size);
+        Files.delete(file);
+        return packedPath;
+    }
+
+    // Copies the stored bytes of a pack entry (source is the raw slice), the encoding stays the same
+    private StoredFile copyPacked(StoredContent source, FileNode sourceNode, String storagePath, Path plainTarget) throws IOException {
+        String physicalPath;
+        if (packStore.shouldPack(source.length())) {
+            try (InputStream in = source.openStream()) {
+                physicalPath = packStore.append(storagePath, in, source.length());
+            }
+        } else {
+            // Packing was switched off (or the threshold lowered) since, the copy becomes a file of its own
+            Files.createDirectories(plainTarget.getParent());
+            try (InputStream in = source.openStream()) {
+                Files.copy(in, plainTarget);
+            }
+            physicalPath = plainTarget.toString();
+        }
+        return new StoredFile(physicalPath, sourceNode.getSize(), sourceNode.getContentHash(), sourceNode.getStorageFormat(), source.length());
+    }
+
+    private StoredFile storedFileOf(ContentBlob blob) {
+        long storedSize = blob.getStoredSize() != null ? blob.getStoredSize() : blob.getSize();
+        return new StoredFile(blob.getPhysicalPath(), blob.getSize(), blob.getDigest(), blob.getStorageFormat(), storedSize);
+    }
+
+    private static long storedSizeOf(FileNode node) {
+        return node.getStoredSize() != null ? node.getStoredSize() : node.getSize();
+    }
+
+    // Null when new content is stored unencrypted
+    private String encryptionKeyId(String owner) {
+        return encryptionKeyService.isEncryptionEnabled() ? owner : null;
+    }
+
+    private boolean isCompressionCandidate(String mimeType, long expectedLength) {
+        if (!configService.getConfig().getStorage().isCompression()) return false;
+        if (expectedLength >= 0 && expectedLength < MIN_COMPRESSED_FILE_SIZE) return false;
+        // Compressed formats would fail the sample check anyway, but that costs a deflate run. Unknown types: the sample decides.
+        return !ContentTypes.isCompressed(mimeType, null);
+    }
+
+    // Quick check on the first bytes, at the speed level the container itself uses
+    private static boolean sampleCompresses(byte[] sample) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            int limit = (int) (sample.length * (1 - MIN_COMPRESSION_GAIN));
+            byte[] output = new byte[limit];
+            deflater.deflate(output, 0, limit);
+            return deflater.finished();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private Path newStagingFile(String storagePath) throws IOException {
+        Path stagingDir = Paths.get(storagePath, STAGING_DIR_NAME);
+        Files.createDirectories(stagingDir);
+        return stagingDir.resolve(UUID.randomUUID() + ".upload");
+    }
+
+    private void deleteAfterCommit(Path file) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deleteQuietly(file);
+                }
+            });
+        } else {
+            deleteQuietly(file);
+        }
+    }
+
+    // Blob files sit at a path that follows from the digest, and once the row is gone the same content may be stored
+    // there again by the next upload. So the file leaves that path right away, in the transaction that deletes the row
+    // (no upload can register the digest before it commits), and only the moved-away file is deleted after the commit.
+    // A rollback moves it back.
+    private void discardBlobData(String physicalPath) {
+        if (StoredContent.isPacked(physicalPath)) {
+            discardData(physicalPath);
+            return;
+        }
+        blockCacheService.invalidate(physicalPath);
+
+        Path file = Paths.get(physicalPath);
+        Path tombstone = file.resolveSibling(file.getFileName() + ".deleted-" + UUID.randomUUID());
+        try {
+            Files.move(file, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return; // Already gone
+        } catch (IOException e) {
+            // Left where it is, a later upload of the same content simply takes the file over
+            logger.error("Failed to move away blob data {}, it stays on disk.", file, e);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    deleteQuietly(tombstone);
+                    return;
+                }
+                try {
+                    if (Files.exists(file)) {
+                        Files.delete(tombstone); // Same content was stored there meanwhile
+                    } else {
+                        Files.move(tombstone, file, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (IOException e) {
+                    logger.error("Failed to restore blob data {} after a rollback.", file, e);
+                }
+            }
+        });
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            if (!Files.deleteIfExists(file)) {
+                logger.warn("Tried to delete physical file, but it was already gone: {}", file);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to delete physical file: {}", file, e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.nas_backend.service.file.storage;
+
+import java.util.Set;
+
+// What a file's type tells about its content, without looking at the bytes
+public final class ContentTypes {
+
+    // Formats that are compressed already, another deflate pass only costs CPU
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/vnd.rar", "application/x-bzip2", "application/x-xz", "application/zstd", "application/pdf", "application/epub+zip",
+            "application/java-archive", "application/vnd.android.package-archive");
+
+    // For files stored without a (useful) MIME type
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif", "jxl",
+            "mp4", "m4v", "mov", "mkv", "avi", "webm", "wmv", "3gp", "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "zip", "gz", "tgz", "7z", "rar", "bz2", "xz", "zst", "jar", "apk", "pdf", "epub",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp");
+
+    // Text formats that shrink a lot under gzip (worth compressing on the way to the client)
+    private static final Set<String> TEXTUAL_TYPES = Set.of(
+            "application/json", "application/x-ndjson", "application/xml", "application/javascript", "application/x-javascript",
+            "application/yaml", "application/x-yaml", "application/sql", "application/x-sh", "application/csv", "application/x-tex",
+            "application/rtf", "application/x-subrip", "image/svg+xml", "image/bmp", "image/x-ms-bmp");
+
+    private static final Set<String> TEXTUAL_EXTENSIONS = Set.of(
+            "txt", "csv", "tsv", "log", "json", "ndjson", "xml", "yaml", "yml", "md", "html", "htm", "css", "js", "sql", "svg",
+            "ini", "conf", "cfg", "srt", "vtt", "tex", "rtf", "sh", "py", "java", "c", "h", "cpp", "ts", "bmp");
+
+    private static final String GENERIC_TYPE = "application/octet-stream";
+
+    private ContentTypes() {}
+
+    // True when the data is compressed by its format, by MIME type or else by the file name's extension (both may be null)
+    public static boolean isCompressed(String mimeType, String fileName) {
+        String type = baseType(mimeType);
+        if (type.isEmpty() || type.equals(GENERIC_TYPE)) {
+            if (fileName == null) return false; // Unknown
+            int dot = fileName.lastIndexOf('.');
+            return dot >= 0 && COMPRESSED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase());
+        }
+
+        // Media formats are compressed by their codecs (SVG is text)
+        if (type.startsWith("image/")) return !type.equals("image/svg+xml") && !type.equals("image/bmp") && !type.equals("image/x-ms-bmp");
+        if (type.startsWith("video/") || type.startsWith("audio/")) return true;
+        return COMPRESSED_TYPES.contains(type) || type.startsWith("application/vnd.openxmlformats-officedocument.");
+    }
+
+    // True for text and other formats known to compress well, by MIME type or else by extension. Unknown binary data is
+    // not guessed at, it may well be compressed already.
+    public static boolean isTextual(String mimeType, String fileName) {
+        String type = baseType(mimeType);
+        if (type.isEmpty() || type.equals(GENERIC_TYPE)) {
+            if (fileName == null) return false;
+            int dot = fileName.lastIndexOf('.');
+            return dot >= 0 && TEXTUAL_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase());
+        }
+        return type.startsWith("text/") || TEXTUAL_TYPES.contains(type) || type.endsWith("+json") || type.endsWith("+xml");
+    }
+
+    // Lower case, without parameters (e.g. "; charset=utf-8"), empty for null
+    private static String baseType(String mimeType) {
+        String type = mimeType != null ? mimeType.toLowerCase() : "";
+        int parameters = type.indexOf(';');
+        return parameters >= 0 ? type.substring(0, parameters).trim() : type;
+    }
+}
@@ -0,0 +1,287 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.config.StorageConfig;
+import com.nas_backend.model.dto.DurabilityStats;
+import com.nas_backend.repository.UploadSessionRepository;
+import com.nas_backend.service.AppConfigService;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// How new content reaches the disk. Everything is written under a staging name first and renamed into place
+// (same drive, atomic), so other readers never see a half-written file under a final name. What survives a power
+// loss depends on storage.durability:
+//   fast      no fsync at all, the OS writes the data back whenever it likes
+//   balanced  renamed files (and their folders) are fsynced together every durabilityGroupMs. The rename comes first,
+//             so a power loss within that window may leave a final name with missing or partial data.
+//   strict    the file is fsynced before the rename and its folder after it, all before the upload returns (i.e.
+//             before its DB commit): only this mode rules out a half-written file under a final name after a crash
+// Staging files a crash left behind are removed at startup.
+@Service
+public class DurabilityService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DurabilityService.class);
+
+    public static final String FAST = "fast";
+    public static final String BALANCED = "balanced";
+    public static final String STRICT = "strict";
+
+    private static final String STAGING_DIR_NAME = ".staging";
+    private static final String UPLOAD_SESSION_SUFFIX = ".part"; // Resumable uploads, owned by UploadSessionService
+    private static final int DEFAULT_GROUP_INTERVAL_MS = 200;
+
+    private final AppConfigService configService;
+    private final UploadSessionRepository uploadSessionRepository;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "durability-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Waiting for the next group fsync (balanced mode)
+    private final Object groupLock = new Object();
+    private Set<Path> pendingFiles = new LinkedHashSet<>();
+    private Set<Path> pendingDirectories = new LinkedHashSet<>();
+    private boolean flushScheduled;
+
+    // Metrics
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong fsyncNanos = new AtomicLong();
+    private final AtomicLong maxFsyncNanos = new AtomicLong();
+    private final AtomicLong groupFlushes = new AtomicLong();
+    private final AtomicLong groupedFiles = new AtomicLong();
+    private final AtomicLong strictCommits = new AtomicLong();
+    private final AtomicLong strictCommitNanos = new AtomicLong();
+    private volatile long stagingFilesSwept;
+    private volatile long stagingBytesSwept;
+    private volatile boolean directorySyncSupported = true;
+
+    public DurabilityService(AppConfigService configService, UploadSessionRepository uploadSessionRepository) {
+        this.configService = configService;
+        this.uploadSessionRepository = uploadSessionRepository;
+    }
+
+    public String mode() {
+        String mode = configService.getConfig().getStorage().getDurability();
+        if (FAST.equalsIgnoreCase(mode)) return FAST;
+        if (STRICT.equalsIgnoreCase(mode)) return STRICT;
+        return BALANCED; // Default, also for unknown values
+    }
+
+    // Renames a completely written staging file to its final path (same drive) with the guarantees of the current mode.
+    // replace is only for putting lost data back where existing nodes expect it.
+    public void moveIntoPlace(Path stagedFile, Path target, boolean replace) throws IOException {
+        String mode = mode();
+        long start = System.nanoTime();
+
+        if (mode.equals(STRICT)) {
+            force(stagedFile);
+        }
+
+        Files.createDirectories(target.getParent());
+        if (replace) {
+            Files.move(stagedFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.move(stagedFile, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        if (mode.equals(STRICT)) {
+            forceDirectory(target.getParent());
+            strictCommits.incrementAndGet();
+            strictCommitNanos.addAndGet(System.nanoTime() - start);
+        } else if (mode.equals(BALANCED)) {
+            enqueue(target, target.getParent());
+        }
+    }
+
+    // Same guarantees for data appended to an existing file in place (pack files)
+    public void sync(Path file) throws IOException {
+        String mode = mode();
+        if (mode.equals(STRICT)) {
+            long start = System.nanoTime();
+            force(file);
+            strictCommits.incrementAndGet();
+            strictCommitNanos.addAndGet(System.nanoTime() - start);
+        } else if (mode.equals(BALANCED)) {
+            enqueue(file, null);
+        }
+    }
+
+    public DurabilityStats getStats() {
+        long syncCount = fsyncs.get();
+        long commits = strictCommits.get();
+        int pending;
+        synchronized (groupLock) {
+            pending = pendingFiles.size();
+        }
+        return new DurabilityStats(
+                mode(),
+                groupIntervalMs(),
+                syncCount,
+                syncCount > 0 ? fsyncNanos.get() / 1e6 / syncCount : 0,
+                maxFsyncNanos.get() / 1e6,
+                groupFlushes.get(),
+                groupedFiles.get(),
+                pending,
+                commits,
+                commits > 0 ? strictCommitNanos.get() / 1e6 / commits : 0,
+                stagingFilesSwept,
+                stagingBytesSwept);
+    }
+
+    // Removes staging files of writes that were interrupted by a crash or restart. Only files older than this process
+    // are touched, and resumable upload sessions keep theirs (they expire on their own).
+    @EventListener(ApplicationReadyEvent.class)
+    public void sweepStaging() {
+        List<String> drives = configService.getConfig().getStorage().getPaths();
+        if (drives == null) return;
+
+        Instant processStart = Instant.ofEpochMilli(ManagementFactory.getRuntimeMXBean().getStartTime());
+        long files = 0;
+        long bytes = 0;
+
+        for (String drive : drives) {
+            Path stagingDir = Paths.get(drive, STAGING_DIR_NAME);
+            if (!Files.isDirectory(stagingDir)) continue;
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(stagingDir)) {
+                for (Path entry : entries) {
+                    try {
+                        if (!Files.isRegularFile(entry)) continue;
+                        if (!Files.getLastModifiedTime(entry).toInstant().isBefore(processStart)) continue;
+                        if (entry.getFileName().toString().endsWith(UPLOAD_SESSION_SUFFIX)
+                                && uploadSessionRepository.existsByStagingPath(entry.toString())) continue;
+
+                        long size = Files.size(entry);
+                        Files.delete(entry);
+                        files++;
+                        bytes += size;
+                    } catch (NoSuchFileException e) {
+                        // Gone in the meantime
+                    } catch (IOException e) {
+                        logger.warn("Staging sweep: Could not remove {}: {}", entry, e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Staging sweep: Failed to list {}", stagingDir, e);
+            }
+        }
+
+        stagingFilesSwept = files;
+        stagingBytesSwept = bytes;
+        if (files > 0) {
+            logger.warn("Staging sweep: Removed {} leftover staging files ({} MB) of interrupted writes.", files, bytes / (1024 * 1024));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushGroup(); // Whatever is still waiting goes to disk before the process ends
+        flusher.shutdownNow();
+    }
+
+    // Helper methods
+
+    private void enqueue(Path file, Path directory) {
+        synchronized (groupLock) {
+            pendingFiles.add(file);
+            if (directory != null) pendingDirectories.add(directory);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flusher.schedule(this::flushGroup, groupIntervalMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flushGroup() {
+        Set<Path> files;
+        Set<Path> directories;
+        synchronized (groupLock) {
+            files = pendingFiles;
+            directories = pendingDirectories;
+            pendingFiles = new LinkedHashSet<>();
+            pendingDirectories = new LinkedHashSet<>();
+            flushScheduled = false;
+        }
+        if (files.isEmpty() && directories.isEmpty()) return;
+
+        // Data first, then the folder entries that point at it
+        for (Path file : files) {
+            try {
+                force(file);
+            } catch (NoSuchFileException e) {
+                // Deleted before its turn came, nothing to keep
+            } catch (IOException e) {
+                logger.error("Group fsync of {} failed.", file, e);
+            }
+        }
+        for (Path directory : directories) {
+            try {
+                forceDirectory(directory);
+            } catch (IOException e) {
+                logger.error("Group fsync of folder {} failed.", directory, e);
+            }
+        }
+        groupFlushes.incrementAndGet();
+        groupedFiles.addAndGet(files.size());
+    }
+
+    private void force(Path file) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        record(System.nanoTime() - start);
+    }
+
+    private void forceDirectory(Path directory) throws IOException {
+        if (!directorySyncSupported) return;
+
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!Files.isDirectory(directory)) throw e;
+            // Windows cannot open folders as files, the rename is all we get there
+            logger.warn("Folder fsync is not supported on this system ({}), disabling it.", e.getMessage());
+            directorySyncSupported = false;
+            return;
+        }
+        record(System.nanoTime() - start);
+    }
+
+    private void record(long nanos) {
+        fsyncs.incrementAndGet();
+        fsyncNanos.addAndGet(nanos);
+        maxFsyncNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private long groupIntervalMs() {
+        StorageConfig storage = configService.getConfig().getStorage();
+        return storage.getDurabilityGroupMs() > 0 ? storage.getDurabilityGroupMs() : DEFAULT_GROUP_INTERVAL_MS;
+    }
+}
@@ -0,0 +1,146 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.service.AppConfigService;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keys for encryption at rest. One master key lives next to config.json (never on the storage drives, so a drive
+// that leaves the house is unreadable on its own), every user gets a key derived from it (HMAC-SHA256 of the user name).
+@Service
+public class EncryptionKeyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EncryptionKeyService.class);
+
+    private static final String CONFIG_DIR = "config";
+    private static final String KEY_FILE_NAME = "encryption.key";
+    private static final int KEY_SIZE = 32; // AES-256
+
+    // Key ids starting with '~' are no user names, they get a throwaway key that lives as long as the process
+    public static final String BENCHMARK_KEY_ID = "~benchmark";
+
+    private final AppConfigService configService;
+    private final Map<String, SecretKey> userKeys = new ConcurrentHashMap<>();
+    private volatile byte[] masterKey;
+
+    public EncryptionKeyService(AppConfigService configService) {
+        this.configService = configService;
+    }
+
+    // Handed to the containers only once this bean is fully built, and taken back on shutdown
+    @PostConstruct
+    public void registerKeyProvider() {
+        BlockContainer.setKeyProvider(this::keyFor);
+    }
+
+    @PreDestroy
+    public void unregisterKeyProvider() {
+        BlockContainer.setKeyProvider(null);
+    }
+
+    public boolean isEncryptionEnabled() {
+        return configService.getConfig().getStorage().isEncryption();
+    }
+
+    // Key for the given key id (the owner's user name), the master key is created with the first encrypted file
+    public SecretKey keyFor(String keyId) throws IOException {
+        SecretKey key = userKeys.get(keyId);
+        if (key != null) return key;
+
+        if (keyId.startsWith("~")) {
+            byte[] ephemeral = new byte[KEY_SIZE];
+            new SecureRandom().nextBytes(ephemeral);
+            return userKeys.computeIfAbsent(keyId, id -> new SecretKeySpec(ephemeral, "AES"));
+        }
+
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(masterKey(), "HmacSHA256"));
+            key = new SecretKeySpec(mac.doFinal(("file-key:" + keyId).getBytes(StandardCharsets.UTF_8)), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not derive the encryption key for '" + keyId + "'.", e);
+        }
+        userKeys.put(keyId, key);
+        return key;
+    }
+
+    // Helper methods
+
+    private synchronized byte[] masterKey() throws IOException {
+        if (masterKey != null) return masterKey;
+
+        Path keyFile = Paths.get(System.getProperty("APP_ROOT_PATH"), CONFIG_DIR, KEY_FILE_NAME);
+        if (Files.exists(keyFile)) {
+            byte[] key = Base64.getDecoder().decode(Files.readString(keyFile).trim());
+            if (key.length != KEY_SIZE) throw new IOException("Encryption key file " + keyFile + " is damaged.");
+            masterKey = key;
+            return masterKey;
+        }
+        if (!isEncryptionEnabled()) {
+            // Reading old encrypted files with encryption switched off, a fresh key would not open them anyway
+            throw new IOException("Encryption key file " + keyFile + " is missing, encrypted files cannot be read.");
+        }
+
+        byte[] key = new byte[KEY_SIZE];
+        new SecureRandom().nextBytes(key);
+        Files.createDirectories(keyFile.getParent());
+        writeKeyFile(keyFile, Base64.getEncoder().encodeToString(key));
+        logger.warn("Created a new encryption master key at {}. Back it up somewhere safe, encrypted files cannot be read without it.", keyFile);
+        masterKey = key;
+        return masterKey;
+    }
+
+    // Every encrypted block depends on this file, so it is written under a temporary name that only the owner can open
+    // (from the first byte on), forced to disk and renamed into place: a crash leaves no key file or a complete one
+    private void writeKeyFile(Path keyFile, String content) throws IOException {
+        Path temp = keyFile.resolveSibling(KEY_FILE_NAME + ".tmp");
+        Files.deleteIfExists(temp); // Left behind by a crash, that key was never used
+
+        FileAttribute<?>[] attributes = new FileAttribute<?>[0];
+        if (keyFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            attributes = new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) };
+        } else {
+            logger.warn("Could not restrict access to {}, the filesystem has no POSIX permissions.", keyFile);
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), attributes)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, keyFile, StandardCopyOption.ATOMIC_MOVE);
+
+        try (FileChannel directory = FileChannel.open(keyFile.getParent(), StandardOpenOption.READ)) {
+            directory.force(true); // The rename itself
+        } catch (IOException e) {
+            // Windows cannot open folders as files, the rename is all we get there
+            logger.debug("Could not fsync folder {}: {}", keyFile.getParent(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.service.system.ShellService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Makes a real second copy of a physical file without pulling the data through the JVM:
+// a reflink clone (shared extents, copy-on-write) where the filesystem supports it, otherwise a kernel side copy
+@Service
+public class FileCloner {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileCloner.class);
+    private static final long REFLINK_MIN_SIZE = 1024 * 1024; // Spawning 'cp' costs more than copying a small file
+
+    private final ShellService shellService;
+    private final boolean isLinux = System.getProperty("os.name").toLowerCase().contains("linux");
+
+    // Filesystem -> whether 'cp --reflink=always' worked on it (ext4 cannot, btrfs and XFS can)
+    private final Map<String, Boolean> reflinkSupport = new ConcurrentHashMap<>();
+
+    public FileCloner(ShellService shellService) {
+        this.shellService = shellService;
+    }
+
+    // Copies source to the (not yet existing) target, returns true when it was cloned instead of copied
+    public boolean copy(Path source, Path target) throws IOException {
+        if (tryReflink(source, target)) {
+            return true;
+        }
+
+        boolean success = false;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            // File to file transferTo stays in the kernel (copy_file_range/sendfile on Linux)
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) break;
+                position += transferred;
+            }
+            if (position != size) {
+                throw new IOException("Copy of " + source + " incomplete: " + position + " of " + size + " bytes.");
+            }
+            success = true;
+        } finally {
+            if (!success) Files.deleteIfExists(target);
+        }
+        return false;
+    }
+
+    // Helper methods
+
+    private boolean tryReflink(Path source, Path target) throws IOException {
+        if (!isLinux || Files.size(source) < REFLINK_MIN_SIZE) return false;
+
+        // Clones only work inside one filesystem
+        FileStore store = Files.getFileStore(source);
+        if (!store.equals(Files.getFileStore(target.getParent()))) return false;
+
+        String storeKey = store.name() + ":" + store.type();
+        if (Boolean.FALSE.equals(reflinkSupport.get(storeKey))) return false;
+
+        String result = shellService.executeCommand(List.of("cp", "--reflink=always", "--", source.toString(), target.toString()));
+        if (result != null) {
+            if (reflinkSupport.put(storeKey, true) == null) {
+                logger.info("Reflink clones are supported on {} ({}), copies there share their data.", store.name(), store.type());
+            }
+            return true;
+        }
+
+        Files.deleteIfExists(target); // 'cp' may leave an empty file behind
+        if (reflinkSupport.put(storeKey, false) == null) {
+            logger.info("Reflink clones are not supported on {} ({}), copying the data instead.", store.name(), store.type());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.entity.PackFile;
+import com.nas_backend.repository.ContentBlobRepository;
+import com.nas_backend.repository.FileNodeRepository;
+import com.nas_backend.repository.PackFileRepository;
+import com.nas_backend.service.file.FileIndexService;
+import com.nas_backend.service.system.LogService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Reclaims the space of deleted pack entries: live entries of mostly dead packs are copied into the drive's
+// open pack, the references are moved over and the old pack is deleted
+@Service
+public class PackCompactionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackCompactionService.class);
+    private static final double MAX_LIVE_RATIO = 0.5; // Packs with less live data than this are rewritten
+
+    private final PackFileRepository packFileRepository;
+    private final FileNodeRepository fileNodeRepository;
+    private final ContentBlobRepository contentBlobRepository;
+    private final ContentStoreService contentStoreService;
+    private final PackStore packStore;
+    private final FileIndexService fileIndexService;
+    private final LogService logService;
+
+    public PackCompactionService(PackFileRepository packFileRepository, FileNodeRepository fileNodeRepository, ContentBlobRepository contentBlobRepository,
+                                 ContentStoreService contentStoreService, PackStore packStore, FileIndexService fileIndexService, LogService logService) {
+        this.packFileRepository = packFileRepository;
+        this.fileNodeRepository = fileNodeRepository;
+        this.contentBlobRepository = contentBlobRepository;
+        this.contentStoreService = contentStoreService;
+        this.packStore = packStore;
+        this.fileIndexService = fileIndexService;
+        this.logService = logService;
+    }
+
+    @Scheduled(cron = "0 20 3 * * ?") // 3:20 AM daily, after the garbage collector emptied the trash
+    public void compactPacks() {
+        try {
+            List<PackFile> candidates = packFileRepository.findBySealedTrue().stream()
+                    .filter(pack -> pack.getLiveBytes() < pack.getSize() * MAX_LIVE_RATIO)
+                    .toList();
+
+            if (candidates.isEmpty()) {
+                logger.info("Pack compaction: No pack files worth compacting. Job done.");
+                return;
+            }
+
+            int compactedPacks = 0;
+            long reclaimedBytes = 0;
+            for (PackFile pack : candidates) {
+                long reclaimed = compact(pack);
+                if (reclaimed >= 0) {
+                    compactedPacks++;
+                    reclaimedBytes += reclaimed;
+                }
+            }
+
+            fileIndexService.backupIndex();
+
+            String msg = "Pack compaction: Rewrote " + compactedPacks + " pack files, reclaimed " + reclaimedBytes / (1024 * 1024) + " MB.";
+            logger.info(msg);
+            logService.logSystemEvent(msg);
+        } catch (Exception e) {
+            String errorMsg = "CRITICAL: Pack compaction failed! Error: " + e.getMessage();
+            logger.error(errorMsg, e);
+            logService.logSystemEvent(errorMsg);
+        }
+    }
+
+    // Helper methods
+
+    // Returns the reclaimed bytes, or -1 when the pack had to stay
+    private long compact(PackFile pack) throws IOException {
+        String prefix = pack.getPhysicalPath() + "#";
+        Set<String> entries = referencedEntries(prefix);
+
+        long movedBytes = 0;
+        for (String oldPath : entries) {
+            StoredContent content = StoredContent.of(oldPath);
+            String newPath;
+            try (InputStream in = content.openStream()) {
+                newPath = packStore.append(pack.getStoragePath(), in, content.length());
+            }
+
+            if (contentStoreService.relocate(oldPath, newPath)) {
+                movedBytes += content.length();
+            } else {
+                packStore.free(newPath); // Deleted while it was being copied
+            }
+        }
+
+        // Something pointed into the pack while it was being compacted, it stays until the next run
+        if (!referencedEntries(prefix).isEmpty()) {
+            logger.warn("Pack compaction: {} got new references during compaction, keeping it.", pack.getPhysicalPath());
+            return -1;
+        }
+
+        packStore.delete(pack);
+        logger.info("Pack compaction: {} removed, {} live entries ({} bytes) moved.", pack.getPhysicalPath(), entries.size(), movedBytes);
+        return pack.getSize() - movedBytes;
+    }
+
+    private Set<String> referencedEntries(String prefix) {
+        Set<String> entries = new LinkedHashSet<>();
+        entries.addAll(fileNodeRepository.findPhysicalPathsStartingWith(prefix));
+        entries.addAll(contentBlobRepository.findPhysicalPathsStartingWith(prefix));
+        entries.removeIf(path -> !path.startsWith(prefix) || !StoredContent.isPacked(path)); // LIKE also treats '_' as a wildcard
+        return entries;
+    }
+}
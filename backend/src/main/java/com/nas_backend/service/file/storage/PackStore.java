@@ -0,0 +1,200 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.config.StorageConfig;
+import com.nas_backend.model.entity.PackFile;
+import com.nas_backend.repository.PackFileRepository;
+import com.nas_backend.service.AppConfigService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only pack files for small files: one open pack per drive, entries are written back to back.
+// Freed entries only lower the live byte count, PackCompactionService rewrites packs that are mostly dead.
+@Service
+public class PackStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackStore.class);
+
+    private static final String PACKS_DIR_NAME = ".packs";
+    private static final int DEFAULT_THRESHOLD_KB = 64;
+    private static final int DEFAULT_PACK_FILE_SIZE_MB = 1024;
+
+    private final PackFileRepository packFileRepository;
+    private final AppConfigService configService;
+    private final DurabilityService durabilityService;
+    private final BlockCacheService blockCacheService;
+
+    // Where the next entry of each drive goes. The lock only guards these few fields and is never held around a DB call:
+    // callers of free() and append() may already hold the only DB connection, waiting for this lock there would
+    // deadlock with a thread holding the lock and waiting for the connection.
+    private static final class Drive {
+        Long packId; // Open pack, null until loaded or after it filled up
+        Path packPath;
+        long end; // Next free offset, entries up to here are reserved (written or still being written)
+        long retiredId; // Packs up to this id were used and left, their DB size may still lag behind the reservations
+    }
+
+    private record Reservation(Long packId, Path packPath, long offset, boolean last) {}
+
+    private final Map<String, Drive> drives = new ConcurrentHashMap<>();
+
+    public PackStore(PackFileRepository packFileRepository, AppConfigService configService, DurabilityService durabilityService,
+                     BlockCacheService blockCacheService) {
+        this.packFileRepository = packFileRepository;
+        this.configService = configService;
+        this.durabilityService = durabilityService;
+        this.blockCacheService = blockCacheService;
+    }
+
+    // Whether a file of this size should go into a pack
+    public boolean shouldPack(long size) {
+        StorageConfig storage = configService.getConfig().getStorage();
+        if (!storage.isPackSmallFiles()) return false;
+
+        int thresholdKB = storage.getPackThresholdKB() > 0 ? storage.getPackThresholdKB() : DEFAULT_THRESHOLD_KB;
+        return size <= thresholdKB * 1024L;
+    }
+
+    // Appends exactly length bytes to the open pack of the drive and returns the physicalPath of the new entry.
+    // The offset is reserved first, so appends to one drive write side by side and are recorded in any order.
+    public String append(String storagePath, InputStream source, long length) throws IOException {
+        Reservation reservation = reserve(storagePath, length);
+        Path packPath = reservation.packPath();
+        long offset = reservation.offset();
+
+        try (FileChannel out = FileChannel.open(packPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Written past the recorded size, a tail left behind by a crash before the DB update is simply overwritten
+            ReadableByteChannel in = Channels.newChannel(source);
+            long written = 0;
+            while (written < length) {
+                long transferred = out.transferFrom(in, offset + written, length - written);
+                if (transferred <= 0) break;
+                written += transferred;
+            }
+            if (written != length) {
+                throw new IOException("Source ended after " + written + " of " + length + " bytes while packing.");
+            }
+        }
+        durabilityService.sync(packPath); // Before the entry is recorded
+
+        packFileRepository.recordAppend(reservation.packId(), offset + length, length);
+        if (reservation.last()) {
+            packFileRepository.seal(reservation.packId());
+            logger.info("Pack file {} is full ({} bytes), sealed it.", packPath, offset + length);
+        }
+        return StoredContent.locator(packPath, offset, length);
+    }
+
+    public String append(String storagePath, Path file, long length) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return append(storagePath, in, length);
+        }
+    }
+
+    // Marks one entry as dead. Runs inside the caller's transaction, so a rollback keeps the entry counted.
+    public void free(String physicalPath) {
+        StoredContent content = StoredContent.of(physicalPath);
+        if (!content.packed()) return;
+
+        packFileRepository.freeBytes(content.file().toString(), content.length());
+    }
+
+    // Drops a pack that no node or blob points into anymore (only sealed packs, nothing appends to them)
+    public void delete(PackFile pack) throws IOException {
+        packFileRepository.deleteById(pack.getId());
+        Files.deleteIfExists(Paths.get(pack.getPhysicalPath()));
+        blockCacheService.invalidateFile(Paths.get(pack.getPhysicalPath()));
+    }
+
+    // Helper methods
+
+    private Reservation reserve(String storagePath, long length) throws IOException {
+        Drive drive = drives.computeIfAbsent(storagePath, key -> new Drive());
+        long maxBytes = maxPackBytes();
+        while (true) {
+            Long full = null;
+            long retiredId;
+            synchronized (drive) {
+                if (drive.packId != null && drive.end > 0 && drive.end + length > maxBytes) {
+                    full = retire(drive);
+                } else if (drive.packId != null) {
+                    Reservation reservation = new Reservation(drive.packId, drive.packPath, drive.end, drive.end + length >= maxBytes);
+                    drive.end += length;
+                    if (reservation.last()) retire(drive); // The appender seals it once the entry is recorded
+                    return reservation;
+                }
+                retiredId = drive.retiredId;
+            }
+
+            if (full != null) {
+                packFileRepository.seal(full);
+                logger.info("Pack file of {} is full, sealed it.", storagePath);
+            }
+            openPack(storagePath, drive, retiredId);
+        }
+    }
+
+    // Must be called holding the drive, returns the id of the pack that was open
+    private static Long retire(Drive drive) {
+        Long packId = drive.packId;
+        drive.retiredId = Math.max(drive.retiredId, packId);
+        drive.packId = null;
+        drive.packPath = null;
+        drive.end = 0;
+        return packId;
+    }
+
+    // Loads the drive's open pack from the DB, or starts one. Runs outside the drive lock, so another thread may have
+    // opened one meanwhile: then that one is used and a pack started here is dropped again.
+    private void openPack(String storagePath, Drive drive, long retiredId) throws IOException {
+        PackFile pack = packFileRepository.findFirstByStoragePathAndSealedFalseOrderByIdDesc(storagePath).orElse(null);
+        if (pack != null && pack.getId() <= retiredId) {
+            packFileRepository.seal(pack.getId()); // Retired here but its last appender failed before sealing it
+            pack = null;
+        }
+
+        boolean created = false;
+        if (pack == null) {
+            Path packPath = Paths.get(storagePath, PACKS_DIR_NAME, UUID.randomUUID() + ".pack");
+            Files.createDirectories(packPath.getParent());
+
+            pack = new PackFile();
+            pack.setStoragePath(storagePath);
+            pack.setPhysicalPath(packPath.toString());
+            pack.setCreatedAt(Instant.now());
+            pack = packFileRepository.save(pack);
+            created = true;
+        }
+
+        synchronized (drive) {
+            if (drive.packId == null && pack.getId() > drive.retiredId) {
+                drive.packId = pack.getId();
+                drive.packPath = Paths.get(pack.getPhysicalPath());
+                drive.end = pack.getSize();
+                if (created) logger.info("Started a new pack file: {}", drive.packPath);
+                return;
+            }
+        }
+        if (created) packFileRepository.deleteById(pack.getId()); // Nothing was written to it
+    }
+
+    private long maxPackBytes() {
+        int sizeMB = configService.getConfig().getStorage().getPackFileSizeMB();
+        return (sizeMB > 0 ? sizeMB : DEFAULT_PACK_FILE_SIZE_MB) * 1024L * 1024L;
+    }
+}
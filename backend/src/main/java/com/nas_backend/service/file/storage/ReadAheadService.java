@@ -0,0 +1,431 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.dto.ReadAheadStats;
+import com.nas_backend.service.AppConfigService;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Read-ahead for range requests. Players fetch a video in many small ranges one after another, so every request would
+// be a small read, and with several clients streaming the disk seeks between them for each one. Per client and file
+// the access pattern is tracked: while the ranges follow each other the next window is read in the background in one
+// go, so the next request finds its data in memory. The window grows with the sequential run (twice the bytes read in a
+// row, in chunks of 256 KB up to 8 MB), so a client that keeps jumping around never gets much read ahead for nothing.
+// A jump (seek) drops what was read ahead and starts over with a small window.
+// Buffers are off-heap and bounded by storage.readAheadMB (read at startup), without budget left the data is read directly.
+@Service
+public class ReadAheadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadAheadService.class);
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int INITIAL_WINDOW_CHUNKS = 1;
+    private static final int MAX_WINDOW_CHUNKS = 32;
+    private static final int DEFAULT_BUDGET_MB = 64;
+    private static final int READER_THREADS = 2; // Disk bound, more threads would only make the disk seek again
+    private static final long STREAM_IDLE_MS = 30_000;
+
+    private final int budgetChunks;
+    private final AtomicInteger freeChunks;
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    private final Map<StreamKey, Stream> streams = new ConcurrentHashMap<>();
+
+    private final ExecutorService readers = Executors.newFixedThreadPool(READER_THREADS, new ReaderThreadFactory());
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "read-ahead-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Metrics
+    private final AtomicLong sequentialRequests = new AtomicLong();
+    private final AtomicLong randomRequests = new AtomicLong();
+    private final AtomicLong prefetchedBytes = new AtomicLong();
+    private final AtomicLong bytesFromPrefetch = new AtomicLong();
+    private final AtomicLong bytesReadDirectly = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong(); // Read ahead but never asked for (the client jumped)
+
+    private record StreamKey(String client, String physicalPath) {}
+
+    // A contiguous piece of the file, read or being read into its buffer
+    private static final class Chunk {
+        final long start;
+        final int length;
+        final ByteBuffer buffer;
+        final CompletableFuture<Void> ready = new CompletableFuture<>();
+        boolean consumed;
+        int pins; // Transfers copying from the buffer right now, it is reused only after the last one
+        boolean dropped; // No longer part of the stream, the buffer goes back once unpinned and read
+
+        Chunk(long start, int length, ByteBuffer buffer) {
+            this.start = start;
+            this.length = length;
+            this.buffer = buffer;
+        }
+
+        long end() {
+            return start + length;
+        }
+    }
+
+    // One client reading one file. Chunks are guarded by the stream itself, reads from the file by readerLock.
+    private static final class Stream {
+        final StoredContent content;
+        final long length;
+        final Object readerLock = new Object();
+        final ArrayDeque<Chunk> chunks = new ArrayDeque<>(); // Contiguous, in file order
+        ContentReader reader;
+        boolean readerClosed; // Guarded by readerLock, a read queued before the close must not open a new reader
+        long nextPosition = -1;
+        long sequentialRun; // Bytes read in a row since the last jump
+        int transfers; // Requests sending from this stream right now, it is not closed while there are any
+        boolean closed; // Replaced or idle, its reader is closed once the last transfer is done
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Stream(StoredContent content, long length) {
+            this.content = content;
+            this.length = length;
+        }
+    }
+
+    public ReadAheadService(AppConfigService configService) {
+        int budgetMB = configService.getConfig().getStorage().getReadAheadMB();
+        if (budgetMB == 0) budgetMB = DEFAULT_BUDGET_MB;
+
+        this.budgetChunks = (int) Math.max(budgetMB * 1024L * 1024L / CHUNK_SIZE, 0);
+        this.freeChunks = new AtomicInteger(budgetChunks);
+        if (budgetChunks > 0) {
+            sweeper.scheduleWithFixedDelay(this::closeIdleStreams, STREAM_IDLE_MS, STREAM_IDLE_MS / 3, TimeUnit.MILLISECONDS);
+            logger.info("Read-ahead: up to {} MB off-heap, windows of {} KB to {} MB.", budgetMB, CHUNK_SIZE / 1024,
+                    MAX_WINDOW_CHUNKS * CHUNK_SIZE / (1024 * 1024));
+        } else {
+            logger.info("Read-ahead is disabled.");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+        readers.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return budgetChunks > 0;
+    }
+
+    // Copies count logical bytes of the content (logical size length, stored at physicalPath) from position on to target.
+    // client tells apart the readers of the same file (address and user agent, say).
+    public void transferTo(String client, String physicalPath, StoredContent content, long length, long position, long count,
+                           WritableByteChannel target) throws IOException {
+        StreamKey key = new StreamKey(client, physicalPath);
+        Stream stream = streams.compute(key, (k, existing) -> {
+            Stream current = existing;
+            if (current != null && current.length != length) {
+                retire(current); // The file changed
+                current = null;
+            }
+            if (current == null) current = new Stream(content, length);
+            synchronized (current) {
+                current.transfers++; // Inside compute, so the idle sweep cannot take the stream away in between
+            }
+            return current;
+        });
+        stream.lastUsed = System.currentTimeMillis();
+
+        boolean sequential;
+        synchronized (stream) {
+            long expected = stream.nextPosition;
+            sequential = expected >= 0 && position >= expected && position < expected + (long) windowOf(stream) * CHUNK_SIZE;
+            if (!sequential) {
+                stream.sequentialRun = 0;
+                dropChunks(stream);
+            }
+        }
+        (sequential ? sequentialRequests : randomRequests).incrementAndGet();
+
+        long end = position + count;
+        long pos = position;
+        try {
+            while (pos < end) {
+                Chunk chunk = chunkAt(stream, pos);
+                if (chunk == null) {
+                    // No buffer left, this piece comes straight from the disk
+                    long pieceEnd = Math.min(end, (pos / CHUNK_SIZE + 1) * CHUNK_SIZE);
+                    content.transferTo(pos, pieceEnd - pos, target);
+                    bytesReadDirectly.addAndGet(pieceEnd - pos);
+                    pos = pieceEnd;
+                    continue;
+                }
+
+                int sent;
+                try {
+                    // Keep the window ahead of the reader. Within this request that is certain to be used, beyond its end only
+                    // while the requests follow each other.
+                    prefetch(stream, sequential ? Long.MAX_VALUE : end);
+
+                    awaitChunk(chunk);
+                    ByteBuffer slice = chunk.buffer.duplicate();
+                    slice.position((int) (pos - chunk.start)).limit((int) (Math.min(end, chunk.end()) - chunk.start));
+                    sent = slice.remaining();
+                    while (slice.hasRemaining()) {
+                        target.write(slice);
+                    }
+                } finally {
+                    synchronized (stream) {
+                        unpin(chunk);
+                    }
+                }
+                bytesFromPrefetch.addAndGet(sent);
+                stream.lastUsed = System.currentTimeMillis();
+
+                pos = Math.min(end, chunk.end());
+                synchronized (stream) {
+                    stream.sequentialRun += sent;
+                    if (pos == chunk.end()) {
+                        chunk.consumed = true;
+                        if (stream.chunks.peekFirst() == chunk) {
+                            stream.chunks.pollFirst();
+                            drop(chunk);
+                        }
+                    }
+                }
+            }
+        } finally {
+            boolean close;
+            synchronized (stream) {
+                stream.nextPosition = pos;
+                stream.transfers--;
+                close = stream.closed && stream.transfers == 0;
+            }
+            stream.lastUsed = System.currentTimeMillis();
+            if (close) closeStream(stream);
+        }
+    }
+
+    public ReadAheadStats getStats() {
+        return new ReadAheadStats(
+                (long) budgetChunks * CHUNK_SIZE,
+                (long) (budgetChunks - freeChunks.get()) * CHUNK_SIZE,
+                streams.size(),
+                sequentialRequests.get(),
+                randomRequests.get(),
+                prefetchedBytes.get(),
+                bytesFromPrefetch.get(),
+                bytesReadDirectly.get(),
+                droppedBytes.get());
+    }
+
+    // Helper methods
+
+    // The chunk holding pos (pinned, the caller unpins it), read right away when it is not there yet. Null when no buffer is left.
+    private Chunk chunkAt(Stream stream, long pos) throws IOException {
+        Chunk chunk;
+        synchronized (stream) {
+            // Chunks before pos were skipped over
+            while (!stream.chunks.isEmpty() && stream.chunks.peekFirst().end() <= pos) {
+                Chunk skipped = stream.chunks.pollFirst();
+                if (!skipped.consumed) droppedBytes.addAndGet(skipped.length);
+                drop(skipped);
+            }
+            Chunk first = stream.chunks.peekFirst();
+            if (first != null && first.start <= pos) {
+                first.pins++;
+                return first;
+            }
+            dropChunks(stream); // Anything left lies beyond pos, not contiguous with it
+
+            long start = pos / CHUNK_SIZE * CHUNK_SIZE;
+            chunk = newChunk(stream, start);
+            if (chunk == null) return null;
+            chunk.pins++;
+            stream.chunks.addLast(chunk);
+        }
+        fill(stream, List.of(chunk));
+        return chunk;
+    }
+
+    // Queues the chunks that are missing from the window (up to limit) for one background read
+    private void prefetch(Stream stream, long limit) {
+        List<Chunk> batch = new ArrayList<>();
+        synchronized (stream) {
+            long next = stream.chunks.isEmpty() ? -1 : stream.chunks.peekLast().end();
+            int window = windowOf(stream);
+            while (next >= 0 && next < Math.min(limit, stream.length) && stream.chunks.size() < window) {
+                Chunk chunk = newChunk(stream, next);
+                if (chunk == null) break; // Budget used up
+                stream.chunks.addLast(chunk);
+                batch.add(chunk);
+                next = chunk.end();
+            }
+        }
+        if (batch.isEmpty()) return;
+
+        try {
+            readers.execute(() -> fill(stream, batch));
+        } catch (RuntimeException e) {
+            batch.forEach(chunk -> chunk.ready.completeExceptionally(e)); // Shutting down
+        }
+    }
+
+    // Reads the chunks one after another, one sequential pass over the disk
+    private void fill(Stream stream, List<Chunk> batch) {
+        synchronized (stream.readerLock) {
+            for (Chunk chunk : batch) {
+                try {
+                    if (stream.readerClosed) throw new IOException("Read-ahead stream was closed.");
+                    if (stream.reader == null) stream.reader = stream.content.openReader();
+                    ByteBuffer buffer = chunk.buffer;
+                    buffer.clear().limit(chunk.length);
+                    while (buffer.hasRemaining()) {
+                        int read = stream.reader.read(chunk.start + buffer.position(), buffer);
+                        if (read < 0) throw new IOException("Stored data ended before its recorded length.");
+                    }
+                    prefetchedBytes.addAndGet(chunk.length);
+                    chunk.ready.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    chunk.ready.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    // Chunks to keep ahead, called with the stream locked
+    private static int windowOf(Stream stream) {
+        long chunks = 2 * stream.sequentialRun / CHUNK_SIZE;
+        return (int) Math.max(INITIAL_WINDOW_CHUNKS, Math.min(chunks, MAX_WINDOW_CHUNKS));
+    }
+
+    private static void awaitChunk(Chunk chunk) throws IOException {
+        try {
+            chunk.ready.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+            throw new IOException("Read-ahead failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private Chunk newChunk(Stream stream, long start) {
+        ByteBuffer buffer = takeBuffer();
+        if (buffer == null) return null;
+        return new Chunk(start, (int) Math.min(CHUNK_SIZE, stream.length - start), buffer);
+    }
+
+    // Called with the stream locked
+    private void dropChunks(Stream stream) {
+        for (Chunk chunk : stream.chunks) {
+            if (!chunk.consumed) droppedBytes.addAndGet(chunk.length);
+            drop(chunk);
+        }
+        stream.chunks.clear();
+    }
+
+    // Called with the stream locked. A transfer may still be sending from the buffer (another request of the same
+    // client jumped), it goes back to the pool when the last one is done.
+    private void drop(Chunk chunk) {
+        chunk.dropped = true;
+        if (chunk.pins == 0) releaseWhenRead(chunk);
+    }
+
+    // Called with the stream locked
+    private void unpin(Chunk chunk) {
+        chunk.pins--;
+        if (chunk.pins == 0 && chunk.dropped) releaseWhenRead(chunk);
+    }
+
+    // A buffer still being filled goes back to the pool once its read is done
+    private void releaseWhenRead(Chunk chunk) {
+        chunk.ready.whenComplete((result, error) -> releaseBuffer(chunk.buffer));
+    }
+
+    private ByteBuffer takeBuffer() {
+        if (freeChunks.getAndUpdate(free -> free > 0 ? free - 1 : free) <= 0) return null;
+        synchronized (bufferPool) {
+            ByteBuffer buffer = bufferPool.poll();
+            if (buffer != null) return buffer;
+        }
+        return ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        synchronized (bufferPool) {
+            bufferPool.push(buffer);
+        }
+        freeChunks.incrementAndGet();
+    }
+
+    // Streams with a transfer running are never idle, however long the transfer takes
+    private void closeIdleStreams() {
+        long cutoff = System.currentTimeMillis() - STREAM_IDLE_MS;
+        for (StreamKey key : streams.keySet()) {
+            streams.computeIfPresent(key, (k, stream) -> {
+                synchronized (stream) {
+                    if (stream.transfers > 0 || stream.lastUsed >= cutoff) return stream;
+                }
+                retire(stream);
+                return null;
+            });
+        }
+    }
+
+    // Takes a stream out of use, closed right away or by its last running transfer
+    private void retire(Stream stream) {
+        boolean close;
+        synchronized (stream) {
+            stream.closed = true;
+            close = stream.transfers == 0;
+        }
+        if (close) closeStream(stream);
+    }
+
+    private void closeStream(Stream stream) {
+        synchronized (stream) {
+            dropChunks(stream);
+        }
+        // Waits for a running read of the stream, its reader is not used anymore afterwards
+        CompletableFuture.runAsync(() -> {
+            synchronized (stream.readerLock) {
+                try {
+                    if (stream.reader != null) stream.reader.close();
+                } catch (IOException e) {
+                    logger.debug("Could not close a read-ahead reader: {}", e.getMessage());
+                }
+                stream.reader = null;
+                stream.readerClosed = true;
+            }
+        }, readers);
+    }
+
+    private static final class ReaderThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "read-ahead-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.exception.ConflictException;
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.dto.StorageBenchmarkResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Measures what encryption at rest costs on this machine: the same data is written and read once as a plain file
+// and once as an encrypted container, the way uploads and downloads do it (SHA-256 on the way in included).
+// Writes are flushed to the drive, reads right after them mostly come from the page cache, so they show the CPU side.
+@Service
+public class StorageBenchmarkService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageBenchmarkService.class);
+
+    private static final String STAGING_DIR_NAME = ".staging";
+    private static final int PATTERN_SIZE = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    public static final int MIN_SIZE_MB = 16;
+    public static final int MAX_SIZE_MB = 4096;
+
+    private final StoragePlacementService storagePlacementService;
+    private final StreamingFileWriter streamingFileWriter;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public StorageBenchmarkService(StoragePlacementService storagePlacementService, StreamingFileWriter streamingFileWriter) {
+        this.storagePlacementService = storagePlacementService;
+        this.streamingFileWriter = streamingFileWriter;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public StorageBenchmarkResult run(int sizeMB) throws IOException, FileValidationException {
+        if (sizeMB < MIN_SIZE_MB || sizeMB > MAX_SIZE_MB) {
+            throw new FileValidationException("Benchmark size must be between " + MIN_SIZE_MB + " and " + MAX_SIZE_MB + " MB.");
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new ConflictException("A benchmark is already running.");
+        }
+
+        long size = (long) sizeMB * 1024 * 1024;
+        String drive = storagePlacementService.findDriveWithMostSpace(size * 2);
+        Path stagingDir = Paths.get(drive, STAGING_DIR_NAME);
+        Path plainFile = stagingDir.resolve(UUID.randomUUID() + ".bench");
+        Path encryptedFile = stagingDir.resolve(UUID.randomUUID() + ".bench");
+
+        try {
+            Files.createDirectories(stagingDir);
+            logger.info("Storage benchmark: {} MB on {} ({} codec threads)", sizeMB, drive, BlockContainer.codecThreads());
+
+            long start = System.nanoTime();
+            streamingFileWriter.write(new PatternInputStream(size), plainFile, size, Long.MAX_VALUE, newDigest());
+            flush(plainFile);
+            double plainWrite = throughput(size, start);
+
+            start = System.nanoTime();
+            readAll(StoredContent.of(plainFile.toString()));
+            double plainRead = throughput(size, start);
+
+            start = System.nanoTime();
+            BlockContainer.write(new PatternInputStream(size), encryptedFile, size, Long.MAX_VALUE, newDigest(), false,
+                    EncryptionKeyService.BENCHMARK_KEY_ID);
+            flush(encryptedFile);
+            double encryptedWrite = throughput(size, start);
+
+            start = System.nanoTime();
+            readAll(StoredContent.of(encryptedFile.toString(), BlockContainer.FORMAT));
+            double encryptedRead = throughput(size, start);
+
+            StorageBenchmarkResult result = new StorageBenchmarkResult(drive, sizeMB, BlockContainer.codecThreads(), plainWrite, plainRead,
+                    encryptedWrite, encryptedRead, Instant.now().toString());
+            logger.info("Storage benchmark: {}", result);
+            return result;
+        } finally {
+            Files.deleteIfExists(plainFile);
+            Files.deleteIfExists(encryptedFile);
+            running.set(false);
+        }
+    }
+
+    // Helper methods
+
+    private static void flush(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void readAll(StoredContent content) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try (InputStream in = content.openStream()) {
+            while (in.read(buffer) >= 0) {
+                // Only the speed counts
+            }
+        }
+    }
+
+    private static double throughput(long bytes, long startNanos) {
+        double seconds = Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+        return Math.round(bytes / (1024.0 * 1024.0) / seconds * 10) / 10.0;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Random (incompressible) bytes without a random generator in the measured loop: one random megabyte, repeated
+    private static class PatternInputStream extends InputStream {
+
+        private static final byte[] PATTERN = new byte[PATTERN_SIZE];
+
+        static {
+            new Random().nextBytes(PATTERN);
+        }
+
+        private long remaining;
+
+        private PatternInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) return -1;
+            return PATTERN[(int) (--remaining % PATTERN_SIZE)] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (remaining <= 0) return -1;
+
+            int offset = (int) (remaining % PATTERN_SIZE);
+            int count = (int) Math.min(Math.min(len, remaining), PATTERN_SIZE - offset);
+            System.arraycopy(PATTERN, offset, b, off, count);
+            remaining -= count;
+            return count;
+        }
+    }
+}
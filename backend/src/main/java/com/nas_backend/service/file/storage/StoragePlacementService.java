@@ -0,0 +1,103 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.model.config.AppConfig;
+import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.system.StorageMetricsService;
+
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+// Decides on which storage drive new physical data should land
+@Service
+public class StoragePlacementService {
+
+    private final AppConfigService configService;
+    private final StorageMetricsService storageMetricsService;
+
+    public StoragePlacementService(AppConfigService configService, StorageMetricsService storageMetricsService) {
+        this.configService = configService;
+        this.storageMetricsService = storageMetricsService;
+    }
+
+    public String findBestStoragePath(long requiredSpace) throws IOException, FileValidationException {
+        if (requiredSpace > remainingQuotaBytes()) {
+            long quotaGB = configService.getConfig().getStorage().getQuotaGB();
+            throw new FileValidationException("Storage Quota Exceeded! The system limit is " + quotaGB + " GB.");
+        }
+        return findDriveWithMostSpace(requiredSpace);
+    }
+
+    // Bytes that may still be written before hitting the configured quota (Long.MAX_VALUE when there is no quota).
+    // This walks the drives, so bulk operations call it once and keep their own tally afterwards.
+    public long remainingQuotaBytes() throws IOException {
+        AppConfig config = configService.getConfig();
+        List<String> paths = config.getStorage().getPaths();
+        if (paths == null || paths.isEmpty()) throw new IOException("No storage paths configured!");
+
+        long quotaGB = config.getStorage().getQuotaGB();
+        if (quotaGB <= 0) {
+            return Long.MAX_VALUE;
+        }
+
+        long quotaBytes = quotaGB * 1024L * 1024L * 1024L;
+
+        // Use method from StorageMetricsService to calculate current used space
+        long currentTotalUsedBytes = storageMetricsService.calculateTotalSize(paths);
+        return Math.max(quotaBytes - currentTotalUsedBytes, 0);
+    }
+
+    // Picks the drive with the most usable space, without any quota check (cheap, one statvfs per drive)
+    public String findDriveWithMostSpace(long requiredSpace) throws IOException, FileValidationException {
+        List<String> paths = configService.getConfig().getStorage().getPaths();
+        if (paths == null || paths.isEmpty()) throw new IOException("No storage paths configured!");
+
+        String bestPath = null;
+        long maxFreeSpace = -1;
+
+        for (String pathStr : paths) {
+            Path path = Paths.get(pathStr);
+
+            if (Files.notExists(path)) Files.createDirectories(path);
+
+            FileStore store = Files.getFileStore(path);
+            long usableSpace = store.getUsableSpace();
+
+            if (usableSpace > maxFreeSpace) {
+                maxFreeSpace = usableSpace;
+                bestPath = pathStr;
+            }
+        }
+
+        if (bestPath == null || maxFreeSpace < requiredSpace) throw new FileValidationException("Not enough space on any storage device.");
+
+        return bestPath;
+    }
+
+    // The preferred drive when it has the space (e.g. the source drive of a copy, where a clone costs no data),
+    // the drive with the most usable space otherwise
+    public String findDrivePreferring(String preferredPath, long requiredSpace) throws IOException, FileValidationException {
+        if (preferredPath != null && Files.isDirectory(Paths.get(preferredPath))
+                && Files.getFileStore(Paths.get(preferredPath)).getUsableSpace() >= requiredSpace) {
+            return preferredPath;
+        }
+        return findDriveWithMostSpace(requiredSpace);
+    }
+
+    // Configured drive that holds the given physical file, null if it lies outside of all of them
+    public String driveOf(String physicalPath) {
+        Path file = Paths.get(physicalPath).toAbsolutePath().normalize();
+        for (String pathStr : configService.getConfig().getStorage().getPaths()) {
+            if (file.startsWith(Paths.get(pathStr).toAbsolutePath().normalize())) {
+                return pathStr;
+            }
+        }
+        return null;
+    }
+}
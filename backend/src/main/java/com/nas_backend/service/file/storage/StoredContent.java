@@ -0,0 +1,212 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.entity.FileNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Where the bytes behind a physicalPath are: a whole file, or a slice of a pack file (see PackStore).
+// Packed content is encoded in the physicalPath itself as "<pack file>#<offset>:<length>".
+// format is the node's storageFormat: null reads the stored bytes as they are, BlockContainer.FORMAT decodes them.
+public record StoredContent(Path file, long offset, long length, boolean packed, String format) {
+
+    private static final Pattern PACKED_LOCATOR = Pattern.compile("(.+\\.pack)#(\\d+):(\\d+)");
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    // The raw stored bytes (what pack compaction and copies of the data move around)
+    public static StoredContent of(String physicalPath) {
+        return of(physicalPath, null);
+    }
+
+    public static StoredContent of(String physicalPath, String storageFormat) {
+        Matcher matcher = PACKED_LOCATOR.matcher(physicalPath);
+        if (matcher.matches()) {
+            return new StoredContent(Paths.get(matcher.group(1)), Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)), true,
+                    storageFormat);
+        }
+        return new StoredContent(Paths.get(physicalPath), 0, -1, false, storageFormat);
+    }
+
+    // The file's content as the user sees it
+    public static StoredContent of(FileNode node) {
+        return of(node.getPhysicalPath(), node.getStorageFormat());
+    }
+
+    public static String locator(Path packFile, long offset, long length) {
+        return packFile + "#" + offset + ":" + length;
+    }
+
+    public static boolean isPacked(String physicalPath) {
+        return physicalPath != null && PACKED_LOCATOR.matcher(physicalPath).matches();
+    }
+
+    // Plain bytes in a file of their own, the only case that can be handed out as a FileSystemResource
+    public boolean isPlainFile() {
+        return !packed && format == null;
+    }
+
+    public boolean exists() {
+        if (!packed) return Files.exists(file);
+        try {
+            return Files.size(file) >= offset + length;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Logical size
+    public long size() throws IOException {
+        if (format == null) return storedSize();
+        try (ContentReader reader = openReader()) {
+            return reader.size();
+        }
+    }
+
+    // Bytes taken on disk
+    public long storedSize() throws IOException {
+        return packed ? length : Files.size(file);
+    }
+
+    public ContentReader openReader() throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        long start = packed ? offset : 0;
+        long end;
+        try {
+            end = packed ? offset + length : channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        if (format == null) return new RawReader(channel, start, end - start);
+        if (format.equals(BlockContainer.FORMAT)) return BlockContainer.open(channel, start, end - start);
+
+        channel.close();
+        throw new IOException("Unknown storage format '" + format + "' of " + file + ".");
+    }
+
+    public InputStream openStream() throws IOException {
+        if (isPlainFile()) return Files.newInputStream(file);
+        if (format == null) return new ReaderInputStream(openReader());
+        if (!format.equals(BlockContainer.FORMAT)) throw new IOException("Unknown storage format '" + format + "' of " + file + ".");
+
+        // Containers decode several blocks at once when read front to back
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return BlockContainer.openStream(channel, packed ? offset : 0, packed ? length : channel.size());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Copies count logical bytes from position on to target. Plain bytes go through FileChannel.transferTo (no copy through
+    // the heap where the target allows it), encoded content is decoded from the block holding position on.
+    public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (format == null) {
+            long start = (packed ? offset : 0) + position;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long done = 0;
+                while (done < count) {
+                    long sent = channel.transferTo(start + done, count - done, target);
+                    if (sent <= 0 && start + done >= channel.size()) {
+                        throw new IOException("Stored data of " + file + " ended before its recorded length.");
+                    }
+                    done += Math.max(sent, 0);
+                }
+            }
+            return;
+        }
+
+        try (InputStream in = openStream()) {
+            in.skipNBytes(position);
+            byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+            long remaining = count;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) throw new IOException("Stored data of " + file + " ended before its recorded length.");
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    target.write(chunk);
+                }
+                remaining -= read;
+            }
+        }
+    }
+
+    // Positional reads of plain bytes (a whole file or one slice), the channel position is never touched
+    private record RawReader(FileChannel channel, long start, long size) implements ContentReader {
+
+        @Override
+        public int read(long position, ByteBuffer dst) throws IOException {
+            if (position >= size) return -1;
+
+            int limit = dst.limit();
+            dst.limit(dst.position() + (int) Math.min(dst.remaining(), size - position));
+            try {
+                int read = channel.read(dst, start + position);
+                if (read < 0) throw new IOException("Stored data of " + channel + " ended before its recorded length.");
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Sequential stream over a reader
+    private static class ReaderInputStream extends InputStream {
+
+        private final ContentReader reader;
+        private long position;
+
+        private ReaderInputStream(ContentReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            int read = reader.read(position, ByteBuffer.wrap(b, off, len));
+            if (read > 0) position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(Math.min(n, reader.size() - position), 0);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(reader.size() - position, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.service.system.ShellService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Writes an incoming byte stream straight onto a storage drive in a single pass
+@Service
+public class StreamingFileWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingFileWriter.class);
+
+    private static final int BUFFER_SIZE = 1024 * 1024; // 1 MB per write call keeps the SATA drives doing long sequential writes
+    private static final int MAX_POOLED_BUFFERS = 8; // Direct buffers are expensive to allocate, keep a few for reuse
+    private static final long PREALLOCATE_THRESHOLD = 16L * 1024 * 1024; // Spawning 'fallocate' only pays off for bigger files
+
+    private final ShellService shellService;
+    private final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+    private final boolean isLinux = System.getProperty("os.name").toLowerCase().contains("linux");
+
+    // Filesystem -> whether 'fallocate' worked on it (drives may be formatted differently, one failure says nothing about the others)
+    private final Map<String, Boolean> preallocationSupport = new ConcurrentHashMap<>();
+
+    public StreamingFileWriter(ShellService shellService) {
+        this.shellService = shellService;
+    }
+
+    // Copies the stream into a brand new file and returns the number of bytes written.
+    // expectedLength is -1 when the client did not announce the size, maxLength guards the upload limit.
+    public long write(InputStream source, Path target, long expectedLength, long maxLength) throws IOException {
+        return write(source, target, expectedLength, maxLength, null);
+    }
+
+    // Same, but every byte also goes through the given digest on its way to the disk (no second read for hashing)
+    public long write(InputStream source, Path target, long expectedLength, long maxLength, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        boolean success = false;
+
+        try (ReadableByteChannel in = Channels.newChannel(source);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+
+            // Reserve the whole file up front, so the drive can lay it out contiguously (and fail fast when full)
+            if (expectedLength >= PREALLOCATE_THRESHOLD) {
+                preallocate(target, expectedLength);
+            }
+
+            long written = 0;
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                written += read;
+                if (written > maxLength) {
+                    throw new FileValidationException("File size exceeds the maximum upload limit.");
+                }
+                if (!buffer.hasRemaining()) {
+                    drain(buffer, out, digest);
+                }
+            }
+            drain(buffer, out, digest);
+
+            if (expectedLength >= 0 && written != expectedLength) {
+                throw new IOException("Upload incomplete: expected " + expectedLength + " bytes but received " + written + ".");
+            }
+
+            // Drop any preallocated tail that was not used
+            if (out.size() > written) {
+                out.truncate(written);
+            }
+
+            success = true;
+            return written;
+        } finally {
+            releaseBuffer(buffer);
+            if (!success) {
+                Files.deleteIfExists(target);
+                logger.warn("Streaming write to {} failed, partial file removed.", target);
+            }
+        }
+    }
+
+    // Creates an empty file that chunks will later be written into, reserving its final length when worthwhile
+    public void allocate(Path target, long length) throws IOException {
+        Files.createFile(target);
+        if (length >= PREALLOCATE_THRESHOLD) {
+            preallocate(target, length);
+        }
+    }
+
+    // Writes exactly 'length' bytes of the stream at the given offset of an existing file.
+    // Several chunks of the same file can be written at once, positional writes do not share a file pointer.
+    public void writeAt(InputStream source, Path target, long offset, long length) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+
+        try (ReadableByteChannel in = Channels.newChannel(source);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+
+            long position = offset;
+            long received = 0;
+            while (received < length) {
+                // Never read past the end of this chunk
+                int toRead = (int) Math.min(buffer.capacity() - buffer.position(), length - received);
+                buffer.limit(buffer.position() + toRead);
+
+                int read = in.read(buffer);
+                if (read < 0) {
+                    throw new IOException("Chunk incomplete: expected " + length + " bytes but received " + received + ".");
+                }
+                received += read;
+
+                if (buffer.position() == buffer.capacity() || received == length) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += out.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    // Helper methods
+
+    private void drain(ByteBuffer buffer, FileChannel out, MessageDigest digest) throws IOException {
+        buffer.flip();
+        if (digest != null) {
+            digest.update(buffer.duplicate());
+        }
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void preallocate(Path target, long length) throws IOException {
+        if (!isLinux) return;
+
+        FileStore store = Files.getFileStore(target);
+        String storeKey = store.name() + ":" + store.type();
+        if (Boolean.FALSE.equals(preallocationSupport.get(storeKey))) return;
+
+        String result = shellService.executeCommand(List.of("fallocate", "-l", String.valueOf(length), target.toString()));
+        if (result != null) {
+            preallocationSupport.put(storeKey, true);
+            return;
+        }
+        // Once it worked there, a failure means a full drive rather than a filesystem without support
+        if (preallocationSupport.putIfAbsent(storeKey, false) == null) {
+            logger.warn("Preallocation is not supported on {} ({}), not trying it there again.", store.name(), store.type());
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        bufferPool.offer(buffer); // If the pool is full, the buffer is simply left for the GC
+    }
+}
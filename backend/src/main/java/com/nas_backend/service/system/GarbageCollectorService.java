@@ -6,6 +6,10 @@ import com.nas_backend.model.entity.UserToken;
 import com.nas_backend.repository.FileNodeRepository;
 import com.nas_backend.repository.UserTokenRepository;
 import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.FileIndexService;
+import com.nas_backend.service.file.UploadSessionService;
+import com.nas_backend.service.file.storage.ContentStoreService;
+import com.nas_backend.service.file.storage.StoredContent;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,11 +17,6 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
@@ -28,18 +27,25 @@ public class GarbageCollectorService {
     private static final Logger logger = LoggerFactory.getLogger(GarbageCollectorService.class);
 
     private final FileNodeRepository fileNodeRepository;
+    private final FileIndexService fileIndexService;
     private final UserTokenRepository userTokenRepository;
     private final AppConfigService configService;
     private final EmailService emailService;
     private final LogService logService;
+    private final UploadSessionService uploadSessionService;
+    private final ContentStoreService contentStoreService;
 
-    public GarbageCollectorService(FileNodeRepository fileNodeRepository, UserTokenRepository userTokenRepository, AppConfigService configService,
-                                   EmailService emailService, LogService logService) {
+    public GarbageCollectorService(FileNodeRepository fileNodeRepository, FileIndexService fileIndexService, UserTokenRepository userTokenRepository, AppConfigService configService,
+                                   EmailService emailService, LogService logService, UploadSessionService uploadSessionService,
+                                   ContentStoreService contentStoreService) {
         this.fileNodeRepository = fileNodeRepository;
+        this.fileIndexService = fileIndexService;
         this.userTokenRepository = userTokenRepository;
         this.configService = configService;
         this.emailService = emailService;
         this.logService = logService;
+        this.uploadSessionService = uploadSessionService;
+        this.contentStoreService = contentStoreService;
     }
 
     @Scheduled(cron = "0 0 3 * * ?") // Runs at 3:00 AM daily
@@ -74,25 +80,17 @@ public class GarbageCollectorService {
             for (FileNode root : expiredRoots) {
                 String rootLogicalPath = root.getLogicalPath();
 
-                // Find nodes to delete (the root AND all its children)
-                List<FileNode> nodesToDelete = fileNodeRepository.findByLogicalPathStartingWith(rootLogicalPath);
+                // Find nodes to delete (the root AND all its children, not siblings that merely share the name prefix)
+                List<FileNode> nodesToDelete = fileIndexService.loadSubtree(rootLogicalPath);
 
                 int deletedFiles = 0;
                 int deletedNodes = 0;
 
                 for (FileNode node : nodesToDelete) {
-                    // Delete physical file if it is not a directory
+                    // Release physical data if it is not a directory (shared content goes with its last reference)
                     if (!node.isDirectory()) {
-                        File file = new File(node.getPhysicalPath());
-                        if (file.exists()) {
-                            try {
-                                Files.delete(file.toPath());
-                                deletedFiles++;
-                            } catch (IOException e) {
-                                logger.error("Garbage Collector (Trash): Failed to delete physical file: {}",
-                                        node.getPhysicalPath(), e);
-                            }
-                        }
+                        contentStoreService.release(node.getPhysicalPath());
+                        deletedFiles++;
                     }
                     // Delete file node DB entry
                     fileNodeRepository.delete(node);
@@ -144,11 +142,11 @@ public class GarbageCollectorService {
             
             // Check each file for physical existence
             for (FileNode node : allActiveFiles) {
-                Path physicalPath = Paths.get(node.getPhysicalPath());
-                
-                if (Files.notExists(physicalPath)) {
+                // A packed file exists as long as its pack does
+                if (!StoredContent.of(node.getPhysicalPath()).exists()) {
                     // This is an orphan entry! The file is in the DB but not on the disk
                     logger.warn("Garbage Collector (Orphans): Found orphan entry! Physical file missing: {}", node.getPhysicalPath());
+                    contentStoreService.release(node.getPhysicalPath()); // Drops the blob reference, if it was one
                     fileNodeRepository.delete(node);
                     orphanCount++;
                 }
@@ -205,4 +203,26 @@ public class GarbageCollectorService {
             );
         }
     }
+
+    @Scheduled(cron = "0 15 * * * ?") // Every hour at minute 15
+    public void cleanExpiredUploadSessions() {
+        try {
+            int removed = uploadSessionService.removeExpiredSessions();
+            if (removed > 0) {
+                String msg = "Garbage Collector (Upload sessions): Removed " + removed + " abandoned upload sessions and their staging files.";
+                logger.info(msg);
+                logService.logSystemEvent(msg);
+            } else {
+                logger.info("Garbage Collector (Upload sessions): No expired upload sessions found. Job done.");
+            }
+        } catch (Exception e) {
+            String errorMsg = "CRITICAL: Garbage Collector (Upload sessions) task failed! Error: " + e.getMessage();
+            logger.error(errorMsg, e);
+            logService.logSystemEvent(errorMsg);
+            emailService.sendSystemErrorEmail(
+                "The scheduled task 'Garbage Collector (Upload sessions)' failed unexpectedly. \n\n" +
+                "Error: " + e.getMessage(), "System"
+            );
+        }
+    }
 }
\ No newline at end of file
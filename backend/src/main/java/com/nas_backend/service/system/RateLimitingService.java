@@ -14,6 +14,7 @@ public class RateLimitingService {
     // Cache: IP Address -> Bucket
     private final Map<String, Bucket> loginBuckets = new ConcurrentHashMap<>();
     private final Map<String, Bucket> generalBuckets = new ConcurrentHashMap<>();
+    private final Map<String, Bucket> transferBuckets = new ConcurrentHashMap<>();
 
     // Methods to create new buckets with specific limits
 
@@ -37,6 +38,16 @@ public class RateLimitingService {
         return Bucket.builder().addLimit(limit).build();
     }
 
+    // Chunked uploads: Max 3000 chunk requests per 1 minute (parallel chunks on a gigabit link add up quickly)
+    private Bucket createNewTransferBucket() {
+        Bandwidth limit = Bandwidth.builder()
+                .capacity(3000)
+                .refillGreedy(3000, Duration.ofMinutes(1))
+                .build();
+
+        return Bucket.builder().addLimit(limit).build();
+    }
+
     // Helper methods to get or create buckets for a given IP address
 
     public Bucket resolveLoginBucket(String ip) {
@@ -46,4 +57,8 @@ public class RateLimitingService {
     public Bucket resolveGeneralBucket(String ip) {
         return generalBuckets.computeIfAbsent(ip, k -> createNewGeneralBucket());
     }
+
+    public Bucket resolveTransferBucket(String ip) {
+        return transferBuckets.computeIfAbsent(ip, k -> createNewTransferBucket());
+    }
 }
\ No newline at end of file
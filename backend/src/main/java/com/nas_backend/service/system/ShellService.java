@@ -6,6 +6,8 @@ import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
 
 @Service
 public class ShellService {
@@ -14,10 +16,14 @@ public class ShellService {
 
     // Powerful method to execute shell commands and get their output
     public String executeCommand(String command) {
-        try {
-            // Split command into parts for ProcessBuilder
-            String[] commandParts = command.split(" ");
+        // Split command into parts for ProcessBuilder
+        return executeCommand(Arrays.asList(command.split(" ")));
+    }
 
+    // Same engine, but arguments are passed as they are (safe for paths containing spaces)
+    public String executeCommand(List<String> commandParts) {
+        String command = String.join(" ", commandParts);
+        try {
             // Use the robust ProcessBuilder
             ProcessBuilder pb = new ProcessBuilder(commandParts);
             pb.redirectErrorStream(true); // Combine error stream (stderr) with output (stdout)
@@ -51,4 +57,4 @@ public class ShellService {
             return null;
         }
     }
-}
\ No newline at end of file
+}
@@ -86,4 +86,14 @@ public class StorageMetricsService {
         logger.info("Calculated logical trash size for user '{}': {} bytes", username, size);
         return size;
     }
-}
\ No newline at end of file
+
+    // Size of all files as the users see them
+    public long calculateLogicalSizeFromIndex() {
+        return fileNodeRepository.sumLogicalSize();
+    }
+
+    // What the same files take on disk (less than the logical size when they are stored compressed)
+    public long calculateStoredSizeFromIndex() {
+        return fileNodeRepository.sumStoredSize();
+    }
+}
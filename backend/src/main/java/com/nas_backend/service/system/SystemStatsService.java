@@ -20,10 +20,12 @@ public class SystemStatsService {
     // Data collector interface
     private final SystemMonitor monitor;
     private final AppConfigService configService;
+    private final StorageMetricsService storageMetricsService;
 
-    public SystemStatsService(SystemMonitor monitor, AppConfigService configService) {
+    public SystemStatsService(SystemMonitor monitor, AppConfigService configService, StorageMetricsService storageMetricsService) {
         this.monitor = monitor;
         this.configService = configService;
+        this.storageMetricsService = storageMetricsService;
     }
 
     // Gathers and compiles system statistics, while applying config constraints
@@ -71,7 +73,11 @@ public class SystemStatsService {
 
         logger.info("System Stats: Real Total={}MB, Quota={}MB -> Effective Total={}MB", realTotalMB, quotaMB, effectiveTotalMB);
 
+        // Stored files as the users see them vs. what they take on disk (differs with compression enabled)
+        long logicalDataMB = storageMetricsService.calculateLogicalSizeFromIndex() / (1024 * 1024);
+        long storedDataMB = storageMetricsService.calculateStoredSizeFromIndex() / (1024 * 1024);
+
         // Build and return the final, robust report
-        return new SystemStatsResponse(disks, effectiveTotalMB, effectiveUsableMB, temp, usedMem, totalMem);
+        return new SystemStatsResponse(disks, effectiveTotalMB, effectiveUsableMB, logicalDataMB, storedDataMB, temp, usedMem, totalMem);
     }
 }
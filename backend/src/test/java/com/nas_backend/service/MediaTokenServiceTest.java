@@ -0,0 +1,54 @@
+package com.nas_backend.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MediaTokenServiceTest {
+
+    private final MediaTokenService service = new MediaTokenService();
+
+    @Test
+    void coversTheScopeAndEverythingBelowIt() {
+        String token = service.issue("admin/zdjecia");
+
+        assertEquals("admin", service.userFor(token, "zdjecia"));
+        assertEquals("admin", service.userFor(token, "zdjecia/2024/plaza.jpg"));
+        assertEquals("admin", service.userFor(token, "/zdjecia//plaza.jpg"));
+        assertNull(service.userFor(token, "zdjecia2/plaza.jpg"));
+        assertNull(service.userFor(token, "filmy/film.mp4"));
+        assertNull(service.userFor(token, ""));
+    }
+
+    @Test
+    void aFileTokenOpensOnlyThatFile() {
+        String token = service.issue("admin/testy/film.mp4");
+
+        assertEquals("admin", service.userFor(token, "testy/film.mp4"));
+        assertNull(service.userFor(token, "testy/film.mp4.srt"));
+        assertNull(service.userFor(token, "testy"));
+    }
+
+    @Test
+    void rejectsForgedAndForeignTokens() {
+        String token = service.issue("admin/testy");
+        String[] parts = token.split("\\.");
+
+        // Scope widened to the whole user root, the signature no longer matches
+        String widened = Base64.getUrlEncoder().withoutPadding().encodeToString("admin".getBytes()) + "." + parts[1] + "." + parts[2];
+        assertNull(service.userFor(widened, "private/plik.txt"));
+
+        // Expiry pushed back
+        assertNull(service.userFor(parts[0] + "." + (Long.parseLong(parts[1]) + 1) + "." + parts[2], "testy"));
+
+        // Signed by another instance (a restart)
+        assertNull(new MediaTokenService().userFor(token, "testy"));
+
+        assertNull(service.userFor("0f9c2a3e-session-token", "testy"));
+        assertNull(service.userFor("a.b.c", "testy"));
+        assertNull(service.userFor(null, "testy"));
+    }
+}
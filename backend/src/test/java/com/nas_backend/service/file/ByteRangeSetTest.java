@@ -0,0 +1,85 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.model.dto.ByteRange;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteRangeSetTest {
+
+    @Test
+    void mergesOverlappingAndAdjacentRanges() {
+        ByteRangeSet set = new ByteRangeSet();
+        set.add(100, 200);
+        set.add(300, 400);
+        set.add(200, 250); // Touches the first
+        set.add(150, 320); // Bridges both
+
+        assertEquals("100-400", set.serialize());
+        assertEquals(300, set.coveredBytes());
+    }
+
+    @Test
+    void swallowsRangesInsideANewOne() {
+        ByteRangeSet set = new ByteRangeSet();
+        set.add(10, 20);
+        set.add(30, 40);
+        set.add(50, 60);
+        set.add(0, 100);
+
+        assertEquals("0-100", set.serialize());
+    }
+
+    @Test
+    void ignoresEmptyRanges() {
+        ByteRangeSet set = new ByteRangeSet();
+        set.add(5, 5);
+        set.add(9, 3);
+
+        assertEquals("", set.serialize());
+        assertEquals(0, set.coveredBytes());
+    }
+
+    @Test
+    void coversOnlyWhenEverythingFromZeroArrived() {
+        ByteRangeSet set = new ByteRangeSet();
+        assertTrue(set.covers(0));
+        assertFalse(set.covers(10));
+
+        set.add(1, 10);
+        assertFalse(set.covers(10));
+
+        set.add(0, 1);
+        assertTrue(set.covers(10));
+        assertFalse(set.covers(11));
+    }
+
+    @Test
+    void reportsGapsAsInclusiveRanges() {
+        ByteRangeSet set = new ByteRangeSet();
+        set.add(10, 20);
+        set.add(30, 40);
+
+        assertEquals(List.of(new ByteRange(0, 9), new ByteRange(20, 29), new ByteRange(40, 49)), set.missing(50));
+        assertEquals(List.of(new ByteRange(0, 9), new ByteRange(20, 24)), set.missing(25));
+        assertEquals(List.of(new ByteRange(0, 49)), new ByteRangeSet().missing(50));
+    }
+
+    @Test
+    void survivesSerialization() {
+        ByteRangeSet set = new ByteRangeSet();
+        set.add(0, 1024);
+        set.add(4096, 8192);
+
+        ByteRangeSet parsed = ByteRangeSet.parse(set.serialize());
+        assertEquals("0-1024,4096-8192", parsed.serialize());
+        assertEquals(set.coveredBytes(), parsed.coveredBytes());
+        assertEquals("", ByteRangeSet.parse(null).serialize());
+        assertEquals("", ByteRangeSet.parse(" ").serialize());
+    }
+}
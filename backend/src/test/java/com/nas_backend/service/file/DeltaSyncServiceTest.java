@@ -0,0 +1,180 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.exception.FileValidationException;
+import com.nas_backend.service.file.storage.StoredContent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeltaSyncServiceTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void weakChecksumFollowsTheDocumentedFormula() {
+        byte[] data = {1, 2, (byte) 0xFF};
+        int a = 1 + 2 + 255;
+        int b = 3 * 1 + 2 * 2 + 255;
+        assertEquals(a | (b << 16), DeltaSyncService.weakChecksum(data, 3));
+        assertEquals(0, DeltaSyncService.weakChecksum(data, 0));
+    }
+
+    @Test
+    void weakChecksumCanBeRolledByteByByte() {
+        byte[] data = random(4096, 1);
+        int n = 512;
+        int first = DeltaSyncService.weakChecksum(data, n);
+        int a = first & 0xFFFF;
+        int b = first >>> 16;
+
+        // What a client does while searching its file for blocks the server has
+        for (int offset = 1; offset + n <= data.length; offset++) {
+            int out = data[offset - 1] & 0xFF;
+            int in = data[offset + n - 1] & 0xFF;
+            a = (a - out + in) & 0xFFFF;
+            b = (b - n * out + a) & 0xFFFF;
+            assertEquals(DeltaSyncService.weakChecksum(Arrays.copyOfRange(data, offset, offset + n), n), a | (b << 16), "offset " + offset);
+        }
+    }
+
+    @Test
+    void rebuildsFromCopiedBlocksAndLiteralData() throws Exception {
+        byte[] base = random(3 * BLOCK_SIZE + 100, 2); // The last block is short
+        byte[] literal = "changed bytes".getBytes();
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(delta);
+        copy(out, 1, 3); // Blocks 1..3, up to the end of the base
+        data(out, literal);
+        copy(out, 0, 1);
+        out.writeByte('E');
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(base, BLOCK_SIZE, base.length - BLOCK_SIZE);
+        expected.write(literal);
+        expected.write(base, 0, BLOCK_SIZE);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        Path target = dir.resolve("rebuilt");
+        DeltaSyncService.RebuildStats stats = rebuild(base, delta.toByteArray(), target, Long.MAX_VALUE, digest);
+
+        assertArrayEquals(expected.toByteArray(), Files.readAllBytes(target));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expected.toByteArray()), digest.digest());
+        assertEquals(expected.size(), stats.size());
+        assertEquals(literal.length, stats.literalBytes());
+        assertEquals(base.length, stats.copiedBytes());
+    }
+
+    @Test
+    void rejectsBlocksOutsideOfTheStoredVersion() throws IOException {
+        byte[] base = random(2 * BLOCK_SIZE, 3);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(delta);
+        copy(out, 1, 2);
+        out.writeByte('E');
+
+        assertThrows(FileValidationException.class, () -> rebuild(base, delta.toByteArray(), dir.resolve("a"), Long.MAX_VALUE, null));
+    }
+
+    @Test
+    void rejectsIncompleteDeltas() throws IOException {
+        byte[] base = random(BLOCK_SIZE, 4);
+
+        ByteArrayOutputStream noEnd = new ByteArrayOutputStream();
+        copy(new DataOutputStream(noEnd), 0, 1);
+        assertThrows(FileValidationException.class, () -> rebuild(base, noEnd.toByteArray(), dir.resolve("a"), Long.MAX_VALUE, null));
+
+        ByteArrayOutputStream cutLiteral = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(cutLiteral);
+        out.writeByte('D');
+        out.writeInt(100);
+        out.write(new byte[10]);
+        assertThrows(FileValidationException.class, () -> rebuild(base, cutLiteral.toByteArray(), dir.resolve("b"), Long.MAX_VALUE, null));
+
+        assertThrows(FileValidationException.class, () -> rebuild(base, new byte[]{'X'}, dir.resolve("c"), Long.MAX_VALUE, null));
+    }
+
+    @Test
+    void stopsAtTheUploadLimit() throws IOException {
+        byte[] base = random(4 * BLOCK_SIZE, 5);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(delta);
+        copy(out, 0, 4);
+        copy(out, 0, 4);
+        out.writeByte('E');
+
+        assertThrows(FileValidationException.class, () -> rebuild(base, delta.toByteArray(), dir.resolve("a"), 6 * BLOCK_SIZE, null));
+    }
+
+    @Test
+    void quotaCountsTheNewVersionNotTheStoredOne() throws Exception {
+        byte[] base = random(8 * BLOCK_SIZE, 6);
+        ByteArrayOutputStream shrink = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(shrink);
+        copy(out, 0, 2);
+        out.writeByte('E');
+
+        // Less quota left than the stored version takes, but enough for the smaller new one
+        assertEquals(2 * BLOCK_SIZE, rebuild(base, shrink.toByteArray(), dir.resolve("a"), Long.MAX_VALUE, 3 * BLOCK_SIZE, null).size());
+
+        ByteArrayOutputStream grow = new ByteArrayOutputStream();
+        out = new DataOutputStream(grow);
+        copy(out, 0, 8);
+        out.writeByte('D');
+        out.writeInt(10);
+        out.write(new byte[10]);
+        out.writeByte('E');
+        assertThrows(FileValidationException.class,
+                () -> rebuild(base, grow.toByteArray(), dir.resolve("b"), Long.MAX_VALUE, 8 * BLOCK_SIZE + 5, null));
+    }
+
+    // Helper methods
+
+    private DeltaSyncService.RebuildStats rebuild(byte[] base, byte[] delta, Path target, long maxLength, MessageDigest digest) throws Exception {
+        return rebuild(base, delta, target, maxLength, Long.MAX_VALUE, digest);
+    }
+
+    private DeltaSyncService.RebuildStats rebuild(byte[] base, byte[] delta, Path target, long maxLength, long quotaBytes, MessageDigest digest)
+            throws Exception {
+        Path baseFile = dir.resolve("base");
+        Files.write(baseFile, base);
+        MessageDigest sink = digest != null ? digest : MessageDigest.getInstance("SHA-256");
+        return DeltaSyncService.rebuild(StoredContent.of(baseFile.toString()), base.length, BLOCK_SIZE, new ByteArrayInputStream(delta), target,
+                maxLength, quotaBytes, sink);
+    }
+
+    private static void copy(DataOutputStream out, long firstBlock, int blockCount) throws IOException {
+        out.writeByte('C');
+        out.writeLong(firstBlock);
+        out.writeInt(blockCount);
+    }
+
+    private static void data(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeByte('D');
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
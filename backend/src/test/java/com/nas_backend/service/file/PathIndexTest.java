@@ -0,0 +1,230 @@
+package com.nas_backend.service.file;
+
+import com.nas_backend.model.dto.ArchiveNode;
+import com.nas_backend.model.entity.FileNode;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PathIndexTest {
+
+    private static final Instant CREATED = Instant.ofEpochSecond(1000, 5);
+
+    private long nextId;
+    private PathIndex index;
+
+    @BeforeEach
+    void loadIndex() {
+        PathIndex.State state = new PathIndex.State();
+        for (String folder : List.of("admin", "admin/doc", "admin/docs", "admin/doc/sub", "bob")) {
+            state.add(folder(folder));
+        }
+        state.add(file("admin/doc/a.txt", "/d/1", 10));
+        state.add(file("admin/doc/sub/b.txt", "/d/2", 20));
+        state.add(file("admin/docs/c.txt", "/d/1", 30)); // Same content as a.txt
+        state.add(file("admin/doc.txt", "/d/3", 5));
+
+        index = new PathIndex();
+        index.install(state);
+    }
+
+    @Test
+    void findsNodesByPath() {
+        assertTrue(index.canServe());
+        FileNode a = index.get("admin/doc/a.txt");
+        assertEquals(10, a.getSize());
+        assertEquals("admin/doc", a.getParentPath());
+        assertEquals("a.txt", a.getFileName());
+        assertEquals(CREATED, a.getCreatedAt());
+
+        assertNull(index.get("admin/do"));
+        assertNull(index.get("admin/doc/a.txt/x"));
+        assertFalse(index.contains(""));
+        assertTrue(index.contains("admin/docs"));
+    }
+
+    @Test
+    void listsChildrenByName() {
+        assertEquals(List.of("admin", "bob"), paths(index.children("/")));
+        assertEquals(List.of("admin/doc", "admin/doc.txt", "admin/docs"), paths(index.children("admin")));
+        assertTrue(index.children("nobody").isEmpty());
+    }
+
+    @Test
+    void keepsSubtreesToTheirOwnPrefix() {
+        assertEquals(List.of("admin/doc", "admin/doc/a.txt", "admin/doc/sub", "admin/doc/sub/b.txt"), paths(index.subtree("admin/doc")));
+        assertEquals(30, index.sizeBelow("admin/doc"));
+        assertEquals(4, index.subtreeIds("admin/doc").size());
+    }
+
+    @Test
+    void walksInPagesLikeInOneGo() {
+        List<String> full = index.walk("admin", null, 100).stream().map(ArchiveNode::logicalPath).toList();
+        assertEquals(List.of("admin/doc", "admin/doc/a.txt", "admin/doc/sub", "admin/doc/sub/b.txt", "admin/doc.txt", "admin/docs",
+                "admin/docs/c.txt"), full);
+
+        List<String> paged = new ArrayList<>();
+        String after = null;
+        while (true) {
+            List<ArchiveNode> page = index.walk("admin", after, 2);
+            page.forEach(node -> paged.add(node.logicalPath()));
+            if (page.size() < 2) break;
+            after = page.get(page.size() - 1).logicalPath();
+        }
+        assertEquals(full, paged);
+
+        // Resumes after a path that is gone by now
+        assertEquals("admin/doc.txt", index.walk("admin", "admin/doc/zzz", 100).get(0).logicalPath());
+    }
+
+    @Test
+    void appliesMovesAndRemovals() {
+        for (FileNode node : index.subtree("admin/doc")) {
+            String moved = "admin/moved" + node.getLogicalPath().substring("admin/doc".length());
+            node.setLogicalPath(moved);
+            node.setParentPath(moved.substring(0, moved.lastIndexOf('/')));
+            node.setFileName(moved.substring(moved.lastIndexOf('/') + 1));
+            index.saved(node);
+        }
+        assertFalse(index.contains("admin/doc"));
+        assertFalse(index.contains("admin/doc/sub/b.txt"));
+        assertTrue(index.contains("admin/moved/sub/b.txt"));
+
+        index.removed(index.get("admin/docs/c.txt"));
+        index.removed(index.get("admin/docs"));
+        assertEquals(List.of("admin/doc.txt", "admin/moved"), paths(index.children("admin")));
+    }
+
+    @Test
+    void updatesEveryNodeSharingTheContent() {
+        index.allStorageUpdated("/d/1", "/d/1b", "blocks", 7L);
+        assertEquals("/d/1b", index.get("admin/doc/a.txt").getPhysicalPath());
+        assertEquals("/d/1b", index.get("admin/docs/c.txt").getPhysicalPath());
+        assertEquals("blocks", index.get("admin/docs/c.txt").getStorageFormat());
+
+        // Conditional like the repository update: only when the node still points at the given data
+        long id = index.get("admin/docs/c.txt").getId();
+        index.contentHashUpdated(id, "/d/other", "h");
+        assertNull(index.get("admin/docs/c.txt").getContentHash());
+        index.contentHashUpdated(id, "/d/1b", "h");
+        assertEquals("h", index.get("admin/docs/c.txt").getContentHash());
+    }
+
+    @Test
+    void replaysChangesCommittedWhileLoading() {
+        PathIndex loading = new PathIndex();
+        loading.saved(file("bob/late.txt", "/d/9", 1));
+        assertFalse(loading.isReady());
+        assertFalse(loading.canServe());
+
+        PathIndex.State state = new PathIndex.State();
+        state.add(folder("bob"));
+        loading.install(state);
+        assertTrue(loading.contains("bob/late.txt"));
+    }
+
+    @Test
+    void snapshotRoundTripKeepsEveryColumn() throws IOException {
+        index.allStorageUpdated("/d/1", "/d/1b", "blocks", 7L);
+        byte[] snapshot = snapshot(index, 42);
+
+        PathIndex.State state = new PathIndex.State();
+        assertEquals(42, PathIndex.readSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot)), state));
+        assertEquals(9, state.size());
+        PathIndex loaded = new PathIndex();
+        loaded.install(state);
+
+        assertEquals(index.walk("admin", null, 100), loaded.walk("admin", null, 100));
+        FileNode a = loaded.get("admin/doc/a.txt");
+        assertEquals(CREATED, a.getCreatedAt());
+        assertEquals("blocks", a.getStorageFormat());
+        assertEquals(7L, a.getStoredSize());
+        assertEquals("text/plain", a.getMimeType());
+
+        // The physical path lookup is rebuilt as well
+        loaded.physicalPathsUpdated("/d/1b", "/d/1c");
+        assertEquals("/d/1c", loaded.get("admin/docs/c.txt").getPhysicalPath());
+    }
+
+    @Test
+    void snapshotIsSkippedOnceTheIndexMoved() throws IOException {
+        long changeCount = index.changeCount();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertTrue(index.writeSnapshotIfUnchanged(new DataOutputStream(bytes), 3, changeCount));
+        assertTrue(bytes.size() > 0);
+
+        index.physicalPathsUpdated("/d/3", "/d/3b");
+        ByteArrayOutputStream stale = new ByteArrayOutputStream();
+        assertFalse(index.writeSnapshotIfUnchanged(new DataOutputStream(stale), 3, changeCount));
+        assertEquals(0, stale.size());
+    }
+
+    @Test
+    void rejectsBrokenSnapshots() throws IOException {
+        byte[] snapshot = snapshot(index, 1);
+
+        byte[] cut = Arrays.copyOf(snapshot, snapshot.length / 2);
+        assertThrows(IOException.class, () -> PathIndex.readSnapshot(new DataInputStream(new ByteArrayInputStream(cut)), new PathIndex.State()));
+
+        byte[] foreign = snapshot.clone();
+        foreign[0] ^= 1;
+        assertThrows(IOException.class, () -> PathIndex.readSnapshot(new DataInputStream(new ByteArrayInputStream(foreign)), new PathIndex.State()));
+    }
+
+    // Helper methods
+
+    private static byte[] snapshot(PathIndex index, long generation) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            index.writeSnapshot(out, generation);
+        }
+        return bytes.toByteArray();
+    }
+
+    private FileNode folder(String logicalPath) {
+        FileNode node = node(logicalPath, true);
+        node.setPhysicalPath("virtual");
+        return node;
+    }
+
+    private FileNode file(String logicalPath, String physicalPath, long size) {
+        FileNode node = node(logicalPath, false);
+        node.setPhysicalPath(physicalPath);
+        node.setSize(size);
+        node.setMimeType("text/plain");
+        return node;
+    }
+
+    private FileNode node(String logicalPath, boolean directory) {
+        FileNode node = new FileNode();
+        int slash = logicalPath.lastIndexOf('/');
+        node.setId(++nextId);
+        node.setLogicalPath(logicalPath);
+        node.setParentPath(slash < 0 ? "/" : logicalPath.substring(0, slash));
+        node.setFileName(logicalPath.substring(slash + 1));
+        node.setDirectory(directory);
+        node.setCreatedAt(CREATED);
+        node.setModifiedAt(CREATED);
+        return node;
+    }
+
+    private static List<String> paths(List<FileNode> nodes) {
+        return nodes.stream().map(FileNode::getLogicalPath).toList();
+    }
+}
@@ -0,0 +1,57 @@
+package com.nas_backend.service.file;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ThumbnailServiceTest {
+
+    // Stored pixels, 3 wide and 2 high:  A B C
+    //                                    D E F
+    private static final int[][] STORED = {{'A', 'B', 'C'}, {'D', 'E', 'F'}};
+
+    @Test
+    void uprightImagesAreLeftAlone() {
+        BufferedImage image = stored();
+        assertSame(image, ThumbnailService.orient(image, 1));
+        assertSame(image, ThumbnailService.orient(image, 0)); // Broken tag
+    }
+
+    @Test
+    void everyOrientationEndsUpUpright() {
+        assertPixels(ThumbnailService.orient(stored(), 2), "CBA", "FED");
+        assertPixels(ThumbnailService.orient(stored(), 3), "FED", "CBA");
+        assertPixels(ThumbnailService.orient(stored(), 4), "DEF", "ABC");
+        assertPixels(ThumbnailService.orient(stored(), 5), "AD", "BE", "CF");
+        assertPixels(ThumbnailService.orient(stored(), 6), "DA", "EB", "FC");
+        assertPixels(ThumbnailService.orient(stored(), 7), "FC", "EB", "DA");
+        assertPixels(ThumbnailService.orient(stored(), 8), "CF", "BE", "AD");
+    }
+
+    // Helper methods
+
+    private static BufferedImage stored() {
+        BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                image.setRGB(x, y, STORED[y][x]);
+            }
+        }
+        return image;
+    }
+
+    private static void assertPixels(BufferedImage image, String... rows) {
+        assertEquals(rows[0].length(), image.getWidth());
+        assertEquals(rows.length, image.getHeight());
+        for (int y = 0; y < rows.length; y++) {
+            StringBuilder row = new StringBuilder();
+            for (int x = 0; x < image.getWidth(); x++) {
+                row.append((char) (image.getRGB(x, y) & 0xFF));
+            }
+            assertEquals(rows[y], row.toString(), "row " + y);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.nas_backend.service.file.archive;
+
+import com.nas_backend.exception.FileValidationException;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveReaderTest {
+
+    private static final int BLOCK = 512;
+
+    @Test
+    void readsFilesAndDirectoriesAndSkipsLinks() throws IOException {
+        byte[] content = "hello tar".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "docs/", '5', new byte[0]);
+        entry(tar, "docs/link", '2', new byte[0]);
+        entry(tar, "docs/a.txt", '0', content);
+        entry(tar, "docs/b.txt", '0', new byte[BLOCK + 1]);
+        end(tar);
+
+        try (ArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(tar.toByteArray()))) {
+            ArchiveEntry dir = reader.nextEntry();
+            assertEquals("docs/", dir.name());
+            assertTrue(dir.directory());
+
+            ArchiveEntry file = reader.nextEntry();
+            assertEquals("docs/a.txt", file.name());
+            assertFalse(file.directory());
+            assertEquals(content.length, file.size());
+            assertEquals(Instant.ofEpochSecond(1_700_000_000L), file.modifiedAt());
+            assertArrayEquals(content, reader.entryContent().readAllBytes());
+
+            // Content left unread is skipped together with its padding
+            assertEquals("docs/b.txt", reader.nextEntry().name());
+            assertNull(reader.nextEntry());
+            assertNull(reader.nextEntry());
+        }
+    }
+
+    @Test
+    void takesNamesFromGnuLongNameAndPaxHeaders() throws IOException {
+        String longName = "deep/".repeat(30) + "file.txt";
+        String paxName = "zdjęcia/" + "x".repeat(120) + ".jpg";
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "././@LongLink", 'L', (longName + "\0").getBytes(StandardCharsets.UTF_8));
+        entry(tar, longName.substring(0, 100), '0', new byte[3]);
+        entry(tar, "././@PaxHeader", 'x', pax("path", paxName).getBytes(StandardCharsets.UTF_8));
+        entry(tar, "truncated-name", '0', new byte[4]);
+        entry(tar, "short.txt", '0', new byte[5]); // Back to the plain name
+        end(tar);
+
+        try (ArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertEquals(longName, reader.nextEntry().name());
+            ArchiveEntry pax = reader.nextEntry();
+            assertEquals(paxName, pax.name());
+            assertEquals(4, pax.size());
+            assertEquals("short.txt", reader.nextEntry().name());
+            assertNull(reader.nextEntry());
+        }
+    }
+
+    @Test
+    void rejectsMalformedPaxNumbers() {
+        String[] records = {pax("size", "12x"), pax("size", "-1"), pax("mtime", "yesterday"), pax("mtime", "1e300"), "9999 path=a\n", "2 path=a\n"};
+        for (String record : records) {
+            ByteArrayOutputStream tar = new ByteArrayOutputStream();
+            entry(tar, "././@PaxHeader", 'x', record.getBytes(StandardCharsets.UTF_8));
+            entry(tar, "file.txt", '0', new byte[4]);
+            end(tar);
+
+            assertThrows(FileValidationException.class, () -> {
+                try (ArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(tar.toByteArray()))) {
+                    reader.nextEntry();
+                }
+            }, record);
+        }
+    }
+
+    @Test
+    void toleratesAMissingEndOfArchive() throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "a.txt", '0', new byte[10]);
+
+        try (ArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertEquals("a.txt", reader.nextEntry().name());
+            assertNull(reader.nextEntry());
+        }
+    }
+
+    @Test
+    void rejectsAHeaderWithAWrongChecksum() throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "a.txt", '0', new byte[10]);
+        byte[] bytes = tar.toByteArray();
+        bytes[0] = 'b';
+
+        try (ArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(bytes))) {
+            assertThrows(FileValidationException.class, reader::nextEntry);
+        }
+    }
+
+    @Test
+    void failsOnTruncatedContentAndHeaders() throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        entry(tar, "a.txt", '0', new byte[1000]);
+        byte[] cutInContent = Arrays.copyOf(tar.toByteArray(), BLOCK + 100);
+        byte[] cutInHeader = Arrays.copyOf(tar.toByteArray(), 200);
+
+        try (ArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(cutInContent))) {
+            reader.nextEntry();
+            assertThrows(EOFException.class, () -> reader.entryContent().readAllBytes());
+        }
+        try (ArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(cutInHeader))) {
+            assertThrows(EOFException.class, reader::nextEntry);
+        }
+    }
+
+    @Test
+    void readsZipEntriesFromTheLocalHeaders() throws IOException {
+        byte[] content = "hello zip".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zip)) {
+            out.putNextEntry(new ZipEntry("docs/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("docs/a.txt"));
+            out.write(content);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("docs/b.txt"));
+            out.write(new byte[100]);
+            out.closeEntry();
+        }
+
+        try (ArchiveReader reader = new ZipArchiveReader(new ByteArrayInputStream(zip.toByteArray()))) {
+            ArchiveEntry dir = reader.nextEntry();
+            assertEquals("docs/", dir.name());
+            assertTrue(dir.directory());
+
+            ArchiveEntry file = reader.nextEntry();
+            assertEquals("docs/a.txt", file.name());
+            assertEquals(-1, file.size()); // Deflated entries are streamed, the size follows the data
+            reader.entryContent().close(); // Must not close the archive
+            assertArrayEquals(content, reader.entryContent().readAllBytes());
+
+            assertEquals("docs/b.txt", reader.nextEntry().name());
+            assertNull(reader.nextEntry());
+        }
+    }
+
+    // Helper methods
+
+    private static void entry(ByteArrayOutputStream tar, String name, char type, byte[] data) {
+        byte[] header = new byte[BLOCK];
+        byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(encodedName, 0, header, 0, Math.min(encodedName.length, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 124, 12, data.length);
+        octal(header, 136, 12, 1_700_000_000L);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) checksum += b & 0xFF;
+        octal(header, 148, 7, checksum);
+
+        tar.writeBytes(header);
+        tar.writeBytes(data);
+        tar.writeBytes(new byte[(BLOCK - data.length % BLOCK) % BLOCK]);
+    }
+
+    private static void end(ByteArrayOutputStream tar) {
+        tar.writeBytes(new byte[2 * BLOCK]);
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+    }
+
+    private static String pax(String key, String value) {
+        int body = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = body + Integer.toString(body).length();
+        if (Integer.toString(length).length() != Integer.toString(body).length()) length++;
+        return length + " " + key + "=" + value + "\n";
+    }
+}
@@ -0,0 +1,119 @@
+package com.nas_backend.service.file.archive;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TarArchiveWriterTest {
+
+    private static final Instant MODIFIED = Instant.ofEpochSecond(1_700_000_000L);
+    private static final String LONG_NAME = "folder/" + "ä".repeat(80) + ".bin"; // Needs a PAX header
+
+    private final byte[] small = random(100, 1);
+    private final byte[] aligned = random(1024, 2);
+    private final byte[] big = random(70_000, 3);
+
+    @Test
+    void measuresTheLengthOfTheFullArchive() throws IOException {
+        byte[] full = archive(0, Long.MAX_VALUE, new HashSet<>());
+
+        TarArchiveWriter measuring = TarArchiveWriter.measuring();
+        write(measuring, null);
+        assertEquals(full.length, measuring.position());
+        assertEquals(0, full.length % 512);
+    }
+
+    @Test
+    void everyWindowIsTheSameSliceOfTheFullArchive() throws IOException {
+        byte[] full = archive(0, Long.MAX_VALUE, new HashSet<>());
+        long[] windows = {0, 1, 511, 512, 513, 700, 1536, 5000, 70_000, full.length - 1025, full.length - 1, full.length};
+
+        for (long from : windows) {
+            for (long to : windows) {
+                if (to < from) continue;
+                byte[] slice = archive(from, to, new HashSet<>());
+                assertArrayEquals(Arrays.copyOfRange(full, (int) from, (int) to), slice, "window " + from + "-" + to);
+            }
+        }
+    }
+
+    @Test
+    void opensOnlyTheFilesInsideTheWindow() throws IOException {
+        byte[] full = archive(0, Long.MAX_VALUE, new HashSet<>());
+
+        Set<String> opened = new HashSet<>();
+        archive(full.length - 1024, full.length, opened); // Just the end-of-archive blocks
+        assertTrue(opened.isEmpty());
+
+        archive(0, 1100, opened); // Folder and file header, the start of the first file
+        assertEquals(Set.of("folder/small.txt"), opened);
+    }
+
+    @Test
+    void writesAnArchiveTheReaderUnderstands() throws IOException {
+        byte[] full = archive(0, Long.MAX_VALUE, new HashSet<>());
+
+        try (ArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(full))) {
+            ArchiveEntry folder = reader.nextEntry();
+            assertEquals("folder/", folder.name());
+            assertTrue(folder.directory());
+            assertEquals(MODIFIED, folder.modifiedAt());
+
+            assertEntry(reader, "folder/small.txt", small);
+            assertEntry(reader, "folder/aligned.bin", aligned);
+            assertEntry(reader, LONG_NAME, big);
+            assertNull(reader.nextEntry());
+        }
+    }
+
+    // Helper methods
+
+    private byte[] archive(long from, long to, Set<String> opened) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(new TarArchiveWriter(out, from, to), opened);
+        return out.toByteArray();
+    }
+
+    private void write(TarArchiveWriter writer, Set<String> opened) throws IOException {
+        writer.putDirectory("folder", MODIFIED);
+        putFile(writer, "folder/small.txt", small, opened);
+        putFile(writer, "folder/aligned.bin", aligned, opened);
+        putFile(writer, LONG_NAME, big, opened);
+        writer.finish();
+    }
+
+    private static void putFile(TarArchiveWriter writer, String name, byte[] content, Set<String> opened) throws IOException {
+        writer.putFile(name, MODIFIED, content.length, () -> {
+            if (opened == null) throw new IOException("A measuring writer must not open " + name);
+            opened.add(name);
+            return new ByteArrayInputStream(content);
+        });
+    }
+
+    private static void assertEntry(ArchiveReader reader, String name, byte[] content) throws IOException {
+        ArchiveEntry entry = reader.nextEntry();
+        assertEquals(name, entry.name());
+        assertFalse(entry.directory());
+        assertEquals(content.length, entry.size());
+        assertArrayEquals(content, reader.entryContent().readAllBytes());
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,108 @@
+package com.nas_backend.service.file.archive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipArchiveWriterTest {
+
+    private static final Instant MODIFIED = Instant.ofEpochSecond(1_700_000_000L);
+    private static final long OVER_4_GB = 5L * 1024 * 1024 * 1024;
+
+    private final byte[] photo = random(300_000, 1);
+    private final byte[] notes = "meeting notes\n".repeat(20_000).getBytes();
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void storedAndDeflatedEntriesAreReadOnceAndUnpackIntact() throws IOException {
+        Map<String, Integer> opened = new HashMap<>();
+        Path zip = temp.resolve("download.zip");
+        try (OutputStream out = Files.newOutputStream(zip); ZipArchiveWriter writer = new ZipArchiveWriter(out)) {
+            writer.putDirectory("holiday", MODIFIED);
+            writer.putFile("holiday/photo.jpg", MODIFIED, photo.length, false, source("photo", photo, opened));
+            writer.putFile("holiday/notes.txt", MODIFIED, notes.length, true, source("notes", notes, opened));
+            writer.finish();
+        }
+
+        assertEquals(Map.of("photo", 1, "notes", 1), opened);
+        try (ZipFile file = new ZipFile(zip.toFile())) {
+            assertTrue(file.getEntry("holiday/").isDirectory());
+            ZipEntry stored = file.getEntry("holiday/photo.jpg");
+            assertEquals(ZipEntry.STORED, stored.getMethod());
+            assertEquals(photo.length, stored.getCompressedSize());
+            assertArrayEquals(photo, read(file, stored));
+            ZipEntry deflated = file.getEntry("holiday/notes.txt");
+            assertEquals(ZipEntry.DEFLATED, deflated.getMethod());
+            assertArrayEquals(notes, read(file, deflated));
+        }
+    }
+
+    @Test
+    void filesAnnouncedOver4GbGetZip64SizesInTheLocalHeader() throws IOException {
+        Path zip = temp.resolve("big.zip");
+        try (OutputStream out = Files.newOutputStream(zip); ZipArchiveWriter writer = new ZipArchiveWriter(out)) {
+            writer.putFile("video.mkv", MODIFIED, OVER_4_GB, true, () -> new ByteArrayInputStream(notes));
+            writer.putFile("after.txt", MODIFIED, notes.length, true, () -> new ByteArrayInputStream(notes));
+            writer.finish();
+        }
+
+        byte[] bytes = Files.readAllBytes(zip);
+        assertEquals(45, bytes[4]); // Version needed to extract
+        assertEquals(0x0001, bytes[30 + "video.mkv".length()]); // ZIP64 extra field right after the name
+
+        // The data descriptor has 64 bit sizes to match, right before the next local header
+        int next = indexOf(bytes, new byte[] {'P', 'K', 3, 4}, 1);
+        assertArrayEquals(new byte[] {'P', 'K', 7, 8}, Arrays.copyOfRange(bytes, next - 24, next - 20));
+        try (ZipFile file = new ZipFile(zip.toFile())) {
+            assertArrayEquals(notes, read(file, file.getEntry("video.mkv")));
+            assertArrayEquals(notes, read(file, file.getEntry("after.txt")));
+        }
+    }
+
+    // Helper methods
+
+    private static ZipArchiveWriter.ContentSource source(String name, byte[] data, Map<String, Integer> opened) {
+        return () -> {
+            opened.merge(name, 1, Integer::sum);
+            return new ByteArrayInputStream(data);
+        };
+    }
+
+    private static byte[] read(ZipFile file, ZipEntry entry) throws IOException {
+        try (InputStream in = file.getInputStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            if (Arrays.equals(bytes, i, i + pattern.length, pattern, 0, pattern.length)) return i;
+        }
+        return -1;
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
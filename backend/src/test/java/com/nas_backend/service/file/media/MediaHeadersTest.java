@@ -0,0 +1,189 @@
+package com.nas_backend.service.file.media;
+
+import com.nas_backend.service.file.storage.StoredContent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MediaHeadersTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsAJpegWithExif() throws IOException {
+        MediaProbe probe = probe(jpeg(exif(false, 2)));
+
+        assertEquals(MediaProbe.IMAGE, probe.getKind());
+        assertEquals(640, probe.getWidth());
+        assertEquals(480, probe.getHeight());
+        assertEquals("Canon", probe.getCameraMake());
+        assertEquals(Instant.parse("2024-07-14T18:22:01Z"), probe.getTakenAt());
+    }
+
+    @Test
+    void keepsWhatWasFoundBeforeABrokenStructure() throws IOException {
+        // EXIF claims 65535 entries, the frame header after it is never reached
+        MediaProbe probe = probe(jpeg(exif(false, 0xFFFF)));
+        assertEquals(MediaProbe.IMAGE, probe.getKind());
+        assertNull(probe.getWidth());
+        assertNull(probe.getCameraMake());
+
+        // Cut off in the middle of the EXIF data
+        byte[] jpeg = jpeg(exif(false, 2));
+        probe = probe(Arrays.copyOf(jpeg, 30));
+        assertEquals(MediaProbe.IMAGE, probe.getKind());
+        assertNull(probe.getWidth());
+    }
+
+    @Test
+    void followsAnExifIfdPointingBackAtItsParentOnlyOnce() throws IOException {
+        MediaProbe probe = probe(jpeg(exif(true, 2)));
+        assertEquals("Canon", probe.getCameraMake());
+        assertNull(probe.getTakenAt());
+        assertEquals(640, probe.getWidth());
+    }
+
+    @Test
+    void readsTruncatedPngs() throws IOException {
+        byte[] png = png(1920, 1080);
+        assertEquals(1920, probe(png).getWidth());
+        assertEquals(1080, probe(png).getHeight());
+
+        MediaProbe cut = probe(Arrays.copyOf(png, 18)); // Signature and half of IHDR
+        assertEquals(MediaProbe.IMAGE, cut.getKind());
+        assertNull(cut.getWidth());
+    }
+
+    @Test
+    void readsAMovieHeader() throws IOException {
+        MediaProbe probe = probe(movie(true));
+
+        assertEquals(MediaProbe.VIDEO, probe.getKind());
+        assertEquals(1280, probe.getWidth());
+        assertEquals(720, probe.getHeight());
+        assertEquals(5000, probe.getDurationMs());
+    }
+
+    @Test
+    void rejectsHostileBoxes() throws IOException {
+        // Track header cut off at the end of the file: nothing was found yet, so the file is reported as broken
+        assertThrows(MalformedHeaderException.class, () -> probe(movie(false)));
+
+        // moov claims to be larger than the file, a 64-bit size points far beyond it, a box is smaller than its header
+        assertNull(probe(concat(ftyp(), box32(1_000_000, "moov", new byte[8]))));
+        assertNull(probe(concat(ftyp(), u32(1), ascii("moov"), u64(Long.MAX_VALUE), new byte[8])));
+        assertNull(probe(concat(ftyp(), u32(4), ascii("moov"), new byte[8])));
+
+        // Thousands of empty boxes in a row end the walk without a result
+        ByteArrayOutputStream many = new ByteArrayOutputStream();
+        many.writeBytes(ftyp());
+        for (int i = 0; i < 20_000; i++) many.writeBytes(box("free"));
+        assertNull(probe(many.toByteArray()));
+    }
+
+    @Test
+    void ignoresUnknownAndEmptyFiles() throws IOException {
+        assertNull(probe(new byte[0]));
+        assertNull(probe("just some text".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    // Helper methods
+
+    private MediaProbe probe(byte[] content) throws IOException {
+        Path file = Files.createTempFile(dir, "media", null);
+        Files.write(file, content);
+        return MediaHeaders.probe(StoredContent.of(file.toString()));
+    }
+
+    // SOI, APP1 with the EXIF data, a baseline frame header and the start of the scan
+    private static byte[] jpeg(byte[] exif) {
+        byte[] app1 = concat(new byte[]{(byte) 0xFF, (byte) 0xE1}, u16(2 + 6 + exif.length), new byte[]{'E', 'x', 'i', 'f', 0, 0}, exif);
+        byte[] frame = concat(new byte[]{(byte) 0xFF, (byte) 0xC0}, u16(17), new byte[]{8}, u16(480), u16(640), new byte[]{3}, new byte[9]);
+        return concat(new byte[]{(byte) 0xFF, (byte) 0xD8}, app1, frame, new byte[]{(byte) 0xFF, (byte) 0xDA}, new byte[16]);
+    }
+
+    // Little endian TIFF: IFD0 with Make and the Exif IFD pointer, the Exif IFD with DateTimeOriginal.
+    // A looping Exif IFD points back at IFD0, ifd0Entries is what IFD0 claims to hold.
+    private static byte[] exif(boolean looping, int ifd0Entries) {
+        ByteBuffer tiff = ByteBuffer.allocate(82).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put("II".getBytes(StandardCharsets.US_ASCII)).putShort((short) 42).putInt(8);
+        tiff.putShort((short) ifd0Entries);
+        tiff.putShort((short) 0x010F).putShort((short) 2).putInt(6).putInt(38); // Make
+        tiff.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(looping ? 8 : 44); // Exif IFD
+        tiff.putInt(0); // No next IFD
+        tiff.put("Canon\0".getBytes(StandardCharsets.US_ASCII));
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x9003).putShort((short) 2).putInt(20).putInt(62); // DateTimeOriginal
+        tiff.putInt(0);
+        tiff.put("2024:07:14 18:22:01\0".getBytes(StandardCharsets.US_ASCII));
+        return tiff.array();
+    }
+
+    private static byte[] png(int width, int height) {
+        byte[] ihdr = concat(u32(width), u32(height), new byte[]{8, 2, 0, 0, 0});
+        return concat(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'},
+                u32(ihdr.length), ascii("IHDR"), ihdr, u32(0),
+                u32(0), ascii("IEND"), u32(0));
+    }
+
+    // ftyp, then moov with a movie header and one video track. A cut movie ends inside the track header.
+    private static byte[] movie(boolean complete) {
+        byte[] mvhd = concat(new byte[4], u32(0), u32(0), u32(1000), u32(5000), new byte[80]); // Version 0, timescale, duration
+        byte[] tkhd = complete
+                ? concat(new byte[40], u32(0x00010000), new byte[32], u32(1280 << 16), u32(720 << 16)) // Identity matrix
+                : new byte[10];
+        byte[] hdlr = concat(new byte[8], ascii("vide"), new byte[12]);
+        byte[] trak = complete ? box("trak", box("tkhd", tkhd), box("mdia", box("hdlr", hdlr))) : box("trak", box("tkhd", tkhd));
+        return concat(ftyp(), box("moov", box("mvhd", mvhd), trak));
+    }
+
+    private static byte[] ftyp() {
+        return box("ftyp", ascii("isom"), u32(0));
+    }
+
+    private static byte[] box(String type, byte[]... parts) {
+        byte[] body = concat(parts);
+        return box32(8 + body.length, type, body);
+    }
+
+    private static byte[] box32(long size, String type, byte[] body) {
+        return concat(u32(size), ascii(type), body);
+    }
+
+    private static byte[] u16(int value) {
+        return new byte[]{(byte) (value >> 8), (byte) value};
+    }
+
+    private static byte[] u32(long value) {
+        return ByteBuffer.allocate(4).putInt((int) value).array();
+    }
+
+    private static byte[] u64(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) out.writeBytes(part);
+        return out.toByteArray();
+    }
+}
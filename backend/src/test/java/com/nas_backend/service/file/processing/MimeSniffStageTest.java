@@ -0,0 +1,44 @@
+package com.nas_backend.service.file.processing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MimeSniffStageTest {
+
+    private static final byte[] MP3_FRAME = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x64, 0x00, 0x00, 0x00, 0x00};
+
+    @Test
+    void utf16TextWithByteOrderMarkIsText() {
+        assertNull(MimeSniffStage.detect("text/csv", "export.csv", utf16("name;size\r\nphoto.jpg;1024\r\n", true)));
+        assertEquals("text/plain", MimeSniffStage.detect(null, "notes", utf16("Einkaufsliste: Äpfel", true)));
+        assertEquals("text/plain", MimeSniffStage.detect("application/octet-stream", null, utf16("big endian", false)));
+    }
+
+    @Test
+    void bareFrameSyncOnlyDecidesForFilesWithoutAType() {
+        assertEquals("audio/mpeg", MimeSniffStage.detect(null, "track", MP3_FRAME));
+        assertNull(MimeSniffStage.detect("audio/mpeg", "track.mp3", MP3_FRAME));
+        assertNull(MimeSniffStage.detect("application/x-custom", "data.bin", MP3_FRAME));
+    }
+
+    @Test
+    void magicNumbersStillOverruleTheClaim() {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0x00};
+        assertEquals("image/png", MimeSniffStage.detect("image/jpeg", "photo.jpg", png));
+    }
+
+    // Helper methods
+
+    private static byte[] utf16(String text, boolean littleEndian) {
+        byte[] bom = littleEndian ? new byte[] {(byte) 0xFF, (byte) 0xFE} : new byte[] {(byte) 0xFE, (byte) 0xFF};
+        byte[] body = text.getBytes(littleEndian ? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE);
+        byte[] content = new byte[bom.length + body.length];
+        System.arraycopy(bom, 0, content, 0, bom.length);
+        System.arraycopy(body, 0, content, bom.length, body.length);
+        return content;
+    }
+}
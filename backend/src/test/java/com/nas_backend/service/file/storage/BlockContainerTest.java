@@ -0,0 +1,221 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.exception.FileValidationException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockContainerTest {
+
+    private static final String KEY_ID = "test-key";
+    private static final int BLOCK_SIZE = BlockContainer.DEFAULT_BLOCK_SIZE;
+
+    @TempDir
+    Path dir;
+
+    private byte[] key = random(32, 1);
+
+    @BeforeEach
+    void registerKeys() {
+        BlockContainer.setKeyProvider(keyId -> {
+            if (!keyId.equals(KEY_ID)) throw new IOException("Unknown key " + keyId);
+            return new SecretKeySpec(key, "AES");
+        });
+    }
+
+    @AfterEach
+    void clearKeys() {
+        BlockContainer.setKeyProvider(null);
+    }
+
+    @Test
+    void roundTripsCompressedContent() throws Exception {
+        byte[] content = compressible(3 * BLOCK_SIZE + 1234);
+        Path file = dir.resolve("compressed");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        BlockContainer.WriteResult result = BlockContainer.write(new ByteArrayInputStream(content), file, content.length, Long.MAX_VALUE, digest, true, null);
+
+        assertEquals(content.length, result.logicalSize());
+        assertEquals(Files.size(file), result.storedSize());
+        assertTrue(result.storedSize() < content.length / 2);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(content), digest.digest());
+        assertArrayEquals(content, readStream(file));
+        assertRandomReads(file, content);
+    }
+
+    @Test
+    void roundTripsEncryptedContent() throws IOException {
+        byte[] content = random(2 * BLOCK_SIZE + 77, 2);
+        Path file = dir.resolve("encrypted");
+
+        BlockContainer.write(new ByteArrayInputStream(content), file, -1, Long.MAX_VALUE, null, true, KEY_ID);
+
+        byte[] stored = Files.readAllBytes(file);
+        assertFalse(indexOf(stored, Arrays.copyOf(content, 64)) >= 0); // No plain text on disk
+        assertArrayEquals(content, readStream(file));
+        assertRandomReads(file, content);
+    }
+
+    @Test
+    void roundTripsEmptyContent() throws IOException {
+        Path file = dir.resolve("empty");
+        BlockContainer.write(new ByteArrayInputStream(new byte[0]), file, 0, Long.MAX_VALUE, null, true, KEY_ID);
+
+        try (ContentReader reader = open(file)) {
+            assertEquals(0, reader.size());
+            assertEquals(-1, reader.read(0, ByteBuffer.allocate(10)));
+        }
+    }
+
+    @Test
+    void readsAContainerInsideALargerFile() throws IOException {
+        byte[] content = random(BLOCK_SIZE + 10, 3);
+        Path file = dir.resolve("container");
+        BlockContainer.WriteResult result = BlockContainer.write(new ByteArrayInputStream(content), file, -1, Long.MAX_VALUE, null, false, null);
+
+        // Like a pack file: other data before and after the container
+        Path pack = dir.resolve("pack");
+        byte[] padding = random(1000, 4);
+        Files.write(pack, padding);
+        Files.write(pack, Files.readAllBytes(file), StandardOpenOption.APPEND);
+        Files.write(pack, padding, StandardOpenOption.APPEND);
+
+        try (ContentReader reader = BlockContainer.open(FileChannel.open(pack), padding.length, result.storedSize())) {
+            ByteBuffer buffer = ByteBuffer.allocate(content.length);
+            while (buffer.hasRemaining() && reader.read(buffer.position(), buffer) > 0) {
+                // Keep reading
+            }
+            assertArrayEquals(content, buffer.array());
+        }
+    }
+
+    @Test
+    void detectsModifiedEncryptedBlocks() throws IOException {
+        byte[] content = random(2 * BLOCK_SIZE, 5);
+        Path file = dir.resolve("tampered");
+        BlockContainer.write(new ByteArrayInputStream(content), file, -1, Long.MAX_VALUE, null, false, KEY_ID);
+
+        // Flip one bit in the middle of the first block's data
+        byte[] stored = Files.readAllBytes(file);
+        stored[100] ^= 1;
+        Files.write(file, stored);
+
+        try (ContentReader reader = open(file)) {
+            IOException e = assertThrows(IOException.class, () -> reader.read(0, ByteBuffer.allocate(10)));
+            assertTrue(e.getMessage().contains("authentication"), e.getMessage());
+            // The other block is still fine
+            assertEquals(10, reader.read(BLOCK_SIZE, ByteBuffer.allocate(10)));
+        }
+    }
+
+    @Test
+    void rejectsTheWrongKey() throws IOException {
+        byte[] content = random(1000, 6);
+        Path file = dir.resolve("other-key");
+        BlockContainer.write(new ByteArrayInputStream(content), file, -1, Long.MAX_VALUE, null, false, KEY_ID);
+
+        key = random(32, 7);
+        try (ContentReader reader = open(file)) {
+            assertThrows(IOException.class, () -> reader.read(0, ByteBuffer.allocate(10)));
+        }
+    }
+
+    @Test
+    void rejectsTruncatedContainers() throws IOException {
+        byte[] content = random(2 * BLOCK_SIZE, 8);
+        Path file = dir.resolve("truncated");
+        BlockContainer.write(new ByteArrayInputStream(content), file, -1, Long.MAX_VALUE, null, false, KEY_ID);
+
+        byte[] stored = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(stored, stored.length - 10));
+        assertThrows(IOException.class, () -> open(file).close());
+
+        Files.write(file, Arrays.copyOf(stored, 20));
+        assertThrows(IOException.class, () -> open(file).close());
+    }
+
+    @Test
+    void enforcesTheLengthLimits() throws IOException {
+        byte[] content = random(1000, 9);
+
+        Path tooBig = dir.resolve("too-big");
+        assertThrows(FileValidationException.class,
+                () -> BlockContainer.write(new ByteArrayInputStream(content), tooBig, -1, 999, null, false, null));
+        assertFalse(Files.exists(tooBig));
+
+        Path incomplete = dir.resolve("incomplete");
+        assertThrows(IOException.class,
+                () -> BlockContainer.write(new ByteArrayInputStream(content), incomplete, 2000, Long.MAX_VALUE, null, false, null));
+        assertFalse(Files.exists(incomplete));
+    }
+
+    // Helper methods
+
+    private static ContentReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file);
+        return BlockContainer.open(channel, 0, channel.size());
+    }
+
+    private static byte[] readStream(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file);
+        try (InputStream in = BlockContainer.openStream(channel, 0, channel.size())) {
+            return in.readAllBytes();
+        }
+    }
+
+    // Reads across block boundaries, at the very end and past it
+    private static void assertRandomReads(Path file, byte[] content) throws IOException {
+        try (ContentReader reader = open(file)) {
+            assertEquals(content.length, reader.size());
+            long[] positions = {0, 1, BLOCK_SIZE - 5, BLOCK_SIZE, 2L * BLOCK_SIZE - 1, content.length - 3};
+            for (long position : positions) {
+                ByteBuffer buffer = ByteBuffer.allocate(10);
+                int read = reader.read(position, buffer);
+                assertTrue(read > 0);
+                assertArrayEquals(Arrays.copyOfRange(content, (int) position, (int) position + read), Arrays.copyOf(buffer.array(), read));
+            }
+            assertEquals(-1, reader.read(content.length, ByteBuffer.allocate(10)));
+        }
+    }
+
+    private static byte[] compressible(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = (byte) ("abcdefgh".charAt(i % 8) + (i / 4096) % 3);
+        return bytes;
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            if (Arrays.equals(haystack, i, i + needle.length, needle, 0, needle.length)) return i;
+        }
+        return -1;
+    }
+}
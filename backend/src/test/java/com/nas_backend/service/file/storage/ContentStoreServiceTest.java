@@ -0,0 +1,224 @@
+package com.nas_backend.service.file.storage;
+
+import com.nas_backend.model.config.AppConfig;
+import com.nas_backend.model.config.StorageConfig;
+import com.nas_backend.model.entity.ContentBlob;
+import com.nas_backend.repository.ContentBlobRepository;
+import com.nas_backend.repository.FileNodeRepository;
+import com.nas_backend.service.AppConfigService;
+import com.nas_backend.service.file.FileIndexService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ContentStoreServiceTest {
+
+    private static final String CONTENT = "the same holiday photo, uploaded twice";
+
+    @TempDir
+    Path drive;
+
+    private final Map<String, ContentBlob> blobs = new ConcurrentHashMap<>(); // The content_blobs table
+    private ContentStoreService store;
+    private TransactionTemplate transactions;
+
+    @BeforeEach
+    void createStore() throws IOException {
+        StorageConfig storage = new StorageConfig();
+        storage.setDeduplication(true);
+        AppConfig config = new AppConfig();
+        config.setStorage(storage);
+        AppConfigService configService = mock(AppConfigService.class);
+        when(configService.getConfig()).thenReturn(config);
+
+        DurabilityService durabilityService = mock(DurabilityService.class);
+        doAnswer(call -> {
+            Path target = call.getArgument(1);
+            Files.createDirectories(target.getParent());
+            Files.move(call.<Path>getArgument(0), target, StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        }).when(durabilityService).moveIntoPlace(any(), any(), anyBoolean());
+
+        InMemoryTransactionManager transactionManager = new InMemoryTransactionManager();
+        transactions = new TransactionTemplate(transactionManager);
+        store = new ContentStoreService(blobRepository(), mock(FileNodeRepository.class), mock(FileIndexService.class),
+                mock(StreamingFileWriter.class), configService, mock(FileCloner.class), mock(PackStore.class),
+                mock(EncryptionKeyService.class), durabilityService, mock(BlockCacheService.class), transactionManager);
+    }
+
+    @Test
+    void contentStoredAgainWhileTheLastReferenceIsReleasedKeepsItsData() throws Exception {
+        ContentStoreService.StoredFile first = upload();
+        Path blobPath = Paths.get(first.physicalPath());
+
+        AtomicReference<ContentStoreService.StoredFile> second = new AtomicReference<>();
+        transactions.executeWithoutResult(status -> {
+            // Another upload of the same content runs right after the commit, before the data of the old blob is gone
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    Thread upload = new Thread(() -> {
+                        try {
+                            second.set(upload());
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+                    upload.start();
+                    try {
+                        upload.join();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            store.release(first.physicalPath());
+        });
+
+        // Same deterministic path, registered anew, and the data is still there
+        assertEquals(blobPath.toString(), second.get().physicalPath());
+        assertEquals(blobPath.toString(), blobs.get(first.digest()).getPhysicalPath());
+        assertEquals(CONTENT, Files.readString(blobPath));
+        assertEquals(1, filesNextTo(blobPath));
+    }
+
+    @Test
+    void releasedBlobDataComesBackOnRollback() throws Exception {
+        ContentStoreService.StoredFile stored = upload();
+        Path blobPath = Paths.get(stored.physicalPath());
+
+        transactions.executeWithoutResult(status -> {
+            store.release(stored.physicalPath());
+            assertFalse(Files.exists(blobPath));
+            status.setRollbackOnly();
+        });
+
+        assertEquals(CONTENT, Files.readString(blobPath));
+        assertEquals(1, filesNextTo(blobPath));
+    }
+
+    @Test
+    void releasedBlobDataIsDeletedAfterTheCommit() throws Exception {
+        ContentStoreService.StoredFile stored = upload();
+        Path blobPath = Paths.get(stored.physicalPath());
+
+        store.release(stored.physicalPath());
+
+        assertNull(blobs.get(stored.digest()));
+        assertFalse(Files.exists(blobPath));
+        assertEquals(0, filesNextTo(blobPath));
+    }
+
+    // Helper methods
+
+    private ContentStoreService.StoredFile upload() throws IOException {
+        Path staged = drive.resolve(".staging").resolve(UUID.randomUUID() + ".upload");
+        Files.createDirectories(staged.getParent());
+        Files.writeString(staged, CONTENT, StandardCharsets.UTF_8);
+        return store.adopt(staged, drive.toString(), drive.resolve("admin").resolve("photo.jpg"), "admin");
+    }
+
+    private static long filesNextTo(Path blobPath) throws IOException {
+        try (Stream<Path> files = Files.list(blobPath.getParent())) {
+            return files.count();
+        }
+    }
+
+    // content_blobs in a map, the statements behave like their JPQL
+    private ContentBlobRepository blobRepository() {
+        ContentBlobRepository repository = mock(ContentBlobRepository.class);
+        when(repository.findById(anyString())).thenAnswer(call -> Optional.ofNullable(blobs.get(call.<String>getArgument(0))));
+        when(repository.findByPhysicalPath(anyString())).thenAnswer(call -> blobs.values().stream()
+                .filter(blob -> blob.getPhysicalPath().equals(call.getArgument(0))).findFirst());
+        when(repository.save(any(ContentBlob.class))).thenAnswer(call -> {
+            ContentBlob blob = call.getArgument(0);
+            blobs.put(blob.getDigest(), blob);
+            return blob;
+        });
+        doAnswer(call -> blobs.remove(call.<ContentBlob>getArgument(0).getDigest())).when(repository).delete(any(ContentBlob.class));
+        when(repository.incrementRefCount(anyString())).thenAnswer(call -> {
+            ContentBlob blob = blobs.get(call.<String>getArgument(0));
+            if (blob == null) return 0;
+            blob.setRefCount(blob.getRefCount() + 1);
+            return 1;
+        });
+        when(repository.decrementRefCount(anyString())).thenAnswer(call -> {
+            ContentBlob blob = blobs.get(call.<String>getArgument(0));
+            if (blob == null || blob.getRefCount() <= 1) return 0;
+            blob.setRefCount(blob.getRefCount() - 1);
+            return 1;
+        });
+        return repository;
+    }
+
+    // Transactions without a database: nested ones join the outer one, synchronizations run as in production
+    private static final class InMemoryTransactionManager extends AbstractPlatformTransactionManager {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient ThreadLocal<Boolean> active = ThreadLocal.withInitial(() -> false);
+
+        @Override
+        protected Object doGetTransaction() {
+            return active.get();
+        }
+
+        @Override
+        protected boolean isExistingTransaction(Object transaction) {
+            return (Boolean) transaction;
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+            active.set(true);
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doSetRollbackOnly(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doCleanupAfterCompletion(Object transaction) {
+            active.set(false);
+        }
+    }
+}